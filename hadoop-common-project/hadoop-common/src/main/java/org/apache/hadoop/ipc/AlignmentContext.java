@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * Carries a state id, such as a transaction id, between the servers and the
+ * clients in the RPC headers. A server adds its current state to every
+ * response, and a client sends the last state it has seen with every
+ * request, so that a server which is behind can tell that the client has
+ * seen a newer state. The state id of a call is available to the server
+ * through {@link Server#getClientStateId()}.
+ *
+ * The server side is set with {@link Server#setAlignmentContext}, and the
+ * client side with {@link Client#setAlignmentContext} for the calls made by
+ * the current thread.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public interface AlignmentContext {
+
+  /**
+   * Server side: add the current state of the server to a response.
+   * @param header the header of the response being built
+   */
+  void updateResponseState(RpcResponseHeaderProto.Builder header);
+
+  /**
+   * Client side: learn the state of the server from a response. This is
+   * called before the caller of the RPC gets the response.
+   * @param header the header of the response
+   */
+  void receiveResponseState(RpcResponseHeaderProto header);
+
+  /**
+   * Client side: add the last state seen by the client to a request.
+   * @param header the header of the request being built
+   */
+  void updateRequestState(RpcRequestHeaderProto.Builder header);
+}
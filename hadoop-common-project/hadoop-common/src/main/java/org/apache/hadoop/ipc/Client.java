@@ -115,6 +115,22 @@ public class Client {
   private static final ThreadLocal<Integer> callId = new ThreadLocal<Integer>();
   private static final ThreadLocal<Integer> retryCount = new ThreadLocal<Integer>();
 
+  private static final ThreadLocal<AlignmentContext> alignmentContext =
+      new ThreadLocal<AlignmentContext>();
+
+  /**
+   * Set the alignment context of the calls made by the current thread, or
+   * null to stop aligning them.
+   */
+  public static void setAlignmentContext(AlignmentContext context) {
+    alignmentContext.set(context);
+  }
+
+  /** @return the alignment context of the calls of the current thread. */
+  public static AlignmentContext getAlignmentContext() {
+    return alignmentContext.get();
+  }
+
   /** Set call id and retry count for the next call. */
   public static void setCallIdAndRetryCount(int cid, int rc) {
     Preconditions.checkArgument(cid != RpcConstants.INVALID_CALL_ID);
@@ -318,11 +334,13 @@ static class Call {
     Writable rpcResponse;       // null if rpc has error
     IOException error;          // exception, null if success
     final RPC.RpcKind rpcKind;      // Rpc EngineKind
+    final AlignmentContext alignmentContext; // null if the call isn't aligned
     boolean done;               // true when call is done
 
     private Call(RPC.RpcKind rpcKind, Writable param) {
       this.rpcKind = rpcKind;
       this.rpcRequest = param;
+      this.alignmentContext = Client.alignmentContext.get();
 
       final Integer id = callId.get();
       if (id == null) {
@@ -1022,7 +1040,7 @@ public void sendRpcRequest(final Call call)
       final DataOutputBuffer d = new DataOutputBuffer();
       RpcRequestHeaderProto header = ProtoUtil.makeRpcRequestHeader(
           call.rpcKind, OperationProto.RPC_FINAL_PACKET, call.id, call.retry,
-          clientId);
+          clientId, call.alignmentContext);
       header.writeDelimitedTo(d);
       call.rpcRequest.write(d);
 
@@ -1097,6 +1115,10 @@ private void receiveRpcResponse() {
           LOG.debug(getName() + " got value #" + callId);
 
         Call call = calls.get(callId);
+        if (call != null && call.alignmentContext != null) {
+          // before the caller sees the response
+          call.alignmentContext.receiveResponseState(header);
+        }
         RpcStatusProto status = header.getStatus();
         if (status == RpcStatusProto.SUCCESS) {
           Writable value = ReflectionUtils.newInstance(valueClass, conf);
@@ -122,6 +122,7 @@
 import org.apache.htrace.TraceScope;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.Message;
@@ -385,6 +386,16 @@ public static UserGroupInformation getRemoteUser() {
         : null;
   }
  
+  /**
+   * @return the state id sent by the client of the current call, or
+   * {@link RpcConstants#INVALID_STATE_ID} if it did not send one.
+   * @see AlignmentContext
+   */
+  public static long getClientStateId() {
+    Call call = CurCall.get();
+    return call != null ? call.clientStateId : RpcConstants.INVALID_STATE_ID;
+  }
+
   /** Return true if the invocation was through an RPC.
    */
   public static boolean isRpcInvocation() {
@@ -415,6 +426,9 @@ public static boolean isRpcInvocation() {
   volatile private boolean running = true;         // true while server runs
   private CallQueueManager<Call> callQueue;
 
+  // adds the state of the server to the responses, if any
+  private volatile AlignmentContext alignmentContext;
+
   // maintains the set of client connections and handles idle timeouts
   private ConnectionManager connectionManager;
   private Listener listener = null;
@@ -617,6 +631,20 @@ public static class Call implements Schedulable {
     private final byte[] clientId;
     private final Span traceSpan; // the tracing span on the server side
     private final CallerContext callerContext; // the call context
+    private long clientStateId = RpcConstants.INVALID_STATE_ID;
+    // number of parties the response waits for: the handler, plus one if
+    // the response was deferred. Negative once the response was aborted.
+    private final AtomicInteger responseWaitCount = new AtomicInteger(1);
+    private volatile boolean deferredResponse = false;
+    private long deferredTime;            // monotonic time of deferral
+    // outcome of the handler, or error of the abort, kept until a deferred
+    // response is sent. Guarded by the call, and no longer written once the
+    // response wait count drops to zero or below.
+    private RpcStatusProto returnStatus;
+    private RpcErrorCodeProto detailedErr;
+    private Writable returnValue;
+    private String errorClass;
+    private String error;
 
     public Call(int id, int retryCount, Writable param, 
         Connection connection) {
@@ -654,6 +682,83 @@ public void setResponse(ByteBuffer response) {
       this.rpcResponse = response;
     }
 
+    /**
+     * Defer the response of this call until {@link #sendResponse()} or
+     * {@link #abortResponse(Throwable)} is invoked, typically from another
+     * thread. The handler is released as soon as the call returns, and the
+     * return value or exception of the call becomes the response once the
+     * deferral is completed. Must be called by the handler processing the
+     * call, at most once.
+     */
+    public void postponeResponse() {
+      Preconditions.checkState(!deferredResponse,
+          "Response of %s is already deferred", this);
+      int count = responseWaitCount.incrementAndGet();
+      assert count > 1 : "response has already been sent";
+      deferredResponse = true;
+      deferredTime = Time.monotonicNow();
+    }
+
+    /** @return true if {@link #postponeResponse()} was called. */
+    public boolean isResponseDeferred() {
+      return deferredResponse;
+    }
+
+    /**
+     * Complete a deferred response. The response is sent through the
+     * responder once the handler has finished the call as well.
+     * @throws IOException if the response could not be queued
+     * @throws IllegalStateException if the response was not deferred, as the
+     *         handler sends it then
+     */
+    public void sendResponse() throws IOException {
+      Preconditions.checkState(deferredResponse,
+          "Response of %s is not deferred", this);
+      if (responseWaitCount.decrementAndGet() == 0) {
+        connection.sendDeferredResponse(this);
+      }
+    }
+
+    /**
+     * Complete a deferred response with an error instead of the outcome of
+     * the call. Has no effect if the response was already sent or aborted.
+     * @param t the error to send to the client
+     * @throws IOException if the response could not be queued
+     */
+    public void abortResponse(Throwable t) throws IOException {
+      synchronized (this) {
+        if (responseWaitCount.getAndSet(-1) <= 0) {
+          return;
+        }
+        // the handler may still be running, it does not store its outcome
+        // past this point
+        storeResult(RpcStatusProto.ERROR, RpcErrorCodeProto.ERROR_APPLICATION,
+            null, t.getClass().getName(), StringUtils.stringifyException(t));
+      }
+      connection.sendDeferredResponse(this);
+    }
+
+    /**
+     * Store the outcome of the handler for the deferred response, unless the
+     * response was aborted meanwhile.
+     */
+    private synchronized void setResult(RpcStatusProto status,
+        RpcErrorCodeProto erCode, Writable value, String errorClass,
+        String error) {
+      if (responseWaitCount.get() > 0) {
+        storeResult(status, erCode, value, errorClass, error);
+      }
+    }
+
+    private void storeResult(RpcStatusProto status, RpcErrorCodeProto erCode,
+        Writable value, String errorClass, String error) {
+      this.returnStatus = status;
+      this.detailedErr = erCode;
+      this.returnValue = value;
+      this.errorClass = errorClass;
+      this.error = error;
+    }
+
     // For Schedulable
     @Override
     public UserGroupInformation getUserGroupInformation() {
@@ -1348,6 +1453,23 @@ private void decRpcCount() {
     private void incRpcCount() {
       rpcCount.incrementAndGet();
     }
+
+    /* Send the response of a deferred call from the completing thread */
+    private void sendDeferredResponse(Call call) throws IOException {
+      ByteArrayOutputStream buf =
+          new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE);
+      synchronized (responseQueue) {
+        // as in Handler, the response has to be set up and queued together
+        // since SASL wrapping enforces message ordering.
+        setupResponse(buf, call, call.returnStatus, call.detailedErr,
+            call.returnValue, call.errorClass, call.error);
+        // the handler's outcome is no longer needed
+        call.returnValue = null;
+        responder.doRespond(call);
+      }
+      rpcMetrics.addDeferredRpcProcessingTime(
+          Time.monotonicNow() - call.deferredTime);
+    }
     
     private UserGroupInformation getAuthorizedUgi(String authorizedId)
         throws InvalidToken, AccessControlException {
@@ -2003,6 +2125,9 @@ private void processRpcRequest(RpcRequestHeaderProto header,
       Call call = new Call(header.getCallId(), header.getRetryCount(),
           rpcRequest, this, ProtoUtil.convert(header.getRpcKind()),
           header.getClientId().toByteArray(), traceSpan, callerContext);
+      if (header.hasStateId()) {
+        call.clientStateId = header.getStateId();
+      }
 
       if (callQueue.isClientBackoffEnabled()) {
         // if RPC queue is full, we will ask the RPC client to back off by
@@ -2232,6 +2357,14 @@ public Writable run() throws Exception {
             }
           }
           CurCall.set(null);
+          if (call.isResponseDeferred()) {
+            // the response is sent by whoever completes the call last
+            rpcMetrics.incrDeferredRpc();
+            call.setResult(returnStatus, detailedErr, value, errorClass,
+                error);
+            call.sendResponse();
+            continue;
+          }
           synchronized (call.connection.responseQueue) {
             // setupResponse() needs to be sync'ed together with 
             // responder.doResponse() since setupResponse may use
@@ -2479,6 +2612,10 @@ private void setupResponse(ByteArrayOutputStream responseBuf,
     headerBuilder.setRetryCount(call.retryCount);
     headerBuilder.setStatus(status);
     headerBuilder.setServerIpcVersionNum(CURRENT_VERSION);
+    final AlignmentContext context = alignmentContext;
+    if (context != null) {
+      context.updateResponseState(headerBuilder);
+    }
 
     if (status == RpcStatusProto.SUCCESS) {
       RpcResponseHeaderProto header = headerBuilder.build();
@@ -2600,6 +2737,14 @@ Configuration getConf() {
   /** Sets the socket buffer size used for responding to RPCs */
   public void setSocketSendBufSize(int size) { this.socketSendBufferSize = size; }
 
+  /**
+   * Set the context adding the state of the server to every response.
+   * @see AlignmentContext
+   */
+  public void setAlignmentContext(AlignmentContext alignmentContext) {
+    this.alignmentContext = alignmentContext;
+  }
+
   /** Starts the service.  Must be called before any calls will be handled. */
   public synchronized void start() {
     responder.start();
@@ -99,6 +99,10 @@ public static RpcMetrics create(Server server, Configuration conf) {
   MutableCounterLong rpcClientBackoff;
   @Metric("Number of Slow RPC calls")
   MutableCounterLong rpcSlowCalls;
+  @Metric("Number of calls with a deferred response")
+  MutableCounterLong rpcDeferredCalls;
+  @Metric("Time from deferring a response to sending it")
+  MutableRate deferredRpcProcessingTime;
 
   @Metric("Number of open connections") public int numOpenConnections() {
     return server.getNumOpenConnections();
@@ -211,6 +215,29 @@ public void incrClientBackoff() {
   public  void incrSlowRpc() {
     rpcSlowCalls.incr();
   }
+  /**
+   * One call whose response was deferred by the handler.
+   */
+  public void incrDeferredRpc() {
+    rpcDeferredCalls.incr();
+  }
+
+  /**
+   * Add a deferred call completion time sample
+   * @param deferredTime time from deferring the response to sending it
+   */
+  public void addDeferredRpcProcessingTime(long deferredTime) {
+    deferredRpcProcessingTime.add(deferredTime);
+  }
+
+  /**
+   * Returns the number of calls whose response was deferred.
+   * @return long
+   */
+  public long getRpcDeferredCalls() {
+    return rpcDeferredCalls.value();
+  }
+
   /**
    * Returns a MutableRate Counter.
    * @return Mutable Rate
@@ -48,4 +48,10 @@ public long now() {
    * @return a monotonic clock that counts in milliseconds.
    */
   public long monotonicNow() { return Time.monotonicNow(); }
+
+  /**
+   * Same as {@link #monotonicNow()} but returns its result in nanoseconds.
+   * @return a monotonic clock that counts in nanoseconds.
+   */
+  public long monotonicNowNanos() { return Time.monotonicNowNanos(); }
 }
@@ -44,9 +44,16 @@
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -236,6 +243,173 @@ public void testSerial() throws IOException, InterruptedException {
     internalTestSerial(3, true, 2, 5, 10);
   }
 
+  /**
+   * Calls whose response is deferred release their handler, and are
+   * answered in the order their deferral is completed.
+   */
+  @Test(timeout=60000)
+  public void testDeferredResponse() throws Exception {
+    final int callCount = 5;
+    final TestServer server = new TestServer(1, false);
+    final BlockingQueue<Server.Call> deferred =
+        new LinkedBlockingQueue<Server.Call>();
+    server.callListener = new Runnable() {
+      @Override
+      public void run() {
+        Server.Call call = Server.getCurCall().get();
+        call.postponeResponse();
+        assertTrue(call.isResponseDeferred());
+        deferred.add(call);
+      }
+    };
+    final InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+
+    final Client client = new Client(LongWritable.class, conf);
+    final List<Future<LongWritable>> results =
+        new ArrayList<Future<LongWritable>>();
+    ExecutorService executor = Executors.newFixedThreadPool(callCount);
+    try {
+      for (int i = 0; i < callCount; i++) {
+        final long param = i;
+        results.add(executor.submit(new Callable<LongWritable>() {
+          @Override
+          public LongWritable call() throws Exception {
+            return (LongWritable) client.call(new LongWritable(param), addr,
+                null, null, 0, conf);
+          }
+        }));
+      }
+      // a single handler took all the calls, none of them is answered yet
+      List<Server.Call> calls = new ArrayList<Server.Call>();
+      for (int i = 0; i < callCount; i++) {
+        calls.add(deferred.take());
+      }
+      for (Future<LongWritable> f : results) {
+        assertFalse(f.isDone());
+      }
+
+      // complete from this thread, abort the first call
+      for (int i = calls.size() - 1; i > 0; i--) {
+        calls.get(i).sendResponse();
+      }
+      calls.get(0).abortResponse(new IOException("aborted"));
+      // aborting or completing a sent response has no effect
+      calls.get(0).abortResponse(new IOException("aborted again"));
+
+      int failed = 0;
+      for (int i = 0; i < callCount; i++) {
+        try {
+          // the server echoes the parameter
+          assertEquals(i, results.get(i).get().get());
+        } catch (ExecutionException ee) {
+          assertTrue(ee.getCause() instanceof RemoteException);
+          assertTrue(ee.getCause().getMessage().contains("aborted"));
+          assertFalse(ee.getCause().getMessage().contains("aborted again"));
+          failed++;
+        }
+      }
+      assertEquals(1, failed);
+      assertEquals(callCount, server.getRpcMetrics().getRpcDeferredCalls());
+    } finally {
+      executor.shutdownNow();
+      client.stop();
+      server.stop();
+    }
+  }
+
+  /**
+   * A call aborted while its handler is still running is answered with the
+   * error of the abort, whatever the handler returns.
+   */
+  @Test(timeout=60000)
+  public void testAbortResponseWhileHandlerRuns() throws Exception {
+    final int callCount = 20;
+    final TestServer server = new TestServer(2, false);
+    final ExecutorService aborter = Executors.newSingleThreadExecutor();
+    final AtomicInteger calls = new AtomicInteger();
+    server.callListener = new Runnable() {
+      @Override
+      public void run() {
+        final Server.Call call = Server.getCurCall().get();
+        call.postponeResponse();
+        Future<Void> abort = aborter.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            call.abortResponse(new IOException("aborted"));
+            return null;
+          }
+        });
+        // every other call returns only once the abort is sent, the others
+        // race with it
+        if (calls.getAndIncrement() % 2 == 0) {
+          return;
+        }
+        try {
+          abort.get();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    final InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+
+    final Client client = new Client(LongWritable.class, conf);
+    try {
+      for (long i = 0; i < callCount; i++) {
+        try {
+          client.call(new LongWritable(i), addr, null, null, 0, conf);
+          fail("Call " + i + " was aborted");
+        } catch (RemoteException e) {
+          assertTrue(e.getMessage().contains("aborted"));
+        }
+      }
+    } finally {
+      aborter.shutdownNow();
+      client.stop();
+      server.stop();
+    }
+  }
+
+  /**
+   * Completing the response of a call which was not deferred is refused,
+   * the handler sends its response once.
+   */
+  @Test(timeout=60000)
+  public void testSendResponseWithoutDeferral() throws Exception {
+    final TestServer server = new TestServer(1, false);
+    final BlockingQueue<Exception> errors =
+        new LinkedBlockingQueue<Exception>();
+    server.callListener = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Server.getCurCall().get().sendResponse();
+        } catch (Exception e) {
+          errors.add(e);
+        }
+      }
+    };
+    final InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+
+    final Client client = new Client(LongWritable.class, conf);
+    try {
+      for (long i = 0; i < 3; i++) {
+        assertEquals(i, ((LongWritable) client.call(new LongWritable(i), addr,
+            null, null, 0, conf)).get());
+        Exception e = errors.take();
+        assertTrue(e instanceof IllegalStateException);
+        assertTrue(e.getMessage().contains("is not deferred"));
+      }
+      assertEquals(0, server.getRpcMetrics().getRpcDeferredCalls());
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
   public void internalTestSerial(int handlerCount, boolean handlerSleep,
                          int clientCount, int callerCount, int callCount)
     throws IOException, InterruptedException {
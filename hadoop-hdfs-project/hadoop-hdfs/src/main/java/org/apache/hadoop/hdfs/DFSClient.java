@@ -143,6 +143,8 @@
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.net.TcpPeerServer;
 import org.apache.hadoop.hdfs.protocol.AclException;
+import org.apache.hadoop.hdfs.protocol.BatchedOperation;
+import org.apache.hadoop.hdfs.protocol.BatchedOperationResult;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -173,6 +175,7 @@
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeInfo;
 import org.apache.hadoop.hdfs.protocol.SnapshotAccessControlException;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotException;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.protocol.UnresolvedPathException;
 import org.apache.hadoop.hdfs.protocol.datatransfer.DataTransferProtoUtil;
@@ -208,6 +211,7 @@
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.ipc.RpcInvocationHandler;
+import org.apache.hadoop.ipc.RpcNoSuchMethodException;
 import org.apache.hadoop.net.DNS;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.security.AccessControlException;
@@ -2147,6 +2151,32 @@ public DirectoryListing listPaths(String src,  byte[] startAfter,
     }
   }
 
+  /**
+   * Get a partial listing of the subtree of the indicated directory
+   *
+   * Recommend to use HdfsFileStatus.EMPTY_NAME as startAfter
+   * if the application wants to fetch a listing starting from
+   * the first entry in the subtree
+   *
+   * @see ClientProtocol#getListingRecursive(String, byte[], boolean)
+   */
+  public DirectoryListing listPathsRecursive(String src, byte[] startAfter,
+      boolean needLocation) throws IOException {
+    checkOpen();
+    TraceScope scope = getPathTraceScope("listPathsRecursive", src);
+    try {
+      return namenode.getListingRecursive(src, startAfter, needLocation);
+    } catch(RemoteException re) {
+      throw re.unwrapRemoteException(AccessControlException.class,
+                                     FileNotFoundException.class,
+                                     UnresolvedPathException.class,
+                                     SnapshotException.class,
+                                     RpcNoSuchMethodException.class);
+    } finally {
+      scope.close();
+    }
+  }
+
   /**
    * Get the file info for a specific file or directory.
    * @param src The string representation of the path to the file
@@ -3180,6 +3210,63 @@ public void setTimes(String src, long mtime, long atime) throws IOException {
     }
   }
 
+  /**
+   * Apply a batch of namespace mutations. The umask is applied to the
+   * permissions of the new files and directories, the default permission is
+   * used if not given. The exceptions of the failed operations are unwrapped.
+   *
+   * @see ClientProtocol#batch(List, String)
+   */
+  public List<BatchedOperationResult> batch(List<BatchedOperation> ops)
+      throws IOException {
+    checkOpen();
+    final List<BatchedOperation> masked =
+        new ArrayList<BatchedOperation>(ops.size());
+    for (BatchedOperation op : ops) {
+      final BatchedOperation.Type type = op.getType();
+      if (type == BatchedOperation.Type.MKDIRS ||
+          type == BatchedOperation.Type.CREATE) {
+        FsPermission permission = op.getPermission();
+        if (permission == null) {
+          permission = type == BatchedOperation.Type.MKDIRS ?
+              FsPermission.getDirDefault() : FsPermission.getFileDefault();
+        }
+        op = new BatchedOperation(type, op.getPath(),
+            permission.applyUMask(dfsClientConf.uMask), op.getCreateParent(),
+            op.getReplication(), op.getBlockSize(), null, null, -1L, -1L);
+      }
+      masked.add(op);
+    }
+    TraceScope scope = Trace.startSpan("batch", traceSampler);
+    try {
+      final List<BatchedOperationResult> results =
+          namenode.batch(masked, clientName);
+      final List<BatchedOperationResult> unwrapped =
+          new ArrayList<BatchedOperationResult>(results.size());
+      for (BatchedOperationResult result : results) {
+        if (result.getException() instanceof RemoteException) {
+          result = new BatchedOperationResult(((RemoteException) result
+              .getException()).unwrapRemoteException(
+                  AccessControlException.class,
+                  FileAlreadyExistsException.class,
+                  FileNotFoundException.class,
+                  ParentNotDirectoryException.class,
+                  NSQuotaExceededException.class,
+                  DSQuotaExceededException.class,
+                  UnresolvedPathException.class,
+                  SnapshotAccessControlException.class));
+        }
+        unwrapped.add(result);
+      }
+      return unwrapped;
+    } catch(RemoteException re) {
+      throw re.unwrapRemoteException(AccessControlException.class,
+                                     SafeModeException.class);
+    } finally {
+      scope.close();
+    }
+  }
+
   /**
    * @deprecated use {@link HdfsDataInputStream} instead.
    */
@@ -317,13 +317,18 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   
   public static final String  DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH = "dfs.namenode.edits.noeditlogchannelflush";
   public static final boolean DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH_DEFAULT = false;
+  public static final String  DFS_NAMENODE_EDITS_ASYNC_LOGGING = "dfs.namenode.edits.asynclogging";
+  public static final boolean DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT = false;
   
   public static final String  DFS_LIST_LIMIT = "dfs.ls.limit";
   public static final int     DFS_LIST_LIMIT_DEFAULT = 1000;
+  public static final String  DFS_NAMENODE_BATCH_MAX_OPERATIONS_KEY = "dfs.namenode.batch.max-operations";
+  public static final int     DFS_NAMENODE_BATCH_MAX_OPERATIONS_DEFAULT = 1000;
   public static final String  DFS_CONTENT_SUMMARY_LIMIT_KEY = "dfs.content-summary.limit";
   public static final int     DFS_CONTENT_SUMMARY_LIMIT_DEFAULT = 5000;
   public static final String  DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_KEY = "dfs.content-summary.sleep-microsec";
   public static final long    DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_DEFAULT = 500;
+  public static final String  DFS_CONTENT_SUMMARY_CACHE_DIRS_KEY = "dfs.content-summary.cache.dirs";
   public static final String  DFS_DATANODE_FAILED_VOLUMES_TOLERATED_KEY = "dfs.datanode.failed.volumes.tolerated";
   public static final int     DFS_DATANODE_FAILED_VOLUMES_TOLERATED_DEFAULT = 0;
   public static final String  DFS_DATANODE_SYNCONCLOSE_KEY = "dfs.datanode.synconclose";
@@ -355,6 +360,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   /** Pending period of block deletion since NameNode startup */
   public static final String  DFS_NAMENODE_STARTUP_DELAY_BLOCK_DELETION_SEC_KEY = "dfs.namenode.startup.delay.block.deletion.sec";
   public static final long    DFS_NAMENODE_STARTUP_DELAY_BLOCK_DELETION_SEC_DEFAULT = 0L;
+  public static final String  DFS_NAMENODE_BLOCK_DELETION_INCREMENT_KEY = "dfs.namenode.block.deletion.increment";
+  public static final int     DFS_NAMENODE_BLOCK_DELETION_INCREMENT_DEFAULT = 1000;
 
   // Whether to enable datanode's stale state detection and usage for reads
   public static final String DFS_NAMENODE_AVOID_STALE_DATANODE_FOR_READ_KEY = "dfs.namenode.avoid.read.stale.datanode";
@@ -444,6 +451,21 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final boolean DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_DEFAULT = false;
   public static final String  DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY = "dfs.namenode.audit.log.async";
   public static final boolean DFS_NAMENODE_AUDIT_LOG_ASYNC_DEFAULT = false;
+  public static final String  DFS_NAMENODE_AUDIT_BINARY_DIR_KEY = "dfs.namenode.audit.binary.dir";
+  public static final String  DFS_NAMENODE_AUDIT_BINARY_BUFFER_SIZE_KEY = "dfs.namenode.audit.binary.buffer.size";
+  public static final int     DFS_NAMENODE_AUDIT_BINARY_BUFFER_SIZE_DEFAULT = 64 * 1024;
+  public static final String  DFS_NAMENODE_AUDIT_BINARY_ROLL_SIZE_KEY = "dfs.namenode.audit.binary.roll.size";
+  public static final long    DFS_NAMENODE_AUDIT_BINARY_ROLL_SIZE_DEFAULT = 128L * 1024 * 1024;
+  public static final String  DFS_NAMENODE_AUDIT_BINARY_MAX_FILES_KEY = "dfs.namenode.audit.binary.max.files";
+  public static final int     DFS_NAMENODE_AUDIT_BINARY_MAX_FILES_DEFAULT = 100;
+  // Threshold for how long namenode locks must be held for the
+  // event to be logged
+  public static final String  DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_KEY = "dfs.namenode.write-lock-reporting-threshold-ms";
+  public static final long    DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_DEFAULT = 5000L;
+  public static final String  DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_KEY = "dfs.namenode.read-lock-reporting-threshold-ms";
+  public static final long    DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_DEFAULT = 5000L;
+  public static final String  DFS_NAMENODE_LOCK_SUPPRESS_WARNING_INTERVAL_KEY = "dfs.namenode.lock.suppress.warning.interval";
+  public static final long    DFS_NAMENODE_LOCK_SUPPRESS_WARNING_INTERVAL_DEFAULT = 10000; //ms
   public static final String  DFS_NAMENODE_METRICS_LOGGER_PERIOD_SECONDS_KEY =
       "dfs.namenode.metrics.logger.period.seconds";
   public static final int     DFS_NAMENODE_METRICS_LOGGER_PERIOD_SECONDS_DEFAULT =
@@ -503,6 +525,16 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_DATANODE_HTTP_ADDRESS_DEFAULT = "0.0.0.0:" + DFS_DATANODE_HTTP_DEFAULT_PORT;
   public static final String  DFS_DATANODE_MAX_RECEIVER_THREADS_KEY = "dfs.datanode.max.transfer.threads";
   public static final int     DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT = 4096;
+  public static final String  DFS_DATANODE_XCEIVER_QUEUE_SIZE_KEY = "dfs.datanode.xceiver.queue.size";
+  public static final int     DFS_DATANODE_XCEIVER_QUEUE_SIZE_DEFAULT = 256;
+  public static final String  DFS_DATANODE_XCEIVER_READ_MAX_OPS_KEY = "dfs.datanode.xceiver.read.max-ops";
+  public static final int     DFS_DATANODE_XCEIVER_READ_MAX_OPS_DEFAULT = 0;
+  public static final String  DFS_DATANODE_XCEIVER_WRITE_MAX_OPS_KEY = "dfs.datanode.xceiver.write.max-ops";
+  public static final int     DFS_DATANODE_XCEIVER_WRITE_MAX_OPS_DEFAULT = 0;
+  public static final String  DFS_DATANODE_XCEIVER_TRANSFER_MAX_OPS_KEY = "dfs.datanode.xceiver.transfer.max-ops";
+  public static final int     DFS_DATANODE_XCEIVER_TRANSFER_MAX_OPS_DEFAULT = 0;
+  public static final String  DFS_DATANODE_XCEIVER_SHORT_CIRCUIT_MAX_OPS_KEY = "dfs.datanode.xceiver.short-circuit.max-ops";
+  public static final int     DFS_DATANODE_XCEIVER_SHORT_CIRCUIT_MAX_OPS_DEFAULT = 0;
   public static final String  DFS_DATANODE_SCAN_PERIOD_HOURS_KEY = "dfs.datanode.scan.period.hours";
   public static final int     DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT = 21 * 24;  // 3 weeks.
   public static final String  DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND = "dfs.block.scanner.volume.bytes.per.second";
@@ -576,10 +608,18 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_BLOCKREPORT_INITIAL_DELAY_DEFAULT = 0;
   public static final String  DFS_BLOCKREPORT_SPLIT_THRESHOLD_KEY = "dfs.blockreport.split.threshold";
   public static final long    DFS_BLOCKREPORT_SPLIT_THRESHOLD_DEFAULT = 1000 * 1000;
+  public static final String  DFS_BLOCKREPORT_SORTED_BUFFERS_KEY = "dfs.blockreport.sorted.buffers";
+  public static final boolean DFS_BLOCKREPORT_SORTED_BUFFERS_DEFAULT = false;
+  public static final String  DFS_BLOCKREPORT_COMPRESSION_CODEC_KEY = "dfs.blockreport.compression.codec";
+  public static final String  DFS_BLOCKREPORT_COMPRESSION_CODEC_DEFAULT = "";
   public static final String  DFS_NAMENODE_MAX_FULL_BLOCK_REPORT_LEASES = "dfs.namenode.max.full.block.report.leases";
   public static final int     DFS_NAMENODE_MAX_FULL_BLOCK_REPORT_LEASES_DEFAULT = 6;
   public static final String  DFS_NAMENODE_FULL_BLOCK_REPORT_LEASE_LENGTH_MS = "dfs.namenode.full.block.report.lease.length.ms";
   public static final long    DFS_NAMENODE_FULL_BLOCK_REPORT_LEASE_LENGTH_MS_DEFAULT = 5L * 60L * 1000L;
+  public static final String  DFS_NAMENODE_FIRST_BLOCK_REPORT_THREADS_KEY = "dfs.namenode.first.block.report.threads";
+  public static final int     DFS_NAMENODE_FIRST_BLOCK_REPORT_THREADS_DEFAULT = 1;
+  public static final String  DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY = "dfs.namenode.replication.work.threads";
+  public static final int     DFS_NAMENODE_REPLICATION_WORK_THREADS_DEFAULT = 1;
   public static final String  DFS_CACHEREPORT_INTERVAL_MSEC_KEY = "dfs.cachereport.intervalMsec";
   public static final long    DFS_CACHEREPORT_INTERVAL_MSEC_DEFAULT = 10 * 1000;
   public static final String  DFS_BLOCK_INVALIDATE_LIMIT_KEY = "dfs.block.invalidate.limit";
@@ -620,6 +660,31 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_IMAGE_COMPRESSION_CODEC_DEFAULT =
                                    "org.apache.hadoop.io.compress.DefaultCodec";
 
+  // property for parallel fsimage loading
+  public static final String DFS_IMAGE_PARALLEL_LOAD_KEY =
+      "dfs.image.parallel.load";
+  public static final boolean DFS_IMAGE_PARALLEL_LOAD_DEFAULT = false;
+  public static final String DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY =
+      "dfs.image.parallel.target.sections";
+  public static final int DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT = 12;
+  public static final String DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY =
+      "dfs.image.parallel.inode.threshold";
+  public static final int DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT = 1000000;
+  public static final String DFS_IMAGE_PARALLEL_THREADS_KEY =
+      "dfs.image.parallel.threads";
+  public static final int DFS_IMAGE_PARALLEL_THREADS_DEFAULT = 4;
+
+  // property for delta fsimages
+  public static final String DFS_IMAGE_DELTA_ENABLED_KEY =
+      "dfs.image.delta.enabled";
+  public static final boolean DFS_IMAGE_DELTA_ENABLED_DEFAULT = false;
+  public static final String DFS_IMAGE_DELTA_MAX_CONSECUTIVE_KEY =
+      "dfs.image.delta.max.consecutive";
+  public static final int DFS_IMAGE_DELTA_MAX_CONSECUTIVE_DEFAULT = 10;
+  public static final String DFS_IMAGE_DELTA_MAX_CHANGED_RATIO_KEY =
+      "dfs.image.delta.max.changed.ratio";
+  public static final float DFS_IMAGE_DELTA_MAX_CHANGED_RATIO_DEFAULT = 0.25f;
+
   public static final String DFS_IMAGE_TRANSFER_RATE_KEY =
                                            "dfs.image.transfer.bandwidthPerSec";
   public static final long DFS_IMAGE_TRANSFER_RATE_DEFAULT = 0;  //no throttling
@@ -632,6 +697,26 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_IMAGE_TRANSFER_CHUNKSIZE_KEY = "dfs.image.transfer.chunksize";
   public static final int DFS_IMAGE_TRANSFER_CHUNKSIZE_DEFAULT = 64 * 1024;
 
+  // Image upload in parts, over parallel connections
+  public static final String DFS_IMAGE_TRANSFER_PARALLEL_ENABLED_KEY =
+      "dfs.image.transfer.parallel.enabled";
+  public static final boolean DFS_IMAGE_TRANSFER_PARALLEL_ENABLED_DEFAULT =
+      false;
+  public static final String DFS_IMAGE_TRANSFER_PARALLEL_CONNECTIONS_KEY =
+      "dfs.image.transfer.parallel.connections";
+  public static final int DFS_IMAGE_TRANSFER_PARALLEL_CONNECTIONS_DEFAULT = 4;
+  public static final String DFS_IMAGE_TRANSFER_PARALLEL_PART_SIZE_KEY =
+      "dfs.image.transfer.parallel.part.size";
+  public static final long DFS_IMAGE_TRANSFER_PARALLEL_PART_SIZE_DEFAULT =
+      64 * 1024 * 1024;
+  public static final String DFS_IMAGE_TRANSFER_PARALLEL_PART_RETRIES_KEY =
+      "dfs.image.transfer.parallel.part.retries";
+  public static final int DFS_IMAGE_TRANSFER_PARALLEL_PART_RETRIES_DEFAULT = 3;
+  public static final String DFS_IMAGE_TRANSFER_PARALLEL_COMPRESSION_CODEC_KEY =
+      "dfs.image.transfer.parallel.compression.codec";
+  public static final String
+      DFS_IMAGE_TRANSFER_PARALLEL_COMPRESSION_CODEC_DEFAULT = "";
+
   //Keys with no defaults
   public static final String  DFS_DATANODE_PLUGINS_KEY = "dfs.datanode.plugins";
   public static final String  DFS_DATANODE_FSDATASET_FACTORY_KEY = "dfs.datanode.fsdataset.factory";
@@ -706,6 +791,16 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int DFS_HA_LOGROLL_PERIOD_DEFAULT = 2 * 60; // 2m
   public static final String DFS_HA_TAILEDITS_PERIOD_KEY = "dfs.ha.tail-edits.period";
   public static final int DFS_HA_TAILEDITS_PERIOD_DEFAULT = 60; // 1m
+  public static final String DFS_HA_TAILEDITS_INPROGRESS_KEY =
+      "dfs.ha.tail-edits.in-progress";
+  public static final boolean DFS_HA_TAILEDITS_INPROGRESS_DEFAULT = false;
+  public static final String DFS_HA_STANDBY_CONSISTENT_READS_KEY =
+      "dfs.ha.standby.consistent-reads.enabled";
+  public static final boolean DFS_HA_STANDBY_CONSISTENT_READS_DEFAULT = false;
+  public static final String DFS_HA_STANDBY_CONSISTENT_READS_MAX_WAIT_MS_KEY =
+      "dfs.ha.standby.consistent-reads.max-wait.ms";
+  public static final long DFS_HA_STANDBY_CONSISTENT_READS_MAX_WAIT_MS_DEFAULT =
+      1000;
   public static final String DFS_HA_LOGROLL_RPC_TIMEOUT_KEY = "dfs.ha.log-roll.rpc.timeout";
   public static final int DFS_HA_LOGROLL_RPC_TIMEOUT_DEFAULT = 20000; // 20s
   public static final String DFS_HA_FENCE_METHODS_KEY = "dfs.ha.fencing.methods";
@@ -855,6 +950,9 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String NNTOP_WINDOWS_MINUTES_KEY =
       "dfs.namenode.top.windows.minutes";
   public static final String[] NNTOP_WINDOWS_MINUTES_DEFAULT = {"1","5","25"};
+  public static final String NNTOP_COSTS_ENABLED_KEY =
+      "dfs.namenode.top.costs.enabled";
+  public static final boolean NNTOP_COSTS_ENABLED_DEFAULT = true;
   public static final String DFS_PIPELINE_ECN_ENABLED = "dfs.pipeline.ecn";
   public static final boolean DFS_PIPELINE_ECN_ENABLED_DEFAULT = false;
 
@@ -65,6 +65,8 @@
 import org.apache.hadoop.hdfs.client.HdfsAdmin;
 import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
+import org.apache.hadoop.hdfs.protocol.BatchedOperation;
+import org.apache.hadoop.hdfs.protocol.BatchedOperationResult;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.protocol.CachePoolEntry;
@@ -80,11 +82,13 @@
 import org.apache.hadoop.hdfs.protocol.HdfsLocatedFileStatus;
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeInfo;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotException;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.security.token.block.InvalidBlockTokenException;
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenIdentifier;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.ipc.RpcNoSuchMethodException;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.Credentials;
@@ -112,6 +116,8 @@ public class DistributedFileSystem extends FileSystem {
 
   DFSClient dfs;
   private boolean verifyChecksum = true;
+  /** False once the NameNode is found not to support recursive listings. */
+  private volatile boolean recursiveListingSupported = true;
   
   static{
     HdfsConfiguration.init();
@@ -973,12 +979,53 @@ public RemoteIterator<FileStatus> next(final FileSystem fs, final Path p)
 
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * A recursive listing is fetched from the NameNode in batches spanning
+   * the whole subtree, rather than with one listing per directory.
+   */
+  @Override
+  public RemoteIterator<LocatedFileStatus> listFiles(final Path f,
+      final boolean recursive) throws FileNotFoundException, IOException {
+    if (!recursive || !recursiveListingSupported) {
+      return super.listFiles(f, recursive);
+    }
+    Path absF = fixRelativePart(f);
+    return new FileSystemLinkResolver<RemoteIterator<LocatedFileStatus>>() {
+      @Override
+      public RemoteIterator<LocatedFileStatus> doCall(final Path p)
+          throws IOException, UnresolvedLinkException {
+        try {
+          return new DirListingIterator<LocatedFileStatus>(p, null, true,
+              true);
+        } catch (RpcNoSuchMethodException e) {
+          // the NameNode predates the recursive listing
+          recursiveListingSupported = false;
+          return DistributedFileSystem.super.listFiles(p, true);
+        } catch (SnapshotException e) {
+          // the snapshots of a .snapshot directory are listed one by one
+          return DistributedFileSystem.super.listFiles(p, true);
+        }
+      }
+
+      @Override
+      public RemoteIterator<LocatedFileStatus> next(final FileSystem fs,
+          final Path p) throws IOException {
+        return fs.listFiles(p, true);
+      }
+    }.resolve(this, absF);
+  }
+
   /**
    * This class defines an iterator that returns
    * the file status of each file/subdirectory of a directory
    * 
    * if needLocation, status contains block location if it is a file
    * throws a RuntimeException with the error as its cause.
+   *
+   * if recursive, it only returns the files of the whole subtree, as
+   * {@link FileSystem#listFiles(Path, boolean)}.
    * 
    * @param <T> the type of the file status
    */
@@ -991,16 +1038,22 @@ public RemoteIterator<FileStatus> next(final FileSystem fs, final Path p)
     private T curStat = null;
     private PathFilter filter;
     private boolean needLocation;
+    private boolean recursive;
 
     private DirListingIterator(Path p, PathFilter filter,
         boolean needLocation) throws IOException {
+      this(p, filter, needLocation, false);
+    }
+
+    private DirListingIterator(Path p, PathFilter filter,
+        boolean needLocation, boolean recursive) throws IOException {
       this.p = p;
       this.src = getPathName(p);
       this.filter = filter;
       this.needLocation = needLocation;
+      this.recursive = recursive;
       // fetch the first batch of entries in the directory
-      thisListing = dfs.listPaths(src, HdfsFileStatus.EMPTY_NAME,
-          needLocation);
+      thisListing = listPaths(HdfsFileStatus.EMPTY_NAME);
       statistics.incrementReadOps(1);
       if (thisListing == null) { // the directory does not exist
         throw new FileNotFoundException("File " + p + " does not exist.");
@@ -1013,6 +1066,12 @@ private DirListingIterator(Path p, boolean needLocation)
       this(p, null, needLocation);
     }
 
+    private DirectoryListing listPaths(byte[] startAfter) throws IOException {
+      return recursive ?
+          dfs.listPathsRecursive(src, startAfter, needLocation) :
+          dfs.listPaths(src, startAfter, needLocation);
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public boolean hasNext() throws IOException {
@@ -1026,6 +1085,9 @@ public boolean hasNext() throws IOException {
           next = (T)fileStat.makeQualified(getUri(), p);
         }
           // apply filter if not null
+        if (recursive && !next.isFile()) {
+          continue;
+        }
         if (filter == null || filter.accept(next.getPath())) {
           curStat = next;
         }
@@ -1041,8 +1103,7 @@ private boolean hasNextNoFilter() throws IOException {
       if (i >= thisListing.getPartialListing().length
           && thisListing.hasMore()) { 
         // current listing is exhausted & fetch a new listing
-        thisListing = dfs.listPaths(src, thisListing.getLastName(),
-            needLocation);
+        thisListing = listPaths(thisListing.getLastName());
         statistics.incrementReadOps(1);
         if (thisListing == null) {
           return false;
@@ -1587,6 +1648,38 @@ public Void next(final FileSystem fs, final Path p)
       }
     }.resolve(this, absF);
   }
+
+  /**
+   * Apply a batch of namespace mutations with a single RPC, see
+   * {@link org.apache.hadoop.hdfs.protocol.ClientProtocol#batch}. The paths are not resolved through the
+   * symlinks, and the files are created with the default replication and
+   * block size of the file system when not given.
+   *
+   * @param ops the operations, applied in order
+   * @return the result of each operation, in the same order
+   * @throws IOException if the batch could not be applied at all
+   */
+  public List<BatchedOperationResult> batch(List<BatchedOperation> ops)
+      throws IOException {
+    statistics.incrementWriteOps(1);
+    final List<BatchedOperation> resolved =
+        new ArrayList<BatchedOperation>(ops.size());
+    for (BatchedOperation op : ops) {
+      final Path absF = fixRelativePart(op.getPath());
+      op = op.withPath(new Path(getPathName(absF)));
+      if (op.getType() == BatchedOperation.Type.CREATE &&
+          (op.getReplication() <= 0 || op.getBlockSize() <= 0)) {
+        op = BatchedOperation.create(op.getPath(), op.getPermission(),
+            op.getCreateParent(),
+            op.getReplication() > 0 ? op.getReplication() :
+                getDefaultReplication(absF),
+            op.getBlockSize() > 0 ? op.getBlockSize() :
+                getDefaultBlockSize(absF));
+      }
+      resolved.add(op);
+    }
+    return dfs.batch(resolved);
+  }
   
 
   @Override
@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+
+/**
+ * A namespace mutation of a batch, see {@link ClientProtocol#batch}.
+ * The operations of a batch are applied in order, each one as by the
+ * corresponding call of {@link ClientProtocol}.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class BatchedOperation {
+  /** The type of the operation. */
+  public enum Type {
+    /** {@link ClientProtocol#mkdirs} */
+    MKDIRS("mkdirs"),
+    /** Create an empty file, as {@link ClientProtocol#create} and
+     * {@link ClientProtocol#complete} with no block. */
+    CREATE("create"),
+    /** {@link ClientProtocol#setPermission} */
+    SET_PERMISSION("setPermission"),
+    /** {@link ClientProtocol#setOwner} */
+    SET_OWNER("setOwner"),
+    /** {@link ClientProtocol#setTimes} */
+    SET_TIMES("setTimes");
+
+    private final String auditCommand;
+
+    Type(String auditCommand) {
+      this.auditCommand = auditCommand;
+    }
+
+    /** @return the command of the audit log entries of this operation. */
+    public String getAuditCommand() {
+      return auditCommand;
+    }
+  }
+
+  private final Type type;
+  private final Path path;
+  private final FsPermission permission;
+  private final boolean createParent;
+  private final short replication;
+  private final long blockSize;
+  private final String username;
+  private final String groupname;
+  private final long mtime;
+  private final long atime;
+
+  public BatchedOperation(Type type, Path path, FsPermission permission,
+      boolean createParent, short replication, long blockSize,
+      String username, String groupname, long mtime, long atime) {
+    if (type == null || path == null) {
+      throw new IllegalArgumentException("The type and the path of a " +
+          "batched operation are required");
+    }
+    this.type = type;
+    this.path = path;
+    this.permission = permission;
+    this.createParent = createParent;
+    this.replication = replication;
+    this.blockSize = blockSize;
+    this.username = username;
+    this.groupname = groupname;
+    this.mtime = mtime;
+    this.atime = atime;
+  }
+
+  /**
+   * @param masked the permission of the directory, the umask applied
+   * @param createParent create the missing parent directories
+   */
+  public static BatchedOperation mkdirs(Path path, FsPermission masked,
+      boolean createParent) {
+    return new BatchedOperation(Type.MKDIRS, path, masked, createParent,
+        (short) 0, 0L, null, null, -1L, -1L);
+  }
+
+  /**
+   * @param masked the permission of the file, the umask applied
+   * @param createParent create the missing parent directories
+   */
+  public static BatchedOperation create(Path path, FsPermission masked,
+      boolean createParent, short replication, long blockSize) {
+    return new BatchedOperation(Type.CREATE, path, masked, createParent,
+        replication, blockSize, null, null, -1L, -1L);
+  }
+
+  public static BatchedOperation setPermission(Path path,
+      FsPermission permission) {
+    return new BatchedOperation(Type.SET_PERMISSION, path, permission, false,
+        (short) 0, 0L, null, null, -1L, -1L);
+  }
+
+  /**
+   * @param username the new owner, null not to change it
+   * @param groupname the new group, null not to change it
+   */
+  public static BatchedOperation setOwner(Path path, String username,
+      String groupname) {
+    return new BatchedOperation(Type.SET_OWNER, path, null, false, (short) 0,
+        0L, username, groupname, -1L, -1L);
+  }
+
+  /**
+   * @param mtime the new modification time, -1 not to change it
+   * @param atime the new access time, -1 not to change it
+   */
+  public static BatchedOperation setTimes(Path path, long mtime, long atime) {
+    return new BatchedOperation(Type.SET_TIMES, path, null, false, (short) 0,
+        0L, null, null, mtime, atime);
+  }
+
+  /** @return a copy of this operation on another path. */
+  public BatchedOperation withPath(Path newPath) {
+    return new BatchedOperation(type, newPath, permission, createParent,
+        replication, blockSize, username, groupname, mtime, atime);
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  public FsPermission getPermission() {
+    return permission;
+  }
+
+  public boolean getCreateParent() {
+    return createParent;
+  }
+
+  public short getReplication() {
+    return replication;
+  }
+
+  public long getBlockSize() {
+    return blockSize;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public String getGroupname() {
+    return groupname;
+  }
+
+  public long getMtime() {
+    return mtime;
+  }
+
+  public long getAtime() {
+    return atime;
+  }
+
+  @Override
+  public String toString() {
+    return type + " " + path;
+  }
+}
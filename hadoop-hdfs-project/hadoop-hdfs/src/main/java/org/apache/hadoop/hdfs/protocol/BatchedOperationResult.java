@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * The result of a {@link BatchedOperation}: the failure of an operation does
+ * not fail the batch, its exception is returned instead.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class BatchedOperationResult {
+  public static final BatchedOperationResult SUCCESS =
+      new BatchedOperationResult(null);
+
+  private final IOException exception;
+
+  /**
+   * @param exception why the operation failed, null if it succeeded
+   */
+  public BatchedOperationResult(IOException exception) {
+    this.exception = exception;
+  }
+
+  public boolean isSuccess() {
+    return exception == null;
+  }
+
+  /**
+   * @return why the operation failed, null if it succeeded. Over RPC, it is
+   * a {@link org.apache.hadoop.ipc.RemoteException} unless unwrapped.
+   */
+  public IOException getException() {
+    return exception;
+  }
+
+  @Override
+  public String toString() {
+    return isSuccess() ? "SUCCESS" : "FAILURE: " + exception;
+  }
+}
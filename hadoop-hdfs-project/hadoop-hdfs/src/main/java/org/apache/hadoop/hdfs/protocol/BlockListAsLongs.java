@@ -21,7 +21,7 @@
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -31,6 +31,9 @@
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs.BlockReportReplica;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.datanode.Replica;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.QuickSort;
 import com.google.common.base.Preconditions;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.CodedInputStream;
@@ -85,6 +88,33 @@ public static BlockListAsLongs decodeBuffers(final int numBlocks,
     return decodeBuffer(numBlocks, ByteString.copyFrom(blocksBufs));
   }
 
+  /**
+   * Prepare an instance to in-place decode the given ByteString buffers
+   * created by a {@link #sortedBuilder(CompressionCodec)}. The replicas are
+   * decoded, and decompressed, while they are iterated.
+   * @param numBlocks - blocks in the buffers
+   * @param blocksBufs - list of ByteString encoded sorted replicas
+   * @param codec - codec which compressed the buffers, or null
+   * @return BlockListAsLongs
+   * @throws IOException if the buffers cannot hold numBlocks replicas
+   */
+  public static BlockListAsLongs decodeSortedBuffers(final int numBlocks,
+      final List<ByteString> blocksBufs, final CompressionCodec codec)
+      throws IOException {
+    final ByteString buf = ByteString.copyFrom(blocksBufs);
+    if (numBlocks < 0) {
+      throw new IOException("Invalid number of blocks " + numBlocks);
+    }
+    // the size of compressed buffers is only checked while decoding
+    if (codec == null
+        && (long) numBlocks * SortedBufferDecoder.MIN_REPLICA_BYTES
+            > buf.size()) {
+      throw new IOException("Block report of " + buf.size()
+          + " bytes cannot hold " + numBlocks + " blocks");
+    }
+    return new SortedBufferDecoder(numBlocks, -1, buf, codec);
+  }
+
   /**
    * Prepare an instance to in-place decode the given list of Longs.  Note
    * it's much more efficient to decode ByteString buffers and only exists
@@ -103,7 +133,7 @@ public static BlockListAsLongs decodeLongs(List<Long> blocksList) {
    * @return BlockListAsLongs
    */
   public static BlockListAsLongs encode(
-      final Collection<? extends Replica> replicas) {
+      final Iterable<? extends Replica> replicas) {
     BlockListAsLongs.Builder builder = builder();
     for (Replica replica : replicas) {
       builder.add(replica);
@@ -146,7 +176,29 @@ public void writeTo(OutputStream os) throws IOException {
   }
   
   public static Builder builder() {
-    return new BlockListAsLongs.Builder();
+    return new BlockListAsLongs.Builder(false, null);
+  }
+
+  /**
+   * Prepare a builder which encodes a more compact buffer, where the
+   * replicas are sorted by block id and each of their fields is encoded as
+   * the varint of its difference with the previous replica. Block ids are
+   * allocated sequentially and most replicas are full blocks of a few
+   * generations, so most replicas only take a handful of bytes.
+   *
+   * The structure of the buffer is as follows:
+   * - each replica is represented by 4 varints:
+   *   blockId delta, zig-zag block length delta, zig-zag genstamp delta,
+   *   replica state
+   * - the buffer is then compressed if a codec is given
+   *
+   * The replicas are kept until {@link Builder#build()} sorts and encodes
+   * them.
+   * @param codec - codec to compress the buffer with, or null
+   * @return Builder
+   */
+  public static Builder sortedBuilder(CompressionCodec codec) {
+    return new BlockListAsLongs.Builder(true, codec);
   }
 
   /**
@@ -169,6 +221,22 @@ public static Builder builder() {
    */
   abstract public ByteString getBlocksBuffer();
 
+  /**
+   * @return true if the buffer encodes the replicas sorted by block id, see
+   * {@link #sortedBuilder(CompressionCodec)}.
+   */
+  public boolean isSorted() {
+    return false;
+  }
+
+  /**
+   * @return the codec which compressed the buffer, or null if it is not
+   * compressed.
+   */
+  public CompressionCodec getCompressionCodec() {
+    return null;
+  }
+
   /**
    * List of ByteStrings that encode this block report
    *
@@ -219,32 +287,48 @@ public List<ByteString> getBlocksBuffers() {
   public static class Builder {
     private final ByteString.Output out;
     private final CodedOutputStream cos;
+    /** The replicas of a sorted report, null if it is not sorted. */
+    private final SortableReplicas sorted;
+    private final CompressionCodec codec;
     private int numBlocks = 0;
     private int numFinalized = 0;
 
-    Builder() {
-      out = ByteString.newOutput(64*1024);
-      cos = CodedOutputStream.newInstance(out);
+    Builder(boolean sort, CompressionCodec codec) {
+      if (sort) {
+        out = null;
+        cos = null;
+        sorted = new SortableReplicas(1024);
+      } else {
+        out = ByteString.newOutput(64*1024);
+        cos = CodedOutputStream.newInstance(out);
+        sorted = null;
+      }
+      this.codec = codec;
     }
 
     public void add(Replica replica) {
-      try {
-        // zig-zag to reduce size of legacy blocks
-        cos.writeSInt64NoTag(replica.getBlockId());
-        cos.writeRawVarint64(replica.getBytesOnDisk());
-        cos.writeRawVarint64(replica.getGenerationStamp());
-        ReplicaState state = replica.getState();
-        // although state is not a 64-bit value, using a long varint to
-        // allow for future use of the upper bits
-        cos.writeRawVarint64(state.getValue());
-        if (state == ReplicaState.FINALIZED) {
-          numFinalized++;
+      ReplicaState state = replica.getState();
+      if (sorted != null) {
+        sorted.add(replica.getBlockId(), replica.getBytesOnDisk(),
+            replica.getGenerationStamp(), state.getValue());
+      } else {
+        try {
+          // zig-zag to reduce size of legacy blocks
+          cos.writeSInt64NoTag(replica.getBlockId());
+          cos.writeRawVarint64(replica.getBytesOnDisk());
+          cos.writeRawVarint64(replica.getGenerationStamp());
+          // although state is not a 64-bit value, using a long varint to
+          // allow for future use of the upper bits
+          cos.writeRawVarint64(state.getValue());
+        } catch (IOException ioe) {
+          // shouldn't happen, ByteString.Output doesn't throw IOE
+          throw new IllegalStateException(ioe);
         }
-        numBlocks++;
-      } catch (IOException ioe) {
-        // shouldn't happen, ByteString.Output doesn't throw IOE
-        throw new IllegalStateException(ioe);
       }
+      if (state == ReplicaState.FINALIZED) {
+        numFinalized++;
+      }
+      numBlocks++;
     }
 
     public int getNumberOfBlocks() {
@@ -252,6 +336,10 @@ public int getNumberOfBlocks() {
     }
     
     public BlockListAsLongs build() {
+      if (sorted != null) {
+        return new SortedBufferDecoder(numBlocks, numFinalized,
+            sorted.encode(codec), codec);
+      }
       try {
         cos.flush();
       } catch (IOException ioe) {
@@ -267,8 +355,8 @@ private static class BufferDecoder extends BlockListAsLongs {
     // reserve upper bits for future use.  decoding masks off these bits to
     // allow compatibility for the current through future release that may
     // start using the bits
-    private static long NUM_BYTES_MASK = (-1L) >>> (64 - 48);
-    private static long REPLICA_STATE_MASK = (-1L) >>> (64 - 4);
+    static long NUM_BYTES_MASK = (-1L) >>> (64 - 48);
+    static long REPLICA_STATE_MASK = (-1L) >>> (64 - 4);
 
     private final ByteString buffer;
     private final int numBlocks;
@@ -379,6 +467,181 @@ public void remove() {
     }
   }
 
+  /** The fields of the replicas of a report, sortable by block id. */
+  private static class SortableReplicas implements IndexedSortable {
+    private long[] ids;
+    private long[] lengths;
+    private long[] genstamps;
+    private int[] states;
+    private int size = 0;
+
+    SortableReplicas(int capacity) {
+      ids = new long[capacity];
+      lengths = new long[capacity];
+      genstamps = new long[capacity];
+      states = new int[capacity];
+    }
+
+    void add(long id, long length, long genstamp, int state) {
+      if (size == ids.length) {
+        final int capacity = size + (size >> 1) + 1;
+        ids = Arrays.copyOf(ids, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        genstamps = Arrays.copyOf(genstamps, capacity);
+        states = Arrays.copyOf(states, capacity);
+      }
+      ids[size] = id;
+      lengths[size] = length;
+      genstamps[size] = genstamp;
+      states[size] = state;
+      size++;
+    }
+
+    /** Sort the replicas, and delta encode them into a buffer. */
+    ByteString encode(CompressionCodec codec) {
+      new QuickSort().sort(this, 0, size);
+      try {
+        final ByteString.Output out = ByteString.newOutput(64*1024);
+        final OutputStream os = codec == null ?
+            out : codec.createOutputStream(out);
+        final CodedOutputStream cos = CodedOutputStream.newInstance(os);
+        long prevId = 0;
+        long prevLen = 0;
+        long prevGs = 0;
+        for (int i = 0; i < size; i++) {
+          // the id delta is never negative when unsigned, even if it wraps
+          cos.writeRawVarint64(ids[i] - prevId);
+          cos.writeSInt64NoTag(lengths[i] - prevLen);
+          cos.writeSInt64NoTag(genstamps[i] - prevGs);
+          cos.writeRawVarint64(states[i]);
+          prevId = ids[i];
+          prevLen = lengths[i];
+          prevGs = genstamps[i];
+        }
+        cos.flush();
+        os.close();
+        return out.toByteString();
+      } catch (IOException ioe) {
+        // shouldn't happen, ByteString.Output doesn't throw IOE
+        throw new IllegalStateException(ioe);
+      }
+    }
+
+    @Override
+    public int compare(int i, int j) {
+      return ids[i] < ids[j] ? -1 : (ids[i] == ids[j] ? 0 : 1);
+    }
+
+    @Override
+    public void swap(int i, int j) {
+      long id = ids[i];
+      ids[i] = ids[j];
+      ids[j] = id;
+      long length = lengths[i];
+      lengths[i] = lengths[j];
+      lengths[j] = length;
+      long genstamp = genstamps[i];
+      genstamps[i] = genstamps[j];
+      genstamps[j] = genstamp;
+      int state = states[i];
+      states[i] = states[j];
+      states[j] = state;
+    }
+  }
+
+  // decode sorted and delta encoded, possibly compressed, block report
+  private static class SortedBufferDecoder extends BufferDecoder {
+    // the smallest encoding of a replica, 4 varints
+    static final int MIN_REPLICA_BYTES = 4;
+    private static final int MAX_STATE = ReplicaState.values().length - 1;
+
+    private final CompressionCodec codec;
+
+    SortedBufferDecoder(final int numBlocks, final int numFinalized,
+        final ByteString buf, final CompressionCodec codec) {
+      super(numBlocks, numFinalized, buf);
+      this.codec = codec;
+    }
+
+    /** @return the codec which compressed the buffer, or null. */
+    @Override
+    public CompressionCodec getCompressionCodec() {
+      return codec;
+    }
+
+    @Override
+    public boolean isSorted() {
+      return true;
+    }
+
+    /**
+     * Each replica is decoded from the previous one, while iterating. A
+     * malformed buffer, which was sent by a remote datanode, fails the
+     * iteration with an IllegalStateException like the unsorted buffers.
+     */
+    @Override
+    public Iterator<BlockReportReplica> iterator() {
+      final int numBlocks = getNumberOfBlocks();
+      final CodedInputStream cis;
+      if (codec == null) {
+        cis = getBlocksBuffer().newCodedInput();
+      } else {
+        try {
+          cis = CodedInputStream.newInstance(
+              codec.createInputStream(getBlocksBuffer().newInput()));
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      // the whole buffer is read by this iterator, not a single message
+      cis.setSizeLimit(Integer.MAX_VALUE);
+      return new Iterator<BlockReportReplica>() {
+        final BlockReportReplica block = new BlockReportReplica();
+        private int currentBlockIndex = 0;
+        private long prevId = 0;
+        private long prevLen = 0;
+        private long prevGs = 0;
+
+        @Override
+        public boolean hasNext() {
+          return currentBlockIndex < numBlocks;
+        }
+
+        @Override
+        public BlockReportReplica next() {
+          currentBlockIndex++;
+          final long state;
+          try {
+            prevId += cis.readRawVarint64();
+            prevLen += cis.readSInt64();
+            prevGs += cis.readSInt64();
+            state = cis.readRawVarint64() & REPLICA_STATE_MASK;
+            if (state > MAX_STATE) {
+              throw new IOException("Invalid state " + state + " of block "
+                  + prevId + " in block report");
+            }
+            if (currentBlockIndex == numBlocks && !cis.isAtEnd()) {
+              throw new IOException("Block report has more than "
+                  + numBlocks + " blocks");
+            }
+          } catch (IOException e) {
+            throw new IllegalStateException(e);
+          }
+          block.setBlockId(prevId);
+          block.setNumBytes(prevLen & NUM_BYTES_MASK);
+          block.setGenerationStamp(prevGs);
+          block.setState(ReplicaState.getState((int) state));
+          return block;
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+
   // decode old style block report of longs
   private static class LongsDecoder extends BlockListAsLongs {
     private final List<Long> values;
@@ -656,7 +656,36 @@ public DirectoryListing getListing(String src,
                                      boolean needLocation)
       throws AccessControlException, FileNotFoundException,
       UnresolvedLinkException, IOException;
-  
+
+  /**
+   * Get a partial listing of all the files and directories under the
+   * indicated directory, in depth first order.
+   *
+   * The local name of each entry is its path relative to <code>src</code>,
+   * and the last one is the cursor to pass as <code>startAfter</code> to get
+   * the next batch. Unlike {@link #getListing}, the remaining entries of the
+   * returned listing are only 0 or 1, whether there are more to list.
+   * Each batch is consistent, the subtree may change between the batches.
+   *
+   * @param src the directory name
+   * @param startAfter the relative path to start listing after encoded in
+   *        java UTF8, empty to start at the beginning
+   * @param needLocation if the FileStatus should contain block locations
+   *
+   * @return a partial listing starting after startAfter
+   *
+   * @throws AccessControlException permission denied
+   * @throws FileNotFoundException file <code>src</code> is not found
+   * @throws UnresolvedLinkException If <code>src</code> contains a symlink
+   * @throws IOException If an I/O error occurred
+   */
+  @Idempotent
+  public DirectoryListing getListingRecursive(String src,
+                                              byte[] startAfter,
+                                              boolean needLocation)
+      throws AccessControlException, FileNotFoundException,
+      UnresolvedLinkException, IOException;
+
   /**
    * Get listing of all the snapshottable directories
    * 
@@ -1051,6 +1080,32 @@ public void setTimes(String src, long mtime, long atime)
       throws AccessControlException, FileNotFoundException, 
       UnresolvedLinkException, SnapshotAccessControlException, IOException;
 
+  /**
+   * Apply a batch of namespace mutations with a single acquisition of the
+   * namesystem lock and a single sync of the edit log.
+   * <p>
+   * The operations are applied in order. An operation which fails does not
+   * fail the batch, its exception is returned as its result and the next
+   * operations are still applied. The files are created empty and closed,
+   * and cannot be created in an encryption zone.
+   * <p>
+   * A batch is retried at most once on the same NameNode. After a failover,
+   * the retried creates report a {@link FileAlreadyExistsException}.
+   *
+   * @param ops the operations, at most
+   *        {@link DFSConfigKeys#DFS_NAMENODE_BATCH_MAX_OPERATIONS_KEY}
+   * @param clientName the name of the client creating the files
+   * @return the result of each operation, in the same order
+   *
+   * @throws SafeModeException the NameNode is in safe mode, no operation
+   *         is applied
+   * @throws IOException If an I/O error occurred, e.g. the batch is too
+   *         large
+   */
+  @AtMostOnce
+  public List<BatchedOperationResult> batch(List<BatchedOperation> ops,
+      String clientName) throws SafeModeException, IOException;
+
   /**
    * Create symlink to a file or directory.
    * @param target The path of the destination that the
@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs.protocolPB;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 
@@ -28,6 +29,8 @@
 import org.apache.hadoop.fs.CreateFlag;
 import org.apache.hadoop.fs.FsServerDefaults;
 import org.apache.hadoop.fs.Options.Rename;
+import org.apache.hadoop.hdfs.protocol.BatchedOperation;
+import org.apache.hadoop.hdfs.protocol.BatchedOperationResult;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -115,6 +118,11 @@
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetFsStatusRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetLinkTargetRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetLinkTargetResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchedOperationProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetListingRecursiveRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetListingRecursiveResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetListingRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetListingResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetPreferredBlockSizeRequestProto;
@@ -282,6 +290,10 @@ public class ClientNamenodeProtocolServerSideTranslatorPB implements
   private static final GetListingResponseProto VOID_GETLISTING_RESPONSE = 
   GetListingResponseProto.newBuilder().build();
 
+  private static final GetListingRecursiveResponseProto
+      VOID_GETLISTINGRECURSIVE_RESPONSE =
+      GetListingRecursiveResponseProto.newBuilder().build();
+
   private static final RenewLeaseResponseProto VOID_RENEWLEASE_RESPONSE = 
   RenewLeaseResponseProto.newBuilder().build();
 
@@ -652,6 +664,25 @@ public GetListingResponseProto getListing(RpcController controller,
       throw new ServiceException(e);
     }
   }
+
+  @Override
+  public GetListingRecursiveResponseProto getListingRecursive(
+      RpcController controller, GetListingRecursiveRequestProto req)
+      throws ServiceException {
+    try {
+      DirectoryListing result = server.getListingRecursive(
+          req.getSrc(), req.getStartAfter().toByteArray(),
+          req.getNeedLocation());
+      if (result != null) {
+        return GetListingRecursiveResponseProto.newBuilder().setDirList(
+            PBHelper.convert(result)).build();
+      } else {
+        return VOID_GETLISTINGRECURSIVE_RESPONSE;
+      }
+    } catch (IOException e) {
+      throw new ServiceException(e);
+    }
+  }
   
   @Override
   public RenewLeaseResponseProto renewLease(RpcController controller,
@@ -927,6 +958,27 @@ public SetTimesResponseProto setTimes(RpcController controller,
     }
   }
 
+  @Override
+  public BatchResponseProto batch(RpcController controller,
+      BatchRequestProto req) throws ServiceException {
+    try {
+      List<BatchedOperation> ops =
+          new ArrayList<BatchedOperation>(req.getOpsCount());
+      for (BatchedOperationProto op : req.getOpsList()) {
+        ops.add(PBHelper.convert(op));
+      }
+      List<BatchedOperationResult> results =
+          server.batch(ops, req.getClientName());
+      BatchResponseProto.Builder builder = BatchResponseProto.newBuilder();
+      for (BatchedOperationResult result : results) {
+        builder.addResults(PBHelper.convert(result));
+      }
+      return builder.build();
+    } catch (IOException e) {
+      throw new ServiceException(e);
+    }
+  }
+
   @Override
   public CreateSymlinkResponseProto createSymlink(RpcController controller,
       CreateSymlinkRequestProto req) throws ServiceException {
@@ -184,11 +184,26 @@ public DatanodeCommand blockReport(DatanodeRegistration registration,
     
     boolean useBlocksBuffer = registration.getNamespaceInfo()
         .isCapabilitySupported(Capability.STORAGE_BLOCK_REPORT_BUFFERS);
+    boolean useSortedBuffers = useBlocksBuffer
+        && registration.getNamespaceInfo().isCapabilitySupported(
+            Capability.STORAGE_BLOCK_REPORT_SORTED_BUFFERS);
 
     for (StorageBlockReport r : reports) {
       StorageBlockReportProto.Builder reportBuilder = StorageBlockReportProto
           .newBuilder().setStorage(PBHelper.convert(r.getStorage()));
       BlockListAsLongs blocks = r.getBlocks();
+      if (blocks.isSorted()) {
+        if (useSortedBuffers) {
+          reportBuilder.setSortedBuffers(true);
+          if (blocks.getCompressionCodec() != null) {
+            reportBuilder.setBuffersCodec(
+                blocks.getCompressionCodec().getClass().getName());
+          }
+        } else if (useBlocksBuffer) {
+          // the namenode cannot decode sorted buffers, re-encode the report
+          blocks = BlockListAsLongs.encode(blocks);
+        }
+      }
       if (useBlocksBuffer) {
         reportBuilder.setNumberOfBlocks(blocks.getNumberOfBlocks());
         reportBuilder.addAllBlocksBuffers(blocks.getBlocksBuffers());
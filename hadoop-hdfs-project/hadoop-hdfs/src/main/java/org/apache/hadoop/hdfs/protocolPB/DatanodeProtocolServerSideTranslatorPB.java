@@ -21,6 +21,7 @@
 import java.io.IOException;
 import java.util.List;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
@@ -59,6 +60,8 @@
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.server.protocol.VolumeFailureSummary;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
 
 import com.google.common.base.Preconditions;
 import com.google.protobuf.RpcController;
@@ -81,8 +84,17 @@ public class DatanodeProtocolServerSideTranslatorPB implements
       VOID_COMMIT_BLOCK_SYNCHRONIZATION_RESPONSE_PROTO =
           CommitBlockSynchronizationResponseProto.newBuilder().build();
 
+  /** Resolves the codecs of compressed block reports. */
+  private final CompressionCodecFactory codecFactory;
+
   public DatanodeProtocolServerSideTranslatorPB(DatanodeProtocol impl) {
+    this(impl, new Configuration());
+  }
+
+  public DatanodeProtocolServerSideTranslatorPB(DatanodeProtocol impl,
+      Configuration conf) {
     this.impl = impl;
+    this.codecFactory = new CompressionCodecFactory(conf);
   }
 
   @Override
@@ -161,7 +173,25 @@ public BlockReportResponseProto blockReport(RpcController controller,
         int num = (int)s.getNumberOfBlocks();
         Preconditions.checkState(s.getBlocksCount() == 0,
             "cannot send both blocks list and buffers");
-        blocks = BlockListAsLongs.decodeBuffers(num, s.getBlocksBuffersList());
+        if (s.getSortedBuffers()) {
+          CompressionCodec codec = null;
+          if (s.hasBuffersCodec()) {
+            codec = codecFactory.getCodecByClassName(s.getBuffersCodec());
+            if (codec == null) {
+              throw new ServiceException(new IOException(
+                  "Not a supported codec: " + s.getBuffersCodec()));
+            }
+          }
+          try {
+            blocks = BlockListAsLongs.decodeSortedBuffers(num,
+                s.getBlocksBuffersList(), codec);
+          } catch (IOException e) {
+            throw new ServiceException(e);
+          }
+        } else {
+          blocks = BlockListAsLongs.decodeBuffers(num,
+              s.getBlocksBuffersList());
+        }
       } else {
         blocks = BlockListAsLongs.decodeLongs(s.getBlocksList());
       }
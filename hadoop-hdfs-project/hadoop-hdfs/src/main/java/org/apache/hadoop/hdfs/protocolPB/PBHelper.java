@@ -52,6 +52,8 @@
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.inotify.Event;
 import org.apache.hadoop.hdfs.inotify.EventBatchList;
+import org.apache.hadoop.hdfs.protocol.BatchedOperation;
+import org.apache.hadoop.hdfs.protocol.BatchedOperationResult;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -93,6 +95,8 @@
 import org.apache.hadoop.hdfs.protocol.proto.AclProtos.AclStatusProto;
 import org.apache.hadoop.hdfs.protocol.proto.AclProtos.GetAclStatusResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchedOperationProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchedOperationResultProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveEntryProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoExpirationProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoProto;
@@ -226,6 +230,7 @@
 import org.apache.hadoop.hdfs.util.ExactSizeInputStream;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.security.proto.SecurityProtos.TokenProto;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.util.DataChecksum;
@@ -1921,7 +1926,10 @@ public static StorageReportProto convert(StorageReport r) {
         .setBlockPoolUsed(r.getBlockPoolUsed()).setCapacity(r.getCapacity())
         .setDfsUsed(r.getDfsUsed()).setRemaining(r.getRemaining())
         .setStorageUuid(r.getStorage().getStorageID())
-        .setStorage(convert(r.getStorage()));
+        .setStorage(convert(r.getStorage()))
+        .setWriteBytesPerSec(r.getWriteBytesPerSec())
+        .setActiveWriters(r.getActiveWriters())
+        .setSlowDisk(r.isSlowDisk());
     return builder.build();
   }
 
@@ -1931,7 +1939,8 @@ public static StorageReport convert(StorageReportProto p) {
             convert(p.getStorage()) :
             new DatanodeStorage(p.getStorageUuid()),
         p.getFailed(), p.getCapacity(), p.getDfsUsed(), p.getRemaining(),
-        p.getBlockPoolUsed());
+        p.getBlockPoolUsed(), p.getWriteBytesPerSec(), p.getActiveWriters(),
+        p.getSlowDisk());
   }
 
   public static StorageReport[] convertStorageReports(
@@ -2119,6 +2128,65 @@ public static DataChecksum.Type convert(HdfsProtos.ChecksumTypeProto type) {
     return builder.build();
   }
 
+  public static BatchedOperationProto convert(BatchedOperation op) {
+    BatchedOperationProto.Builder builder = BatchedOperationProto.newBuilder()
+        .setType(BatchedOperationProto.Type.valueOf(op.getType().name()))
+        .setSrc(op.getPath().toUri().getPath())
+        .setCreateParent(op.getCreateParent())
+        .setReplication(op.getReplication())
+        .setBlockSize(op.getBlockSize())
+        .setMtime(op.getMtime())
+        .setAtime(op.getAtime());
+    if (op.getPermission() != null) {
+      builder.setPermission(convert(op.getPermission()));
+    }
+    if (op.getUsername() != null) {
+      builder.setUsername(op.getUsername());
+    }
+    if (op.getGroupname() != null) {
+      builder.setGroupname(op.getGroupname());
+    }
+    return builder.build();
+  }
+
+  public static BatchedOperation convert(BatchedOperationProto proto) {
+    return new BatchedOperation(
+        BatchedOperation.Type.valueOf(proto.getType().name()),
+        new Path(proto.getSrc()),
+        proto.hasPermission() ? convert(proto.getPermission()) : null,
+        proto.getCreateParent(),
+        (short) proto.getReplication(),
+        proto.getBlockSize(),
+        proto.hasUsername() ? proto.getUsername() : null,
+        proto.hasGroupname() ? proto.getGroupname() : null,
+        proto.getMtime(),
+        proto.getAtime());
+  }
+
+  public static BatchedOperationResultProto convert(
+      BatchedOperationResult result) {
+    BatchedOperationResultProto.Builder builder =
+        BatchedOperationResultProto.newBuilder();
+    if (!result.isSuccess()) {
+      final IOException e = result.getException();
+      builder.setExceptionClassName(e instanceof RemoteException ?
+          ((RemoteException) e).getClassName() : e.getClass().getName());
+      if (e.getMessage() != null) {
+        builder.setExceptionMessage(e.getMessage());
+      }
+    }
+    return builder.build();
+  }
+
+  public static BatchedOperationResult convert(
+      BatchedOperationResultProto proto) {
+    if (!proto.hasExceptionClassName()) {
+      return BatchedOperationResult.SUCCESS;
+    }
+    return new BatchedOperationResult(new RemoteException(
+        proto.getExceptionClassName(), proto.getExceptionMessage()));
+  }
+
   public static CacheDirectiveInfo convert
       (CacheDirectiveInfoProto proto) {
     CacheDirectiveInfo.Builder builder =
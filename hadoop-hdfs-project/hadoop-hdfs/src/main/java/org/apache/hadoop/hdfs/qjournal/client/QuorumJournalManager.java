@@ -21,6 +21,7 @@
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -475,6 +476,12 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
     LOG.debug("selectInputStream manifests:\n" +
         Joiner.on("\n").withKeyValueSeparator(": ").join(resps));
     
+    // The end of an in-progress segment may not be on a quorum of journals
+    // yet, and could then be dropped when the segment is recovered. Only the
+    // edits which are durable are read.
+    final long durableTxId = inProgressOk ?
+        getDurableTxId(resps.values(), fromTxnId) : Long.MAX_VALUE;
+
     final PriorityQueue<EditLogInputStream> allStreams = 
         new PriorityQueue<EditLogInputStream>(64,
             JournalSet.EDIT_LOG_INPUT_STREAM_COMPARATOR);
@@ -483,16 +490,46 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
       RemoteEditLogManifest manifest = e.getValue();
       
       for (RemoteEditLog remoteLog : manifest.getLogs()) {
+        long endTxId = remoteLog.getEndTxId();
+        if (remoteLog.isInProgress() && endTxId > durableTxId) {
+          if (durableTxId < Math.max(remoteLog.getStartTxId(), fromTxnId)) {
+            continue;
+          }
+          endTxId = durableTxId;
+        }
         URL url = logger.buildURLToFetchLogs(remoteLog.getStartTxId());
 
         EditLogInputStream elis = EditLogFileInputStream.fromUrl(
             connectionFactory, url, remoteLog.getStartTxId(),
-            remoteLog.getEndTxId(), remoteLog.isInProgress());
+            endTxId, remoteLog.isInProgress());
         allStreams.add(elis);
       }
     }
     JournalSet.chainAndMakeRedundantStreams(streams, allStreams, fromTxnId);
   }
+
+  /**
+   * @return the highest transaction ID written to a quorum of the journals,
+   * given the manifests of at least a quorum of them.
+   */
+  @VisibleForTesting
+  long getDurableTxId(Collection<RemoteEditLogManifest> manifests,
+      long fromTxnId) {
+    final long[] highestTxIds = new long[manifests.size()];
+    int i = 0;
+    for (RemoteEditLogManifest manifest : manifests) {
+      long highest = fromTxnId - 1;
+      for (RemoteEditLog remoteLog : manifest.getLogs()) {
+        highest = Math.max(highest, remoteLog.getEndTxId());
+      }
+      highestTxIds[i++] = highest;
+    }
+    Arrays.sort(highestTxIds);
+    final int majority = loggers.getMajoritySize();
+    Preconditions.checkState(highestTxIds.length >= majority,
+        "Got %s manifests but a quorum is %s", highestTxIds.length, majority);
+    return highestTxIds[highestTxIds.length - majority];
+  }
   
   @Override
   public String toString() {
@@ -300,6 +300,25 @@ assert getPrevious(dnIndex) == null && getNext(dnIndex) == null :
     return this;
   }
 
+  /**
+   * Insert the list of blocks from this block to the given tail, which are
+   * related to the specified DatanodeStorageInfo, into the head of the list
+   * of blocks starting with head.
+   * @return current block as the new head of the list.
+   */
+  BlockInfoContiguous listInsertAll(BlockInfoContiguous tail,
+      BlockInfoContiguous head, DatanodeStorageInfo storage) {
+    assert getPrevious(findStorageInfo(storage)) == null :
+            "Block is not the head of its list.";
+    int tailIndex = tail.findStorageInfo(storage);
+    assert tailIndex >= 0 && tail.getNext(tailIndex) == null :
+            "Block is not the tail of its list.";
+    tail.setNext(tailIndex, head);
+    if(head != null)
+      head.setPrevious(head.findStorageInfo(storage), tail);
+    return this;
+  }
+
   /**
    * Remove this block from the list of blocks 
    * related to the specified DatanodeStorageInfo.
@@ -21,7 +21,9 @@
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
@@ -35,6 +37,10 @@
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.ObjectName;
@@ -93,6 +99,7 @@
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -276,6 +283,18 @@ public int getPendingDataNodeMessageCount() {
   /** Reports if Name node was started with Rollback option. */
   private boolean inRollBack = false;
 
+  /** Number of threads processing the first block reports, and stripes. */
+  private final int firstBlockReportThreads;
+  /** Processes the first block reports in parallel, null if disabled. */
+  private final ExecutorService firstBlockReportExecutor;
+  /** Number of threads choosing the targets of the replications. */
+  private final int replicationWorkThreads;
+  /** Chooses the targets of the replications in parallel, null if disabled. */
+  private final ExecutorService replicationWorkExecutor;
+  /** First block reports waiting to be processed, guarded by the lock. */
+  private final List<PendingFirstBlockReport> pendingFirstBlockReports =
+      new ArrayList<PendingFirstBlockReport>();
+
   public BlockManager(final Namesystem namesystem, final Configuration conf)
     throws IOException {
     this.namesystem = namesystem;
@@ -357,6 +376,26 @@ public BlockManager(final Namesystem namesystem, final Configuration conf)
     this.blockReportLeaseManager = new BlockReportLeaseManager(conf);
     this.numberOfBytesInFutureBlocks = new AtomicLong();
     this.inRollBack = isInRollBackMode(NameNode.getStartupOption(conf));
+    this.firstBlockReportThreads = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_FIRST_BLOCK_REPORT_THREADS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_FIRST_BLOCK_REPORT_THREADS_DEFAULT);
+    if (firstBlockReportThreads > 1) {
+      this.firstBlockReportExecutor = Executors.newFixedThreadPool(
+          firstBlockReportThreads, new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("FirstBlockReportProcessor-%d").build());
+    } else {
+      this.firstBlockReportExecutor = null;
+    }
+    this.replicationWorkThreads = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_DEFAULT);
+    if (replicationWorkThreads > 1) {
+      this.replicationWorkExecutor = Executors.newFixedThreadPool(
+          replicationWorkThreads, new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("ReplicationTargetChooser-%d").build());
+    } else {
+      this.replicationWorkExecutor = null;
+    }
 
     LOG.info("defaultReplication         = " + defaultReplication);
     LOG.info("maxReplication             = " + maxReplication);
@@ -365,6 +404,8 @@ public BlockManager(final Namesystem namesystem, final Configuration conf)
     LOG.info("replicationRecheckInterval = " + replicationRecheckInterval);
     LOG.info("encryptDataTransfer        = " + encryptDataTransfer);
     LOG.info("maxNumBlocksToLog          = " + maxNumBlocksToLog);
+    LOG.info("firstBlockReportThreads    = " + firstBlockReportThreads);
+    LOG.info("replicationWorkThreads     = " + replicationWorkThreads);
   }
 
   private static BlockTokenSecretManager createBlockTokenSecretManager(
@@ -472,6 +513,12 @@ public void close() {
       replicationThread.join(3000);
     } catch (InterruptedException ie) {
     }
+    if (firstBlockReportExecutor != null) {
+      firstBlockReportExecutor.shutdownNow();
+    }
+    if (replicationWorkExecutor != null) {
+      replicationWorkExecutor.shutdownNow();
+    }
     datanodeManager.close();
     pendingReplications.stop();
     blocksMap.close();
@@ -1349,7 +1396,7 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
     int blocksWithEnoughReplicas = 0;
 
     int scheduledWork = 0;
-    List<ReplicationWork> work = new LinkedList<ReplicationWork>();
+    List<ReplicationWork> work = new ArrayList<ReplicationWork>();
 
     namesystem.writeLock();
     try {
@@ -1419,21 +1466,11 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
       namesystem.writeUnlock();
     }
 
-    final Set<Node> excludedNodes = new HashSet<Node>();
-    for(ReplicationWork rw : work){
-      // Exclude all of the containing nodes from being targets.
-      // This list includes decommissioning or corrupt nodes.
-      excludedNodes.clear();
-      for (DatanodeDescriptor dn : rw.containingNodes) {
-        excludedNodes.add(dn);
-      }
-
-      // choose replication targets: NOT HOLDING THE GLOBAL LOCK
-      // It is costly to extract the filename for which chooseTargets is called,
-      // so for now we pass in the block collection itself.
-      rw.chooseTargets(blockplacement, storagePolicySuite, excludedNodes);
-    }
+    // choose replication targets: NOT HOLDING THE GLOBAL LOCK
+    final long chooseTargetsStart = Time.monotonicNow();
+    chooseTargets(work);
 
+    final long scheduleStart = Time.monotonicNow();
     namesystem.writeLock();
     try {
       for(ReplicationWork rw : work){
@@ -1512,6 +1549,13 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
     } finally {
       namesystem.writeUnlock();
     }
+    final long scheduleEnd = Time.monotonicNow();
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addReplicationWork(work.size(),
+          scheduleStart - chooseTargetsStart, scheduledWork,
+          scheduleEnd - scheduleStart);
+    }
 
     if (blockLog.isDebugEnabled()) {
       // log which blocks have been scheduled for replication
@@ -1852,11 +1896,13 @@ public boolean processReport(final DatanodeID nodeID,
       final DatanodeStorage storage,
       final BlockListAsLongs newReport, BlockReportContext context,
       boolean lastStorageInRpc) throws IOException {
+    final long arrivalTime = Time.monotonicNow();
     namesystem.writeLock();
     final long startTime = Time.monotonicNow(); //after acquiring write lock
     final long endTime;
     DatanodeDescriptor node;
     Collection<Block> invalidatedBlocks = Collections.emptyList();
+    boolean firstReport = false;
 
     try {
       node = datanodeManager.getDatanode(nodeID);
@@ -1888,15 +1934,29 @@ public boolean processReport(final DatanodeID nodeID,
         }
       }
 
+      PendingFirstBlockReport pending = null;
       if (storageInfo.getBlockReportCount() == 0) {
+        firstReport = true;
         // The first block report can be processed a lot more efficiently than
         // ordinary block reports.  This shortens restart times.
-        processFirstBlockReport(storageInfo, newReport);
+        if (canProcessFirstBlockReportsInParallel()) {
+          pending = new PendingFirstBlockReport(storageInfo, newReport);
+          pendingFirstBlockReports.add(pending);
+        } else {
+          processFirstBlockReport(storageInfo, newReport);
+        }
       } else {
         invalidatedBlocks = processReport(storageInfo, newReport);
       }
       
       storageInfo.receivedBlockReport();
+      if (pending != null) {
+        // Let the first reports of other datanodes join the batch, the
+        // storage already counts as reported so that a retry is discarded.
+        namesystem.writeUnlock();
+        namesystem.writeLock();
+        processPendingFirstBlockReports(pending);
+      }
       if (context != null) {
         storageInfo.setLastBlockReportId(context.getReportId());
         if (lastStorageInRpc) {
@@ -1937,6 +1997,9 @@ public boolean processReport(final DatanodeID nodeID,
     final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
     if (metrics != null) {
       metrics.addBlockReport((int) (endTime - startTime));
+      if (firstReport) {
+        metrics.addFirstBlockReport(endTime - arrivalTime);
+      }
     }
     blockLog.info("BLOCK* processReport: from storage {} node {}, " +
         "blocks: {}, hasStaleStorage: {}, processing time: {} msecs, " +
@@ -2148,64 +2211,415 @@ private void processFirstBlockReport(
     assert (storageInfo.getBlockReportCount() == 0);
 
     for (BlockReportReplica iblk : report) {
-      ReplicaState reportedState = iblk.getState();
-      
-      if (shouldPostponeBlocksFromFuture &&
-          namesystem.isGenStampInFuture(iblk)) {
+      processFirstBlockReportReplica(storageInfo, iblk);
+    }
+  }
+
+  /**
+   * Process one replica of an initial block report.
+   * @see #processFirstBlockReport(DatanodeStorageInfo, BlockListAsLongs)
+   */
+  private void processFirstBlockReportReplica(
+      final DatanodeStorageInfo storageInfo, final BlockReportReplica iblk)
+      throws IOException {
+    ReplicaState reportedState = iblk.getState();
+    
+    if (shouldPostponeBlocksFromFuture &&
+        namesystem.isGenStampInFuture(iblk)) {
+      queueReportedBlock(storageInfo, iblk, reportedState,
+          QUEUE_REASON_FUTURE_GENSTAMP);
+      return;
+    }
+    
+    BlockInfoContiguous storedBlock = blocksMap.getStoredBlock(iblk);
+
+    // If block does not belong to any file, we check if it violates
+    // an integrity assumption of Name node
+    if (storedBlock == null) {
+      if (namesystem.isInStartupSafeMode()
+          && !shouldPostponeBlocksFromFuture
+          && !inRollBack
+          && namesystem.isGenStampInFuture(iblk)) {
+        numberOfBytesInFutureBlocks.addAndGet(iblk.getBytesOnDisk());
+      }
+      return;
+    }
+
+    // If block is corrupt, mark it and continue to next block.
+    BlockUCState ucState = storedBlock.getBlockUCState();
+    BlockToMarkCorrupt c = checkReplicaCorrupt(
+        iblk, reportedState, storedBlock, ucState,
+        storageInfo.getDatanodeDescriptor());
+    if (c != null) {
+      if (shouldPostponeBlocksFromFuture) {
+        // In the Standby, we may receive a block report for a file that we
+        // just have an out-of-date gen-stamp or state for, for example.
         queueReportedBlock(storageInfo, iblk, reportedState,
-            QUEUE_REASON_FUTURE_GENSTAMP);
-        continue;
+            QUEUE_REASON_CORRUPT_STATE);
+      } else {
+        markBlockAsCorrupt(c, storageInfo, storageInfo.getDatanodeDescriptor());
       }
-      
-      BlockInfoContiguous storedBlock = blocksMap.getStoredBlock(iblk);
+      return;
+    }
+    
+    // If block is under construction, add this replica to its list
+    if (isBlockUnderConstruction(storedBlock, ucState, reportedState)) {
+      ((BlockInfoContiguousUnderConstruction)storedBlock)
+          .addReplicaIfNotPresent(storageInfo, iblk, reportedState);
+      // OpenFileBlocks only inside snapshots also will be added to safemode
+      // threshold. So we need to update such blocks to safemode
+      // refer HDFS-5283
+      BlockInfoContiguousUnderConstruction blockUC =
+          (BlockInfoContiguousUnderConstruction) storedBlock;
+      if (namesystem.isInSnapshot(blockUC)) {
+        int numOfReplicas = blockUC.getNumExpectedLocations();
+        namesystem.incrementSafeBlockCount(numOfReplicas);
+      }
+      //and fall through to next clause
+    }      
+    //add replica if appropriate
+    if (reportedState == ReplicaState.FINALIZED) {
+      addStoredBlockImmediate(storedBlock, storageInfo);
+    }
+  }
+
+  /**
+   * @return true if the first block reports can be processed in parallel:
+   * the namenode is starting up and no replica is added to the replication
+   * queues nor postponed.
+   */
+  private boolean canProcessFirstBlockReportsInParallel() {
+    return firstBlockReportExecutor != null
+        && namesystem.isInStartupSafeMode()
+        && !namesystem.isPopulatingReplQueues()
+        && !shouldPostponeBlocksFromFuture;
+  }
+
+  /**
+   * Process the given first block report, if not done yet, along with all
+   * the other pending first block reports.
+   */
+  private void processPendingFirstBlockReports(PendingFirstBlockReport pending)
+      throws IOException {
+    assert namesystem.hasWriteLock();
+    if (!pending.processed) {
+      final List<PendingFirstBlockReport> batch =
+          new ArrayList<PendingFirstBlockReport>(pendingFirstBlockReports);
+      pendingFirstBlockReports.clear();
+      final List<PendingFirstBlockReport> live =
+          new ArrayList<PendingFirstBlockReport>(batch.size());
+      for (PendingFirstBlockReport p : batch) {
+        p.processed = true;
+        final DatanodeDescriptor node = p.storageInfo.getDatanodeDescriptor();
+        if (node.isAlive && node.getStorageInfo(
+            p.storageInfo.getStorageID()) == p.storageInfo) {
+          live.add(p);
+        } else {
+          p.failure = new IOException("Storage " + p.storageInfo
+              + " was removed before its first block report was processed");
+        }
+      }
+      try {
+        if (canProcessFirstBlockReportsInParallel()) {
+          processFirstBlockReports(live);
+        } else {
+          for (PendingFirstBlockReport p : live) {
+            processFirstBlockReport(p.storageInfo, p.report);
+          }
+        }
+      } catch (IOException e) {
+        for (PendingFirstBlockReport p : live) {
+          p.failure = e;
+        }
+      } catch (RuntimeException e) {
+        for (PendingFirstBlockReport p : live) {
+          p.failure = new IOException(
+              "Failed to process the first block reports", e);
+        }
+      }
+    }
+    if (pending.failure != null) {
+      throw pending.failure;
+    }
+  }
+
+  /**
+   * Process a batch of first block reports in parallel. Each report is
+   * decoded once and split into stripes by block id, one thread per report.
+   * Each stripe is then processed by one thread, which links the replicas
+   * of its stripe into per storage lists without touching the blocks of the
+   * other stripes. The lists are then
+   * added to the storages, and the updates of the safe block count and the
+   * replicas needing more work than adding them are applied serially, in
+   * the order of the reports.
+   */
+  private void processFirstBlockReports(List<PendingFirstBlockReport> batch)
+      throws IOException {
+    assert namesystem.hasWriteLock();
+    final long start = Time.monotonicNow();
+    final int numStripes = firstBlockReportThreads;
+    final ReportSlice[][] slices = new ReportSlice[batch.size()][];
+    final List<Future<?>> splits = new ArrayList<Future<?>>(batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      final int r = i;
+      splits.add(firstBlockReportExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          slices[r] = ReportSlice.split(batch.get(r).report, numStripes);
+        }
+      }));
+    }
+    Throwable failure = waitForAll(splits);
+    if (failure != null) {
+      throw new IOException("Failed to decode the first block reports",
+          failure);
+    }
+
+    final List<FirstBlockReportStripe> stripes =
+        new ArrayList<FirstBlockReportStripe>(numStripes);
+    final List<Future<?>> futures = new ArrayList<Future<?>>(numStripes);
+    for (int i = 0; i < numStripes; i++) {
+      final FirstBlockReportStripe stripe =
+          new FirstBlockReportStripe(i, batch, slices);
+      stripes.add(stripe);
+      futures.add(firstBlockReportExecutor.submit(stripe));
+    }
+    // the stripes must all be done and linked even if one of them failed,
+    // the blocks of a stripe already refer to the storages
+    failure = waitForAll(futures);
+    for (FirstBlockReportStripe stripe : stripes) {
+      stripe.linkBlockLists();
+    }
+    if (failure != null) {
+      throw new IOException("Failed to process the first block reports",
+          failure);
+    }
+    for (FirstBlockReportStripe stripe : stripes) {
+      stripe.incrementSafeBlockCounts();
+    }
+    for (FirstBlockReportStripe stripe : stripes) {
+      for (Map.Entry<DatanodeStorageInfo, BlockReportReplica> e :
+          stripe.deferred) {
+        processFirstBlockReportReplica(e.getKey(), e.getValue());
+      }
+    }
+    blockLog.info("BLOCK* processFirstBlockReports: processed the first"
+        + " reports of {} storages with {} threads in {} msecs",
+        batch.size(), numStripes, Time.monotonicNow() - start);
+  }
+
+  /**
+   * Wait for all the given tasks to be done.
+   * @return the failure of the first failed task, or null
+   */
+  private static Throwable waitForAll(List<Future<?>> futures) {
+    Throwable failure = null;
+    boolean interrupted = false;
+    for (Future<?> f : futures) {
+      while (true) {
+        try {
+          f.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    return failure;
+  }
+
+  /**
+   * The replicas of a block report whose block ids fall into one stripe,
+   * copied out of the report so that it is only decoded once.
+   */
+  @VisibleForTesting
+  static class ReportSlice {
+    private long[] ids;
+    private long[] lengths;
+    private long[] genstamps;
+    private byte[] states;
+    private int size = 0;
+
+    ReportSlice(int capacity) {
+      ids = new long[capacity];
+      lengths = new long[capacity];
+      genstamps = new long[capacity];
+      states = new byte[capacity];
+    }
+
+    /** @return the stripe of the given block. */
+    static int getStripe(long blockId, int numStripes) {
+      long r = blockId % numStripes;
+      return (int) (r < 0 ? r + numStripes : r);
+    }
+
+    /**
+     * Split a report into the slices of the stripes, in a single pass.
+     * @return the slices indexed by stripe
+     */
+    static ReportSlice[] split(BlockListAsLongs report, int numStripes) {
+      final ReportSlice[] slices = new ReportSlice[numStripes];
+      // block ids are sequential, the stripes are about the same size
+      final int capacity = report == null ? 0
+          : report.getNumberOfBlocks() / numStripes + 16;
+      for (int i = 0; i < numStripes; i++) {
+        slices[i] = new ReportSlice(capacity);
+      }
+      if (report != null) {
+        for (BlockReportReplica replica : report) {
+          slices[getStripe(replica.getBlockId(), numStripes)].add(replica);
+        }
+      }
+      return slices;
+    }
+
+    void add(BlockReportReplica replica) {
+      if (size == ids.length) {
+        final int capacity = Math.max(2 * size, 16);
+        ids = Arrays.copyOf(ids, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        genstamps = Arrays.copyOf(genstamps, capacity);
+        states = Arrays.copyOf(states, capacity);
+      }
+      ids[size] = replica.getBlockId();
+      lengths[size] = replica.getNumBytes();
+      genstamps[size] = replica.getGenerationStamp();
+      states[size] = (byte) replica.getState().getValue();
+      size++;
+    }
+
+    int size() {
+      return size;
+    }
+
+    /** Copy the i-th replica of the slice into the given replica. */
+    void get(int i, BlockReportReplica replica) {
+      replica.set(ids[i], lengths[i], genstamps[i]);
+      replica.setState(ReplicaState.getState(states[i]));
+    }
+  }
+
+  /** A first block report waiting to be processed in a batch. */
+  private static class PendingFirstBlockReport {
+    private final DatanodeStorageInfo storageInfo;
+    private final BlockListAsLongs report;
+    /** Guarded by the namesystem write lock */
+    private boolean processed = false;
+    private IOException failure;
+
+    PendingFirstBlockReport(DatanodeStorageInfo storageInfo,
+        BlockListAsLongs report) {
+      this.storageInfo = storageInfo;
+      this.report = report;
+    }
+  }
+
+  /**
+   * Processes the replicas of a batch of first block reports whose block
+   * ids fall into one stripe. Only the common case, a finalized replica of
+   * a complete block, is handled concurrently; it only modifies the blocks
+   * of the stripe. The other replicas are deferred, and so are all the later
+   * replicas of their blocks, to keep the order of the replicas of a block.
+   */
+  private class FirstBlockReportStripe implements Runnable {
+    private final int index;
+    private final List<PendingFirstBlockReport> batch;
+    /** Slices of the reports of the batch, by report and stripe */
+    private final ReportSlice[][] slices;
+    /** Blocks of the stripe linked for each storage of the batch */
+    private final BlockInfoContiguous[] heads;
+    private final BlockInfoContiguous[] tails;
+    private final int[] counts;
+    /** Number of added replicas by the number of live replicas after it */
+    private int[] safeBlockCounts = new int[4];
+    private final List<Map.Entry<DatanodeStorageInfo, BlockReportReplica>>
+        deferred =
+        new ArrayList<Map.Entry<DatanodeStorageInfo, BlockReportReplica>>();
+    private final Set<Long> deferredBlockIds = new HashSet<Long>();
+
+    FirstBlockReportStripe(int index, List<PendingFirstBlockReport> batch,
+        ReportSlice[][] slices) {
+      this.index = index;
+      this.batch = batch;
+      this.slices = slices;
+      this.heads = new BlockInfoContiguous[batch.size()];
+      this.tails = new BlockInfoContiguous[batch.size()];
+      this.counts = new int[batch.size()];
+    }
 
-      // If block does not belong to any file, we check if it violates
-      // an integrity assumption of Name node
+    @Override
+    public void run() {
+      final BlockReportReplica iblk = new BlockReportReplica(new Block());
+      for (int i = 0; i < batch.size(); i++) {
+        final DatanodeStorageInfo storageInfo = batch.get(i).storageInfo;
+        final ReportSlice slice = slices[i][index];
+        for (int j = 0; j < slice.size(); j++) {
+          slice.get(j, iblk);
+          processReplica(i, storageInfo, iblk);
+        }
+      }
+    }
+
+    private void processReplica(int i, DatanodeStorageInfo storageInfo,
+        BlockReportReplica iblk) {
+      BlockInfoContiguous storedBlock = blocksMap.getStoredBlock(iblk);
       if (storedBlock == null) {
-        if (namesystem.isInStartupSafeMode()
-            && !shouldPostponeBlocksFromFuture
-            && !inRollBack
-            && namesystem.isGenStampInFuture(iblk)) {
+        if (!inRollBack && namesystem.isGenStampInFuture(iblk)) {
           numberOfBytesInFutureBlocks.addAndGet(iblk.getBytesOnDisk());
         }
-        continue;
+        return;
+      }
+      final DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
+      if (!deferredBlockIds.isEmpty()
+          && deferredBlockIds.contains(iblk.getBlockId())
+          || iblk.getState() != ReplicaState.FINALIZED
+          || !storedBlock.isComplete()
+          || checkReplicaCorrupt(iblk, iblk.getState(), storedBlock,
+              storedBlock.getBlockUCState(), node) != null
+          || storedBlock.findStorageInfo(node) != null) {
+        deferredBlockIds.add(iblk.getBlockId());
+        deferred.add(new AbstractMap.SimpleImmutableEntry<DatanodeStorageInfo,
+            BlockReportReplica>(storageInfo, new BlockReportReplica(iblk)));
+        return;
+      }
+      // like addStoredBlockImmediate, but on the list of this stripe
+      storedBlock.addStorage(storageInfo);
+      heads[i] = storedBlock.listInsert(heads[i], storageInfo);
+      if (tails[i] == null) {
+        tails[i] = storedBlock;
+      }
+      counts[i]++;
+      final int numCurrentReplica = countLiveNodes(storedBlock);
+      if (numCurrentReplica >= safeBlockCounts.length) {
+        safeBlockCounts = Arrays.copyOf(safeBlockCounts,
+            Math.max(numCurrentReplica + 1, 2 * safeBlockCounts.length));
       }
+      safeBlockCounts[numCurrentReplica]++;
+    }
 
-      // If block is corrupt, mark it and continue to next block.
-      BlockUCState ucState = storedBlock.getBlockUCState();
-      BlockToMarkCorrupt c = checkReplicaCorrupt(
-          iblk, reportedState, storedBlock, ucState,
-          storageInfo.getDatanodeDescriptor());
-      if (c != null) {
-        if (shouldPostponeBlocksFromFuture) {
-          // In the Standby, we may receive a block report for a file that we
-          // just have an out-of-date gen-stamp or state for, for example.
-          queueReportedBlock(storageInfo, iblk, reportedState,
-              QUEUE_REASON_CORRUPT_STATE);
-        } else {
-          markBlockAsCorrupt(c, storageInfo, storageInfo.getDatanodeDescriptor());
+    /** Add the blocks of this stripe to the lists of the storages. */
+    void linkBlockLists() {
+      for (int i = 0; i < heads.length; i++) {
+        if (heads[i] != null) {
+          batch.get(i).storageInfo.addBlockList(heads[i], tails[i],
+              counts[i]);
         }
-        continue;
       }
-      
-      // If block is under construction, add this replica to its list
-      if (isBlockUnderConstruction(storedBlock, ucState, reportedState)) {
-        ((BlockInfoContiguousUnderConstruction)storedBlock)
-            .addReplicaIfNotPresent(storageInfo, iblk, reportedState);
-        // OpenFileBlocks only inside snapshots also will be added to safemode
-        // threshold. So we need to update such blocks to safemode
-        // refer HDFS-5283
-        BlockInfoContiguousUnderConstruction blockUC =
-            (BlockInfoContiguousUnderConstruction) storedBlock;
-        if (namesystem.isInSnapshot(blockUC)) {
-          int numOfReplicas = blockUC.getNumExpectedLocations();
-          namesystem.incrementSafeBlockCount(numOfReplicas);
+    }
+
+    void incrementSafeBlockCounts() {
+      for (int n = 0; n < safeBlockCounts.length; n++) {
+        for (int j = 0; j < safeBlockCounts[n]; j++) {
+          namesystem.incrementSafeBlockCount(n);
         }
-        //and fall through to next clause
-      }      
-      //add replica if appropriate
-      if (reportedState == ReplicaState.FINALIZED) {
-        addStoredBlockImmediate(storedBlock, storageInfo);
       }
     }
   }
@@ -3665,6 +4079,57 @@ public int numOfUnderReplicatedBlocks() {
     return neededReplications.size();
   }
 
+  /**
+   * Choose the targets of the given replications, not holding the lock. The
+   * replications are split among the replication work threads, if enabled.
+   */
+  private void chooseTargets(final List<ReplicationWork> work) {
+    final int numSlices = replicationWorkExecutor == null ? 1
+        : Math.min(replicationWorkThreads, work.size());
+    if (numSlices <= 1) {
+      chooseTargets(work, 0, work.size());
+      return;
+    }
+    final List<Future<?>> futures = new ArrayList<Future<?>>(numSlices);
+    for (int i = 0; i < numSlices; i++) {
+      final int from = (int) ((long) work.size() * i / numSlices);
+      final int to = (int) ((long) work.size() * (i + 1) / numSlices);
+      futures.add(replicationWorkExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          chooseTargets(work, from, to);
+        }
+      }));
+    }
+    // all the slices must be done before the replications are scheduled
+    final Throwable failure = waitForAll(futures);
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    } else if (failure != null) {
+      throw new IllegalStateException(
+          "Failed to choose the targets of the replications", failure);
+    }
+  }
+
+  /** Choose the targets of the replications from index from to index to. */
+  private void chooseTargets(List<ReplicationWork> work, int from, int to) {
+    final Set<Node> excludedNodes = new HashSet<Node>();
+    for (ReplicationWork rw : work.subList(from, to)) {
+      // Exclude all of the containing nodes from being targets.
+      // This list includes decommissioning or corrupt nodes.
+      excludedNodes.clear();
+      for (DatanodeDescriptor dn : rw.containingNodes) {
+        excludedNodes.add(dn);
+      }
+
+      // It is costly to extract the filename for which chooseTargets is called,
+      // so for now we pass in the block collection itself.
+      rw.chooseTargets(blockplacement, storagePolicySuite, excludedNodes);
+    }
+  }
+
   /**
    * Periodically calls computeReplicationWork().
    */
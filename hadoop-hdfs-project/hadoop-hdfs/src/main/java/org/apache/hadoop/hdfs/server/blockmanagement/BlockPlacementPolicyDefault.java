@@ -630,16 +630,15 @@ protected DatanodeStorageInfo chooseRandom(int numOfReplicas,
     boolean badTarget = false;
     DatanodeStorageInfo firstChosen = null;
     while(numOfReplicas > 0 && numOfAvailableNodes > 0) {
-      DatanodeDescriptor chosenNode = 
-          (DatanodeDescriptor)clusterMap.chooseRandom(scope);
+      DatanodeDescriptor chosenNode = chooseDataNode(scope, excludedNodes);
       if (excludedNodes.add(chosenNode)) { //was not in the excluded list
         if (LOG.isDebugEnabled()) {
           builder.append("\nNode ").append(NodeBase.getPath(chosenNode)).append(" [");
         }
         numOfAvailableNodes--;
 
-        final DatanodeStorageInfo[] storages = DFSUtil.shuffle(
-            chosenNode.getStorageInfos());
+        final DatanodeStorageInfo[] storages =
+            getCandidateStorages(chosenNode);
         int i = 0;
         boolean search = true;
         for (Iterator<Map.Entry<StorageType, Integer>> iter = storageTypes
@@ -700,6 +699,24 @@ protected DatanodeStorageInfo chooseRandom(int numOfReplicas,
     return firstChosen;
   }
 
+  /**
+   * Choose a datanode at random from the given scope. It may be one of the
+   * excluded nodes, which the caller skips.
+   */
+  protected DatanodeDescriptor chooseDataNode(String scope,
+      Set<Node> excludedNodes) {
+    return (DatanodeDescriptor)clusterMap.chooseRandom(scope);
+  }
+
+  /**
+   * @return the storages of the chosen datanode, in the order in which they
+   * are tried as a target.
+   */
+  protected DatanodeStorageInfo[] getCandidateStorages(
+      DatanodeDescriptor node) {
+    return DFSUtil.shuffle(node.getStorageInfos());
+  }
+
   /**
    * If the given storage is a good target, add it to the result list and
    * update the set of excluded nodes.
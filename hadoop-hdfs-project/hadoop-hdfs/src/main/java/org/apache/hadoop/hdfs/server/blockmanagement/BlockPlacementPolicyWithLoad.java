@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+
+import org.apache.hadoop.net.Node;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A block placement policy which places the replicas like
+ * {@link BlockPlacementPolicyDefault}, but prefers the datanodes and the
+ * storages with the lower write load, as reported in the heartbeats.
+ *
+ * Each random choice of a datanode picks two of them, and keeps the one
+ * with a storage which is not slow, then with the fewer blocks being written,
+ * then with the lower write throughput. The storages of the chosen datanode
+ * are tried in the same order. Choosing between two random datanodes, rather
+ * than the least loaded one, keeps the replicas spread while the load
+ * reported by the datanodes is a heartbeat old.
+ */
+public class BlockPlacementPolicyWithLoad extends BlockPlacementPolicyDefault {
+
+  /** Orders the storages by increasing write load. */
+  static final Comparator<DatanodeStorageInfo> STORAGE_LOAD_COMPARATOR =
+      new Comparator<DatanodeStorageInfo>() {
+        @Override
+        public int compare(DatanodeStorageInfo a, DatanodeStorageInfo b) {
+          return compareLoad(a.isSlowDisk(), a.getActiveWriters(),
+              a.getWriteBytesPerSec(), b.isSlowDisk(), b.getActiveWriters(),
+              b.getWriteBytesPerSec());
+        }
+      };
+
+  protected BlockPlacementPolicyWithLoad() {
+  }
+
+  @Override
+  protected DatanodeDescriptor chooseDataNode(String scope,
+      Set<Node> excludedNodes) {
+    final DatanodeDescriptor a = super.chooseDataNode(scope, excludedNodes);
+    final DatanodeDescriptor b = super.chooseDataNode(scope, excludedNodes);
+    if (a == null || excludedNodes.contains(a)) {
+      return b;
+    }
+    if (b == null || excludedNodes.contains(b)) {
+      return a;
+    }
+    return compareNodeLoad(a, b) <= 0 ? a : b;
+  }
+
+  @Override
+  protected DatanodeStorageInfo[] getCandidateStorages(
+      DatanodeDescriptor node) {
+    final DatanodeStorageInfo[] storages = super.getCandidateStorages(node);
+    // the sort is stable, the storages with the same load stay shuffled
+    Arrays.sort(storages, STORAGE_LOAD_COMPARATOR);
+    return storages;
+  }
+
+  /**
+   * Compare the write load of two datanodes: a datanode with all its storages
+   * slow is the most loaded, then the one with more blocks being written, then
+   * the one with the higher write throughput.
+   */
+  @VisibleForTesting
+  static int compareNodeLoad(DatanodeDescriptor a, DatanodeDescriptor b) {
+    final long[] loadA = getNodeLoad(a);
+    final long[] loadB = getNodeLoad(b);
+    return compareLoad(loadA[0] == 0, (int) loadA[1], loadA[2],
+        loadB[0] == 0, (int) loadB[1], loadB[2]);
+  }
+
+  /**
+   * @return the number of storages which are not slow, the number of blocks
+   * being written, and the write throughput of the datanode.
+   */
+  private static long[] getNodeLoad(DatanodeDescriptor node) {
+    final long[] load = new long[3];
+    for (DatanodeStorageInfo storage : node.getStorageInfos()) {
+      if (!storage.isSlowDisk()) {
+        load[0]++;
+      }
+      load[1] += storage.getActiveWriters();
+      load[2] += storage.getWriteBytesPerSec();
+    }
+    return load;
+  }
+
+  private static int compareLoad(boolean slowA, int writersA, long bytesA,
+      boolean slowB, int writersB, long bytesB) {
+    if (slowA != slowB) {
+      return slowA ? 1 : -1;
+    }
+    if (writersA != writersB) {
+      return writersA < writersB ? -1 : 1;
+    }
+    return bytesA < bytesB ? -1 : (bytesA == bytesB ? 0 : 1);
+  }
+}
@@ -111,6 +111,10 @@ public void remove() {
   private long dfsUsed;
   private volatile long remaining;
   private long blockPoolUsed;
+  /** The write load of the storage, see {@link StorageReport}. */
+  private volatile long writeBytesPerSec;
+  private volatile int activeWriters;
+  private volatile boolean slowDisk;
 
   private volatile BlockInfoContiguous blockList = null;
   private int numBlocks = 0;
@@ -226,6 +230,18 @@ long getBlockPoolUsed() {
     return blockPoolUsed;
   }
 
+  long getWriteBytesPerSec() {
+    return writeBytesPerSec;
+  }
+
+  int getActiveWriters() {
+    return activeWriters;
+  }
+
+  boolean isSlowDisk() {
+    return slowDisk;
+  }
+
   public AddBlockResult addBlock(BlockInfoContiguous b) {
     // First check whether the block belongs to a different storage
     // on the same DN.
@@ -251,6 +267,17 @@ public AddBlockResult addBlock(BlockInfoContiguous b) {
     return result;
   }
 
+  /**
+   * Add a list of blocks which already refer to this storage, and are
+   * linked from head to tail, none of them being in the list of this storage
+   * nor on another storage of the same datanode.
+   */
+  void addBlockList(BlockInfoContiguous head, BlockInfoContiguous tail,
+      int count) {
+    blockList = head.listInsertAll(tail, blockList, this);
+    numBlocks += count;
+  }
+
   public boolean removeBlock(BlockInfoContiguous b) {
     blockList = b.listRemove(blockList, this);
     if (b.removeStorage(this)) {
@@ -293,6 +320,9 @@ void updateState(StorageReport r) {
     dfsUsed = r.getDfsUsed();
     remaining = r.getRemaining();
     blockPoolUsed = r.getBlockPoolUsed();
+    writeBytesPerSec = r.getWriteBytesPerSec();
+    activeWriters = r.getActiveWriters();
+    slowDisk = r.isSlowDisk();
   }
 
   public DatanodeDescriptor getDatanodeDescriptor() {
@@ -410,11 +410,18 @@ DatanodeCommand cacheReport() throws IOException {
     return cmd;
   }
   
+  /** @return the storage reports of the block pool, with their load. */
+  private StorageReport[] getStorageReports() {
+    final StorageReport[] reports =
+        dn.getFSDataset().getStorageReports(bpos.getBlockPoolId());
+    final StorageLoadTracker loads = dn.getStorageLoadTracker();
+    return loads == null ? reports : loads.addLoads(reports);
+  }
+
   HeartbeatResponse sendHeartBeat(boolean requestBlockReportLease)
       throws IOException {
     scheduler.scheduleNextHeartbeat();
-    StorageReport[] reports =
-        dn.getFSDataset().getStorageReports(bpos.getBlockPoolId());
+    StorageReport[] reports = getStorageReports();
     if (LOG.isDebugEnabled()) {
       LOG.debug("Sending heartbeat with " + reports.length +
                 " storage reports from service actor: " + this);
@@ -940,8 +947,7 @@ private void sendLifelineIfDue() throws IOException {
     }
 
     private void sendLifeline() throws IOException {
-      StorageReport[] reports =
-          dn.getFSDataset().getStorageReports(bpos.getBlockPoolId());
+      StorageReport[] reports = getStorageReports();
       if (LOG.isDebugEnabled()) {
         LOG.debug("Sending lifeline with " + reports.length + " storage " +
                   " reports from service actor: " + BPServiceActor.this);
@@ -126,6 +126,8 @@ class BlockReceiver implements Closeable {
   private long restartBudget;
   /** the reference of the volume where the block receiver writes to */
   private ReplicaHandler replicaHandler;
+  /** the storage whose write load includes this block, until closed */
+  private String loadStorageId = null;
 
   /**
    * for replaceBlock response
@@ -230,6 +232,12 @@ class BlockReceiver implements Closeable {
         }
       }
       replicaInfo = replicaHandler.getReplica();
+      final StorageLoadTracker loads = datanode.getStorageLoadTracker();
+      if (loads != null && replicaInfo instanceof ReplicaInfo
+          && ((ReplicaInfo) replicaInfo).getVolume() != null) {
+        loadStorageId = ((ReplicaInfo) replicaInfo).getVolume().getStorageID();
+        loads.writerStarted(loadStorageId);
+      }
       this.dropCacheBehindWrites = (cachingStrategy.getDropBehind() == null) ?
         datanode.getDnConf().dropCacheBehindWrites :
           cachingStrategy.getDropBehind();
@@ -352,6 +360,10 @@ public void close() throws IOException {
       IOUtils.cleanup(null, replicaHandler);
       replicaHandler = null;
     }
+    if (loadStorageId != null) {
+      datanode.getStorageLoadTracker().writerFinished(loadStorageId);
+      loadStorageId = null;
+    }
     if (measuredFlushTime) {
       datanode.metrics.addFlushNanos(flushTotalNanos);
     }
@@ -417,6 +429,9 @@ void flushOrSync(boolean isSync) throws IOException {
       }
     }
     long duration = Time.monotonicNow() - begin;
+    if (loadStorageId != null) {
+      datanode.getStorageLoadTracker().addDiskWrite(loadStorageId, 0, duration);
+    }
     if (duration > datanodeSlowLogThresholdMs) {
       LOG.warn("Slow flushOrSync took " + duration + "ms (threshold="
           + datanodeSlowLogThresholdMs + "ms), isSync:" + isSync + ", flushTotalNanos="
@@ -691,6 +706,10 @@ private int receivePacket() throws IOException {
           long begin = Time.monotonicNow();
           out.write(dataBuf.array(), startByteToDisk, numBytesToDisk);
           long duration = Time.monotonicNow() - begin;
+          if (loadStorageId != null) {
+            datanode.getStorageLoadTracker().addDiskWrite(loadStorageId,
+                numBytesToDisk, duration);
+          }
           if (duration > datanodeSlowLogThresholdMs) {
             LOG.warn("Slow BlockReceiver write data to disk cost:" + duration
                 + "ms (threshold=" + datanodeSlowLogThresholdMs + "ms)");
@@ -30,6 +30,7 @@
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 
 import org.apache.commons.logging.Log;
@@ -39,7 +40,10 @@
 import org.apache.hadoop.hdfs.protocol.datatransfer.PacketHeader;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
+import org.apache.hadoop.hdfs.util.AutoCloseableLock;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.io.ElasticByteBufferPool;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.ReadaheadPool.ReadaheadRequest;
@@ -107,6 +111,12 @@ class BlockSender implements java.io.Closeable {
   private static final int MIN_BUFFER_WITH_TRANSFERTO = 64*1024;
   private static final int TRANSFERTO_BUFFER_SIZE = Math.max(
       HdfsConstants.IO_FILE_BUFFER_SIZE, MIN_BUFFER_WITH_TRANSFERTO);
+  /**
+   * The direct buffers of the packets which are verified before being sent.
+   * They are shared by all the senders, as allocating direct memory is slow.
+   */
+  private static final ByteBufferPool DIRECT_BUFFER_POOL =
+      new ElasticByteBufferPool();
   
   /** the block to read from */
   private final ExtendedBlock block;
@@ -116,6 +126,8 @@ class BlockSender implements java.io.Closeable {
   private long blockInPosition = -1;
   /** Stream to read checksum */
   private DataInputStream checksumIn;
+  /** Checksums of a packet, before they are copied to a direct buffer */
+  private byte[] checksumBuf;
   /** Checksum utility */
   private final DataChecksum checksum;
   /** Initial position to read */
@@ -232,7 +244,8 @@ class BlockSender implements java.io.Closeable {
       
       final Replica replica;
       final long replicaVisibleLength;
-      synchronized(datanode.data) { 
+      try (AutoCloseableLock lock = datanode.data.acquireReplicaLock(
+          block.getBlockPoolId(), block.getBlockId())) {
         replica = getReplica(block, datanode);
         replicaVisibleLength = replica.getVisibleLength();
       }
@@ -542,6 +555,22 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
     int headerOff = pkt.position() - headerLen;
     
     int checksumOff = pkt.position();
+    int dataOff = checksumOff + checksumDataLen;
+    if (pkt.isDirect()) {
+      readPacketDirect(pkt, checksumOff, checksumDataLen, dataLen,
+          lastDataPacket);
+      try {
+        pkt.limit(dataOff + dataLen).position(headerOff);
+        writePacketDirect(pkt, (WritableByteChannel)out);
+      } catch (IOException e) {
+        throw handleSendPacketError(e);
+      }
+      if (throttler != null) { // rebalancing so throttle
+        throttler.throttle(packetLen);
+      }
+      return dataLen;
+    }
+
     byte[] buf = pkt.array();
     
     if (checksumSize > 0 && checksumIn != null) {
@@ -558,7 +587,6 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
       }
     }
     
-    int dataOff = checksumOff + checksumDataLen;
     if (!transferTo) { // normal transfer
       IOUtils.readFully(blockIn, buf, dataOff, dataLen);
 
@@ -587,33 +615,7 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
         out.write(buf, headerOff, dataOff + dataLen - headerOff);
       }
     } catch (IOException e) {
-      if (e instanceof SocketTimeoutException) {
-        /*
-         * writing to client timed out.  This happens if the client reads
-         * part of a block and then decides not to read the rest (but leaves
-         * the socket open).
-         * 
-         * Reporting of this case is done in DataXceiver#run
-         */
-      } else {
-        /* Exception while writing to the client. Connection closure from
-         * the other end is mostly the case and we do not care much about
-         * it. But other things can go wrong, especially in transferTo(),
-         * which we do not want to ignore.
-         *
-         * The message parsing below should not be considered as a good
-         * coding example. NEVER do it to drive a program logic. NEVER.
-         * It was done here because the NIO throws an IOException for EPIPE.
-         */
-        String ioem = e.getMessage();
-        if (!ioem.startsWith("Broken pipe") && !ioem.startsWith("Connection reset")) {
-          LOG.error("BlockSender.sendChunks() exception: ", e);
-        }
-        datanode.getBlockScanner().markSuspectBlock(
-              volumeRef.getVolume().getStorageID(),
-              block);
-      }
-      throw ioeToSocketException(e);
+      throw handleSendPacketError(e);
     }
 
     if (throttler != null) { // rebalancing so throttle
@@ -622,6 +624,102 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
 
     return dataLen;
   }
+
+  /**
+   * Log an error writing a packet, unless it is the client going away, and
+   * mark the block as suspect if it may be the disk rather than the network.
+   * @return the exception to throw.
+   */
+  private IOException handleSendPacketError(IOException e) {
+    if (e instanceof SocketTimeoutException) {
+      /*
+       * writing to client timed out.  This happens if the client reads
+       * part of a block and then decides not to read the rest (but leaves
+       * the socket open).
+       * 
+       * Reporting of this case is done in DataXceiver#run
+       */
+    } else {
+      /* Exception while writing to the client. Connection closure from
+       * the other end is mostly the case and we do not care much about
+       * it. But other things can go wrong, especially in transferTo(),
+       * which we do not want to ignore.
+       *
+       * The message parsing below should not be considered as a good
+       * coding example. NEVER do it to drive a program logic. NEVER.
+       * It was done here because the NIO throws an IOException for EPIPE.
+       */
+      String ioem = e.getMessage();
+      if (!ioem.startsWith("Broken pipe") && !ioem.startsWith("Connection reset")) {
+        LOG.error("BlockSender.sendChunks() exception: ", e);
+      }
+      datanode.getBlockScanner().markSuspectBlock(
+            volumeRef.getVolume().getStorageID(),
+            block);
+    }
+    return ioeToSocketException(e);
+  }
+
+  /**
+   * Read the checksums and the data of a packet into a direct buffer, and
+   * verify them there.
+   *
+   * @param pkt direct buffer holding the packet, after its header
+   * @param checksumOff offset of the checksums in pkt
+   * @param checksumLen length of the checksums
+   * @param dataLen length of the data, which follows the checksums
+   * @param lastDataPacket if it is the last packet with data
+   */
+  private void readPacketDirect(ByteBuffer pkt, int checksumOff,
+      int checksumLen, int dataLen, boolean lastDataPacket)
+      throws IOException {
+    if (checksumSize > 0 && checksumIn != null) {
+      readChecksum(checksumBuf, 0, checksumLen);
+
+      // write in progress that we need to use to get last checksum
+      if (lastDataPacket && lastChunkChecksum != null) {
+        byte[] updatedChecksum = lastChunkChecksum.getChecksum();
+        if (updatedChecksum != null) {
+          System.arraycopy(updatedChecksum, 0, checksumBuf,
+              checksumLen - checksumSize, checksumSize);
+        }
+      }
+      pkt.position(checksumOff);
+      pkt.put(checksumBuf, 0, checksumLen);
+    }
+
+    final int dataOff = checksumOff + checksumLen;
+    final FileChannel fileCh = ((FileInputStream)blockIn).getChannel();
+    pkt.limit(dataOff + dataLen).position(dataOff);
+    while (pkt.hasRemaining()) {
+      if (fileCh.read(pkt) < 0) {
+        throw new IOException("Premature EOF reading " + block
+            + " at offset " + (offset + dataLen - pkt.remaining()));
+      }
+    }
+
+    if (verifyChecksum) {
+      ByteBuffer data = pkt.duplicate();
+      data.position(dataOff);
+      ByteBuffer checksums = pkt.duplicate();
+      checksums.limit(dataOff).position(checksumOff);
+      checksum.verifyChunkedSums(data, checksums, block.getBlockName(),
+          offset);
+    }
+  }
+
+  /**
+   * Write the remaining bytes of a direct buffer to a channel, e.g. the one
+   * of the socket, without copying them to the heap.
+   */
+  private static void writePacketDirect(ByteBuffer pkt,
+      WritableByteChannel ch) throws IOException {
+    while (pkt.hasRemaining()) {
+      if (ch.write(pkt) < 0) {
+        throw new IOException("The stream is closed");
+      }
+    }
+  }
   
   /**
    * Read checksum into given buffer
@@ -667,23 +765,10 @@ private void readChecksum(byte[] buf, final int checksumOffset,
   public void verifyChecksum(final byte[] buf, final int dataOffset,
       final int datalen, final int numChunks, final int checksumOffset)
       throws ChecksumException {
-    int dOff = dataOffset;
-    int cOff = checksumOffset;
-    int dLeft = datalen;
-
-    for (int i = 0; i < numChunks; i++) {
-      checksum.reset();
-      int dLen = Math.min(dLeft, chunkSize);
-      checksum.update(buf, dOff, dLen);
-      if (!checksum.compare(buf, cOff)) {
-        long failedPos = offset + datalen - dLeft;
-        throw new ChecksumException("Checksum failed at " + failedPos,
-            failedPos);
-      }
-      dLeft -= dLen;
-      dOff += dLen;
-      cOff += checksumSize;
-    }
+    // all the chunks at once, with the native CRC when it is available
+    checksum.verifyChunkedSums(ByteBuffer.wrap(buf, dataOffset, datalen),
+        ByteBuffer.wrap(buf, checksumOffset, numChunks * checksumSize),
+        block.getBlockName(), offset);
   }
   
   /**
@@ -695,7 +780,8 @@ public void verifyChecksum(final byte[] buf, final int dataOffset,
    *        be a wrapper over this stream. This enables optimizations for
    *        sending the data, e.g. 
    *        {@link SocketOutputStream#transferToFully(FileChannel, 
-   *        long, int)}.
+   *        long, int)}, or writing the verified data from direct buffers
+   *        when it is a {@link WritableByteChannel}.
    * @param throttler for sending data.
    * @return total bytes read, including checksum data.
    */
@@ -732,12 +818,18 @@ private long doSendBlock(DataOutputStream out, OutputStream baseStream,
     manageOsCache();
 
     final long startTime = ClientTraceLog.isDebugEnabled() ? System.nanoTime() : 0;
+    ByteBuffer pktBuf = null;
     try {
       int maxChunksPerPacket;
       int pktBufSize = PacketHeader.PKT_MAX_HEADER_LEN;
       boolean transferTo = transferToAllowed && !verifyChecksum
           && baseStream instanceof SocketOutputStream
           && blockIn instanceof FileInputStream;
+      // The data to verify cannot be sent with transferTo(), it is read
+      // into a direct buffer instead, verified there and written from it.
+      boolean direct = verifyChecksum
+          && baseStream instanceof WritableByteChannel
+          && blockIn instanceof FileInputStream;
       if (transferTo) {
         FileChannel fileChannel = ((FileInputStream)blockIn).getChannel();
         blockInPosition = fileChannel.position();
@@ -753,7 +845,13 @@ private long doSendBlock(DataOutputStream out, OutputStream baseStream,
         pktBufSize += (chunkSize + checksumSize) * maxChunksPerPacket;
       }
 
-      ByteBuffer pktBuf = ByteBuffer.allocate(pktBufSize);
+      if (direct) {
+        streamForSendChunks = baseStream;
+        checksumBuf = new byte[checksumSize * maxChunksPerPacket];
+        pktBuf = DIRECT_BUFFER_POOL.getBuffer(true, pktBufSize);
+      } else {
+        pktBuf = ByteBuffer.allocate(pktBufSize);
+      }
 
       while (endOffset > offset && !Thread.currentThread().isInterrupted()) {
         manageOsCache();
@@ -782,6 +880,9 @@ private long doSendBlock(DataOutputStream out, OutputStream baseStream,
         ClientTraceLog.debug(String.format(clientTraceFmt, totalRead,
             initialOffset, endTime - startTime));
       }
+      if (pktBuf != null && pktBuf.isDirect()) {
+        DIRECT_BUFFER_POOL.putBuffer(pktBuf);
+      }
       close();
     }
     return totalRead;
@@ -855,6 +956,11 @@ boolean didSendEntireByteRange() {
     return sentEntireByteRange;
   }
 
+  @VisibleForTesting
+  static ByteBufferPool getDirectBufferPool() {
+    return DIRECT_BUFFER_POOL;
+  }
+
   /**
    * @return the checksum type that will be used with this block transfer.
    */
@@ -167,6 +167,7 @@
 import org.apache.hadoop.hdfs.server.protocol.InterDatanodeProtocol;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
 import org.apache.hadoop.hdfs.server.protocol.ReplicaRecoveryInfo;
+import org.apache.hadoop.hdfs.util.AutoCloseableLock;
 import org.apache.hadoop.http.HttpConfig;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.ReadaheadPool;
@@ -293,6 +294,10 @@ public static InetSocketAddress createSocketAddr(String target) {
   Daemon dataXceiverServer = null;
   DataXceiverServer xserver = null;
   Daemon localDataXceiverServer = null;
+  /** Limits the operations of both the TCP and the domain socket xceivers. */
+  DataXceiverOpLimiter xceiverOpLimiter = null;
+  /** The write load of the storages, sent with the heartbeats. */
+  StorageLoadTracker storageLoadTracker = null;
   ShortCircuitRegistry shortCircuitRegistry = null;
   ThreadGroup threadGroup = null;
   private DNConf dnConf;
@@ -699,6 +704,14 @@ private synchronized void removeVolumes(
     // Remove volumes and block infos from FsDataset.
     data.removeVolumes(absoluteVolumePaths, clearFailure);
 
+    // Forget the write load of their storages.
+    for (int idx = 0; idx < storage.getNumStorageDirs(); idx++) {
+      Storage.StorageDirectory sd = storage.getStorageDir(idx);
+      if (absoluteVolumePaths.contains(sd.getRoot().getAbsoluteFile())) {
+        storageLoadTracker.removeStorage(sd.getStorageUuid());
+      }
+    }
+
     // Remove volumes from DataStorage.
     try {
       storage.removeVolumes(absoluteVolumePaths);
@@ -922,6 +935,8 @@ private void initDataXceiver(Configuration conf) throws IOException {
     streamingAddr = tcpPeerServer.getStreamingAddr();
     LOG.info("Opened streaming server at " + streamingAddr);
     this.threadGroup = new ThreadGroup("dataXceiverServer");
+    this.xceiverOpLimiter = new DataXceiverOpLimiter(conf, this);
+    this.storageLoadTracker = new StorageLoadTracker(dnConf);
     xserver = new DataXceiverServer(tcpPeerServer, conf, this);
     this.dataXceiverServer = new Daemon(threadGroup, xserver);
     this.threadGroup.setDaemon(true); // auto destroy when empty
@@ -1878,7 +1893,17 @@ private void handleDiskError(String errMsgr) {
   /** Number of concurrent xceivers per node. */
   @Override // DataNodeMXBean
   public int getXceiverCount() {
-    return threadGroup == null ? 0 : threadGroup.activeCount();
+    final ThreadGroup group = threadGroup;
+    if (group == null) {
+      return 0;
+    }
+    // the idle threads of the xceiver pools do not serve anything
+    int idle = xserver == null ? 0 : xserver.getIdleXceiverCount();
+    final Daemon local = localDataXceiverServer;
+    if (local != null) {
+      idle += ((DataXceiverServer) local.getRunnable()).getIdleXceiverCount();
+    }
+    return Math.max(group.activeCount() - idle, 0);
   }
 
   @Override // DataNodeMXBean
@@ -2901,7 +2926,8 @@ void transferReplicaForPipelineRecovery(final ExtendedBlock b,
     final BlockConstructionStage stage;
 
     //get replica information
-    synchronized(data) {
+    try (AutoCloseableLock lock = data.acquireReplicaLock(b.getBlockPoolId(),
+        b.getBlockId())) {
       Block storedBlock = data.getStoredBlock(b.getBlockPoolId(),
           b.getBlockId());
       if (null == storedBlock) {
@@ -3172,6 +3198,10 @@ public DNConf getDnConf() {
     return dnConf;
   }
 
+  StorageLoadTracker getStorageLoadTracker() {
+    return storageLoadTracker;
+  }
+
   public String getDatanodeUuid() {
     return storage == null ? null : storage.getDatanodeUuid();
   }
@@ -75,6 +75,7 @@
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
 import org.apache.hadoop.hdfs.server.datanode.DataNode.ShortCircuitFdsUnsupportedException;
 import org.apache.hadoop.hdfs.server.datanode.DataNode.ShortCircuitFdsVersionException;
+import org.apache.hadoop.hdfs.server.datanode.DataXceiverOpLimiter.OpType;
 import org.apache.hadoop.hdfs.server.datanode.ShortCircuitRegistry.NewShmInfo;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
@@ -97,7 +98,8 @@
 /**
  * Thread for processing incoming/outgoing data stream.
  */
-class DataXceiver extends Receiver implements Runnable {
+class DataXceiver extends Receiver
+    implements Runnable, DataXceiverOpLimiter.QueuedOp {
   public static final Logger LOG = DataNode.LOG;
   static final Log ClientTraceLog = DataNode.ClientTraceLog;
   
@@ -113,6 +115,9 @@ class DataXceiver extends Receiver implements Runnable {
   private final InputStream socketIn;
   private OutputStream socketOut;
   private BlockReceiver blockReceiver = null;
+  private int opsProcessed = 0;
+  /** The op waiting for a slot of its type, run once this is resumed. */
+  private Op queuedOp = null;
   
   /**
    * Client Name used in previous operation. Not available on first request
@@ -178,77 +183,115 @@ public void sendOOB() throws IOException, InterruptedException {
       blockReceiver.sendOOB();
   }
   
+  /**
+   * Set up the streams of the connection, after the SASL handshake if any.
+   * @return false if the handshake failed and the connection is to be closed.
+   */
+  private boolean handshake() throws IOException {
+    peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
+    InputStream input = socketIn;
+    try {
+      IOStreamPair saslStreams = datanode.saslServer.receive(peer, socketOut,
+        socketIn, datanode.getXferAddress().getPort(),
+        datanode.getDatanodeId());
+      input = new BufferedInputStream(saslStreams.in,
+        HdfsConstants.SMALL_BUFFER_SIZE);
+      socketOut = saslStreams.out;
+    } catch (InvalidMagicNumberException imne) {
+      if (imne.isHandshake4Encryption()) {
+        LOG.info("Failed to read expected encryption handshake from client " +
+            "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
+            "is running an older version of Hadoop which does not support " +
+            "encryption");
+      } else {
+        LOG.info("Failed to read expected SASL data transfer protection " +
+            "handshake from client at " + peer.getRemoteAddressString() + 
+            ". Perhaps the client is running an older version of Hadoop " +
+            "which does not support SASL data transfer protection");
+      }
+      return false;
+    }
+
+    super.initialize(new DataInputStream(input));
+    return true;
+  }
+
+  @Override // DataXceiverOpLimiter.QueuedOp
+  public boolean resume() {
+    return dataXceiverServer.resume(peer, this);
+  }
+
   /**
    * Read/write data from/to the DataXceiverServer.
    */
   @Override
   public void run() {
-    int opsProcessed = 0;
-    Op op = null;
+    // resumed with a slot for the op it read before
+    boolean resumed = queuedOp != null;
+    Op op = queuedOp;
+    queuedOp = null;
+    boolean queued = false;
 
     try {
       dataXceiverServer.addPeer(peer, Thread.currentThread(), this);
-      peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
-      InputStream input = socketIn;
-      try {
-        IOStreamPair saslStreams = datanode.saslServer.receive(peer, socketOut,
-          socketIn, datanode.getXferAddress().getPort(),
-          datanode.getDatanodeId());
-        input = new BufferedInputStream(saslStreams.in,
-          HdfsConstants.SMALL_BUFFER_SIZE);
-        socketOut = saslStreams.out;
-      } catch (InvalidMagicNumberException imne) {
-        if (imne.isHandshake4Encryption()) {
-          LOG.info("Failed to read expected encryption handshake from client " +
-              "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
-              "is running an older version of Hadoop which does not support " +
-              "encryption");
-        } else {
-          LOG.info("Failed to read expected SASL data transfer protection " +
-              "handshake from client at " + peer.getRemoteAddressString() + 
-              ". Perhaps the client is running an older version of Hadoop " +
-              "which does not support SASL data transfer protection");
-        }
+      if (!resumed && !handshake()) {
         return;
       }
       
-      super.initialize(new DataInputStream(input));
-      
       // We process requests in a loop, and stay around for a short timeout.
       // This optimistic behaviour allows the other end to reuse connections.
       // Setting keepalive timeout to 0 disable this behavior.
       do {
-        updateCurrentThreadName("Waiting for operation #" + (opsProcessed + 1));
+        if (resumed) {
+          resumed = false;
+        } else {
+          updateCurrentThreadName(
+              "Waiting for operation #" + (opsProcessed + 1));
+
+          try {
+            if (opsProcessed != 0) {
+              assert dnConf.socketKeepaliveTimeout > 0;
+              peer.setReadTimeout(dnConf.socketKeepaliveTimeout);
+            } else {
+              peer.setReadTimeout(dnConf.socketTimeout);
+            }
+            op = readOp();
+          } catch (InterruptedIOException ignored) {
+            // Time out while we wait for client rpc
+            break;
+          } catch (EOFException | ClosedChannelException e) {
+            // Since we optimistically expect the next op, it's quite normal
+            // to get EOF here.
+            LOG.debug("Cached {} closing after {} ops.  " +
+                "This message is usually benign.", peer, opsProcessed);
+            break;
+          } catch (IOException err) {
+            incrDatanodeNetworkErrors();
+            throw err;
+          }
 
-        try {
+          // restore normal timeout
           if (opsProcessed != 0) {
-            assert dnConf.socketKeepaliveTimeout > 0;
-            peer.setReadTimeout(dnConf.socketKeepaliveTimeout);
-          } else {
             peer.setReadTimeout(dnConf.socketTimeout);
           }
-          op = readOp();
-        } catch (InterruptedIOException ignored) {
-          // Time out while we wait for client rpc
-          break;
-        } catch (EOFException | ClosedChannelException e) {
-          // Since we optimistically expect the next op, it's quite normal to
-          // get EOF here.
-          LOG.debug("Cached {} closing after {} ops.  " +
-              "This message is usually benign.", peer, opsProcessed);
-          break;
-        } catch (IOException err) {
-          incrDatanodeNetworkErrors();
-          throw err;
-        }
 
-        // restore normal timeout
-        if (opsProcessed != 0) {
-          peer.setReadTimeout(dnConf.socketTimeout);
+          queuedOp = op;
+          if (!datanode.xceiverOpLimiter.acquire(OpType.of(op), this)) {
+            // resumed on a DataXceiver thread once a slot frees up, this one
+            // is free to serve another connection
+            queued = true;
+            return;
+          }
+          queuedOp = null;
         }
 
-        opStartTime = monotonicNow();
-        processOp(op);
+        final OpType opType = OpType.of(op);
+        try {
+          opStartTime = monotonicNow();
+          processOp(op);
+        } finally {
+          datanode.xceiverOpLimiter.release(opType);
+        }
         ++opsProcessed;
       } while ((peer != null) &&
           (!peer.isClosed() && dnConf.socketKeepaliveTimeout > 0));
@@ -282,10 +325,13 @@ public void run() {
         LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
             + datanode.getXceiverCount());
       }
-      updateCurrentThreadName("Cleaning up");
-      if (peer != null) {
-        dataXceiverServer.closePeer(peer);
-        IOUtils.closeStream(in);
+      // the connection stays open while its op waits for a slot
+      if (!queued) {
+        updateCurrentThreadName("Cleaning up");
+        if (peer != null) {
+          dataXceiverServer.closePeer(peer);
+          IOUtils.closeStream(in);
+        }
       }
     }
   }
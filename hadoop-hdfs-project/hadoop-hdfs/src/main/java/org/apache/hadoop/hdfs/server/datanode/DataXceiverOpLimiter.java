@@ -0,0 +1,211 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.apache.hadoop.util.Time.monotonicNow;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.protocol.datatransfer.Op;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Limits the number of operations of each type the DataXceivers of a
+ * DataNode run at once, so that e.g. a burst of reads does not take all the
+ * xceivers and stall the write pipelines. The operations over the limit of
+ * their type wait for a slot in arrival order, without holding a DataXceiver
+ * thread, and the ones beyond dfs.datanode.xceiver.queue.size are rejected.
+ * How many wait and for how long is reported in the DataNode metrics.
+ */
+@InterfaceAudience.Private
+public class DataXceiverOpLimiter {
+
+  /** The types of operations which are limited separately. */
+  public enum OpType {
+    READ("read"),
+    WRITE("write"),
+    TRANSFER("transfer"),
+    SHORT_CIRCUIT("shortCircuit");
+
+    private final String metricPrefix;
+
+    private OpType(String metricPrefix) {
+      this.metricPrefix = metricPrefix;
+    }
+
+    /** @return the prefix of the names of the metrics of this type. */
+    public String getMetricPrefix() {
+      return metricPrefix;
+    }
+
+    static OpType of(Op op) {
+      switch (op) {
+      case WRITE_BLOCK:
+        return WRITE;
+      case REPLACE_BLOCK:
+      case COPY_BLOCK:
+      case TRANSFER_BLOCK:
+        return TRANSFER;
+      case REQUEST_SHORT_CIRCUIT_FDS:
+      case RELEASE_SHORT_CIRCUIT_FDS:
+      case REQUEST_SHORT_CIRCUIT_SHM:
+        return SHORT_CIRCUIT;
+      default:
+        return READ;
+      }
+    }
+  }
+
+  /** An operation waiting for a slot of its type, off any thread. */
+  interface QueuedOp {
+    /**
+     * Run the operation, which was given a slot of its type.
+     * @return false if it cannot run, e.g. its connection was closed; the
+     *         slot then goes to the next operation.
+     */
+    boolean resume();
+  }
+
+  /** The slots of a type of operations. */
+  private static class Slots {
+    private final int maxOps;
+    private int running = 0;
+    private final Queue<QueuedOp> queued = new ArrayDeque<QueuedOp>();
+    private final Queue<Long> queuedTimes = new ArrayDeque<Long>();
+
+    Slots(int maxOps) {
+      this.maxOps = maxOps;
+    }
+  }
+
+  private final Map<OpType, Slots> slots =
+      new EnumMap<OpType, Slots>(OpType.class);
+  private final int maxQueued;
+  private final DataNode datanode;
+
+  DataXceiverOpLimiter(Configuration conf, DataNode datanode) {
+    this.datanode = datanode;
+    this.maxQueued = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_QUEUE_SIZE_KEY,
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_QUEUE_SIZE_DEFAULT);
+    final int maxXceivers = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_KEY,
+        DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT);
+    setMaxOps(OpType.READ, conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_READ_MAX_OPS_KEY,
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_READ_MAX_OPS_DEFAULT), maxXceivers);
+    setMaxOps(OpType.WRITE, conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_WRITE_MAX_OPS_KEY,
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_WRITE_MAX_OPS_DEFAULT), maxXceivers);
+    setMaxOps(OpType.TRANSFER, conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_TRANSFER_MAX_OPS_KEY,
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_TRANSFER_MAX_OPS_DEFAULT),
+        maxXceivers);
+    setMaxOps(OpType.SHORT_CIRCUIT, conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_SHORT_CIRCUIT_MAX_OPS_KEY,
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_SHORT_CIRCUIT_MAX_OPS_DEFAULT),
+        maxXceivers);
+  }
+
+  /** A non-positive limit means as many as there are xceivers. */
+  private void setMaxOps(OpType type, int max, int maxXceivers) {
+    final int n = max > 0 ? max : maxXceivers;
+    slots.put(type, new Slots(n));
+    DataNode.LOG.info("The DataXceivers run at most " + n + " "
+        + type.getMetricPrefix() + " operations at once");
+  }
+
+  /**
+   * Take a slot to run an operation of the given type now, or else queue
+   * the operation to be resumed once a slot frees up. The caller must not
+   * touch a queued operation anymore, it may be resumed at once by another
+   * thread.
+   * @return true if the operation can run now, false if it was queued.
+   * @throws IOException if too many operations of its type are queued.
+   */
+  synchronized boolean acquire(OpType type, QueuedOp op) throws IOException {
+    final Slots s = slots.get(type);
+    final DataNodeMetrics metrics = datanode.getMetrics();
+    if (s.running < s.maxOps) {
+      s.running++;
+      metrics.addXceiverOpQueueTime(type, 0);
+      return true;
+    }
+    if (s.queued.size() >= maxQueued) {
+      metrics.incrXceiverConnectionsRejected();
+      throw new IOException("All the " + s.maxOps + " "
+          + type.getMetricPrefix() + " operations are running and "
+          + s.queued.size() + " are queued");
+    }
+    s.queued.add(op);
+    s.queuedTimes.add(monotonicNow());
+    metrics.incrXceiverOpsQueued(type);
+    return false;
+  }
+
+  /**
+   * Free a slot taken by {@link #acquire(OpType, QueuedOp)}, by resuming the
+   * next queued operation of the type with it if any.
+   */
+  void release(OpType type) {
+    final Slots s = slots.get(type);
+    final DataNodeMetrics metrics = datanode.getMetrics();
+    for (;;) {
+      final QueuedOp next;
+      synchronized (this) {
+        next = s.queued.poll();
+        if (next == null) {
+          s.running--;
+          return;
+        }
+        metrics.decrXceiverOpsQueued(type);
+        metrics.addXceiverOpQueueTime(type,
+            monotonicNow() - s.queuedTimes.poll());
+      }
+      // outside the lock, it hands the operation to a DataXceiver thread
+      if (next.resume()) {
+        return;
+      }
+    }
+  }
+
+  @VisibleForTesting
+  int getMaxOps(OpType type) {
+    return slots.get(type).maxOps;
+  }
+
+  @VisibleForTesting
+  synchronized int getAvailableSlots(OpType type) {
+    final Slots s = slots.get(type);
+    return s.maxOps - s.running;
+  }
+
+  @VisibleForTesting
+  synchronized int getQueuedOps(OpType type) {
+    return slots.get(type).queued.size();
+  }
+}
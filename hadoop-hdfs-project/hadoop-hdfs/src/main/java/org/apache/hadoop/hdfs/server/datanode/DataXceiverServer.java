@@ -17,10 +17,19 @@
  */
 package org.apache.hadoop.hdfs.server.datanode;
 
+import static org.apache.hadoop.util.Time.monotonicNow;
+
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.nio.channels.AsynchronousCloseException;
 import java.util.HashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
@@ -38,6 +47,10 @@
  * This is created to listen for requests from clients or 
  * other DataNodes.  This small server does not use the 
  * Hadoop IPC mechanism.
+ *
+ * The accepted connections are served by a bounded pool of DataXceiver
+ * threads, rather than a new thread each. When all of them are busy the
+ * connections wait in a bounded queue, and the ones beyond it are closed.
  */
 class DataXceiverServer implements Runnable {
   public static final Logger LOG = DataNode.LOG;
@@ -56,6 +69,12 @@ class DataXceiverServer implements Runnable {
   int maxXceiverCount =
     DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT;
 
+  /** The threads serving the accepted connections. */
+  private final ThreadPoolExecutor xceiverPool;
+
+  /** How long an idle DataXceiver thread is kept around. */
+  private static final long XCEIVER_KEEPALIVE_SECONDS = 60;
+
   /** A manager to make sure that cluster balancing does not
    * take too much resources.
    * 
@@ -107,7 +126,7 @@ synchronized void release() {
   
   
   DataXceiverServer(PeerServer peerServer, Configuration conf,
-      DataNode datanode) {
+      final DataNode datanode) {
     
     this.peerServer = peerServer;
     this.datanode = datanode;
@@ -116,6 +135,26 @@ synchronized void release() {
       conf.getInt(DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_KEY,
                   DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT);
     
+    final int queueSize = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_QUEUE_SIZE_KEY,
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_QUEUE_SIZE_DEFAULT);
+    final BlockingQueue<Runnable> queue = queueSize > 0
+        ? new LinkedBlockingQueue<Runnable>(queueSize)
+        : new SynchronousQueue<Runnable>();
+    this.xceiverPool = new ThreadPoolExecutor(maxXceiverCount,
+        maxXceiverCount, XCEIVER_KEEPALIVE_SECONDS, TimeUnit.SECONDS, queue,
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            // in the thread group of the DataNode, so that its shutdown
+            // interrupts them
+            Daemon t = new Daemon(datanode.threadGroup, r);
+            t.setName("DataXceiver idle");
+            return t;
+          }
+        });
+    this.xceiverPool.allowCoreThreadTimeOut(true);
+
     this.estimateBlockSize = conf.getLongBytes(DFSConfigKeys.DFS_BLOCK_SIZE_KEY,
         DFSConfigKeys.DFS_BLOCK_SIZE_DEFAULT);
     
@@ -142,9 +181,7 @@ public void run() {
               + maxXceiverCount);
         }
 
-        new Daemon(datanode.threadGroup,
-            DataXceiver.create(peer, datanode, this))
-            .start();
+        execute(peer, DataXceiver.create(peer, datanode, this));
       } catch (SocketTimeoutException ignored) {
         // wake up to see if should continue to run
       } catch (AsynchronousCloseException ace) {
@@ -201,6 +238,83 @@ public void run() {
     }
     // Close all peers.
     closeAllPeers();
+    // and the connections which are still queued
+    for (Runnable r : xceiverPool.shutdownNow()) {
+      ((QueuedXceiver) r).discard();
+    }
+  }
+
+  /**
+   * Serve the connection on a DataXceiver thread, or queue it if all of them
+   * are busy.
+   * @throws IOException if the queue is full too.
+   */
+  private void execute(Peer peer, DataXceiver xceiver) throws IOException {
+    final QueuedXceiver task = new QueuedXceiver(peer, xceiver);
+    datanode.metrics.incrXceiverConnectionsQueued();
+    try {
+      xceiverPool.execute(task);
+    } catch (RejectedExecutionException e) {
+      datanode.metrics.decrXceiverConnectionsQueued();
+      datanode.metrics.incrXceiverConnectionsRejected();
+      throw new IOException("All the " + maxXceiverCount
+          + " DataXceiver threads are busy and "
+          + xceiverPool.getQueue().size() + " connections are queued", e);
+    }
+  }
+
+  /**
+   * Serve again a connection whose op waited for a slot of its type, off the
+   * DataXceiver threads.
+   * @return false if the connection was closed instead.
+   */
+  boolean resume(Peer peer, DataXceiver xceiver) {
+    try {
+      execute(peer, xceiver);
+      return true;
+    } catch (IOException e) {
+      LOG.warn(datanode.getDisplayName() + ":DataXceiverServer: ", e);
+      closePeer(peer);
+      return false;
+    }
+  }
+
+  /** A connection waiting for a DataXceiver thread. */
+  private class QueuedXceiver implements Runnable {
+    private final Peer peer;
+    private final DataXceiver xceiver;
+    private final long queuedTime = monotonicNow();
+
+    QueuedXceiver(Peer peer, DataXceiver xceiver) {
+      this.peer = peer;
+      this.xceiver = xceiver;
+    }
+
+    @Override
+    public void run() {
+      datanode.metrics.decrXceiverConnectionsQueued();
+      datanode.metrics.addXceiverConnectionQueueTime(
+          monotonicNow() - queuedTime);
+      try {
+        xceiver.run();
+      } finally {
+        Thread.currentThread().setName("DataXceiver idle");
+      }
+    }
+
+    /** Close the connection, it is never served. */
+    void discard() {
+      datanode.metrics.decrXceiverConnectionsQueued();
+      IOUtils.cleanup(null, peer);
+    }
+  }
+
+  /**
+   * @return the number of DataXceiver threads waiting for a connection, which
+   *         are not serving anything.
+   */
+  int getIdleXceiverCount() {
+    return xceiverPool.getPoolSize() - xceiverPool.getActiveCount();
   }
 
   void kill() {
@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.apache.hadoop.util.Time.monotonicNow;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.server.protocol.StorageReport;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Tracks the write load of each storage of a DataNode: the blocks being
+ * written to it, the bytes written per second, and whether its disk writes
+ * are slow. The load is sent with the storage reports of the heartbeats, for
+ * the NameNode to place the new replicas on the storages which keep up.
+ *
+ * The throughput and the slow writes are counted over a window of ten
+ * heartbeats, which ends on the first heartbeat after it elapsed.
+ */
+@InterfaceAudience.Private
+class StorageLoadTracker {
+  /** The heartbeats in a window of the throughput and slow writes. */
+  private static final int HEARTBEATS_PER_WINDOW = 10;
+  /** The slow writes in a window for the disk to be reported slow. */
+  @VisibleForTesting
+  static final int MIN_SLOW_WRITES = 3;
+  /** The disk is slow when one write in this many is slow. */
+  private static final int SLOW_WRITES_RATIO = 10;
+
+  private final long windowMs;
+  private final long slowWriteThresholdMs;
+  private final ConcurrentMap<String, StorageLoad> loads =
+      new ConcurrentHashMap<String, StorageLoad>();
+
+  StorageLoadTracker(DNConf dnConf) {
+    this(dnConf.heartBeatInterval * HEARTBEATS_PER_WINDOW,
+        dnConf.datanodeSlowIoWarningThresholdMs);
+  }
+
+  @VisibleForTesting
+  StorageLoadTracker(long windowMs, long slowWriteThresholdMs) {
+    this.windowMs = windowMs;
+    this.slowWriteThresholdMs = slowWriteThresholdMs;
+  }
+
+  private StorageLoad getLoad(String storageId) {
+    StorageLoad load = loads.get(storageId);
+    if (load == null) {
+      final StorageLoad newLoad = new StorageLoad();
+      load = loads.putIfAbsent(storageId, newLoad);
+      if (load == null) {
+        load = newLoad;
+      }
+    }
+    return load;
+  }
+
+  /** Called when a block starts being written to the storage. */
+  void writerStarted(String storageId) {
+    getLoad(storageId).writers.incrementAndGet();
+  }
+
+  /**
+   * Called when a block stops being written to the storage. The writers of a
+   * removed storage do not add it back.
+   */
+  void writerFinished(String storageId) {
+    final StorageLoad load = loads.get(storageId);
+    if (load != null) {
+      load.writers.decrementAndGet();
+    }
+  }
+
+  /**
+   * Called on each write or sync of a block to the disk of the storage.
+   * @param bytes the number of bytes written, 0 for a sync
+   * @param durationMs how long the write took
+   */
+  void addDiskWrite(String storageId, long bytes, long durationMs) {
+    final StorageLoad load = loads.get(storageId);
+    if (load != null) {
+      load.addWrite(bytes, durationMs > slowWriteThresholdMs);
+    }
+  }
+
+  /** Called when the volume of the storage is removed from the DataNode. */
+  void removeStorage(String storageId) {
+    loads.remove(storageId);
+  }
+
+  @VisibleForTesting
+  int getNumStorages() {
+    return loads.size();
+  }
+
+  /**
+   * @return the storage reports of a heartbeat, with the current load of
+   * their storages.
+   */
+  StorageReport[] addLoads(StorageReport[] reports) {
+    final long now = monotonicNow();
+    final StorageReport[] withLoads = new StorageReport[reports.length];
+    for (int i = 0; i < reports.length; i++) {
+      final StorageReport r = reports[i];
+      final StorageLoad load = getLoad(r.getStorage().getStorageID());
+      load.rollWindow(now);
+      withLoads[i] = new StorageReport(r.getStorage(), r.isFailed(),
+          r.getCapacity(), r.getDfsUsed(), r.getRemaining(),
+          r.getBlockPoolUsed(), load.bytesPerSec, load.writers.get(),
+          load.slowDisk);
+    }
+    return withLoads;
+  }
+
+  /** The load of a storage. */
+  private class StorageLoad {
+    private final AtomicInteger writers = new AtomicInteger();
+
+    // the current window
+    private long windowStart = monotonicNow();
+    private long bytes;
+    private long writes;
+    private long slowWrites;
+
+    // the last window
+    private volatile long bytesPerSec;
+    private volatile boolean slowDisk;
+
+    synchronized void addWrite(long n, boolean slow) {
+      bytes += n;
+      writes++;
+      if (slow) {
+        slowWrites++;
+      }
+    }
+
+    synchronized void rollWindow(long now) {
+      final long elapsed = now - windowStart;
+      if (elapsed < windowMs) {
+        return;
+      }
+      bytesPerSec = bytes * 1000 / Math.max(elapsed, 1);
+      slowDisk = slowWrites >= MIN_SLOW_WRITES
+          && slowWrites * SLOW_WRITES_RATIO >= writes;
+      windowStart = now;
+      bytes = 0;
+      writes = 0;
+      slowWrites = 0;
+    }
+  }
+}
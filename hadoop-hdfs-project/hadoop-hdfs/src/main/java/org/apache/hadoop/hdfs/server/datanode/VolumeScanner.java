@@ -21,6 +21,8 @@
 import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -108,8 +110,31 @@ public class VolumeScanner extends Thread {
   /**
    * The null output stream to use with BlockSender objects.
    */
+  private final NullChannelOutputStream nullChannel =
+      new NullChannelOutputStream();
   private final DataOutputStream nullStream =
-      new DataOutputStream(new IOUtils.NullOutputStream());
+      new DataOutputStream(nullChannel);
+
+  /**
+   * A null output stream which is also a channel, so that the BlockSender
+   * verifies the blocks in direct buffers, and does not copy them to the
+   * heap only to discard them.
+   */
+  @VisibleForTesting
+  static class NullChannelOutputStream
+      extends IOUtils.NullOutputStream implements WritableByteChannel {
+    @Override
+    public int write(ByteBuffer src) {
+      final int n = src.remaining();
+      src.position(src.limit());
+      return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+  }
 
   /**
    * The block iterators associated with this VolumeScanner.<p/>
@@ -436,7 +461,8 @@ private long scanBlock(ExtendedBlock cblock, long bytesPerSec) {
           false, true, true, datanode, null,
           CachingStrategy.newDropBehind());
       throttler.setBandwidth(bytesPerSec);
-      long bytesRead = blockSender.sendBlock(nullStream, null, throttler);
+      long bytesRead = blockSender.sendBlock(nullStream, nullChannel,
+          throttler);
       resultHandler.handle(block, null);
       return bytesRead;
     } catch (IOException e) {
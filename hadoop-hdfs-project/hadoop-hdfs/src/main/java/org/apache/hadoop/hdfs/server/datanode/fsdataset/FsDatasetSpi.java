@@ -58,6 +58,7 @@
 import org.apache.hadoop.hdfs.server.protocol.ReplicaRecoveryInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.server.protocol.VolumeFailureSummary;
+import org.apache.hadoop.hdfs.util.AutoCloseableLock;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
 import org.apache.hadoop.util.ReflectionUtils;
 
@@ -183,6 +184,15 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b
    */
   public String getReplicaString(String bpid, long blockId);
 
+  /**
+   * Acquire the lock which guards the changes of the replica of the block,
+   * e.g. to read the replica together with its files consistently. It is
+   * released by closing it.
+   *
+   * @return the acquired lock
+   */
+  public AutoCloseableLock acquireReplicaLock(String bpid, long blockId);
+
   /**
    * @return the generation stamp stored with the block.
    */
@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.util.Collection;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.hdfs.util.AutoCloseableLock;
+
+/**
+ * The locks of {@link FsDatasetImpl}. Each block pool has a read-write lock,
+ * and each volume a lock:
+ * <ul>
+ * <li>the changes of a replica hold the read lock of its block pool and the
+ * lock of its volume, so that the replicas of the other volumes and of the
+ * other block pools are changed concurrently;</li>
+ * <li>the changes of a block pool as a whole, e.g. adding it, or adding and
+ * removing volumes, hold its write lock.</li>
+ * </ul>
+ * The block pool locks are acquired before the volume locks. The locks of
+ * several block pools, or of several volumes, are acquired together, in the
+ * order of their ids. A thread holding a read lock must not acquire the write
+ * lock of the block pool.
+ *
+ * The time spent waiting for the locks is recorded in the DataNode metrics.
+ */
+class DatasetLockManager {
+  private final ConcurrentMap<String, ReentrantReadWriteLock> blockPoolLocks =
+      new ConcurrentHashMap<String, ReentrantReadWriteLock>();
+  private final ConcurrentMap<String, ReentrantLock> volumeLocks =
+      new ConcurrentHashMap<String, ReentrantLock>();
+  private final DataNode datanode;
+
+  DatasetLockManager(DataNode datanode) {
+    this.datanode = datanode;
+  }
+
+  private ReentrantReadWriteLock getBlockPoolLock(String bpid) {
+    ReentrantReadWriteLock lock = blockPoolLocks.get(bpid);
+    if (lock == null) {
+      final ReentrantReadWriteLock created = new ReentrantReadWriteLock();
+      lock = blockPoolLocks.putIfAbsent(bpid, created);
+      if (lock == null) {
+        lock = created;
+      }
+    }
+    return lock;
+  }
+
+  private ReentrantLock getVolumeLock(String storageId) {
+    ReentrantLock lock = volumeLocks.get(storageId);
+    if (lock == null) {
+      final ReentrantLock created = new ReentrantLock();
+      lock = volumeLocks.putIfAbsent(storageId, created);
+      if (lock == null) {
+        lock = created;
+      }
+    }
+    return lock;
+  }
+
+  /** Acquire the read lock of the block pool. */
+  AutoCloseableLock readLock(String bpid) {
+    return new AutoCloseableLock(
+        acquire(getBlockPoolLock(bpid).readLock(), false));
+  }
+
+  /** Acquire the write lock of the block pool. */
+  AutoCloseableLock writeLock(String bpid) {
+    return new AutoCloseableLock(
+        acquire(getBlockPoolLock(bpid).writeLock(), false));
+  }
+
+  /** Acquire the write locks of the block pools. */
+  AutoCloseableLock writeLock(Collection<String> bpids) {
+    final TreeSet<String> sorted = new TreeSet<String>(bpids);
+    final Lock[] locks = new Lock[sorted.size()];
+    int i = 0;
+    for (String bpid : sorted) {
+      locks[i++] = acquire(getBlockPoolLock(bpid).writeLock(), false);
+    }
+    return new AutoCloseableLock(locks);
+  }
+
+  /**
+   * Acquire the read lock of the block pool, and the locks of the volumes,
+   * to change the replicas of the block pool on the volumes.
+   */
+  AutoCloseableLock volumeLock(String bpid, FsVolumeSpi... volumes) {
+    final TreeMap<String, ReentrantLock> sorted =
+        new TreeMap<String, ReentrantLock>();
+    for (FsVolumeSpi v : volumes) {
+      if (v == null) {
+        continue;
+      }
+      sorted.put(v.getStorageID(), getVolumeLock(v.getStorageID()));
+    }
+    final Lock[] locks = new Lock[sorted.size() + 1];
+    locks[0] = acquire(getBlockPoolLock(bpid).readLock(), false);
+    int i = 1;
+    for (ReentrantLock lock : sorted.values()) {
+      locks[i++] = acquire(lock, true);
+    }
+    return new AutoCloseableLock(locks);
+  }
+
+  private Lock acquire(Lock lock, boolean volume) {
+    final long start = System.nanoTime();
+    lock.lock();
+    final DataNodeMetrics metrics = datanode.getMetrics();
+    if (metrics != null) {
+      final long waitNanos = System.nanoTime() - start;
+      if (volume) {
+        metrics.addVolumeLockWaitNanos(waitNanos);
+      } else {
+        metrics.addBlockPoolLockWaitNanos(waitNanos);
+      }
+    }
+    return lock;
+  }
+}
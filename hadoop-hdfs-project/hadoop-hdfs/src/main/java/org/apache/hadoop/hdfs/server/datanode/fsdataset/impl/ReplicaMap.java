@@ -20,8 +20,9 @@
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 
@@ -29,25 +30,16 @@
  * Maintains the replica map. 
  */
 class ReplicaMap {
-  // Object using which this class is synchronized
-  private final Object mutex;
-  
+  private static final ReplicaInfo[] EMPTY_ARRAY = {};
+
   // Map of block pool Id to another map of block Id to ReplicaInfo.
-  private final Map<String, Map<Long, ReplicaInfo>> map =
-    new HashMap<String, Map<Long, ReplicaInfo>>();
-  
-  ReplicaMap(Object mutex) {
-    if (mutex == null) {
-      throw new HadoopIllegalArgumentException(
-          "Object to synchronize on cannot be null");
-    }
-    this.mutex = mutex;
-  }
+  // Each map of a block pool is synchronized on itself, so that the block
+  // pools do not contend with each other.
+  private final ConcurrentMap<String, Map<Long, ReplicaInfo>> map =
+    new ConcurrentHashMap<String, Map<Long, ReplicaInfo>>();
   
   String[] getBlockPoolList() {
-    synchronized(mutex) {
-      return map.keySet().toArray(new String[map.keySet().size()]);   
-    }
+    return map.keySet().toArray(new String[0]);
   }
   
   private void checkBlockPool(String bpid) {
@@ -61,6 +53,19 @@ private void checkBlock(Block b) {
       throw new IllegalArgumentException("Block is null");
     }
   }
+
+  /** Get the map of the block pool, adding it if it does not exist. */
+  private Map<Long, ReplicaInfo> getOrAddBlockPool(String bpid) {
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    if (m == null) {
+      final Map<Long, ReplicaInfo> added = new HashMap<Long, ReplicaInfo>();
+      m = map.putIfAbsent(bpid, added);
+      if (m == null) {
+        m = added;
+      }
+    }
+    return m;
+  }
   
   /**
    * Get the meta information of the replica that matches both block id 
@@ -90,9 +95,12 @@ ReplicaInfo get(String bpid, Block block) {
    */
   ReplicaInfo get(String bpid, long blockId) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      return m != null ? m.get(blockId) : null;
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    if (m == null) {
+      return null;
+    }
+    synchronized(m) {
+      return m.get(blockId);
     }
   }
   
@@ -107,22 +115,48 @@ ReplicaInfo get(String bpid, long blockId) {
   ReplicaInfo add(String bpid, ReplicaInfo replicaInfo) {
     checkBlockPool(bpid);
     checkBlock(replicaInfo);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m == null) {
-        // Add an entry for block pool if it does not exist already
-        m = new HashMap<Long, ReplicaInfo>();
-        map.put(bpid, m);
-      }
+    Map<Long, ReplicaInfo> m = getOrAddBlockPool(bpid);
+    synchronized(m) {
       return  m.put(replicaInfo.getBlockId(), replicaInfo);
     }
   }
 
   /**
-   * Add all entries from the given replica map into the local replica map.
+   * Add a replica's meta information into the map, unless the map already
+   * has a replica of the block.
+   *
+   * @param bpid block pool id
+   * @param replicaInfo a replica's meta information
+   * @return the replica already in the map, null if the replica was added
+   * @throws IllegalArgumentException if the input parameter is null
+   */
+  ReplicaInfo addIfAbsent(String bpid, ReplicaInfo replicaInfo) {
+    checkBlockPool(bpid);
+    checkBlock(replicaInfo);
+    Map<Long, ReplicaInfo> m = getOrAddBlockPool(bpid);
+    synchronized(m) {
+      final ReplicaInfo existing = m.get(replicaInfo.getBlockId());
+      if (existing == null) {
+        m.put(replicaInfo.getBlockId(), replicaInfo);
+      }
+      return existing;
+    }
+  }
+
+  /**
+   * Add all entries from the given replica map into the local replica map,
+   * the block pools of both maps are merged.
    */
   void addAll(ReplicaMap other) {
-    map.putAll(other.map);
+    for (Map.Entry<String, Map<Long, ReplicaInfo>> e : other.map.entrySet()) {
+      final Map<Long, ReplicaInfo> m = getOrAddBlockPool(e.getKey());
+      final Map<Long, ReplicaInfo> otherMap = e.getValue();
+      synchronized(otherMap) {
+        synchronized(m) {
+          m.putAll(otherMap);
+        }
+      }
+    }
   }
   
   /**
@@ -136,9 +170,9 @@ void addAll(ReplicaMap other) {
   ReplicaInfo remove(String bpid, Block block) {
     checkBlockPool(bpid);
     checkBlock(block);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m != null) {
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    if (m != null) {
+      synchronized(m) {
         Long key = Long.valueOf(block.getBlockId());
         ReplicaInfo replicaInfo = m.get(key);
         if (replicaInfo != null &&
@@ -159,9 +193,9 @@ ReplicaInfo remove(String bpid, Block block) {
    */
   ReplicaInfo remove(String bpid, long blockId) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m != null) {
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    if (m != null) {
+      synchronized(m) {
         return m.remove(blockId);
       }
     }
@@ -174,19 +208,21 @@ ReplicaInfo remove(String bpid, long blockId) {
    * @return the number of replicas in the map
    */
   int size(String bpid) {
-    Map<Long, ReplicaInfo> m = null;
-    synchronized(mutex) {
-      m = map.get(bpid);
-      return m != null ? m.size() : 0;
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    if (m == null) {
+      return 0;
+    }
+    synchronized(m) {
+      return m.size();
     }
   }
   
   /**
    * Get a collection of the replicas for given block pool
    * This method is <b>not synchronized</b>. It needs to be synchronized
-   * externally using the mutex, both for getting the replicas
-   * values from the map and iterating over it. Mutex can be accessed using
-   * {@link #getMutext()} method.
+   * externally using the mutex of the block pool, both for getting the
+   * replicas values from the map and iterating over it. The mutex can be
+   * accessed using {@link #getMutex(String)} method.
    * 
    * @param bpid block pool id
    * @return a collection of the replicas belonging to the block pool
@@ -197,30 +233,40 @@ Collection<ReplicaInfo> replicas(String bpid) {
     return m != null ? m.values() : null;
   }
 
+  /**
+   * Get a copy of the replicas of the given block pool, which is iterated
+   * without holding the mutex of the block pool.
+   *
+   * @param bpid block pool id
+   * @return the replicas belonging to the block pool, empty if none
+   */
+  ReplicaInfo[] copyReplicas(String bpid) {
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    if (m == null) {
+      return EMPTY_ARRAY;
+    }
+    synchronized(m) {
+      return m.values().toArray(new ReplicaInfo[m.size()]);
+    }
+  }
+
   void initBlockPool(String bpid) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m == null) {
-        // Add an entry for block pool if it does not exist already
-        m = new HashMap<Long, ReplicaInfo>();
-        map.put(bpid, m);
-      }
-    }
+    getOrAddBlockPool(bpid);
   }
   
   void cleanUpBlockPool(String bpid) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
-      map.remove(bpid);
-    }
+    map.remove(bpid);
   }
   
   /**
-   * Give access to mutex used for synchronizing ReplicasMap
+   * Give access to the mutex of a block pool, to iterate over its replicas
+   * @param bpid block pool id
    * @return object used as lock
    */
-  Object getMutext() {
-    return mutex;
+  Object getMutex(String bpid) {
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    return m != null ? m : EMPTY_ARRAY;
   }
 }
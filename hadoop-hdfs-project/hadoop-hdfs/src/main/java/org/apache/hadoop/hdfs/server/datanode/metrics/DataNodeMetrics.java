@@ -19,16 +19,21 @@
 
 import static org.apache.hadoop.metrics2.impl.MsInfo.SessionId;
 
+import java.util.EnumMap;
+import java.util.Map;
+
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.server.datanode.DataXceiverOpLimiter.OpType;
 import org.apache.hadoop.metrics2.MetricsSystem;
 import org.apache.hadoop.metrics2.annotation.Metric;
 import org.apache.hadoop.metrics2.annotation.Metrics;
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
 import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableGaugeInt;
 import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.metrics2.source.JvmMetrics;
@@ -124,6 +129,22 @@ public class DataNodeMetrics {
   @Metric MutableRate sendDataPacketTransferNanos;
   final MutableQuantiles[] sendDataPacketTransferNanosQuantiles;
 
+  @Metric("Time waiting for the block pool locks of the dataset")
+  MutableRate blockPoolLockWaitNanos;
+  @Metric("Time waiting for the volume locks of the dataset")
+  MutableRate volumeLockWaitNanos;
+
+  @Metric("Connections waiting for a DataXceiver thread")
+  MutableGaugeInt xceiverConnectionsQueued;
+  @Metric("Milliseconds the connections waited for a DataXceiver thread")
+  MutableRate xceiverConnectionQueueTime;
+  @Metric("Connections closed as all the DataXceiver threads were busy")
+  MutableCounterLong xceiverConnectionsRejected;
+  final Map<OpType, MutableGaugeInt> xceiverOpsQueued =
+      new EnumMap<OpType, MutableGaugeInt>(OpType.class);
+  final Map<OpType, MutableRate> xceiverOpQueueTime =
+      new EnumMap<OpType, MutableRate>(OpType.class);
+
   final MetricsRegistry registry = new MetricsRegistry("datanode");
   final String name;
   JvmMetrics jvmMetrics = null;
@@ -133,6 +154,14 @@ public DataNodeMetrics(String name, String sessionId, int[] intervals,
     this.name = name;
     this.jvmMetrics = jvmMetrics;    
     registry.tag(SessionId, sessionId);
+
+    for (OpType type : OpType.values()) {
+      final String prefix = type.getMetricPrefix();
+      xceiverOpsQueued.put(type, registry.newGauge(prefix + "OpsQueued",
+          "Number of " + prefix + " operations waiting for a slot", 0));
+      xceiverOpQueueTime.put(type, registry.newRate(prefix + "OpQueueTime",
+          "Milliseconds the " + prefix + " operations waited for a slot"));
+    }
     
     final int len = intervals.length;
     packetAckRoundTripTimeNanosQuantiles = new MutableQuantiles[len];
@@ -360,6 +389,42 @@ public void addSendDataPacketTransferNanos(long latencyNanos) {
     }
   }
 
+  public void addBlockPoolLockWaitNanos(long waitNanos) {
+    blockPoolLockWaitNanos.add(waitNanos);
+  }
+
+  public void addVolumeLockWaitNanos(long waitNanos) {
+    volumeLockWaitNanos.add(waitNanos);
+  }
+
+  public void incrXceiverConnectionsQueued() {
+    xceiverConnectionsQueued.incr();
+  }
+
+  public void decrXceiverConnectionsQueued() {
+    xceiverConnectionsQueued.decr();
+  }
+
+  public void addXceiverConnectionQueueTime(long waitMs) {
+    xceiverConnectionQueueTime.add(waitMs);
+  }
+
+  public void incrXceiverConnectionsRejected() {
+    xceiverConnectionsRejected.incr();
+  }
+
+  public void incrXceiverOpsQueued(OpType type) {
+    xceiverOpsQueued.get(type).incr();
+  }
+
+  public void decrXceiverOpsQueued(OpType type) {
+    xceiverOpsQueued.get(type).decr();
+  }
+
+  public void addXceiverOpQueueTime(OpType type, long waitMs) {
+    xceiverOpQueueTime.get(type).add(waitMs);
+  }
+
   public void incrRamDiskBlocksWrite() {
     ramDiskBlocksWrite.incr();
   }
@@ -61,6 +61,14 @@ int getEntryAt(int pos) {
     return entries[pos];
   }
 
+  /**
+   * @return an estimate of the heap used by the feature: the object, and the
+   * array of the entries.
+   */
+  long getHeapSize() {
+    return 24 + ((16 + 4L * entries.length + 7) & ~7);
+  }
+
   @Override
   public boolean equals(Object o) {
     if (o == null) {
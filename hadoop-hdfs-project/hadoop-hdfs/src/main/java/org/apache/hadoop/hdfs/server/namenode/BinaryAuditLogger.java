@@ -0,0 +1,724 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.fs.CommonConfigurationKeysPublic.HADOOP_CALLER_CONTEXT_ENABLED_DEFAULT;
+import static org.apache.hadoop.fs.CommonConfigurationKeysPublic.HADOOP_CALLER_CONTEXT_ENABLED_KEY;
+import static org.apache.hadoop.fs.CommonConfigurationKeysPublic.HADOOP_CALLER_CONTEXT_MAX_SIZE_DEFAULT;
+import static org.apache.hadoop.fs.CommonConfigurationKeysPublic.HADOOP_CALLER_CONTEXT_MAX_SIZE_KEY;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenSecretManager;
+import org.apache.hadoop.hdfs.server.namenode.web.resources.NamenodeWebHdfsMethods;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.ipc.CallerContext;
+import org.apache.hadoop.metrics2.annotation.Metric;
+import org.apache.hadoop.metrics2.annotation.Metrics;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+/**
+ * An audit logger which writes the events to local files in a compact
+ * binary format, without formatting them in the NameNode handlers.
+ *
+ * The handlers copy the fields of the event into a preallocated slot of a
+ * ring buffer. Claiming a slot is a compare-and-set on the tail of the ring,
+ * there is no lock. A single writer thread encodes the published slots in
+ * order, and flushes the file whenever the ring is empty. When the ring is
+ * full, the event is dropped rather than blocking the handler, and counted
+ * in the DroppedEvents metric.
+ *
+ * The files are written under dfs.namenode.audit.binary.dir, and rolled
+ * once they reach dfs.namenode.audit.binary.roll.size bytes. The oldest ones
+ * are deleted beyond dfs.namenode.audit.binary.max.files files. A file starts
+ * with a magic number, the version of the format and a base time, followed by
+ * the records. The time of a record is a delta to the previous one, and the
+ * user, address, command, owner and group are interned per file: their first
+ * occurrence defines an id, the following ones only write it. The files are
+ * decoded with {@link Reader}, or printed in the format of the default audit
+ * log by the main method of this class.
+ *
+ * The delegation token tracking ids and the caller context signatures are
+ * not logged.
+ */
+@InterfaceAudience.Private
+@Metrics(about="Binary audit logger metrics", context="dfs")
+public class BinaryAuditLogger extends HdfsAuditLogger implements Closeable {
+  public static final Log LOG = LogFactory.getLog(BinaryAuditLogger.class);
+
+  static final byte[] MAGIC = "HDFSAUDT".getBytes(Charsets.UTF_8);
+  static final int VERSION = 1;
+  static final String FILE_PREFIX = "audit.";
+  static final String FILE_SUFFIX = ".bin";
+  /** The number of strings interned per file, the others are inlined. */
+  static final int MAX_INTERNED_STRINGS = 1 << 16;
+  /** How long the writer waits for new events when the ring is empty. */
+  private static final long IDLE_SLEEP_MS = 10;
+  private static final String METRICS_NAME = "BinaryAuditLogger";
+  /** The minimum interval between two logs of the write failures. */
+  private static final long ERROR_LOG_INTERVAL_MS = 60 * 1000;
+  private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+  private static final byte SUCCEEDED = 1;
+  private static final byte HAS_STATUS = 1 << 1;
+  private static final byte WEBHDFS = 1 << 2;
+
+  /** A preallocated event, published to the writer by its sequence. */
+  private static final class Slot {
+    volatile long sequence = -1;
+    long time;
+    byte flags;
+    String user;
+    InetAddress addr;
+    String cmd;
+    String src;
+    String dst;
+    String owner;
+    String group;
+    short permission;
+    String callerContext;
+  }
+
+  private File dir;
+  private int rollSize;
+  private int maxFiles;
+  private boolean isCallerContextEnabled;
+  private int callerContextMaxLen;
+
+  private Slot[] ring;
+  private int mask;
+  /** The next sequence to be claimed by a handler. */
+  private final AtomicLong tail = new AtomicLong();
+  /** The next sequence to be written, only advanced by the writer. */
+  private volatile long head = 0;
+  private final AtomicLong droppedEvents = new AtomicLong();
+  private final AtomicLong writtenEvents = new AtomicLong();
+
+  private volatile boolean running = false;
+  private Daemon writer;
+  private String metricsName;
+
+  // only accessed by the writer
+  private File file;
+  private DataOutputStream out;
+  private final Map<String, Integer> interned = new HashMap<String, Integer>();
+  private long prevTime;
+  private long lastErrorLogTime = Long.MIN_VALUE;
+  private int suppressedErrors = 0;
+
+  @Override
+  public void initialize(Configuration conf) {
+    final String dirName = conf.getTrimmed(
+        DFSConfigKeys.DFS_NAMENODE_AUDIT_BINARY_DIR_KEY);
+    Preconditions.checkArgument(dirName != null && !dirName.isEmpty(),
+        DFSConfigKeys.DFS_NAMENODE_AUDIT_BINARY_DIR_KEY + " is not set");
+    dir = new File(dirName);
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IllegalArgumentException("Cannot create the audit log"
+          + " directory " + dir);
+    }
+    final long roll = conf.getLong(
+        DFSConfigKeys.DFS_NAMENODE_AUDIT_BINARY_ROLL_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_AUDIT_BINARY_ROLL_SIZE_DEFAULT);
+    Preconditions.checkArgument(roll > 0,
+        DFSConfigKeys.DFS_NAMENODE_AUDIT_BINARY_ROLL_SIZE_KEY
+        + " must be positive");
+    // DataOutputStream#size saturates at Integer.MAX_VALUE
+    rollSize = (int) Math.min(roll, Integer.MAX_VALUE);
+    maxFiles = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_AUDIT_BINARY_MAX_FILES_KEY,
+        DFSConfigKeys.DFS_NAMENODE_AUDIT_BINARY_MAX_FILES_DEFAULT);
+    isCallerContextEnabled = conf.getBoolean(
+        HADOOP_CALLER_CONTEXT_ENABLED_KEY,
+        HADOOP_CALLER_CONTEXT_ENABLED_DEFAULT);
+    callerContextMaxLen = conf.getInt(
+        HADOOP_CALLER_CONTEXT_MAX_SIZE_KEY,
+        HADOOP_CALLER_CONTEXT_MAX_SIZE_DEFAULT);
+
+    final int size = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_AUDIT_BINARY_BUFFER_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_AUDIT_BINARY_BUFFER_SIZE_DEFAULT);
+    Preconditions.checkArgument(size > 0 && size <= 1 << 30,
+        DFSConfigKeys.DFS_NAMENODE_AUDIT_BINARY_BUFFER_SIZE_KEY
+        + " is out of range: " + size);
+    int capacity = 1;
+    while (capacity < size) {
+      capacity <<= 1;
+    }
+    ring = new Slot[capacity];
+    for (int i = 0; i < capacity; i++) {
+      ring[i] = new Slot();
+    }
+    mask = capacity - 1;
+
+    running = true;
+    writer = new Daemon(new Runnable() {
+      @Override
+      public void run() {
+        writeLoop();
+      }
+    });
+    writer.setName("BinaryAuditLogger writer");
+    writer.start();
+    // the NameNodes of a MiniDFSCluster share the metrics system
+    final int instance = INSTANCES.incrementAndGet();
+    metricsName = instance == 1 ? METRICS_NAME
+        : METRICS_NAME + "-" + instance;
+    DefaultMetricsSystem.instance().register(metricsName, null, this);
+    LOG.info("Writing the audit events to " + dir + ", buffer size="
+        + capacity + ", roll size=" + rollSize + ", max files=" + maxFiles);
+  }
+
+  @Override
+  public void logAuditEvent(boolean succeeded, String userName,
+      InetAddress addr, String cmd, String src, String dst,
+      FileStatus status, CallerContext callerContext, UserGroupInformation ugi,
+      DelegationTokenSecretManager dtSecretManager) {
+    if (!running) {
+      droppedEvents.incrementAndGet();
+      return;
+    }
+    long seq;
+    do {
+      seq = tail.get();
+      if (seq - head >= ring.length) {
+        droppedEvents.incrementAndGet();
+        return;
+      }
+    } while (!tail.compareAndSet(seq, seq + 1));
+
+    // the writer has released the slot, it is ours until it is published
+    final Slot slot = ring[(int) seq & mask];
+    slot.time = Time.now();
+    byte flags = succeeded ? SUCCEEDED : 0;
+    if (status != null) {
+      flags |= HAS_STATUS;
+      slot.owner = status.getOwner();
+      slot.group = status.getGroup();
+      slot.permission = status.getPermission().toShort();
+    } else {
+      slot.owner = null;
+      slot.group = null;
+    }
+    if (NamenodeWebHdfsMethods.isWebHdfsInvocation()) {
+      flags |= WEBHDFS;
+    }
+    slot.flags = flags;
+    slot.user = userName;
+    slot.addr = addr;
+    slot.cmd = cmd;
+    slot.src = src;
+    slot.dst = dst;
+    slot.callerContext = isCallerContextEnabled && callerContext != null
+        && callerContext.isContextValid() ? callerContext.getContext() : null;
+    slot.sequence = seq;
+  }
+
+  @Metric(value={"DroppedEvents",
+      "Number of audit events dropped because the buffer was full"},
+      type=Metric.Type.COUNTER)
+  public long getDroppedEvents() {
+    return droppedEvents.get();
+  }
+
+  @Metric(value={"WrittenEvents", "Number of audit events written"},
+      type=Metric.Type.COUNTER)
+  public long getWrittenEvents() {
+    return writtenEvents.get();
+  }
+
+  @Metric({"BacklogEvents", "Number of audit events not written yet"})
+  public long getBacklog() {
+    return tail.get() - head;
+  }
+
+  /**
+   * Stop the writer once it has written the buffered events.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!running) {
+      return;
+    }
+    running = false;
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while closing the audit log", e);
+    } finally {
+      DefaultMetricsSystem.instance().unregisterSource(metricsName);
+    }
+  }
+
+  private void writeLoop() {
+    // drain the ring before stopping, a handler may still be filling a slot
+    while (running || head != tail.get()) {
+      try {
+        if (drain() == 0) {
+          if (out != null) {
+            out.flush();
+          }
+          Thread.sleep(IDLE_SLEEP_MS);
+        }
+      } catch (IOException e) {
+        logWriteFailure(e);
+        closeFile();
+      } catch (InterruptedException e) {
+        if (!running) {
+          break;
+        }
+      }
+    }
+    closeFile();
+  }
+
+  /**
+   * Log a failure to write, unless one was logged less than
+   * ERROR_LOG_INTERVAL_MS ago: when the disk keeps failing, every event
+   * fails.
+   */
+  private void logWriteFailure(IOException e) {
+    final long now = Time.monotonicNow();
+    if (lastErrorLogTime != Long.MIN_VALUE
+        && now - lastErrorLogTime < ERROR_LOG_INTERVAL_MS) {
+      suppressedErrors++;
+      return;
+    }
+    LOG.error("Failed to write the audit events to " + file
+        + (suppressedErrors == 0 ? "" : " (" + suppressedErrors
+            + " more failures since the last one logged)"), e);
+    lastErrorLogTime = now;
+    suppressedErrors = 0;
+  }
+
+  /**
+   * Write the published events, in order, and release their slots.
+   * @return the number of events written.
+   */
+  private int drain() throws IOException {
+    int n = 0;
+    for (long seq = head; ; seq++) {
+      final Slot slot = ring[(int) seq & mask];
+      if (slot.sequence != seq) {
+        return n;
+      }
+      try {
+        if (out == null || out.size() >= rollSize) {
+          roll(slot.time);
+        }
+        write(slot);
+        writtenEvents.incrementAndGet();
+        n++;
+      } catch (IOException e) {
+        droppedEvents.incrementAndGet();
+        throw e;
+      } finally {
+        head = seq + 1;
+      }
+    }
+  }
+
+  private void write(Slot slot) throws IOException {
+    WritableUtils.writeVLong(out, slot.time - prevTime);
+    prevTime = slot.time;
+    out.writeByte(slot.flags);
+    writeString(slot.user, true);
+    writeString(slot.addr == null ? null : slot.addr.getHostAddress(), true);
+    writeString(slot.cmd, true);
+    writeString(slot.src, false);
+    writeString(slot.dst, false);
+    if ((slot.flags & HAS_STATUS) != 0) {
+      writeString(slot.owner, true);
+      writeString(slot.group, true);
+      out.writeShort(slot.permission);
+    }
+    String context = slot.callerContext;
+    if (context != null && context.length() > callerContextMaxLen) {
+      context = context.substring(0, callerContextMaxLen);
+    }
+    writeString(context, false);
+  }
+
+  /**
+   * A string is written as a vint code: 0 for null, -1 followed by the
+   * string, -(id + 2) followed by the string to define an interned one,
+   * id + 1 to reference it.
+   */
+  private void writeString(String s, boolean intern) throws IOException {
+    if (s == null) {
+      WritableUtils.writeVInt(out, 0);
+      return;
+    }
+    if (intern) {
+      final Integer id = interned.get(s);
+      if (id != null) {
+        WritableUtils.writeVInt(out, id + 1);
+        return;
+      }
+      if (interned.size() < MAX_INTERNED_STRINGS) {
+        final int newId = interned.size();
+        interned.put(s, newId);
+        WritableUtils.writeVInt(out, -newId - 2);
+        Text.writeString(out, s);
+        return;
+      }
+    }
+    WritableUtils.writeVInt(out, -1);
+    Text.writeString(out, s);
+  }
+
+  private void roll(long baseTime) throws IOException {
+    closeFile();
+    long suffix = baseTime;
+    File f = new File(dir, FILE_PREFIX + suffix + FILE_SUFFIX);
+    while (!f.createNewFile()) {
+      f = new File(dir, FILE_PREFIX + (++suffix) + FILE_SUFFIX);
+    }
+    file = f;
+    out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(f), 64 * 1024));
+    out.write(MAGIC);
+    WritableUtils.writeVInt(out, VERSION);
+    out.writeLong(baseTime);
+    prevTime = baseTime;
+    interned.clear();
+    deleteOldFiles();
+  }
+
+  /** Delete the oldest files beyond maxFiles, if it is positive. */
+  private void deleteOldFiles() {
+    if (maxFiles <= 0) {
+      return;
+    }
+    final File[] files = listFiles(dir);
+    for (int i = 0; i < files.length - maxFiles; i++) {
+      if (!files[i].delete()) {
+        LOG.warn("Failed to delete the old audit log " + files[i]);
+      }
+    }
+  }
+
+  private void closeFile() {
+    IOUtils.cleanup(LOG, out);
+    out = null;
+  }
+
+  @VisibleForTesting
+  File getDirectory() {
+    return dir;
+  }
+
+  @VisibleForTesting
+  String getMetricsName() {
+    return metricsName;
+  }
+
+  /**
+   * @return the audit log files of the directory, oldest first.
+   */
+  public static File[] listFiles(File dir) {
+    final File[] files = dir.listFiles();
+    if (files == null) {
+      return new File[0];
+    }
+    final List<File> logs = new ArrayList<File>();
+    for (File f : files) {
+      final String name = f.getName();
+      if (name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX)) {
+        logs.add(f);
+      }
+    }
+    final File[] sorted = logs.toArray(new File[logs.size()]);
+    Arrays.sort(sorted, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return Long.compare(getBaseTime(a), getBaseTime(b));
+      }
+    });
+    return sorted;
+  }
+
+  private static long getBaseTime(File f) {
+    final String name = f.getName();
+    try {
+      return Long.parseLong(name.substring(FILE_PREFIX.length(),
+          name.length() - FILE_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return Long.MAX_VALUE;
+    }
+  }
+
+  /** An audit event decoded by a {@link Reader}. */
+  public static class AuditEvent {
+    private final long time;
+    private final byte flags;
+    private final String user;
+    private final String address;
+    private final String cmd;
+    private final String src;
+    private final String dst;
+    private final String owner;
+    private final String group;
+    private final FsPermission permission;
+    private final String callerContext;
+
+    AuditEvent(long time, byte flags, String user, String address, String cmd,
+        String src, String dst, String owner, String group,
+        FsPermission permission, String callerContext) {
+      this.time = time;
+      this.flags = flags;
+      this.user = user;
+      this.address = address;
+      this.cmd = cmd;
+      this.src = src;
+      this.dst = dst;
+      this.owner = owner;
+      this.group = group;
+      this.permission = permission;
+      this.callerContext = callerContext;
+    }
+
+    public long getTime() {
+      return time;
+    }
+
+    public boolean isSucceeded() {
+      return (flags & SUCCEEDED) != 0;
+    }
+
+    public boolean isWebHdfs() {
+      return (flags & WEBHDFS) != 0;
+    }
+
+    public String getUser() {
+      return user;
+    }
+
+    public String getAddress() {
+      return address;
+    }
+
+    public String getCommand() {
+      return cmd;
+    }
+
+    public String getSrc() {
+      return src;
+    }
+
+    public String getDst() {
+      return dst;
+    }
+
+    /** @return the owner, or null if the event has no file status. */
+    public String getOwner() {
+      return owner;
+    }
+
+    /** @return the group, or null if the event has no file status. */
+    public String getGroup() {
+      return group;
+    }
+
+    /** @return the permission, or null if the event has no file status. */
+    public FsPermission getPermission() {
+      return permission;
+    }
+
+    public String getCallerContext() {
+      return callerContext;
+    }
+
+    /** @return the event in the format of the default audit logger. */
+    @Override
+    public String toString() {
+      final StringBuilder sb = new StringBuilder();
+      sb.append("allowed=").append(isSucceeded()).append("\t");
+      sb.append("ugi=").append(user).append("\t");
+      sb.append("ip=/").append(address).append("\t");
+      sb.append("cmd=").append(cmd).append("\t");
+      sb.append("src=").append(src).append("\t");
+      sb.append("dst=").append(dst).append("\t");
+      if (permission == null) {
+        sb.append("perm=null");
+      } else {
+        sb.append("perm=").append(owner).append(":").append(group)
+            .append(":").append(permission);
+      }
+      sb.append("\t").append("proto=").append(isWebHdfs() ? "webhdfs" : "rpc");
+      if (callerContext != null) {
+        sb.append("\t").append("callerContext=").append(callerContext);
+      }
+      return sb.toString();
+    }
+  }
+
+  /** Decode the events of an audit log file. */
+  public static class Reader implements Closeable {
+    private final PushbackInputStream pushback;
+    private final DataInputStream in;
+    private final List<String> interned = new ArrayList<String>();
+    private final long baseTime;
+    private long prevTime;
+
+    public Reader(File file) throws IOException {
+      pushback = new PushbackInputStream(new BufferedInputStream(
+          new FileInputStream(file)));
+      in = new DataInputStream(pushback);
+      boolean success = false;
+      try {
+        final byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+          throw new IOException(file + " is not an audit log");
+        }
+        final int version = WritableUtils.readVInt(in);
+        if (version != VERSION) {
+          throw new IOException("Unsupported audit log version " + version
+              + " in " + file);
+        }
+        baseTime = in.readLong();
+        prevTime = baseTime;
+        success = true;
+      } finally {
+        if (!success) {
+          in.close();
+        }
+      }
+    }
+
+    public long getBaseTime() {
+      return baseTime;
+    }
+
+    /**
+     * @return the next event, or null at the end of the file.
+     * @throws java.io.EOFException if the last event is truncated.
+     */
+    public AuditEvent next() throws IOException {
+      final int b = pushback.read();
+      if (b < 0) {
+        return null;
+      }
+      pushback.unread(b);
+      final long time = prevTime + WritableUtils.readVLong(in);
+      prevTime = time;
+      final byte flags = in.readByte();
+      final String user = readString();
+      final String address = readString();
+      final String cmd = readString();
+      final String src = readString();
+      final String dst = readString();
+      String owner = null;
+      String group = null;
+      FsPermission permission = null;
+      if ((flags & HAS_STATUS) != 0) {
+        owner = readString();
+        group = readString();
+        permission = new FsPermission(in.readShort());
+      }
+      final String callerContext = readString();
+      return new AuditEvent(time, flags, user, address, cmd, src, dst,
+          owner, group, permission, callerContext);
+    }
+
+    private String readString() throws IOException {
+      final int code = WritableUtils.readVInt(in);
+      if (code == 0) {
+        return null;
+      } else if (code > 0) {
+        if (code > interned.size()) {
+          throw new IOException("Undefined string id " + (code - 1));
+        }
+        return interned.get(code - 1);
+      }
+      final String s = Text.readString(in);
+      if (code < -1) {
+        if (-code - 2 != interned.size()) {
+          throw new IOException("Unexpected string id " + (-code - 2));
+        }
+        interned.add(s);
+      }
+      return s;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * Print the events of the audit log files, or of the files of the audit log
+   * directories, in the format of the default audit logger.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.err.println("Usage: BinaryAuditLogger <file or directory>...");
+      System.exit(1);
+    }
+    for (String arg : args) {
+      final File f = new File(arg);
+      for (File log : f.isDirectory() ? listFiles(f) : new File[]{f}) {
+        final Reader reader = new Reader(log);
+        try {
+          for (AuditEvent e; (e = reader.next()) != null; ) {
+            System.out.println(e.getTime() + "\t" + e);
+          }
+        } finally {
+          reader.close();
+        }
+      }
+    }
+  }
+}
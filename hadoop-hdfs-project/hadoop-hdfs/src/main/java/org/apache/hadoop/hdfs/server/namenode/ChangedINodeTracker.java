@@ -0,0 +1,365 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.AddBlockOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.AppendOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.BlockListUpdatingOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.ClearNSQuotaOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.ConcatDeleteOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.DeleteOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.MkdirOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.ReassignLeaseOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.RemoveXAttrOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.RenameOldOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.RenameOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetAclOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetNSQuotaOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetOwnerOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetPermissionsOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetQuotaByStorageTypeOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetQuotaOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetReplicationOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetStoragePolicyOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetXAttrOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SymlinkOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.TimesOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.TruncateOp;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+import org.apache.hadoop.hdfs.util.LongHashSet;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Tracks the inodes changed by the edits replayed since the last full image,
+ * so that a checkpoint can be saved as a delta image which only holds them.
+ * An inode is changed when its own record or its list of children changes,
+ * the deleted inodes are tracked as well.
+ *
+ * Only the edits replayed by {@link FSEditLogLoader} are tracked, which is
+ * how the standby and secondary namenodes update their namespace. Anything
+ * which cannot be tracked, such as a gap in the replayed transactions, the
+ * edits of an older layout or the snapshot operations, makes the next
+ * checkpoint a full image.
+ */
+@InterfaceAudience.Private
+class ChangedINodeTracker {
+  private static final Log LOG = LogFactory.getLog(ChangedINodeTracker.class);
+
+  private static final String[] NO_PATHS = new String[0];
+
+  private final boolean enabled;
+  private final int maxConsecutiveDeltas;
+  private final float maxChangedRatio;
+
+  /**
+   * The full image the changes are relative to, or INVALID_TXID if the next
+   * image must be a full one.
+   */
+  private long baseTxId = HdfsConstants.INVALID_TXID;
+  /** The last transaction whose changes are tracked. */
+  private long lastTxId = HdfsConstants.INVALID_TXID;
+  /** The number of delta images saved against the base image. */
+  private int numDeltas = 0;
+  private final LongHashSet changed = new LongHashSet();
+
+  ChangedINodeTracker(Configuration conf) {
+    this.enabled = conf.getBoolean(DFSConfigKeys.DFS_IMAGE_DELTA_ENABLED_KEY,
+        DFSConfigKeys.DFS_IMAGE_DELTA_ENABLED_DEFAULT);
+    this.maxConsecutiveDeltas = conf.getInt(
+        DFSConfigKeys.DFS_IMAGE_DELTA_MAX_CONSECUTIVE_KEY,
+        DFSConfigKeys.DFS_IMAGE_DELTA_MAX_CONSECUTIVE_DEFAULT);
+    this.maxChangedRatio = conf.getFloat(
+        DFSConfigKeys.DFS_IMAGE_DELTA_MAX_CHANGED_RATIO_KEY,
+        DFSConfigKeys.DFS_IMAGE_DELTA_MAX_CHANGED_RATIO_DEFAULT);
+  }
+
+  /**
+   * Start tracking the changes made after a full image, once it is loaded
+   * or saved.
+   */
+  synchronized void reset(long txId) {
+    changed.clear();
+    numDeltas = 0;
+    baseTxId = enabled ? txId : HdfsConstants.INVALID_TXID;
+    lastTxId = txId;
+  }
+
+  /**
+   * Start tracking the changes made after a delta image, once it is loaded.
+   * @param baseTxId the full image the delta image applies to
+   * @param txId the transaction id of the delta image
+   * @param changedIds the inodes in the delta image
+   */
+  synchronized void reset(long baseTxId, long txId, long[] changedIds) {
+    reset(baseTxId);
+    if (this.baseTxId != HdfsConstants.INVALID_TXID) {
+      lastTxId = txId;
+      numDeltas = 1;
+      for (long id : changedIds) {
+        changed.add(id);
+      }
+    }
+  }
+
+  /** Make the next checkpoint a full image. */
+  synchronized void invalidate(String reason) {
+    if (baseTxId != HdfsConstants.INVALID_TXID) {
+      LOG.info("The next checkpoint will be a full image: " + reason);
+      baseTxId = HdfsConstants.INVALID_TXID;
+      changed.clear();
+    }
+  }
+
+  /**
+   * Decide whether the image of the given transaction can be saved as a
+   * delta image.
+   * @param txId the transaction id of the image to save
+   * @param numINodes the number of inodes of the namespace
+   * @return the transaction id of the full image the delta applies to, or
+   *         INVALID_TXID if a full image must be saved.
+   */
+  synchronized long getDeltaBaseTxId(long txId, long numINodes) {
+    if (baseTxId == HdfsConstants.INVALID_TXID || txId <= baseTxId) {
+      return HdfsConstants.INVALID_TXID;
+    }
+    if (lastTxId != txId) {
+      LOG.info("Saving a full image as the changes are tracked up to txid "
+          + lastTxId + ", not " + txId);
+      return HdfsConstants.INVALID_TXID;
+    }
+    if (numDeltas >= maxConsecutiveDeltas) {
+      LOG.info("Saving a full image after " + numDeltas + " delta images");
+      return HdfsConstants.INVALID_TXID;
+    }
+    if (changed.size() > maxChangedRatio * numINodes) {
+      LOG.info("Saving a full image as " + changed.size() + " of the "
+          + numINodes + " inodes changed since the last one");
+      return HdfsConstants.INVALID_TXID;
+    }
+    return baseTxId;
+  }
+
+  /** @return the changed inodes, in ascending order. */
+  synchronized long[] getChangedINodes() {
+    final long[] ids = changed.toArray();
+    Arrays.sort(ids);
+    return ids;
+  }
+
+  /** Called once a delta image is saved. */
+  synchronized void deltaSaved() {
+    numDeltas++;
+  }
+
+  @VisibleForTesting
+  synchronized int getNumChangedINodes() {
+    return changed.size();
+  }
+
+  /**
+   * Mark the inodes an edit is about to change or delete. Called with the
+   * namesystem write lock held.
+   */
+  synchronized void beforeApply(FSDirectory fsd, FSEditLogOp op,
+      int logVersion) {
+    if (baseTxId == HdfsConstants.INVALID_TXID) {
+      return;
+    }
+    if (logVersion != HdfsConstants.NAMENODE_LAYOUT_VERSION) {
+      invalidate("replaying the edits of layout version " + logVersion);
+      return;
+    }
+    if (!op.hasTransactionId() || op.getTransactionId() != lastTxId + 1) {
+      invalidate("the transactions after " + lastTxId + " were not tracked");
+      return;
+    }
+    final String[] paths = getPaths(op);
+    if (paths == null) {
+      invalidate(op.opCode + " is not tracked");
+      return;
+    }
+    for (int i = 0; i < paths.length; i++) {
+      // the destination of a rename may be overwritten
+      final boolean deleted = op.opCode == FSEditLogOpCodes.OP_DELETE
+          || (op.opCode == FSEditLogOpCodes.OP_RENAME && i == 1);
+      markPath(fsd, paths[i], deleted);
+    }
+  }
+
+  /**
+   * Mark the inodes an edit has created or moved. Called with the namesystem
+   * write lock held, once the edit is applied.
+   */
+  synchronized void afterApply(FSDirectory fsd, FSEditLogOp op) {
+    if (baseTxId == HdfsConstants.INVALID_TXID) {
+      return;
+    }
+    for (String path : getPaths(op)) {
+      markPath(fsd, path, false);
+    }
+    lastTxId = op.getTransactionId();
+  }
+
+  /**
+   * Mark an inode and its parent, the parent of a created or deleted inode
+   * changing with it.
+   * @param subtree whether the inode is deleted with all its descendants
+   */
+  private void markPath(FSDirectory fsd, String path, boolean subtree) {
+    if (FSDirectory.isReservedName(path)) {
+      invalidate("the reserved path " + path + " is not tracked");
+      return;
+    }
+    final INodesInPath iip;
+    try {
+      iip = fsd.getINodesInPath(path, false);
+    } catch (IOException e) {
+      invalidate("failed to resolve " + path + ": " + e);
+      return;
+    }
+    if (iip.length() > 1) {
+      mark(iip.getINode(-2));
+    }
+    final INode inode = iip.getLastINode();
+    if (inode == null) {
+      return;
+    }
+    if (!subtree || !inode.isDirectory()) {
+      mark(inode);
+      return;
+    }
+    final Deque<INode> pending = new ArrayDeque<INode>();
+    pending.push(inode);
+    while (!pending.isEmpty()) {
+      final INode n = pending.pop();
+      mark(n);
+      if (n.isDirectory() && !n.isReference()) {
+        for (INode child : n.asDirectory().getChildrenList(
+            Snapshot.CURRENT_STATE_ID)) {
+          pending.push(child);
+        }
+      }
+    }
+  }
+
+  private void mark(INode inode) {
+    if (inode == null) {
+      return;
+    }
+    if (inode.isReference()) {
+      invalidate("the inode references of the snapshots are not tracked");
+      return;
+    }
+    changed.add(inode.getId());
+  }
+
+  /**
+   * @return the paths of the inodes the edit changes, an empty array if it
+   *         changes none, or null if its changes cannot be tracked.
+   */
+  private static String[] getPaths(FSEditLogOp op) {
+    switch (op.opCode) {
+    case OP_ADD:
+    case OP_CLOSE:
+    case OP_UPDATE_BLOCKS:
+      return new String[] { ((BlockListUpdatingOp) op).getPath() };
+    case OP_ADD_BLOCK:
+      return new String[] { ((AddBlockOp) op).getPath() };
+    case OP_APPEND:
+      return new String[] { ((AppendOp) op).path };
+    case OP_SET_REPLICATION:
+      return new String[] { ((SetReplicationOp) op).path };
+    case OP_CONCAT_DELETE: {
+      final ConcatDeleteOp concat = (ConcatDeleteOp) op;
+      final String[] paths = Arrays.copyOf(concat.srcs,
+          concat.srcs.length + 1);
+      paths[concat.srcs.length] = concat.trg;
+      return paths;
+    }
+    case OP_RENAME_OLD:
+      return new String[] { ((RenameOldOp) op).src, ((RenameOldOp) op).dst };
+    case OP_RENAME:
+      return new String[] { ((RenameOp) op).src, ((RenameOp) op).dst };
+    case OP_DELETE:
+      return new String[] { ((DeleteOp) op).path };
+    case OP_MKDIR:
+      return new String[] { ((MkdirOp) op).path };
+    case OP_SET_PERMISSIONS:
+      return new String[] { ((SetPermissionsOp) op).src };
+    case OP_SET_OWNER:
+      return new String[] { ((SetOwnerOp) op).src };
+    case OP_SET_NS_QUOTA:
+      return new String[] { ((SetNSQuotaOp) op).src };
+    case OP_CLEAR_NS_QUOTA:
+      return new String[] { ((ClearNSQuotaOp) op).src };
+    case OP_SET_QUOTA:
+      return new String[] { ((SetQuotaOp) op).src };
+    case OP_SET_QUOTA_BY_STORAGETYPE:
+      return new String[] { ((SetQuotaByStorageTypeOp) op).src };
+    case OP_TIMES:
+      return new String[] { ((TimesOp) op).path };
+    case OP_SYMLINK:
+      return new String[] { ((SymlinkOp) op).path };
+    case OP_REASSIGN_LEASE:
+      return new String[] { ((ReassignLeaseOp) op).path };
+    case OP_SET_ACL:
+      return new String[] { ((SetAclOp) op).src };
+    case OP_SET_XATTR:
+      return new String[] { ((SetXAttrOp) op).src };
+    case OP_REMOVE_XATTR:
+      return new String[] { ((RemoveXAttrOp) op).src };
+    case OP_TRUNCATE:
+      return new String[] { ((TruncateOp) op).src };
+    case OP_SET_STORAGE_POLICY:
+      return new String[] { ((SetStoragePolicyOp) op).path };
+    // the sections of these are always saved in full
+    case OP_SET_GENSTAMP_V1:
+    case OP_SET_GENSTAMP_V2:
+    case OP_ALLOCATE_BLOCK_ID:
+    case OP_GET_DELEGATION_TOKEN:
+    case OP_RENEW_DELEGATION_TOKEN:
+    case OP_CANCEL_DELEGATION_TOKEN:
+    case OP_UPDATE_MASTER_KEY:
+    case OP_ADD_CACHE_DIRECTIVE:
+    case OP_MODIFY_CACHE_DIRECTIVE:
+    case OP_REMOVE_CACHE_DIRECTIVE:
+    case OP_ADD_CACHE_POOL:
+    case OP_MODIFY_CACHE_POOL:
+    case OP_REMOVE_CACHE_POOL:
+    case OP_ROLLING_UPGRADE_START:
+    case OP_ROLLING_UPGRADE_FINALIZE:
+    case OP_START_LOG_SEGMENT:
+    case OP_END_LOG_SEGMENT:
+      return NO_PATHS;
+    default:
+      return null;
+    }
+  }
+}
@@ -225,6 +225,8 @@ void doCheckpoint() throws IOException {
             true);
         bnImage.saveDigestAndRenameCheckpointImage(NameNodeFile.IMAGE,
             sig.mostRecentCheckpointTxId, downloadedHash);
+        TransferFsImage.downloadBaseImageToStorage(backupNode.nnHttpAddress,
+            sig.mostRecentCheckpointTxId, bnImage);
         lastApplied = sig.mostRecentCheckpointTxId;
         needReloadImage = true;
       }
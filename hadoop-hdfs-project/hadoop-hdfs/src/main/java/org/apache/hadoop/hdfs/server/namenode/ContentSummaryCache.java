@@ -0,0 +1,396 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockStoragePolicySuite;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+import org.apache.hadoop.hdfs.util.ReadOnlyList;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Keeps the content summaries of a configured set of directories up to
+ * date, so that getting them does not walk their subtrees.
+ *
+ * The summary of a directory is computed by one walk of its subtree the
+ * first time it is requested. Then, the namespace operations report the
+ * subtrees they add or remove and the files they change in place, and the
+ * summaries of the cached directories above them are adjusted by the
+ * content of those subtrees or files only.
+ *
+ * Files under construction change with every block operation, which are
+ * not reported. They are tracked apart and their content is added when a
+ * summary is read, which only costs the number of open files of the
+ * subtree.
+ *
+ * The content of snapshots is not tracked. A directory whose subtree
+ * contains snapshot state, or which is changed while in a snapshot, falls
+ * back to the regular computation until its entry is reset by the deletion
+ * of a snapshot.
+ *
+ * All the updates are made with the FSNamesystem or FSDirectory write lock
+ * held, the reads with at least the FSDirectory read lock. The cache is
+ * synchronized since a read may populate an entry.
+ */
+class ContentSummaryCache {
+  static final Log LOG = LogFactory.getLog(ContentSummaryCache.class);
+
+  /** The cached summary of a configured directory. */
+  private static class Entry {
+    private final String path;
+    /** The directory of the counts, null if not computed yet. */
+    private INodeDirectory dir;
+    /** If the counts cannot be maintained for the directory. */
+    private boolean disabled;
+    /** The content of the subtree but the files under construction. */
+    private ContentCounts counts;
+    /** The files under construction of the subtree. */
+    private final Set<INodeFile> openFiles = new HashSet<INodeFile>();
+
+    Entry(String path) {
+      this.path = path;
+    }
+  }
+
+  /** The content of a subtree, with the open files apart. */
+  private static class SubtreeContent {
+    private final ContentSummaryComputationContext summary;
+    private final List<INodeFile> openFiles = new ArrayList<INodeFile>();
+
+    SubtreeContent(BlockStoragePolicySuite bsps) {
+      this.summary = new ContentSummaryComputationContext(bsps);
+    }
+
+    ContentCounts getCounts() {
+      return summary.getCounts();
+    }
+  }
+
+  private final FSDirectory fsd;
+  private final Map<String, Entry> entriesByPath =
+      new HashMap<String, Entry>();
+  /** The computed entries by the id of their directory. */
+  private final Map<Long, Entry> entriesById = new HashMap<Long, Entry>();
+
+  ContentSummaryCache(FSDirectory fsd, Collection<String> paths) {
+    this.fsd = fsd;
+    for (String path : paths) {
+      entriesByPath.put(path, new Entry(path));
+    }
+    if (!paths.isEmpty()) {
+      LOG.info("Caching the content summary of " + paths);
+    }
+  }
+
+  private boolean hasWriteLock() {
+    return fsd.hasWriteLock() || fsd.getFSNamesystem().hasWriteLock();
+  }
+
+  /**
+   * @return the content summary of the last inode of the path, or null if
+   * it is not cached.
+   */
+  synchronized ContentSummary getContentSummary(INodesInPath iip) {
+    assert fsd.hasReadLock();
+    final Entry e = entriesByPath.get(iip.getPath());
+    final INode inode = iip.getLastINode();
+    if (e == null || inode == null || !inode.isDirectory()
+        || inode.isReference()
+        || iip.getPathSnapshotId() != Snapshot.CURRENT_STATE_ID) {
+      return null;
+    }
+    if (e.dir != inode) {
+      // never computed, or the path now leads to another directory
+      populate(e, inode.asDirectory(),
+          iip.getLatestSnapshotId() != Snapshot.CURRENT_STATE_ID);
+    }
+    if (e.disabled) {
+      return null;
+    }
+    final ContentSummaryComputationContext summary =
+        new ContentSummaryComputationContext(fsd.getBlockStoragePolicySuite());
+    final ContentCounts counts = summary.getCounts();
+    counts.addContents(e.counts);
+    for (INodeFile file : e.openFiles) {
+      file.computeContentSummary(Snapshot.CURRENT_STATE_ID, summary);
+    }
+    final QuotaCounts q = e.dir.getQuotaCounts();
+    return new ContentSummary.Builder().
+        length(counts.getLength()).
+        fileCount(counts.getFileCount() + counts.getSymlinkCount()).
+        directoryCount(counts.getDirectoryCount()).
+        quota(q.getNameSpace()).
+        spaceConsumed(counts.getStoragespace()).
+        spaceQuota(q.getStorageSpace()).
+        typeConsumed(counts.getTypeSpaces()).
+        typeQuota(q.getTypeSpaces().asArray()).
+        build();
+  }
+
+  private void populate(Entry e, INodeDirectory dir, boolean inSnapshot) {
+    if (e.dir != null) {
+      entriesById.remove(e.dir.getId());
+    }
+    e.dir = dir;
+    e.openFiles.clear();
+    e.counts = null;
+    final SubtreeContent content = inSnapshot ? null : computeContent(dir);
+    e.disabled = content == null;
+    if (!e.disabled) {
+      e.counts = content.getCounts();
+      e.openFiles.addAll(content.openFiles);
+    }
+    entriesById.put(dir.getId(), e);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Computed the content summary of " + e.path
+          + (e.disabled ? ", which is in a snapshot" : ""));
+    }
+  }
+
+  /**
+   * Walk a subtree in the current state.
+   * @return its content, or null if it contains snapshot state.
+   */
+  private SubtreeContent computeContent(INode root) {
+    final SubtreeContent content =
+        new SubtreeContent(fsd.getBlockStoragePolicySuite());
+    final Deque<INode> stack = new ArrayDeque<INode>();
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      final INode inode = stack.pop();
+      if (inode.isReference()) {
+        return null;
+      } else if (inode.isDirectory()) {
+        final INodeDirectory dir = inode.asDirectory();
+        if (dir.isWithSnapshot()) {
+          return null;
+        }
+        content.getCounts().addContent(Content.DIRECTORY, 1);
+        final ReadOnlyList<INode> children =
+            dir.getChildrenList(Snapshot.CURRENT_STATE_ID);
+        for (int i = 0; i < children.size(); i++) {
+          stack.push(children.get(i));
+        }
+      } else if (inode.isFile()) {
+        final INodeFile file = inode.asFile();
+        if (file.isWithSnapshot()) {
+          return null;
+        }
+        if (file.isUnderConstruction()) {
+          content.openFiles.add(file);
+        } else {
+          file.computeContentSummary(Snapshot.CURRENT_STATE_ID,
+              content.summary);
+        }
+      } else if (inode.isSymlink()) {
+        content.getCounts().addContent(Content.SYMLINK, 1);
+      }
+    }
+    return content;
+  }
+
+  /** @return the computed entries of the given directories. */
+  private List<Entry> getEntries(Iterable<INodeDirectory> dirs) {
+    List<Entry> entries = null;
+    for (INodeDirectory dir : dirs) {
+      final Entry e = entriesById.get(dir.getId());
+      if (e != null && e.dir == dir && !e.disabled) {
+        if (entries == null) {
+          entries = new ArrayList<Entry>(1);
+        }
+        entries.add(e);
+      }
+    }
+    return entries;
+  }
+
+  /** @return the first n inodes of the path, which are directories. */
+  private static List<INodeDirectory> getAncestors(INodesInPath iip, int n) {
+    final List<INodeDirectory> dirs = new ArrayList<INodeDirectory>(n);
+    for (int i = 0; i < n; i++) {
+      final INode inode = iip.getINode(i);
+      if (inode != null && inode.isDirectory()) {
+        dirs.add(inode.asDirectory());
+      }
+    }
+    return dirs;
+  }
+
+  /** @return the ancestors of the inode, following its parents. */
+  private static List<INodeDirectory> getAncestors(INode inode) {
+    final List<INodeDirectory> dirs = new ArrayList<INodeDirectory>();
+    for (INodeDirectory d = inode.getParent(); d != null; d = d.getParent()) {
+      dirs.add(d);
+    }
+    return dirs;
+  }
+
+  private static void disable(List<Entry> entries) {
+    for (Entry e : entries) {
+      e.disabled = true;
+      e.counts = null;
+      e.openFiles.clear();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Stop caching the content summary of " + e.path
+            + ", which is in a snapshot");
+      }
+    }
+  }
+
+  private void update(List<Entry> entries, INode inode, boolean inSnapshot,
+      boolean add) {
+    final SubtreeContent content = inSnapshot ? null : computeContent(inode);
+    if (content == null) {
+      disable(entries);
+      return;
+    }
+    for (Entry e : entries) {
+      if (add) {
+        e.counts.addContents(content.getCounts());
+        e.openFiles.addAll(content.openFiles);
+      } else {
+        e.counts.subtractContents(content.getCounts());
+        e.openFiles.removeAll(content.openFiles);
+      }
+    }
+  }
+
+  /**
+   * A subtree was added at the end of the given path.
+   */
+  synchronized void added(INodesInPath existing, INode inode) {
+    assert hasWriteLock();
+    if (entriesById.isEmpty()) {
+      return;
+    }
+    final List<Entry> entries =
+        getEntries(getAncestors(existing, existing.length()));
+    if (entries != null) {
+      update(entries, inode, existing.getLatestSnapshotId()
+          != Snapshot.CURRENT_STATE_ID, true);
+    }
+  }
+
+  /**
+   * The last inode of the path, and its subtree, was removed. Must be
+   * called before the subtree is destroyed.
+   */
+  synchronized void removed(INodesInPath iip) {
+    assert hasWriteLock();
+    if (entriesById.isEmpty()) {
+      return;
+    }
+    final INode removed = iip.getLastINode();
+    final List<Entry> entries =
+        getEntries(getAncestors(iip, iip.length() - 1));
+    if (entries != null) {
+      update(entries, removed, iip.getLatestSnapshotId()
+          != Snapshot.CURRENT_STATE_ID, false);
+    }
+    // forget the entries of the removed directories, the parents of the
+    // removed inodes are left as they were
+    for (Entry e : entriesByPath.values()) {
+      if (e.dir != null && (e.dir == removed
+          || getAncestors(e.dir).contains(removed))) {
+        reset(e);
+      }
+    }
+  }
+
+  /**
+   * The given file is about to change in place. Must be followed by
+   * {@link #fileChanged(INodeFile, int)} once it has changed.
+   */
+  synchronized void fileChanging(INodeFile file, int latestSnapshotId) {
+    fileUpdate(file, latestSnapshotId, false);
+  }
+
+  /**
+   * The given file has changed in place.
+   */
+  synchronized void fileChanged(INodeFile file, int latestSnapshotId) {
+    fileUpdate(file, latestSnapshotId, true);
+  }
+
+  private void fileUpdate(INodeFile file, int latestSnapshotId, boolean add) {
+    assert hasWriteLock();
+    if (entriesById.isEmpty()) {
+      return;
+    }
+    final List<Entry> entries = getEntries(getAncestors(file));
+    if (entries != null) {
+      update(entries, file,
+          latestSnapshotId != Snapshot.CURRENT_STATE_ID, add);
+    }
+  }
+
+  /**
+   * The content of the last inode of the path changed in a way which is
+   * not reported, recompute the summaries containing it on the next read.
+   */
+  synchronized void invalidate(INodesInPath iip) {
+    assert hasWriteLock();
+    if (entriesById.isEmpty()) {
+      return;
+    }
+    final INode last = iip.getLastINode();
+    final List<INodeDirectory> ancestors = getAncestors(iip, iip.length());
+    for (Entry e : entriesByPath.values()) {
+      if (e.dir != null && (ancestors.contains(e.dir)
+          || (last != null && getAncestors(e.dir).contains(last)))) {
+        reset(e);
+      }
+    }
+  }
+
+  /** Recompute all the summaries on their next read. */
+  synchronized void invalidateAll() {
+    for (Entry e : entriesByPath.values()) {
+      reset(e);
+    }
+  }
+
+  private void reset(Entry e) {
+    if (e.dir != null) {
+      entriesById.remove(e.dir.getId());
+    }
+    e.dir = null;
+    e.disabled = false;
+    e.counts = null;
+    e.openFiles.clear();
+  }
+
+  @VisibleForTesting
+  synchronized boolean isCached(String path) {
+    final Entry e = entriesByPath.get(path);
+    return e != null && e.dir != null && !e.disabled;
+  }
+}
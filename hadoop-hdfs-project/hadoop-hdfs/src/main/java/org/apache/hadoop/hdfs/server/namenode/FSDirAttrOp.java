@@ -434,7 +434,10 @@ static Block[] unprotectedSetReplication(
       fsd.updateCount(iip, 0L, dsDelta, oldBR, replication, true);
     }
 
+    final ContentSummaryCache csCache = fsd.getContentSummaryCache();
+    csCache.fileChanging(file, iip.getLatestSnapshotId());
     file.setFileReplication(replication, iip.getLatestSnapshotId());
+    csCache.fileChanged(file, iip.getLatestSnapshotId());
 
     final short newBR = file.getBlockReplication();
     // check newBR < oldBR case.
@@ -477,10 +480,15 @@ static void unprotectedSetStoragePolicy(FSDirectory fsd, BlockManager bm,
             "Existing policy " + currentPolicy.getName() +
                 " cannot be changed after file creation.");
       }
+      final ContentSummaryCache csCache = fsd.getContentSummaryCache();
+      csCache.fileChanging(inode.asFile(), snapshotId);
       inode.asFile().setStoragePolicyID(policyId, snapshotId);
+      csCache.fileChanged(inode.asFile(), snapshotId);
     } else if (inode.isDirectory()) {
       setDirStoragePolicy(fsd, inode.asDirectory(), policyId,
           snapshotId);
+      // the type spaces of the whole subtree may change
+      fsd.getContentSummaryCache().invalidate(iip);
     } else {
       throw new FileNotFoundException(iip.getPath()
           + " is not a file or directory");
@@ -240,5 +240,6 @@ static void unprotectedConcat(FSDirectory fsd, INodesInPath targetIIP,
     trgParent.updateModificationTime(timestamp, targetIIP.getLatestSnapshotId());
     // update quota on the parent directory with deltas
     FSDirectory.unprotectedUpdateCount(targetIIP, targetIIP.length() - 1, deltas);
+    fsd.getContentSummaryCache().invalidate(targetIIP);
   }
 }
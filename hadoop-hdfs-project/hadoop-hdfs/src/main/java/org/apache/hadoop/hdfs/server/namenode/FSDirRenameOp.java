@@ -206,7 +206,7 @@ static boolean unprotectedRenameTo(FSDirectory fsd, String src, String dst,
               ".unprotectedRenameTo: " + src + " is renamed to " + dst);
         }
 
-        tx.updateMtimeAndLease(timestamp);
+        tx.updateMtime(timestamp);
         tx.updateQuotasInSourceTree(fsd.getBlockStoragePolicySuite());
 
         return true;
@@ -406,7 +406,7 @@ static boolean unprotectedRenameTo(FSDirectory fsd, String src, String dst,
               + src + " is renamed to " + dst);
         }
 
-        tx.updateMtimeAndLease(timestamp);
+        tx.updateMtime(timestamp);
 
         // Collect the blocks and remove the lease for previous dst
         boolean filesDeleted = false;
@@ -676,12 +676,10 @@ boolean addSourceToDestination() {
       return fsd.addLastINodeNoQuotaCheck(dstParentIIP, toDst) != null;
     }
 
-    void updateMtimeAndLease(long timestamp) throws QuotaExceededException {
+    void updateMtime(long timestamp) throws QuotaExceededException {
       srcParent.updateModificationTime(timestamp, srcIIP.getLatestSnapshotId());
       final INode dstParent = dstParentIIP.getLastINode();
       dstParent.updateModificationTime(timestamp, dstIIP.getLatestSnapshotId());
-      // update moved lease with new filename
-      fsd.getFSNamesystem().unprotectedChangeLease(src, dst);
     }
 
     void restoreSource() throws QuotaExceededException {
@@ -731,16 +729,19 @@ boolean cleanDst(BlockStoragePolicySuite bsps, BlocksMapUpdateInfo collectedBloc
         throws QuotaExceededException {
       Preconditions.checkState(oldDstChild != null);
       List<INode> removedINodes = new ChunkedArrayList<>();
+      List<Long> removedUCFiles = new ChunkedArrayList<>();
       final boolean filesDeleted;
       if (!oldDstChild.isInLatestSnapshot(dstIIP.getLatestSnapshotId())) {
-        oldDstChild.destroyAndCollectBlocks(bsps, collectedBlocks, removedINodes);
+        oldDstChild.destroyAndCollectBlocks(bsps, collectedBlocks, removedINodes,
+            removedUCFiles);
         filesDeleted = true;
       } else {
         filesDeleted = oldDstChild.cleanSubtree(bsps, Snapshot.CURRENT_STATE_ID,
-            dstIIP.getLatestSnapshotId(), collectedBlocks, removedINodes)
-            .getNameSpace() >= 0;
+            dstIIP.getLatestSnapshotId(), collectedBlocks, removedINodes,
+            removedUCFiles).getNameSpace() >= 0;
       }
-      fsd.getFSNamesystem().removeLeasesAndINodes(src, removedINodes, false);
+      fsd.getFSNamesystem().removeLeasesAndINodes(removedUCFiles,
+          removedINodes, false);
       return filesDeleted;
     }
 
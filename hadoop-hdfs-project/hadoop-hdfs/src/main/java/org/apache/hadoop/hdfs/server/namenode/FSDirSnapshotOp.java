@@ -177,15 +177,18 @@ static INode.BlocksMapUpdateInfo deleteSnapshot(
 
     INode.BlocksMapUpdateInfo collectedBlocks = new INode.BlocksMapUpdateInfo();
     ChunkedArrayList<INode> removedINodes = new ChunkedArrayList<INode>();
+    ChunkedArrayList<Long> removedUCFiles = new ChunkedArrayList<Long>();
     fsd.writeLock();
     try {
       snapshotManager.deleteSnapshot(iip, snapshotName, collectedBlocks,
-          removedINodes);
-      fsd.removeFromInodeMap(removedINodes);
+          removedINodes, removedUCFiles);
+      fsd.getFSNamesystem().removeLeasesAndINodes(removedUCFiles,
+          removedINodes, false);
+      // the cached summaries disabled by the snapshot may be computed again
+      fsd.getContentSummaryCache().invalidate(iip);
     } finally {
       fsd.writeUnlock();
     }
-    removedINodes.clear();
     fsd.getEditLog().logDeleteSnapshot(snapshotRoot, snapshotName,
         logRetryCache);
 
@@ -24,6 +24,7 @@
 import org.apache.hadoop.fs.DirectoryListingStartAfterNotFoundException;
 import org.apache.hadoop.fs.FileEncryptionInfo;
 import org.apache.hadoop.fs.InvalidPathException;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.UnresolvedLinkException;
 import org.apache.hadoop.fs.permission.FsAction;
 import org.apache.hadoop.fs.permission.FsPermission;
@@ -39,11 +40,17 @@
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockStoragePolicySuite;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.DirectorySnapshottableFeature;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+import org.apache.hadoop.hdfs.server.namenode.top.OperationCost;
 import org.apache.hadoop.hdfs.util.ReadOnlyList;
+import org.apache.hadoop.security.AccessControlException;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
 
 class FSDirStatAndListingOp {
   static DirectoryListing getListingInt(FSDirectory fsd, final String srcArg,
@@ -82,6 +89,34 @@ static DirectoryListing getListingInt(FSDirectory fsd, final String srcArg,
     return getListing(fsd, iip, src, startAfter, needLocation, isSuperUser);
   }
 
+  static DirectoryListing getListingRecursiveInt(FSDirectory fsd,
+      final String srcArg, byte[] startAfter, boolean needLocation)
+      throws IOException {
+    FSPermissionChecker pc = fsd.getPermissionChecker();
+    byte[][] pathComponents = FSDirectory
+        .getPathComponentsForReservedPath(srcArg);
+    final String src = fsd.resolvePath(pc, srcArg, pathComponents);
+    final INodesInPath iip = fsd.getINodesInPath(src, true);
+
+    boolean isSuperUser = true;
+    if (fsd.isPermissionEnabled()) {
+      if (iip.getLastINode() != null && iip.getLastINode().isDirectory()) {
+        if (iip.isSnapshot()) {
+          // the sub-directories cannot be checked one by one in a snapshot
+          fsd.checkPermission(pc, iip, false, null, null,
+              FsAction.READ_EXECUTE, FsAction.READ_EXECUTE);
+        } else {
+          fsd.checkPathAccess(pc, iip, FsAction.READ_EXECUTE);
+        }
+      } else {
+        fsd.checkTraverse(pc, iip);
+      }
+      isSuperUser = pc.isSuperUser();
+    }
+    return getListingRecursive(fsd, isSuperUser ? null : pc, iip, src,
+        startAfter, needLocation, isSuperUser);
+  }
+
   /**
    * Get the file info for a specific file.
    *
@@ -225,6 +260,174 @@ needLocation, getStoragePolicyID(curPolicy,
     }
   }
 
+  /**
+   * Get a partial listing of the subtree of the indicated directory, in
+   * depth first order. The entries are named by their path relative to the
+   * directory, and the walk resumes after the relative path startAfter by
+   * looking up its components, so that no state is kept between the calls.
+   *
+   * We will stop on the same conditions as {@link #getListing}.
+   *
+   * @param fsd FSDirectory
+   * @param pc the permission checker of the sub-directories, null if the
+   *           user is a superuser or they are already checked
+   * @param iip the INodesInPath instance containing all the INodes along the
+   *            path
+   * @param src the directory name
+   * @param startAfter the relative path to start listing after
+   * @param needLocation if block locations are returned
+   * @return a partial listing starting after startAfter
+   */
+  private static DirectoryListing getListingRecursive(FSDirectory fsd,
+      FSPermissionChecker pc, INodesInPath iip, String src, byte[] startAfter,
+      boolean needLocation, boolean isSuperUser) throws IOException {
+    String srcs = FSDirectory.normalizePath(src);
+    if (srcs.endsWith(HdfsConstants.SEPARATOR_DOT_SNAPSHOT_DIR)) {
+      throw new SnapshotException(
+          "Recursive listing of the snapshots is not supported: " + src);
+    }
+    final boolean isRawPath = FSDirectory.isReservedRawName(src);
+
+    fsd.readLock();
+    try {
+      final int snapshot = iip.getPathSnapshotId();
+      final INode targetNode = iip.getLastINode();
+      if (targetNode == null)
+        return null;
+      byte parentStoragePolicy = isSuperUser ?
+          targetNode.getStoragePolicyID() : BlockStoragePolicySuite
+          .ID_UNSPECIFIED;
+
+      if (!targetNode.isDirectory()) {
+        return new DirectoryListing(
+            new HdfsFileStatus[]{createFileStatus(fsd, src,
+                HdfsFileStatus.EMPTY_NAME, targetNode, needLocation,
+                parentStoragePolicy, snapshot, isRawPath, iip)}, 0);
+      }
+
+      final Deque<ListingFrame> stack = new ArrayDeque<ListingFrame>();
+      ListingFrame frame = new ListingFrame(targetNode.asDirectory(),
+          snapshot, HdfsFileStatus.EMPTY_NAME, iip, parentStoragePolicy);
+      stack.push(frame);
+      if (startAfter.length > 0) {
+        // skip the entries up to startAfter, its ancestors included
+        for (byte[] name : DFSUtil.bytes2byteArray(startAfter,
+            (byte) Path.SEPARATOR_CHAR)) {
+          final int pos = ReadOnlyList.Util.binarySearch(frame.children,
+              name);
+          if (pos < 0) {
+            // deleted since the last call
+            frame.next = -pos - 1;
+            break;
+          }
+          frame.next = pos + 1;
+          final INode child = frame.children.get(pos);
+          if (!child.isDirectory()) {
+            break;
+          }
+          frame = frame.descend(fsd, pc, child.asDirectory(), snapshot,
+              isSuperUser);
+          stack.push(frame);
+        }
+      }
+
+      final int lsLimit = fsd.getLsLimit();
+      int locationBudget = lsLimit;
+      final List<HdfsFileStatus> listing = new ArrayList<HdfsFileStatus>();
+      while (!stack.isEmpty() && listing.size() < lsLimit
+          && locationBudget > 0) {
+        frame = stack.peek();
+        if (frame.next >= frame.children.size()) {
+          stack.pop();
+          continue;
+        }
+        final INode cur = frame.children.get(frame.next++);
+        byte curPolicy = isSuperUser && !cur.isSymlink()?
+            cur.getLocalStoragePolicyID():
+            BlockStoragePolicySuite.ID_UNSPECIFIED;
+        final HdfsFileStatus status = createFileStatus(fsd, src,
+            frame.getRelativePath(cur), cur, needLocation,
+            getStoragePolicyID(curPolicy, frame.storagePolicy), snapshot,
+            isRawPath, frame.iip);
+        listing.add(status);
+        if (needLocation) {
+          LocatedBlocks blks =
+              ((HdfsLocatedFileStatus)status).getBlockLocations();
+          locationBudget -= (blks == null) ? 0 :
+              blks.locatedBlockCount() * status.getReplication();
+        }
+        if (cur.isDirectory()) {
+          stack.push(frame.descend(fsd, pc, cur.asDirectory(), snapshot,
+              isSuperUser));
+        }
+      }
+
+      boolean hasMore = false;
+      for (ListingFrame f : stack) {
+        if (f.next < f.children.size()) {
+          hasMore = true;
+          break;
+        }
+      }
+      return new DirectoryListing(
+          listing.toArray(new HdfsFileStatus[listing.size()]),
+          hasMore ? 1 : 0);
+    } finally {
+      fsd.readUnlock();
+    }
+  }
+
+  /** A directory being walked by {@link #getListingRecursive}. */
+  private static class ListingFrame {
+    private final ReadOnlyList<INode> children;
+    /** The path relative to the listed directory, empty for itself. */
+    private final byte[] relativePath;
+    private final INodesInPath iip;
+    private final byte storagePolicy;
+    /** The index of the next child to list. */
+    private int next = 0;
+
+    ListingFrame(INodeDirectory dir, int snapshot, byte[] relativePath,
+        INodesInPath iip, byte storagePolicy) {
+      this.children = dir.getChildrenList(snapshot);
+      this.relativePath = relativePath;
+      this.iip = iip;
+      this.storagePolicy = storagePolicy;
+    }
+
+    byte[] getRelativePath(INode child) {
+      final byte[] name = child.getLocalNameBytes();
+      if (relativePath.length == 0) {
+        return name;
+      }
+      final byte[] path = new byte[relativePath.length + 1 + name.length];
+      System.arraycopy(relativePath, 0, path, 0, relativePath.length);
+      path[relativePath.length] = (byte) Path.SEPARATOR_CHAR;
+      System.arraycopy(name, 0, path, relativePath.length + 1, name.length);
+      return path;
+    }
+
+    /**
+     * @return the frame of a sub-directory, after checking that it can be
+     *         listed. A snapshot keeps the inodes of the listed directory.
+     */
+    ListingFrame descend(FSDirectory fsd, FSPermissionChecker pc,
+        INodeDirectory dir, int snapshot, boolean isSuperUser)
+        throws AccessControlException {
+      INodesInPath dirIIP = iip;
+      if (!iip.isSnapshot()) {
+        dirIIP = INodesInPath.append(iip, dir, dir.getLocalNameBytes());
+        if (pc != null) {
+          fsd.checkPathAccess(pc, dirIIP, FsAction.READ_EXECUTE);
+        }
+      }
+      final byte dirPolicy = isSuperUser ? dir.getLocalStoragePolicyID() :
+          BlockStoragePolicySuite.ID_UNSPECIFIED;
+      return new ListingFrame(dir, snapshot, getRelativePath(dir), dirIIP,
+          getStoragePolicyID(dirPolicy, storagePolicy));
+    }
+  }
+
   /**
    * Get a listing of all the snapshots of a snapshottable directory
    */
@@ -491,17 +694,22 @@ private static ContentSummary getContentSummaryInt(FSDirectory fsd,
       if (targetNode == null) {
         throw new FileNotFoundException("File does not exist: " + iip.getPath());
       }
-      else {
-        // Make it relinquish locks everytime contentCountLimit entries are
-        // processed. 0 means disabled. I.e. blocking for the entire duration.
-        ContentSummaryComputationContext cscc =
-            new ContentSummaryComputationContext(fsd, fsd.getFSNamesystem(),
-                fsd.getContentCountLimit(), fsd.getContentSleepMicroSec());
-        ContentSummary cs = targetNode.computeAndConvertContentSummary(
-            iip.getPathSnapshotId(), cscc);
-        fsd.addYieldCount(cscc.getYieldCount());
-        return cs;
+      final ContentSummary cached =
+          fsd.getContentSummaryCache().getContentSummary(iip);
+      if (cached != null) {
+        return cached;
       }
+      // Make it relinquish locks everytime contentCountLimit entries are
+      // processed. 0 means disabled. I.e. blocking for the entire duration.
+      ContentSummaryComputationContext cscc =
+          new ContentSummaryComputationContext(fsd, fsd.getFSNamesystem(),
+              fsd.getContentCountLimit(), fsd.getContentSleepMicroSec());
+      ContentSummary cs = targetNode.computeAndConvertContentSummary(
+          iip.getPathSnapshotId(), cscc);
+      fsd.addYieldCount(cscc.getYieldCount());
+      OperationCost.add(OperationCost.Type.INODES,
+          cs.getFileCount() + cs.getDirectoryCount());
+      return cs;
     } finally {
       fsd.readUnlock();
     }
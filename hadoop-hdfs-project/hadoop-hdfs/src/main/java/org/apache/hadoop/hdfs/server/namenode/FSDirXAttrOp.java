@@ -381,17 +381,8 @@ static List<XAttr> getXAttrs(FSDirectory fsd, INode inode, int snapshotId)
   static XAttr unprotectedGetXAttrByName(
       INode inode, int snapshotId, String xAttrName)
       throws IOException {
-    List<XAttr> xAttrs = XAttrStorage.readINodeXAttrs(inode, snapshotId);
-    if (xAttrs == null) {
-      return null;
-    }
-    for (XAttr x : xAttrs) {
-      if (XAttrHelper.getPrefixName(x)
-          .equals(xAttrName)) {
-        return x;
-      }
-    }
-    return null;
+    return XAttrStorage.readINodeXAttrByPrefixedName(inode, snapshotId,
+        xAttrName);
   }
 
   private static void checkXAttrChangeAccess(
@@ -84,6 +84,7 @@
 
 import static org.apache.hadoop.fs.BatchedRemoteIterator.BatchedListEntries;
 import static org.apache.hadoop.fs.CommonConfigurationKeys.FS_PROTECTED_DIRECTORIES;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CONTENT_SUMMARY_CACHE_DIRS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_PRECISION_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_PRECISION_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_QUOTA_BY_STORAGETYPE_ENABLED_DEFAULT;
@@ -154,6 +155,10 @@ private static INodeDirectory createRoot(FSNamesystem namesystem) {
   // Each entry in this set must be a normalized path.
   private final SortedSet<String> protectedDirectories;
 
+  // The directories of dfs.content-summary.cache.dirs whose content
+  // summary is maintained as the namespace changes.
+  private final ContentSummaryCache contentSummaryCache;
+
   // lock to protect the directory and BlockMap
   private final ReentrantReadWriteLock dirLock;
 
@@ -293,6 +298,9 @@ public int getWriteHoldCount() {
         DFSConfigKeys.DFS_NAMENODE_MAX_XATTRS_PER_INODE_DEFAULT);
 
     this.protectedDirectories = parseProtectedDirectories(conf);
+    this.contentSummaryCache = new ContentSummaryCache(this, normalizePaths(
+        conf.getTrimmedStringCollection(DFS_CONTENT_SUMMARY_CACHE_DIRS_KEY),
+        DFS_CONTENT_SUMMARY_CACHE_DIRS_KEY));
 
     Preconditions.checkArgument(this.inodeXAttrsLimit >= 0,
         "Cannot set a negative limit on the number of xattrs per inode (%s).",
@@ -340,6 +348,10 @@ SortedSet<String> getProtectedDirectories() {
     return protectedDirectories;
   }
 
+  ContentSummaryCache getContentSummaryCache() {
+    return contentSummaryCache;
+  }
+
   private BlockManager getBlockManager() {
     return getFSNamesystem().getBlockManager();
   }
@@ -1036,6 +1048,7 @@ public INodesInPath addLastINode(INodesInPath existing, INode inode,
         AclStorage.copyINodeDefaultAcl(inode);
       }
       addToInodeMap(inode);
+      contentSummaryCache.added(existing, inode);
     }
     return INodesInPath.append(existing, inode, inode.getLocalNameBytes());
   }
@@ -1066,6 +1079,7 @@ public long removeLastINode(final INodesInPath iip) {
     if (!parent.removeChild(last, latestSnapshot)) {
       return -1;
     }
+    contentSummaryCache.removed(iip);
 
     return (!last.isInLatestSnapshot(latestSnapshot)
         && INodeReference.tryRemoveReference(last) > 0) ? 0 : 1;
@@ -1190,9 +1204,11 @@ boolean unprotectedTruncate(INodesInPath iip, long newLength,
 
     verifyQuotaForTruncate(iip, file, newLength, delta);
 
+    contentSummaryCache.fileChanging(file, latestSnapshot);
     long remainingLength =
         file.collectBlocksBeyondMax(newLength, collectedBlocks);
     file.excludeSnapshotBlocks(latestSnapshot, collectedBlocks);
+    contentSummaryCache.fileChanged(file, latestSnapshot);
     file.setModificationTime(mtime);
     // return whether on a block boundary
     return (remainingLength - newLength) == 0;
@@ -1233,24 +1249,20 @@ public final void addToInodeMap(INode inode) {
       inodeMap.put(inode);
       if (!inode.isSymlink()) {
         final XAttrFeature xaf = inode.getXAttrFeature();
-        if (xaf != null) {
-          final List<XAttr> xattrs = xaf.getXAttrs();
-          for (XAttr xattr : xattrs) {
-            final String xaName = XAttrHelper.getPrefixName(xattr);
-            if (CRYPTO_XATTR_ENCRYPTION_ZONE.equals(xaName)) {
-              try {
-                final HdfsProtos.ZoneEncryptionInfoProto ezProto =
-                    HdfsProtos.ZoneEncryptionInfoProto.parseFrom(
-                        xattr.getValue());
-                ezManager.unprotectedAddEncryptionZone(inode.getId(),
-                    PBHelper.convert(ezProto.getSuite()),
-                    PBHelper.convert(ezProto.getCryptoProtocolVersion()),
-                    ezProto.getKeyName());
-              } catch (InvalidProtocolBufferException e) {
-                NameNode.LOG.warn("Error parsing protocol buffer of " +
-                    "EZ XAttr " + xattr.getName());
-              }
-            }
+        final XAttr xattr = xaf == null ? null
+            : xaf.getXAttr(CRYPTO_XATTR_ENCRYPTION_ZONE);
+        if (xattr != null) {
+          try {
+            final HdfsProtos.ZoneEncryptionInfoProto ezProto =
+                HdfsProtos.ZoneEncryptionInfoProto.parseFrom(
+                    xattr.getValue());
+            ezManager.unprotectedAddEncryptionZone(inode.getId(),
+                PBHelper.convert(ezProto.getSuite()),
+                PBHelper.convert(ezProto.getCryptoProtocolVersion()),
+                ezProto.getKeyName());
+          } catch (InvalidProtocolBufferException e) {
+            NameNode.LOG.warn("Error parsing protocol buffer of " +
+                "EZ XAttr " + xattr.getName());
           }
         }
       }
@@ -1310,6 +1322,7 @@ void reset() {
       inodeMap.clear();
       addToInodeMap(rootDir);
       nameCache.reset();
+      contentSummaryCache.invalidateAll();
       inodeId.setCurrentValue(INodeId.LAST_RESERVED_ID);
     } finally {
       writeUnlock();
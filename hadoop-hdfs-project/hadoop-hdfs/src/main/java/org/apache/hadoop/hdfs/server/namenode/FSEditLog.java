@@ -156,7 +156,7 @@ private enum State {
   private long txid = 0;
 
   // stores the last synced transactionId.
-  private long synctxid = 0;
+  private volatile long synctxid = 0;
 
   // the first txid of the log that's currently open for writing.
   // If this value is N, we are currently writing to edits_inprogress_N
@@ -218,6 +218,21 @@ protected synchronized TransactionId initialValue() {
     }
   };
 
+  /**
+   * Create the edit log configured by
+   * {@link DFSConfigKeys#DFS_NAMENODE_EDITS_ASYNC_LOGGING}.
+   */
+  static FSEditLog newInstance(Configuration conf, NNStorage storage,
+      List<URI> editsDirs) {
+    boolean asyncEditLogging = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT);
+    LOG.info("Edit logging is async:" + asyncEditLogging);
+    return asyncEditLogging
+        ? new FSEditLogAsync(conf, storage, editsDirs)
+        : new FSEditLog(conf, storage, editsDirs);
+  }
+
   /**
    * Constructor for FSEditLog. Underlying journals are constructed, but 
    * no streams are opened until open() is called.
@@ -577,11 +592,23 @@ void logSyncAll() {
    * waitForSyncToFinish() before assuming they are running alone.
    */
   public void logSync() {
-    long syncStart = 0;
-
     // Fetch the transactionId of this thread. 
-    long mytxid = myTransactionId.get().txid;
-    
+    logSync(getMyTransactionId());
+  }
+
+  /**
+   * @return the id of the last transaction written by the calling thread.
+   */
+  static long getMyTransactionId() {
+    return myTransactionId.get().txid;
+  }
+
+  /**
+   * Sync all modifications up to and including the given transaction.
+   * @see #logSync()
+   */
+  protected void logSync(long mytxid) {
+    long syncStart = 0;
     boolean sync = false;
     try {
       EditLogOutputStream logStream = null;
@@ -1343,7 +1370,7 @@ synchronized void waitForSyncToFinish() {
   /**
    * Return the txid of the last synced transaction.
    */
-  public synchronized long getSyncTxId() {
+  public long getSyncTxId() {
     return synctxid;
   }
 
@@ -0,0 +1,287 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.util.ExitUtil.terminate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.ipc.Server;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * An edit log whose syncs are performed by a dedicated thread.
+ *
+ * Edits are still written into the in-memory double buffer by the thread
+ * performing the namespace operation, so transaction ids keep following the
+ * namesystem lock order. Instead of flushing the buffer itself,
+ * {@link #logSync()} hands the transaction id to the sync thread, which
+ * drains all pending requests, flushes the journals once for the highest
+ * of them, and then notifies every request of the batch. Handlers therefore
+ * never contend on the edit log monitor to flush, and all edits written
+ * while a flush is in progress are committed together by the next one.
+ *
+ * When the sync is requested by an RPC handler, the response of the call
+ * is deferred and sent by the sync thread once the edits are durable, so
+ * the handler is free to serve the next call right away.
+ *
+ * Callers which hold the edit log monitor, such as log rolling, and calls
+ * made while the sync thread is not running sync inline exactly like
+ * {@link FSEditLog}.
+ */
+class FSEditLogAsync extends FSEditLog implements Runnable {
+  /** Sync requests waiting for the sync thread. */
+  private final BlockingQueue<SyncRequest> syncRequestQ =
+      new LinkedBlockingQueue<SyncRequest>();
+
+  /** Wakes up a sync thread which is asked to stop. */
+  private final SyncRequest wakeUp =
+      new BlockingSyncRequest(HdfsConstants.INVALID_TXID);
+
+  private volatile Thread syncThread;
+
+  FSEditLogAsync(Configuration conf, NNStorage storage, List<URI> editsDirs) {
+    super(conf, storage, editsDirs);
+  }
+
+  @Override
+  void openForWrite(int layoutVersion) throws IOException {
+    startSyncThread();
+    try {
+      super.openForWrite(layoutVersion);
+    } catch (IOException ioe) {
+      stopSyncThread();
+      throw ioe;
+    }
+  }
+
+  @Override
+  void close() {
+    // finalizing the segment syncs everything written so far, so the sync
+    // thread has nothing left to flush once the log is closed.
+    super.close();
+    stopSyncThread();
+  }
+
+  @VisibleForTesting
+  boolean isSyncThreadAlive() {
+    final Thread t = syncThread;
+    return t != null && t.isAlive();
+  }
+
+  private synchronized void startSyncThread() {
+    if (!isSyncThreadAlive()) {
+      syncThread = new Thread(this, getClass().getSimpleName());
+      syncThread.setDaemon(true);
+      syncThread.start();
+    }
+  }
+
+  private void stopSyncThread() {
+    final Thread t = syncThread;
+    if (t == null) {
+      return;
+    }
+    synchronized (syncRequestQ) {
+      // no request can be queued once this is cleared, so the sync thread
+      // can exit as soon as it has drained the queue
+      syncThread = null;
+      syncRequestQ.add(wakeUp);
+    }
+    // the sync thread needs the monitor to flush, never join while holding it
+    if (!Thread.holdsLock(this)) {
+      try {
+        t.join();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  protected void logSync(long mytxid) {
+    if (!Thread.holdsLock(this)) {
+      BlockingSyncRequest request = null;
+      synchronized (syncRequestQ) {
+        if (syncThread != null) {
+          final Server.Call call = Server.getCurCall().get();
+          if (call != null && !call.isResponseDeferred()) {
+            // release the handler, the response is sent once the edits of
+            // the call are durable
+            call.postponeResponse();
+            syncRequestQ.add(new RpcSyncRequest(mytxid, call));
+            return;
+          }
+          request = new BlockingSyncRequest(mytxid);
+          syncRequestQ.add(request);
+        }
+      }
+      if (request != null) {
+        request.logSyncWait();
+        return;
+      }
+    }
+    super.logSync(mytxid);
+  }
+
+  @Override
+  public void run() {
+    final Thread self = Thread.currentThread();
+    final List<SyncRequest> batch = new ArrayList<SyncRequest>();
+    try {
+      while (true) {
+        SyncRequest request = syncRequestQ.poll(1, TimeUnit.SECONDS);
+        if (request != null) {
+          batch.add(request);
+          syncRequestQ.drainTo(batch);
+          syncBatch(batch);
+          batch.clear();
+        }
+        synchronized (syncRequestQ) {
+          if (self != syncThread && syncRequestQ.isEmpty()) {
+            LOG.info(self.getName() + " exiting");
+            return;
+          }
+        }
+      }
+    } catch (InterruptedException ie) {
+      LOG.info(self.getName() + " was interrupted, exiting");
+    } catch (Throwable t) {
+      terminate(1, t);
+    }
+  }
+
+  /**
+   * Flush the journals up to the highest transaction of the batch and
+   * notify all of its requests.
+   */
+  private void syncBatch(List<SyncRequest> batch) {
+    long maxTxid = HdfsConstants.INVALID_TXID;
+    for (SyncRequest request : batch) {
+      maxTxid = Math.max(maxTxid, request.txid);
+    }
+    // normally edit log exceptions cause the NN to terminate, but tests
+    // relying on ExitUtil.terminate need to see the exception.
+    RuntimeException syncEx = null;
+    if (maxTxid != HdfsConstants.INVALID_TXID) {
+      try {
+        super.logSync(maxTxid);
+      } catch (RuntimeException ex) {
+        syncEx = ex;
+      }
+    }
+    for (SyncRequest request : batch) {
+      request.logSyncNotify(syncEx);
+    }
+  }
+
+  /**
+   * A request to make all edits up to a transaction durable.
+   */
+  abstract static class SyncRequest {
+    final long txid;
+
+    SyncRequest(long txid) {
+      this.txid = txid;
+    }
+
+    /**
+     * Called by the sync thread once the journals have been flushed.
+     * @param ex the failure of the sync, or null if it succeeded
+     */
+    abstract void logSyncNotify(RuntimeException ex);
+  }
+
+  /**
+   * A request whose thread waits for the sync thread to complete it.
+   */
+  class BlockingSyncRequest extends SyncRequest {
+    private boolean done = false;
+    private RuntimeException syncEx;
+
+    BlockingSyncRequest(long txid) {
+      super(txid);
+    }
+
+    @Override
+    synchronized void logSyncNotify(RuntimeException ex) {
+      syncEx = ex;
+      done = true;
+      notifyAll();
+    }
+
+    /**
+     * Wait until the sync thread has completed this request. Falls back to
+     * syncing inline if the sync thread exits before doing so.
+     */
+    void logSyncWait() {
+      synchronized (this) {
+        while (!done && isSyncThreadAlive()) {
+          try {
+            wait(1000);
+          } catch (InterruptedException ie) {
+            // like FSEditLog#logSync, keep waiting for durability
+          }
+        }
+        if (syncEx != null) {
+          throw syncEx;
+        }
+        if (done) {
+          return;
+        }
+      }
+      FSEditLogAsync.super.logSync(txid);
+    }
+  }
+
+  /**
+   * A request on behalf of an RPC call whose response was deferred. The
+   * response is sent by the sync thread instead of waking up a handler.
+   */
+  private class RpcSyncRequest extends SyncRequest {
+    private final Server.Call call;
+
+    RpcSyncRequest(long txid, Server.Call call) {
+      super(txid);
+      this.call = call;
+    }
+
+    @Override
+    void logSyncNotify(RuntimeException ex) {
+      try {
+        if (ex == null) {
+          call.sendResponse();
+        } else {
+          call.abortResponse(ex);
+        }
+      } catch (Exception e) {
+        LOG.warn("Failed to send the response of " + call, e);
+      }
+    }
+  }
+}
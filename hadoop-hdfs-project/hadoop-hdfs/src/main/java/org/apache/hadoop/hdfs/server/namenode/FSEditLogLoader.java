@@ -181,6 +181,9 @@ long loadEditRecords(EditLogInputStream in, boolean closeOnExit,
     Counter counter = prog.getCounter(Phase.LOADING_EDITS, step);
     long lastLogTime = monotonicNow();
     long lastInodeId = fsNamesys.dir.getLastInodeId();
+    final FSImage fsImage = fsNamesys.getFSImage();
+    final ChangedINodeTracker changedINodes =
+        fsImage == null ? null : fsImage.getChangedINodeTracker();
     
     try {
       while (true) {
@@ -231,11 +234,17 @@ long loadEditRecords(EditLogInputStream in, boolean closeOnExit,
               LOG.trace("op=" + op + ", startOpt=" + startOpt
                   + ", numEdits=" + numEdits + ", totalEdits=" + totalEdits);
             }
+            if (changedINodes != null) {
+              changedINodes.beforeApply(fsDir, op, in.getVersion(true));
+            }
             long inodeId = applyEditLogOp(op, fsDir, startOpt,
                 in.getVersion(true), lastInodeId);
             if (lastInodeId < inodeId) {
               lastInodeId = inodeId;
             }
+            if (changedINodes != null) {
+              changedINodes.afterApply(fsDir, op);
+            }
           } catch (RollingUpgradeOp.RollbackException e) {
             throw e;
           } catch (Throwable e) {
@@ -375,7 +384,8 @@ private long applyEditLogOp(FSEditLogOp op, FSDirectory fsDir,
             addCloseOp.clientMachine,
             addCloseOp.storagePolicyId);
         iip = INodesInPath.replace(iip, iip.length() - 1, newFile);
-        fsNamesys.leaseManager.addLease(addCloseOp.clientName, path);
+        fsNamesys.leaseManager.addLease(addCloseOp.clientName,
+            newFile.getId());
 
         // add the op into retry cache if necessary
         if (toAddRetryCache) {
@@ -435,6 +445,8 @@ private long applyEditLogOp(FSEditLogOp op, FSDirectory fsDir,
       // Update the salient file attributes.
       file.setAccessTime(addCloseOp.atime, Snapshot.CURRENT_STATE_ID);
       file.setModificationTime(addCloseOp.mtime, Snapshot.CURRENT_STATE_ID);
+      final ContentSummaryCache csCache = fsDir.getContentSummaryCache();
+      csCache.fileChanging(file, iip.getLatestSnapshotId());
       updateBlocks(fsDir, addCloseOp, iip, file);
 
       // Now close the file
@@ -447,11 +459,12 @@ private long applyEditLogOp(FSEditLogOp op, FSDirectory fsDir,
             "File is not under construction: " + path);
       }
       // One might expect that you could use removeLease(holder, path) here,
-      // but OP_CLOSE doesn't serialize the holder. So, remove by path.
+      // but OP_CLOSE doesn't serialize the holder. So, remove by inode.
       if (file.isUnderConstruction()) {
-        fsNamesys.leaseManager.removeLeaseWithPrefixPath(path);
+        fsNamesys.leaseManager.removeLease(file.getId());
         file.toCompleteFile(file.getModificationTime());
       }
+      csCache.fileChanged(file, iip.getLatestSnapshotId());
       break;
     }
     case OP_APPEND: {
@@ -703,7 +716,7 @@ fsDir, renameReservedPathsOnUpgrade(timesOp.path, logVersion),
       INodeFile pendingFile = fsDir.getINode(path).asFile();
       Preconditions.checkState(pendingFile.isUnderConstruction());
       fsNamesys.reassignLeaseInternal(lease,
-          path, reassignLeaseOp.newHolder, pendingFile);
+          reassignLeaseOp.newHolder, pendingFile);
       break;
     }
     case OP_START_LOG_SEGMENT:
@@ -729,17 +742,18 @@ fsDir, renameReservedPathsOnUpgrade(timesOp.path, logVersion),
       DeleteSnapshotOp deleteSnapshotOp = (DeleteSnapshotOp) op;
       BlocksMapUpdateInfo collectedBlocks = new BlocksMapUpdateInfo();
       List<INode> removedINodes = new ChunkedArrayList<INode>();
+      List<Long> removedUCFiles = new ChunkedArrayList<Long>();
       final String snapshotRoot =
           renameReservedPathsOnUpgrade(deleteSnapshotOp.snapshotRoot,
               logVersion);
       INodesInPath iip = fsDir.getINodesInPath4Write(snapshotRoot);
       fsNamesys.getSnapshotManager().deleteSnapshot(
           iip, deleteSnapshotOp.snapshotName,
-          collectedBlocks, removedINodes);
+          collectedBlocks, removedINodes, removedUCFiles);
       fsNamesys.removeBlocksAndUpdateSafemodeTotal(collectedBlocks);
       collectedBlocks.clear();
-      fsNamesys.dir.removeFromInodeMap(removedINodes);
-      removedINodes.clear();
+      fsNamesys.removeLeasesAndINodes(removedUCFiles, removedINodes, false);
+      fsDir.getContentSummaryCache().invalidate(iip);
       
       if (toAddRetryCache) {
         fsNamesys.addCacheEntry(deleteSnapshotOp.rpcClientId,
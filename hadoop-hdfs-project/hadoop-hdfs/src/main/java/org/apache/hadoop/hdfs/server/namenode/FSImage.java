@@ -101,6 +101,13 @@ public class FSImage implements Closeable {
 
   protected NNStorageRetentionManager archivalManager;
 
+  /** The inodes changed since the last full image, for delta images */
+  private final ChangedINodeTracker changedINodes;
+
+  /** The images being uploaded in parts to this namenode */
+  private final PartialImageUpload.Uploads partialUploads =
+      new PartialImageUpload.Uploads();
+
   /* Used to make sure there are no concurrent checkpoints for a given txid
    * The checkpoint here could be one of the following operations.
    * a. checkpoint when NN is in standby.
@@ -143,9 +150,10 @@ protected FSImage(Configuration conf,
       storage.setRestoreFailedStorage(true);
     }
 
-    this.editLog = new FSEditLog(conf, storage, editsDirs);
+    this.editLog = FSEditLog.newInstance(conf, storage, editsDirs);
     
     archivalManager = new NNStorageRetentionManager(conf, storage, editLog);
+    changedINodes = new ChangedINodeTracker(conf);
   }
  
   void format(FSNamesystem fsn, String clusterId) throws IOException {
@@ -969,6 +977,12 @@ private void loadFSImage(File curFile, MD5Hash expectedMd5,
     long txId = loader.getLoadedImageTxId();
     LOG.info("Loaded image for txid " + txId + " from " + curFile);
     lastAppliedTxId = txId;
+    long baseTxId = loader.getBaseImageTxId();
+    if (baseTxId != HdfsConstants.INVALID_TXID) {
+      changedINodes.reset(baseTxId, txId, loader.getDeltaINodes());
+    } else {
+      changedINodes.reset(txId);
+    }
     storage.setMostRecentCheckpointInfo(txId, curFile.lastModified());
   }
 
@@ -981,7 +995,8 @@ void saveFSImage(SaveNamespaceContext context, StorageDirectory sd,
     File newFile = NNStorage.getStorageFile(sd, NameNodeFile.IMAGE_NEW, txid);
     File dstFile = NNStorage.getStorageFile(sd, dstType, txid);
     
-    FSImageFormatProtobuf.Saver saver = new FSImageFormatProtobuf.Saver(context);
+    FSImageFormatProtobuf.Saver saver = new FSImageFormatProtobuf.Saver(context,
+        conf);
     FSImageCompression compression = FSImageCompression.createCompression(conf);
     saver.save(newFile, compression);
     
@@ -1157,6 +1172,12 @@ private synchronized void saveFSImageInAllDirs(FSNamesystem source,
     }
     SaveNamespaceContext ctx = new SaveNamespaceContext(
         source, txid, canceler);
+    if (nnf == NameNodeFile.IMAGE) {
+      long baseTxId = getDeltaBaseTxId(source, txid);
+      if (baseTxId != HdfsConstants.INVALID_TXID) {
+        ctx.setDelta(baseTxId, changedINodes.getChangedINodes());
+      }
+    }
     
     try {
       List<Thread> saveThreads = new ArrayList<Thread>();
@@ -1184,6 +1205,13 @@ private synchronized void saveFSImageInAllDirs(FSNamesystem source,
       }
   
       renameCheckpoint(txid, NameNodeFile.IMAGE_NEW, nnf, false);
+      if (nnf == NameNodeFile.IMAGE) {
+        if (ctx.getDeltaBaseTxId() != HdfsConstants.INVALID_TXID) {
+          changedINodes.deltaSaved();
+        } else {
+          changedINodes.reset(txid);
+        }
+      }
   
       // Since we now have a new checkpoint, we can clean up some
       // old edit logs and checkpoints.
@@ -1197,6 +1225,42 @@ private synchronized void saveFSImageInAllDirs(FSNamesystem source,
     prog.endPhase(Phase.SAVING_CHECKPOINT);
   }
 
+  /**
+   * @return the full image the image of the given transaction can be saved
+   *         against as a delta image, or INVALID_TXID if a full image must
+   *         be saved.
+   */
+  private long getDeltaBaseTxId(FSNamesystem source, long txid) {
+    long baseTxId = changedINodes.getDeltaBaseTxId(txid,
+        source.dir.getINodeMap().size());
+    if (baseTxId == HdfsConstants.INVALID_TXID) {
+      return baseTxId;
+    }
+    // the inode references of the snapshots are not tracked
+    if (source.getSnapshotManager().getNumSnapshottableDirs() > 0) {
+      LOG.info("Saving a full image as there are snapshottable directories");
+      return HdfsConstants.INVALID_TXID;
+    }
+    // a delta image is loaded with the full image of the same directory
+    for (StorageDirectory sd : storage.dirIterable(NameNodeDirType.IMAGE)) {
+      if (!NNStorage.getImageFile(sd, NameNodeFile.IMAGE, baseTxId).exists()) {
+        LOG.info("Saving a full image as " + sd.getRoot()
+            + " does not have the image of txid " + baseTxId);
+        return HdfsConstants.INVALID_TXID;
+      }
+    }
+    LOG.info("Saving a delta image against the image of txid " + baseTxId);
+    return baseTxId;
+  }
+
+  ChangedINodeTracker getChangedINodeTracker() {
+    return changedINodes;
+  }
+
+  PartialImageUpload.Uploads getPartialUploads() {
+    return partialUploads;
+  }
+
   /**
    * Purge any files in the storage directories that are no longer
    * necessary.
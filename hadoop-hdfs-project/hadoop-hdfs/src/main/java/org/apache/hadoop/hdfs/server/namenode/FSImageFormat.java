@@ -210,6 +210,21 @@ public long getLoadedImageTxId() {
       return impl.getLoadedImageTxId();
     }
 
+    /**
+     * @return the full image the loaded image applies to if it is a delta
+     *         image, or INVALID_TXID.
+     */
+    long getBaseImageTxId() {
+      return impl instanceof FSImageFormatProtobuf.Loader
+          ? ((FSImageFormatProtobuf.Loader) impl).getBaseImageTxId()
+          : HdfsConstants.INVALID_TXID;
+    }
+
+    /** @return the inodes of a loaded delta image, including the deleted. */
+    long[] getDeltaINodes() {
+      return ((FSImageFormatProtobuf.Loader) impl).getDeltaINodes();
+    }
+
     public void load(File file, boolean requireSameLayoutVersion)
         throws IOException {
       Preconditions.checkState(impl == null, "Image already loaded!");
@@ -966,7 +981,8 @@ LayoutVersion.Feature.ADD_INODE_ID, getLayoutVersion())) {
 
         if (!inSnapshot) {
           namesystem.leaseManager.addLease(cons
-              .getFileUnderConstructionFeature().getClientName(), path);
+              .getFileUnderConstructionFeature().getClientName(),
+              oldnode.getId());
         }
       }
     }
@@ -20,11 +20,16 @@
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -49,6 +54,7 @@
 import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.SaverContext;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FilesUnderConstructionSection.FileUnderConstructionEntry;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeDeletedSection;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeDirectorySection;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection.AclFeatureProto;
@@ -57,8 +63,14 @@
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection.QuotaByStorageTypeEntryProto;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection.QuotaByStorageTypeFeatureProto;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.Phase;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.StartupProgress;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.StartupProgress.Counter;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.Step;
 import org.apache.hadoop.hdfs.util.EnumCounters;
 import org.apache.hadoop.hdfs.util.ReadOnlyList;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Time;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
@@ -217,9 +229,19 @@ public static void updateBlocksMap(INodeFile file, BlockManager bm) {
       }
     }
 
+    /**
+     * Number of inodes a loading thread collects before adding them to the
+     * shared structures of the namesystem.
+     */
+    private static final int INODE_BATCH_SIZE = 1000;
+
     private final FSDirectory dir;
     private final FSNamesystem fsn;
     private final FSImageFormatProtobuf.Loader parent;
+    // Serialize the updates of the structures shared by the loading threads
+    private final Object inodeMapLock = new Object();
+    private final Object cacheNameMapLock = new Object();
+    private final Object blockMapLock = new Object();
 
     Loader(FSNamesystem fsn, final FSImageFormatProtobuf.Loader parent) {
       this.fsn = fsn;
@@ -228,8 +250,51 @@ public static void updateBlocksMap(INodeFile file, BlockManager bm) {
     }
 
     void loadINodeDirectorySection(InputStream in) throws IOException {
+      loadINodeDirectoriesInSection(in);
+    }
+
+    /**
+     * Load the sub-sections of the INode directory section concurrently.
+     * Every directory has a single entry, so each parent is only updated by
+     * one thread.
+     */
+    void loadINodeDirectorySectionInParallel(ExecutorService service,
+        List<FileSummary.Section> sections, String compressionCodec)
+        throws IOException {
+      LOG.info("Loading the INode directory section in parallel with "
+          + sections.size() + " sub-sections");
+      long start = Time.monotonicNow();
+      List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+      for (final FileSummary.Section section : sections) {
+        final InputStream in = parent.getInputStreamForSection(section,
+            compressionCodec);
+        futures.add(service.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws IOException {
+            try {
+              return loadINodeDirectoriesInSection(in);
+            } finally {
+              IOUtils.cleanup(LOG, in);
+            }
+          }
+        }));
+      }
+      long loaded = waitForSubSections(futures);
+      LOG.info("Loaded " + loaded + " directories in "
+          + (Time.monotonicNow() - start) + " ms.");
+    }
+
+    /**
+     * Load the entries of the INode directory section, or of one of its
+     * sub-sections, until the end of the stream.
+     * @return the number of entries loaded.
+     */
+    private int loadINodeDirectoriesInSection(InputStream in)
+        throws IOException {
       final List<INodeReference> refList = parent.getLoaderContext()
           .getRefList();
+      final List<INode> added = new ArrayList<INode>(INODE_BATCH_SIZE);
+      int numEntries = 0;
       while (true) {
         INodeDirectorySection.DirEntry e = INodeDirectorySection.DirEntry
             .parseDelimitedFrom(in);
@@ -237,33 +302,202 @@ void loadINodeDirectorySection(InputStream in) throws IOException {
         if (e == null) {
           break;
         }
+        if (parent.isSkipped(e.getParent())) {
+          continue;
+        }
         INodeDirectory p = dir.getInode(e.getParent()).asDirectory();
         for (long id : e.getChildrenList()) {
           INode child = dir.getInode(id);
-          addToParent(p, child);
+          if (addToParent(p, child)) {
+            added.add(child);
+          }
         }
         for (int refId : e.getRefChildrenList()) {
           INodeReference ref = refList.get(refId);
-          addToParent(p, ref);
+          if (addToParent(p, ref)) {
+            added.add(ref);
+          }
+        }
+        ++numEntries;
+        if (added.size() >= INODE_BATCH_SIZE) {
+          addToCacheAndBlockMap(added);
+          added.clear();
+        }
+      }
+      addToCacheAndBlockMap(added);
+      return numEntries;
+    }
+
+    void loadINodeSection(InputStream in, StartupProgress prog,
+        Step currentStep) throws IOException {
+      long numInodes = loadINodeSectionHeader(in, prog, currentStep);
+      Counter counter = prog.getCounter(Phase.LOADING_FSIMAGE, currentStep);
+      for (long i = 0; i < numInodes; ++i) {
+        INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
+        if (parent.isSkipped(p.getId())) {
+          // loaded from the delta image, or deleted since
+        } else if (p.getId() == INodeId.ROOT_INODE_ID) {
+          loadRootINode(p);
+        } else {
+          INode n = loadINode(p);
+          dir.addToInodeMap(n);
         }
+        counter.increment();
       }
     }
 
-    void loadINodeSection(InputStream in) throws IOException {
+    /**
+     * Load the sub-sections of the INode section concurrently. The first
+     * sub-section starts with the header of the section.
+     */
+    void loadINodeSectionInParallel(ExecutorService service,
+        List<FileSummary.Section> sections, String compressionCodec,
+        StartupProgress prog, Step currentStep) throws IOException {
+      LOG.info("Loading the INode section in parallel with "
+          + sections.size() + " sub-sections");
+      long start = Time.monotonicNow();
+      long numInodes = 0;
+      final Counter counter = prog.getCounter(Phase.LOADING_FSIMAGE,
+          currentStep);
+      List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+      for (int i = 0; i < sections.size(); i++) {
+        final InputStream in = parent.getInputStreamForSection(
+            sections.get(i), compressionCodec);
+        if (i == 0) {
+          try {
+            numInodes = loadINodeSectionHeader(in, prog, currentStep);
+          } catch (IOException e) {
+            IOUtils.cleanup(LOG, in);
+            throw e;
+          }
+        }
+        futures.add(service.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws IOException {
+            try {
+              return loadINodesInSection(in, counter);
+            } finally {
+              IOUtils.cleanup(LOG, in);
+            }
+          }
+        }));
+      }
+      long loaded = waitForSubSections(futures);
+      if (loaded != numInodes) {
+        throw new IOException("Expected to load " + numInodes
+            + " INodes from the sub-sections, but loaded " + loaded);
+      }
+      LOG.info("Loaded " + loaded + " INodes in "
+          + (Time.monotonicNow() - start) + " ms.");
+    }
+
+    /**
+     * Read the header of the INode section.
+     * @return the number of INodes in the section.
+     */
+    private long loadINodeSectionHeader(InputStream in, StartupProgress prog,
+        Step currentStep) throws IOException {
       INodeSection s = INodeSection.parseDelimitedFrom(in);
+      if (parent.isBaseImage()) {
+        // the delta image has the last inode id
+        return s.getNumInodes();
+      }
       fsn.dir.resetLastInodeId(s.getLastInodeId());
       LOG.info("Loading " + s.getNumInodes() + " INodes.");
-      for (int i = 0; i < s.getNumInodes(); ++i) {
+      prog.setTotal(Phase.LOADING_FSIMAGE, currentStep, s.getNumInodes());
+      return s.getNumInodes();
+    }
+
+    /**
+     * Load the INodes of a sub-section of the INode section, until the end
+     * of the stream.
+     * @return the number of INodes loaded.
+     */
+    private int loadINodesInSection(InputStream in, Counter counter)
+        throws IOException {
+      final List<INode> loaded = new ArrayList<INode>(INODE_BATCH_SIZE);
+      int numInodes = 0;
+      while (true) {
         INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
-        if (p.getId() == INodeId.ROOT_INODE_ID) {
+        // note that in is a LimitedInputStream
+        if (p == null) {
+          break;
+        }
+        if (parent.isSkipped(p.getId())) {
+          // loaded from the delta image, or deleted since
+        } else if (p.getId() == INodeId.ROOT_INODE_ID) {
           loadRootINode(p);
         } else {
-          INode n = loadINode(p);
+          loaded.add(loadINode(p));
+          if (loaded.size() >= INODE_BATCH_SIZE) {
+            addToInodeMap(loaded);
+            loaded.clear();
+          }
+        }
+        ++numInodes;
+        counter.increment();
+      }
+      addToInodeMap(loaded);
+      return numInodes;
+    }
+
+    /**
+     * Wait for all the sub-sections to be loaded, even if one fails, so that
+     * no loading thread still updates the namesystem once this returns.
+     * @return the total count returned by the loading tasks.
+     */
+    private static long waitForSubSections(List<Future<Integer>> futures)
+        throws IOException {
+      long total = 0;
+      Throwable failure = null;
+      for (Future<Integer> f : futures) {
+        try {
+          total += f.get();
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException(
+              "Interrupted while loading the sub-sections");
+        }
+      }
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      } else if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      } else if (failure instanceof Error) {
+        throw (Error) failure;
+      } else if (failure != null) {
+        throw new IOException("Failed to load a sub-section", failure);
+      }
+      return total;
+    }
+
+    private void addToInodeMap(List<INode> inodes) {
+      synchronized (inodeMapLock) {
+        for (INode n : inodes) {
           dir.addToInodeMap(n);
         }
       }
     }
 
+    private void addToCacheAndBlockMap(List<INode> inodes) {
+      synchronized (cacheNameMapLock) {
+        for (INode n : inodes) {
+          dir.cacheName(n);
+        }
+      }
+      synchronized (blockMapLock) {
+        for (INode n : inodes) {
+          if (n.isFile()) {
+            updateBlocksMap(n.asFile(), fsn.getBlockManager());
+          }
+        }
+      }
+    }
+
     /**
      * Load the under-construction files section, and update the lease map
      */
@@ -278,11 +512,16 @@ void loadFilesUnderConstructionSection(InputStream in) throws IOException {
         INodeFile file = dir.getInode(entry.getInodeId()).asFile();
         FileUnderConstructionFeature uc = file.getFileUnderConstructionFeature();
         Preconditions.checkState(uc != null); // file must be under-construction
-        fsn.leaseManager.addLease(uc.getClientName(), entry.getFullPath());
+        fsn.leaseManager.addLease(uc.getClientName(), file.getId());
       }
     }
 
-    private void addToParent(INodeDirectory parent, INode child) {
+    /**
+     * Add a child to its parent. The caller must then cache its name and add
+     * its blocks with {@link #addToCacheAndBlockMap(List)}.
+     * @return true if the child was added.
+     */
+    private boolean addToParent(INodeDirectory parent, INode child) {
       if (parent == dir.rootDir && FSDirectory.isReservedName(child)) {
         throw new HadoopIllegalArgumentException("File name \""
             + child.getLocalName() + "\" is reserved. Please "
@@ -290,14 +529,7 @@ private void addToParent(INodeDirectory parent, INode child) {
             + "name before upgrading to this release.");
       }
       // NOTE: This does not update space counts for parents
-      if (!parent.addChild(child)) {
-        return;
-      }
-      dir.cacheName(child);
-
-      if (child.isFile()) {
-        updateBlocksMap(child.asFile(), fsn.getBlockManager());
-      }
+      return parent.addChild(child);
     }
 
     private INode loadINode(INodeSection.INode n) {
@@ -397,6 +629,9 @@ private void loadRootINode(INodeSection.INode p) {
   }
 
   public final static class Saver {
+    /** Keeps the entries of the INode deleted section small */
+    private static final int DELETED_INODES_PER_ENTRY = 8192;
+
     private static long buildPermissionStatus(INodeAttributes n,
         final SaverContext.DeduplicationMap<String> stringMap) {
       long userId = stringMap.getId(n.getUserName());
@@ -522,6 +757,7 @@ void serializeINodeDirectorySection(OutputStream out) throws IOException {
           .getINodeMap().getMapIterator();
       final ArrayList<INodeReference> refList = parent.getSaverContext()
           .getRefList();
+      final int inodesPerSubSection = parent.getInodesPerSubSection();
       int i = 0;
       while (iter.hasNext()) {
         INodeWithAdditionalFields n = iter.next();
@@ -532,24 +768,90 @@ void serializeINodeDirectorySection(OutputStream out) throws IOException {
         ReadOnlyList<INode> children = n.asDirectory().getChildrenList(
             Snapshot.CURRENT_STATE_ID);
         if (children.size() > 0) {
-          INodeDirectorySection.DirEntry.Builder b = INodeDirectorySection.
-              DirEntry.newBuilder().setParent(n.getId());
-          for (INode inode : children) {
-            if (!inode.isReference()) {
-              b.addChildren(inode.getId());
-            } else {
-              refList.add(inode.asReference());
-              b.addRefChildren(refList.size() - 1);
-            }
-          }
-          INodeDirectorySection.DirEntry e = b.build();
-          e.writeDelimitedTo(out);
+          buildDirEntry(n.getId(), children, refList).writeDelimitedTo(out);
         }
 
         ++i;
         if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
           context.checkCancelled();
         }
+        if (inodesPerSubSection > 0 && i % inodesPerSubSection == 0
+            && iter.hasNext()) {
+          parent.commitSubSection(summary,
+              FSImageFormatProtobuf.SectionName.INODE_DIR_SUB);
+          out = parent.getSectionOutputStream();
+        }
+      }
+      parent.commitSectionAndSubSection(summary,
+          FSImageFormatProtobuf.SectionName.INODE_DIR,
+          FSImageFormatProtobuf.SectionName.INODE_DIR_SUB);
+    }
+
+    private static INodeDirectorySection.DirEntry buildDirEntry(long parentId,
+        ReadOnlyList<INode> children, ArrayList<INodeReference> refList) {
+      INodeDirectorySection.DirEntry.Builder b = INodeDirectorySection.
+          DirEntry.newBuilder().setParent(parentId);
+      for (INode inode : children) {
+        if (!inode.isReference()) {
+          b.addChildren(inode.getId());
+        } else {
+          refList.add(inode.asReference());
+          b.addRefChildren(refList.size() - 1);
+        }
+      }
+      return b.build();
+    }
+
+    /**
+     * Serialize the INode, INode deleted and INode directory sections of a
+     * delta image: the given inodes which still exist, the ones which were
+     * deleted, and the entries of the given directories, even empty ones so
+     * that they replace the entries of the full image.
+     * @param ids the inodes changed since the full image
+     */
+    void serializeDeltaINodeSections(long[] ids) throws IOException {
+      final List<INode> inodes = new ArrayList<INode>(ids.length);
+      final List<Long> deleted = new ArrayList<Long>();
+      for (long id : ids) {
+        INode n = fsn.dir.getInode(id);
+        if (n != null) {
+          inodes.add(n);
+        } else {
+          deleted.add(id);
+        }
+      }
+
+      OutputStream out = parent.getSectionOutputStream();
+      INodeSection.newBuilder().setLastInodeId(fsn.dir.getLastInodeId())
+          .setNumInodes(inodes.size()).build().writeDelimitedTo(out);
+      int i = 0;
+      for (INode n : inodes) {
+        save(out, n);
+        if (++i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
+          context.checkCancelled();
+        }
+      }
+      parent.commitSection(summary, FSImageFormatProtobuf.SectionName.INODE);
+
+      out = parent.getSectionOutputStream();
+      for (int start = 0; start < deleted.size();
+           start += DELETED_INODES_PER_ENTRY) {
+        int end = Math.min(deleted.size(), start + DELETED_INODES_PER_ENTRY);
+        INodeDeletedSection.newBuilder()
+            .addAllInodeIds(deleted.subList(start, end)).build()
+            .writeDelimitedTo(out);
+      }
+      parent.commitSection(summary,
+          FSImageFormatProtobuf.SectionName.INODE_DELETED);
+
+      out = parent.getSectionOutputStream();
+      final ArrayList<INodeReference> refList = parent.getSaverContext()
+          .getRefList();
+      for (INode n : inodes) {
+        if (n.isDirectory()) {
+          buildDirEntry(n.getId(), n.asDirectory().getChildrenList(
+              Snapshot.CURRENT_STATE_ID), refList).writeDelimitedTo(out);
+        }
       }
       parent.commitSection(summary,
           FSImageFormatProtobuf.SectionName.INODE_DIR);
@@ -563,6 +865,7 @@ void serializeINodeSection(OutputStream out) throws IOException {
       INodeSection s = b.build();
       s.writeDelimitedTo(out);
 
+      final int inodesPerSubSection = parent.getInodesPerSubSection();
       int i = 0;
       Iterator<INodeWithAdditionalFields> iter = inodesMap.getMapIterator();
       while (iter.hasNext()) {
@@ -572,8 +875,18 @@ void serializeINodeSection(OutputStream out) throws IOException {
         if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
           context.checkCancelled();
         }
+        // every sub-section is compressed on its own, to be loaded in
+        // parallel with the others
+        if (inodesPerSubSection > 0 && i % inodesPerSubSection == 0
+            && iter.hasNext()) {
+          parent.commitSubSection(summary,
+              FSImageFormatProtobuf.SectionName.INODE_SUB);
+          out = parent.getSectionOutputStream();
+        }
       }
-      parent.commitSection(summary, FSImageFormatProtobuf.SectionName.INODE);
+      parent.commitSectionAndSubSection(summary,
+          FSImageFormatProtobuf.SectionName.INODE,
+          FSImageFormatProtobuf.SectionName.INODE_SUB);
     }
 
     void serializeFilesUCSection(OutputStream out) throws IOException {
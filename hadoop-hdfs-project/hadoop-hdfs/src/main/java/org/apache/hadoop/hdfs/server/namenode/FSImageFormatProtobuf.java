@@ -22,6 +22,7 @@
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -32,16 +33,21 @@
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CachePoolInfoProto;
@@ -49,6 +55,7 @@
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockIdManager;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.CacheManagerSection;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeDeletedSection;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.NameSystemSection;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.SecretManagerSection;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.StringTableSection;
@@ -57,6 +64,7 @@
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.StartupProgress;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.Step;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.StepType;
+import org.apache.hadoop.hdfs.util.LongHashSet;
 import org.apache.hadoop.hdfs.util.MD5FileUtils;
 import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.io.compress.CompressionCodec;
@@ -66,6 +74,7 @@
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.CodedOutputStream;
 
 /**
@@ -147,6 +156,23 @@ public static final class Loader implements FSImageFormat.AbstractLoader {
      * when we're doing (rollingUpgrade rollback).
      */
     private final boolean requireSameLayoutVersion;
+    /** The file being loaded, to read its sub-sections concurrently */
+    private File imageFile;
+    /** Loads the sub-sections of the image, null if loading serially */
+    private ExecutorService executorService;
+    /**
+     * The full image a delta image applies to, INVALID_TXID when loading a
+     * full image.
+     */
+    private long baseImageTxId = HdfsConstants.INVALID_TXID;
+    /**
+     * The inodes of the delta image being loaded, including the deleted ones.
+     * Shared with the loader of the full image it applies to, which skips
+     * them.
+     */
+    private LongHashSet deltaINodes;
+    /** Whether this loads the full image a delta image applies to */
+    private boolean isBaseImage = false;
 
     Loader(Configuration conf, FSNamesystem fsn,
         boolean requireSameLayoutVersion) {
@@ -170,9 +196,36 @@ public LoaderContext getLoaderContext() {
       return ctx;
     }
 
+    /**
+     * @return the full image the loaded image applies to if it is a delta
+     *         image, or INVALID_TXID.
+     */
+    long getBaseImageTxId() {
+      return baseImageTxId;
+    }
+
+    /** @return the inodes of the loaded delta image, including the deleted. */
+    long[] getDeltaINodes() {
+      return deltaINodes.toArray();
+    }
+
+    /** @return whether this loads the full image a delta image applies to. */
+    boolean isBaseImage() {
+      return isBaseImage;
+    }
+
+    /**
+     * @return whether the inode, or the directory entry of the inode, must be
+     *         skipped as the delta image being loaded holds or deleted it.
+     */
+    boolean isSkipped(long inodeId) {
+      return isBaseImage && deltaINodes.contains(inodeId);
+    }
+
     void load(File file) throws IOException {
       long start = Time.monotonicNow();
       imgDigest = MD5FileUtils.computeMd5ForFile(file);
+      imageFile = file;
       RandomAccessFile raFile = new RandomAccessFile(file, "r");
       FileInputStream fin = new FileInputStream(file);
       try {
@@ -180,6 +233,9 @@ void load(File file) throws IOException {
         long end = Time.monotonicNow();
         LOG.info("Loaded FSImage in " + (end - start) / 1000 + " seconds.");
       } finally {
+        if (executorService != null) {
+          executorService.shutdown();
+        }
         fin.close();
         raFile.close();
       }
@@ -197,6 +253,14 @@ private void loadInternal(RandomAccessFile raFile, FileInputStream fin)
             " is not equal to the software version " +
             HdfsConstants.NAMENODE_LAYOUT_VERSION);
       }
+      Loader baseLoader = null;
+      if (summary.hasBaseImageTxId()) {
+        baseImageTxId = summary.getBaseImageTxId();
+        deltaINodes = new LongHashSet();
+        baseLoader = createBaseImageLoader();
+        LOG.info("Loading a delta image with the image of txid "
+            + baseImageTxId);
+      }
 
       FileChannel channel = fin.getChannel();
 
@@ -207,6 +271,11 @@ private void loadInternal(RandomAccessFile raFile, FileInputStream fin)
 
       ArrayList<FileSummary.Section> sections = Lists.newArrayList(summary
           .getSectionsList());
+      ArrayList<FileSummary.Section> subSections =
+          getAndRemoveSubSections(sections);
+      if (!subSections.isEmpty()) {
+        executorService = getParallelExecutorService();
+      }
       Collections.sort(sections, new Comparator<FileSummary.Section>() {
         @Override
         public int compare(FileSummary.Section s1, FileSummary.Section s2) {
@@ -250,14 +319,46 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
         case INODE: {
           currentStep = new Step(StepType.INODES);
           prog.beginStep(Phase.LOADING_FSIMAGE, currentStep);
-          inodeLoader.loadINodeSection(in);
+          ArrayList<FileSummary.Section> stageSubSections =
+              getSubSectionsOfName(subSections, SectionName.INODE_SUB);
+          if (executorService != null && !stageSubSections.isEmpty()) {
+            inodeLoader.loadINodeSectionInParallel(executorService,
+                stageSubSections, summary.getCodec(), prog, currentStep);
+          } else {
+            inodeLoader.loadINodeSection(in, prog, currentStep);
+          }
+          if (baseLoader != null) {
+            // so far the inode map only holds the inodes of the delta image
+            Iterator<INodeWithAdditionalFields> iter = fsn.dir.getINodeMap()
+                .getMapIterator();
+            while (iter.hasNext()) {
+              deltaINodes.add(iter.next().getId());
+            }
+            baseLoader.loadBaseImageSections(prog, currentStep,
+                SectionName.STRING_TABLE, SectionName.INODE);
+          }
         }
           break;
+        case INODE_DELETED:
+          loadINodeDeletedSection(in);
+          break;
         case INODE_REFERENCE:
           snapshotLoader.loadINodeReferenceSection(in);
           break;
-        case INODE_DIR:
-          inodeLoader.loadINodeDirectorySection(in);
+        case INODE_DIR: {
+          ArrayList<FileSummary.Section> stageSubSections =
+              getSubSectionsOfName(subSections, SectionName.INODE_DIR_SUB);
+          if (executorService != null && !stageSubSections.isEmpty()) {
+            inodeLoader.loadINodeDirectorySectionInParallel(executorService,
+                stageSubSections, summary.getCodec());
+          } else {
+            inodeLoader.loadINodeDirectorySection(in);
+          }
+          if (baseLoader != null) {
+            baseLoader.loadBaseImageSections(prog, currentStep,
+                SectionName.INODE_DIR);
+          }
+        }
           break;
         case FILES_UNDERCONSTRUCTION:
           inodeLoader.loadFilesUnderConstructionSection(in);
@@ -290,6 +391,190 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
       }
     }
 
+    /**
+     * Create the loader of the full image a delta image applies to, which
+     * must be in the same directory.
+     */
+    private Loader createBaseImageLoader() throws IOException {
+      File baseFile = new File(imageFile.getParentFile(),
+          NNStorage.getImageFileName(baseImageTxId));
+      if (!baseFile.exists()) {
+        throw new FileNotFoundException("The image " + baseFile
+            + " which the delta image " + imageFile + " applies to is missing");
+      }
+      MD5Hash expectedMd5 = MD5FileUtils.readStoredMd5ForFile(baseFile);
+      if (expectedMd5 == null) {
+        throw new IOException("No MD5 file found corresponding to image file "
+            + baseFile);
+      }
+      MD5Hash baseMd5 = MD5FileUtils.computeMd5ForFile(baseFile);
+      if (!expectedMd5.equals(baseMd5)) {
+        throw new IOException("Image file " + baseFile
+            + " is corrupt with MD5 checksum of " + baseMd5
+            + " but expecting " + expectedMd5);
+      }
+      Loader loader = new Loader(conf, fsn, false);
+      loader.imageFile = baseFile;
+      loader.isBaseImage = true;
+      loader.deltaINodes = deltaINodes;
+      return loader;
+    }
+
+    /**
+     * Load the given sections of the full image a delta image applies to,
+     * once the same sections of the delta image are loaded. The inodes and
+     * the directory entries of the delta image, and the deleted inodes, are
+     * skipped.
+     */
+    private void loadBaseImageSections(StartupProgress prog, Step currentStep,
+        SectionName... names) throws IOException {
+      RandomAccessFile raFile = new RandomAccessFile(imageFile, "r");
+      FileInputStream fin = new FileInputStream(imageFile);
+      try {
+        if (!FSImageUtil.checkFileFormat(raFile)) {
+          throw new IOException("Unrecognized file format of " + imageFile);
+        }
+        FileSummary summary = FSImageUtil.loadSummary(raFile);
+        if (summary.hasBaseImageTxId()) {
+          throw new IOException("The image " + imageFile
+              + " which a delta image applies to is a delta image");
+        }
+        FileChannel channel = fin.getChannel();
+        FSImageFormatPBINode.Loader inodeLoader =
+            new FSImageFormatPBINode.Loader(fsn, this);
+        ArrayList<FileSummary.Section> sections = Lists.newArrayList(summary
+            .getSectionsList());
+        ArrayList<FileSummary.Section> subSections =
+            getAndRemoveSubSections(sections);
+        if (!subSections.isEmpty()) {
+          executorService = getParallelExecutorService();
+        }
+        for (SectionName name : names) {
+          for (FileSummary.Section s : sections) {
+            if (SectionName.fromString(s.getName()) != name) {
+              continue;
+            }
+            channel.position(s.getOffset());
+            InputStream in = FSImageUtil.wrapInputStreamForCompression(conf,
+                summary.getCodec(), new BufferedInputStream(
+                    new LimitInputStream(fin, s.getLength())));
+            if (name == SectionName.STRING_TABLE) {
+              loadStringTableSection(in);
+            } else if (name == SectionName.INODE) {
+              ArrayList<FileSummary.Section> stageSubSections =
+                  getSubSectionsOfName(subSections, SectionName.INODE_SUB);
+              if (executorService != null && !stageSubSections.isEmpty()) {
+                inodeLoader.loadINodeSectionInParallel(executorService,
+                    stageSubSections, summary.getCodec(), prog, currentStep);
+              } else {
+                inodeLoader.loadINodeSection(in, prog, currentStep);
+              }
+            } else if (name == SectionName.INODE_DIR) {
+              ArrayList<FileSummary.Section> stageSubSections =
+                  getSubSectionsOfName(subSections, SectionName.INODE_DIR_SUB);
+              if (executorService != null && !stageSubSections.isEmpty()) {
+                inodeLoader.loadINodeDirectorySectionInParallel(
+                    executorService, stageSubSections, summary.getCodec());
+              } else {
+                inodeLoader.loadINodeDirectorySection(in);
+              }
+            } else {
+              throw new IllegalArgumentException("Cannot load the section "
+                  + name + " of the image a delta image applies to");
+            }
+          }
+        }
+      } finally {
+        if (executorService != null) {
+          executorService.shutdown();
+          executorService = null;
+        }
+        fin.close();
+        raFile.close();
+      }
+    }
+
+    /**
+     * Remove the sub-sections from the given sections. Sub-sections overlap
+     * the section they belong to, so they are only read when the section is
+     * loaded in parallel.
+     *
+     * @return the sub-sections, in the order of their offsets.
+     */
+    private static ArrayList<FileSummary.Section> getAndRemoveSubSections(
+        ArrayList<FileSummary.Section> sections) {
+      ArrayList<FileSummary.Section> subSections = Lists.newArrayList();
+      Iterator<FileSummary.Section> iter = sections.iterator();
+      while (iter.hasNext()) {
+        FileSummary.Section s = iter.next();
+        SectionName n = SectionName.fromString(s.getName());
+        if (n == SectionName.INODE_SUB || n == SectionName.INODE_DIR_SUB) {
+          subSections.add(s);
+          iter.remove();
+        }
+      }
+      Collections.sort(subSections, new Comparator<FileSummary.Section>() {
+        @Override
+        public int compare(FileSummary.Section s1, FileSummary.Section s2) {
+          return Long.compare(s1.getOffset(), s2.getOffset());
+        }
+      });
+      return subSections;
+    }
+
+    private static ArrayList<FileSummary.Section> getSubSectionsOfName(
+        ArrayList<FileSummary.Section> subSections, SectionName name) {
+      ArrayList<FileSummary.Section> result = Lists.newArrayList();
+      for (FileSummary.Section s : subSections) {
+        if (SectionName.fromString(s.getName()) == name) {
+          result.add(s);
+        }
+      }
+      return result;
+    }
+
+    /**
+     * @return the executor loading the sub-sections of the image, or null
+     *         if the image must be loaded serially.
+     */
+    private ExecutorService getParallelExecutorService() {
+      if (!conf.getBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT)) {
+        return null;
+      }
+      int threads = conf.getInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT);
+      if (threads < 1) {
+        LOG.warn("Parallel image loading is enabled but "
+            + DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY + " is " + threads
+            + ", loading the image serially");
+        return null;
+      }
+      LOG.info("Loading the image in parallel with " + threads + " threads");
+      return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+          .setDaemon(true).setNameFormat("FSImageLoader-%d").build());
+    }
+
+    /**
+     * Open a new stream over a section of the image, independent of any
+     * other stream so that sections can be read concurrently. The caller
+     * must close it.
+     */
+    InputStream getInputStreamForSection(FileSummary.Section section,
+        String compressionCodec) throws IOException {
+      FileInputStream fin = new FileInputStream(imageFile);
+      try {
+        fin.getChannel().position(section.getOffset());
+        InputStream in = new BufferedInputStream(new LimitInputStream(fin,
+            section.getLength()));
+        return FSImageUtil.wrapInputStreamForCompression(conf,
+            compressionCodec, in);
+      } catch (IOException e) {
+        fin.close();
+        throw e;
+      }
+    }
+
     private void loadNameSystemSection(InputStream in) throws IOException {
       NameSystemSection s = NameSystemSection.parseDelimitedFrom(in);
       BlockIdManager blockIdManager = fsn.getBlockIdManager();
@@ -306,6 +591,19 @@ private void loadNameSystemSection(InputStream in) throws IOException {
       }
     }
 
+    private void loadINodeDeletedSection(InputStream in) throws IOException {
+      while (true) {
+        INodeDeletedSection s = INodeDeletedSection.parseDelimitedFrom(in);
+        // note that in is a LimitedInputStream
+        if (s == null) {
+          break;
+        }
+        for (long id : s.getInodeIdsList()) {
+          deltaINodes.add(id);
+        }
+      }
+    }
+
     private void loadStringTableSection(InputStream in) throws IOException {
       StringTableSection s = StringTableSection.parseDelimitedFrom(in);
       ctx.stringTable = new String[s.getNumEntry() + 1];
@@ -355,6 +653,7 @@ public static final class Saver {
     private final SaveNamespaceContext context;
     private final SaverContext saverContext;
     private long currentOffset = FSImageUtil.MAGIC_HEADER.length;
+    private long subSectionOffset = currentOffset;
     private MD5Hash savedDigest;
 
     private FileChannel fileChannel;
@@ -363,9 +662,31 @@ public static final class Saver {
     private CompressionCodec codec;
     private OutputStream underlyingOutputStream;
 
-    Saver(SaveNamespaceContext context) {
+    private final boolean writeSubSections;
+    private final int targetSubSections;
+    private final int subSectionInodeThreshold;
+    /** Number of inodes per sub-section, 0 if no sub-section is written */
+    private int inodesPerSubSection = 0;
+
+    Saver(SaveNamespaceContext context, Configuration conf) {
       this.context = context;
       this.saverContext = new SaverContext();
+      this.targetSubSections = conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT);
+      this.subSectionInodeThreshold = conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT);
+      boolean parallel = conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT);
+      if (parallel && targetSubSections < 1) {
+        LOG.warn("Parallel image loading is enabled but "
+            + DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY + " is "
+            + targetSubSections + ", no sub-section will be written");
+        parallel = false;
+      }
+      this.writeSubSections = parallel;
     }
 
     public MD5Hash getSavedDigest() {
@@ -380,6 +701,23 @@ public SaverContext getSaverContext() {
       return saverContext;
     }
 
+    /**
+     * @return the stream for the data of the current section. It changes
+     *         whenever a section or a sub-section is committed.
+     */
+    public OutputStream getSectionOutputStream() {
+      return sectionOutputStream;
+    }
+
+    /**
+     * @return the number of inodes after which the current sub-section of
+     *         the INode and INode directory sections is committed, or 0 if
+     *         these sections are written without sub-sections.
+     */
+    public int getInodesPerSubSection() {
+      return inodesPerSubSection;
+    }
+
     public void commitSection(FileSummary.Builder summary, SectionName name)
         throws IOException {
       long oldOffset = currentOffset;
@@ -394,6 +732,47 @@ public void commitSection(FileSummary.Builder summary, SectionName name)
       summary.addSections(FileSummary.Section.newBuilder().setName(name.name)
           .setLength(length).setOffset(currentOffset));
       currentOffset += length;
+      subSectionOffset = currentOffset;
+    }
+
+    /**
+     * Commit the data written since the previous sub-section of the current
+     * section as a sub-section. The compressed stream is finished, so that
+     * the sub-section can be read on its own, and the sub-section is added
+     * to the summary. Does nothing if sub-sections are not written.
+     */
+    public void commitSubSection(FileSummary.Builder summary, SectionName name)
+        throws IOException {
+      if (inodesPerSubSection == 0) {
+        return;
+      }
+      flushSectionOutputStream();
+
+      if (codec != null) {
+        sectionOutputStream = codec.createOutputStream(underlyingOutputStream);
+      } else {
+        sectionOutputStream = underlyingOutputStream;
+      }
+      long length = fileChannel.position() - subSectionOffset;
+      summary.addSections(FileSummary.Section.newBuilder().setName(name.name)
+          .setLength(length).setOffset(subSectionOffset));
+      subSectionOffset += length;
+    }
+
+    /**
+     * Commit the current section, and its remaining data as its last
+     * sub-section if sub-sections are written.
+     */
+    public void commitSectionAndSubSection(FileSummary.Builder summary,
+        SectionName name, SectionName subSectionName) throws IOException {
+      long lastSubSectionOffset = subSectionOffset;
+      commitSection(summary, name);
+      if (inodesPerSubSection > 0) {
+        summary.addSections(FileSummary.Section.newBuilder()
+            .setName(subSectionName.name)
+            .setLength(currentOffset - lastSubSectionOffset)
+            .setOffset(lastSubSectionOffset));
+      }
     }
 
     private void flushSectionOutputStream() throws IOException {
@@ -426,11 +805,29 @@ private void saveInodes(FileSummary.Builder summary) throws IOException {
       FSImageFormatPBINode.Saver saver = new FSImageFormatPBINode.Saver(this,
           summary);
 
-      saver.serializeINodeSection(sectionOutputStream);
-      saver.serializeINodeDirectorySection(sectionOutputStream);
+      if (context.getDeltaBaseTxId() != HdfsConstants.INVALID_TXID) {
+        saver.serializeDeltaINodeSections(getDeltaINodes());
+      } else {
+        saver.serializeINodeSection(sectionOutputStream);
+        saver.serializeINodeDirectorySection(sectionOutputStream);
+      }
       saver.serializeFilesUCSection(sectionOutputStream);
     }
 
+    /**
+     * @return the inodes changed since the full image the delta image is
+     *         saved against. The root is always saved, so that the loader
+     *         knows which inodes come from the delta image.
+     */
+    private long[] getDeltaINodes() {
+      long[] ids = context.getChangedINodes();
+      if (Arrays.binarySearch(ids, INodeId.ROOT_INODE_ID) < 0) {
+        ids = Arrays.copyOf(ids, ids.length + 1);
+        ids[ids.length - 1] = INodeId.ROOT_INODE_ID;
+      }
+      return ids;
+    }
+
     private void saveSnapshots(FileSummary.Builder summary) throws IOException {
       FSImageFormatPBSnapshot.Saver snapshotSaver = new FSImageFormatPBSnapshot.Saver(
           this, summary, context, context.getSourceNamesystem());
@@ -456,6 +853,10 @@ private void saveInternal(FileOutputStream fout,
           .setLayoutVersion(
               context.getSourceNamesystem().getEffectiveLayoutVersion());
 
+      if (context.getDeltaBaseTxId() != HdfsConstants.INVALID_TXID) {
+        b.setBaseImageTxId(context.getDeltaBaseTxId());
+      }
+
       codec = compression.getImageCodec();
       if (codec != null) {
         b.setCodec(codec.getClass().getCanonicalName());
@@ -470,6 +871,14 @@ private void saveInternal(FileOutputStream fout,
       // depends on this behavior.
       context.checkCancelled();
 
+      final int numInodes =
+          context.getSourceNamesystem().dir.getINodeMap().size();
+      // a delta image is small, and loaded serially
+      if (writeSubSections && numInodes >= subSectionInodeThreshold
+          && context.getDeltaBaseTxId() == HdfsConstants.INVALID_TXID) {
+        inodesPerSubSection = Math.max(1, numInodes / targetSubSections);
+      }
+
       Step step = new Step(StepType.INODES, filePath);
       prog.beginStep(Phase.SAVING_CHECKPOINT, step);
       saveInodes(b);
@@ -572,16 +981,20 @@ private void saveStringTableSection(FileSummary.Builder summary)
 
   /**
    * Supported section name. The order of the enum determines the order of
-   * loading.
+   * loading. The sub-sections lie within the section of the same prefix and
+   * are only used to load it in parallel.
    */
   public enum SectionName {
     NS_INFO("NS_INFO"),
     STRING_TABLE("STRING_TABLE"),
     EXTENDED_ACL("EXTENDED_ACL"),
+    INODE_DELETED("INODE_DELETED"),
     INODE("INODE"),
+    INODE_SUB("INODE_SUB"),
     INODE_REFERENCE("INODE_REFERENCE"),
     SNAPSHOT("SNAPSHOT"),
     INODE_DIR("INODE_DIR"),
+    INODE_DIR_SUB("INODE_DIR_SUB"),
     FILES_UNDERCONSTRUCTION("FILES_UNDERCONSTRUCTION"),
     SNAPSHOT_DIFF("SNAPSHOT_DIFF"),
     SECRET_MANAGER("SECRET_MANAGER"),
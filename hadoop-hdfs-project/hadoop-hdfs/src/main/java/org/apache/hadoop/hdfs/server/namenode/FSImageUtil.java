@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
@@ -26,6 +27,7 @@
 import org.apache.commons.io.Charsets;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.LayoutVersion.Feature;
 import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.Loader;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
@@ -80,6 +82,25 @@ public static FileSummary loadSummary(RandomAccessFile file)
     return summary;
   }
 
+  /**
+   * @return the transaction id of the full image the given image applies to
+   *         if it is a delta image, or INVALID_TXID if it is a full image.
+   */
+  public static long getBaseImageTxId(File imageFile) throws IOException {
+    RandomAccessFile raFile = new RandomAccessFile(imageFile, "r");
+    try {
+      if (!checkFileFormat(raFile)) {
+        // an image of the legacy format is always a full image
+        return HdfsConstants.INVALID_TXID;
+      }
+      FileSummary summary = loadSummary(raFile);
+      return summary.hasBaseImageTxId() ? summary.getBaseImageTxId()
+          : HdfsConstants.INVALID_TXID;
+    } finally {
+      raFile.close();
+    }
+  }
+
   public static InputStream wrapInputStreamForCompression(
       Configuration conf, String codec, InputStream in) throws IOException {
     if (codec.isEmpty())
@@ -40,6 +40,10 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_ENCRYPT_DATA_TRANSFER_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_HA_STANDBY_CHECKPOINTS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_HA_STANDBY_CHECKPOINTS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_HA_STANDBY_CONSISTENT_READS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_HA_STANDBY_CONSISTENT_READS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_HA_STANDBY_CONSISTENT_READS_MAX_WAIT_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_HA_STANDBY_CONSISTENT_READS_MAX_WAIT_MS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_PRECISION_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_PRECISION_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_KEY;
@@ -101,6 +105,7 @@
 
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -124,12 +129,14 @@
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -181,6 +188,8 @@
 import org.apache.hadoop.hdfs.UnknownCryptoProtocolVersionException;
 import org.apache.hadoop.hdfs.XAttrHelper;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchedOperation;
+import org.apache.hadoop.hdfs.protocol.BatchedOperationResult;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -248,6 +257,7 @@
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.Status;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.Step;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.StepType;
+import org.apache.hadoop.hdfs.server.namenode.top.OperationCost;
 import org.apache.hadoop.hdfs.server.namenode.top.TopAuditLogger;
 import org.apache.hadoop.hdfs.server.namenode.top.TopConf;
 import org.apache.hadoop.hdfs.server.namenode.top.metrics.TopMetrics;
@@ -271,6 +281,7 @@
 import org.apache.hadoop.ipc.CallerContext;
 import org.apache.hadoop.ipc.RetriableException;
 import org.apache.hadoop.ipc.RetryCache;
+import org.apache.hadoop.ipc.RpcConstants;
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.ipc.StandbyException;
 import org.apache.hadoop.metrics2.annotation.Metric;
@@ -391,7 +402,12 @@ private void logAuditEvent(boolean succeeded,
       FSNamesystem.class.getName() + ".audit");
 
   static final int DEFAULT_MAX_CORRUPT_FILEBLOCKS_RETURNED = 100;
-  static int BLOCK_DELETION_INCREMENT = 1000;
+  /** Number of inodes or blocks reclaimed per write lock hold on delete. */
+  private final int blockDeletionIncrement;
+  /** Inodes of deleted subtrees not yet removed from the inodeMap. */
+  private final AtomicLong pendingReclaimINodes = new AtomicLong();
+  /** Blocks of deleted files not yet removed from the blocksMap. */
+  private final AtomicLong pendingReclaimBlocks = new AtomicLong();
   private final boolean isPermissionEnabled;
   private final UserGroupInformation fsOwner;
   private final String supergroup;
@@ -480,12 +496,15 @@ private void logAuditEvent(boolean succeeded,
 
   private final long minBlockSize;         // minimum block size
   private final long maxBlocksPerFile;     // maximum # of blocks per file
+  private final int maxBatchOperations;   // maximum # of ops per batch
 
   // precision of access times.
   private final long accessTimePrecision;
 
   /** Lock to protect FSNamesystem. */
   private final FSNamesystemLock fsLock;
+  /** Number of lock holders reported by {@link #getTopLockHolders()}. */
+  private static final int TOP_LOCK_HOLDERS = 20;
 
   /** 
    * Checkpoint lock to protect FSNamesystem modification on standby NNs.
@@ -514,6 +533,14 @@ private void logAuditEvent(boolean succeeded,
 
   private final boolean haEnabled;
 
+  /**
+   * Whether the standby serves the reads of the clients which send the last
+   * transaction they have seen, once it has applied that transaction.
+   */
+  private final boolean consistentStandbyReads;
+  private final long consistentReadsMaxWaitMs;
+  private final GlobalStateIdContext stateIdContext;
+
   /** flag indicating whether replication queues have been initialized */
   boolean initializedReplQueues = false;
 
@@ -729,9 +756,8 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
       LOG.info("Enabling async auditlog");
       enableAsyncAuditLog();
     }
-    boolean fair = conf.getBoolean("dfs.namenode.fslock.fair", true);
-    LOG.info("fsLock is fair:" + fair);
-    fsLock = new FSNamesystemLock(fair);
+    fsLock = new FSNamesystemLock(conf);
+    LOG.info("fsLock is fair:" + fsLock.coarseLock.isFair());
     cond = fsLock.writeLock().newCondition();
     cpLock = new ReentrantLock();
 
@@ -797,6 +823,9 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
           DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_DEFAULT);
       this.maxBlocksPerFile = conf.getLong(DFSConfigKeys.DFS_NAMENODE_MAX_BLOCKS_PER_FILE_KEY,
           DFSConfigKeys.DFS_NAMENODE_MAX_BLOCKS_PER_FILE_DEFAULT);
+      this.maxBatchOperations = conf.getInt(
+          DFSConfigKeys.DFS_NAMENODE_BATCH_MAX_OPERATIONS_KEY,
+          DFSConfigKeys.DFS_NAMENODE_BATCH_MAX_OPERATIONS_DEFAULT);
       this.accessTimePrecision = conf.getLong(DFS_NAMENODE_ACCESSTIME_PRECISION_KEY,
           DFS_NAMENODE_ACCESSTIME_PRECISION_DEFAULT);
       this.supportAppends = conf.getBoolean(DFS_SUPPORT_APPEND_KEY, DFS_SUPPORT_APPEND_DEFAULT);
@@ -806,6 +835,13 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
       
       this.standbyShouldCheckpoint = conf.getBoolean(
           DFS_HA_STANDBY_CHECKPOINTS_KEY, DFS_HA_STANDBY_CHECKPOINTS_DEFAULT);
+      this.consistentStandbyReads = conf.getBoolean(
+          DFS_HA_STANDBY_CONSISTENT_READS_KEY,
+          DFS_HA_STANDBY_CONSISTENT_READS_DEFAULT);
+      this.consistentReadsMaxWaitMs = conf.getLong(
+          DFS_HA_STANDBY_CONSISTENT_READS_MAX_WAIT_MS_KEY,
+          DFS_HA_STANDBY_CONSISTENT_READS_MAX_WAIT_MS_DEFAULT);
+      this.stateIdContext = new GlobalStateIdContext(this);
       // # edit autoroll threshold is a multiple of the checkpoint threshold 
       this.editLogRollerThreshold = (long)
           (conf.getFloat(
@@ -818,6 +854,13 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
           DFS_NAMENODE_EDIT_LOG_AUTOROLL_CHECK_INTERVAL_MS,
           DFS_NAMENODE_EDIT_LOG_AUTOROLL_CHECK_INTERVAL_MS_DEFAULT);
 
+      this.blockDeletionIncrement = conf.getInt(
+          DFSConfigKeys.DFS_NAMENODE_BLOCK_DELETION_INCREMENT_KEY,
+          DFSConfigKeys.DFS_NAMENODE_BLOCK_DELETION_INCREMENT_DEFAULT);
+      Preconditions.checkArgument(blockDeletionIncrement > 0,
+          DFSConfigKeys.DFS_NAMENODE_BLOCK_DELETION_INCREMENT_KEY +
+          " must be a positive integer.");
+
       this.lazyPersistFileScrubIntervalSec = conf.getInt(
           DFS_NAMENODE_LAZY_PERSIST_FILE_SCRUB_INTERVAL_SEC,
           DFS_NAMENODE_LAZY_PERSIST_FILE_SCRUB_INTERVAL_SEC_DEFAULT);
@@ -1310,9 +1353,31 @@ void stopStandbyServices() throws IOException {
   public void checkOperation(OperationCategory op) throws StandbyException {
     if (haContext != null) {
       // null in some unit tests
+      if (op == OperationCategory.READ && isConsistentStandbyRead()) {
+        // Never wait holding the lock, the tailer needs it to catch up. The
+        // check done before taking the lock has waited already.
+        stateIdContext.checkClientStateId(Server.getClientStateId(),
+            hasReadLock() ? 0 : consistentReadsMaxWaitMs);
+        return;
+      }
       haContext.checkOperation(op);
     }
   }
+
+  /**
+   * @return true if the current call is a read served by the standby to a
+   * client which sent the last transaction it has seen.
+   */
+  private boolean isConsistentStandbyRead() {
+    return consistentStandbyReads &&
+        Server.getClientStateId() != RpcConstants.INVALID_STATE_ID &&
+        isInStandbyState();
+  }
+
+  /** @return the context adding the last transaction id to the responses. */
+  public GlobalStateIdContext getStateIdContext() {
+    return stateIdContext;
+  }
   
   /**
    * @throws RetriableException
@@ -1474,23 +1539,35 @@ public static List<URI> getSharedEditsDirs(Configuration conf) {
 
   @Override
   public void readLock() {
-    this.fsLock.readLock().lock();
+    this.fsLock.acquireReadLock();
   }
   @Override
   public void readUnlock() {
-    this.fsLock.readLock().unlock();
+    readUnlock(FSNamesystemLock.OP_NAME_OTHER);
+  }
+  /**
+   * Release the read lock, attributing the time it was held to opName.
+   */
+  public void readUnlock(String opName) {
+    this.fsLock.releaseReadLock(opName);
   }
   @Override
   public void writeLock() {
-    this.fsLock.writeLock().lock();
+    this.fsLock.acquireWriteLock();
   }
   @Override
   public void writeLockInterruptibly() throws InterruptedException {
-    this.fsLock.writeLock().lockInterruptibly();
+    this.fsLock.acquireWriteLockInterruptibly();
   }
   @Override
   public void writeUnlock() {
-    this.fsLock.writeLock().unlock();
+    writeUnlock(FSNamesystemLock.OP_NAME_OTHER);
+  }
+  /**
+   * Release the write lock, attributing the time it was held to opName.
+   */
+  public void writeUnlock(String opName) {
+    this.fsLock.releaseWriteLock(opName);
   }
   @Override
   public boolean hasWriteLock() {
@@ -1562,6 +1639,13 @@ void close() {
       } finally {
         IOUtils.cleanup(LOG, dir);
         IOUtils.cleanup(LOG, fsImage);
+        if (auditLoggers != null) {
+          for (AuditLogger logger : auditLoggers) {
+            if (logger instanceof Closeable) {
+              IOUtils.cleanup(LOG, (Closeable) logger);
+            }
+          }
+        }
       }
     }
   }
@@ -1599,7 +1683,7 @@ void metaSave(String filename) throws IOException {
       out.flush();
       out.close();
     } finally {
-      writeUnlock();
+      writeUnlock("metaSave");
     }
   }
 
@@ -1655,7 +1739,7 @@ void setPermission(String src, FsPermission permission) throws IOException {
       logAuditEvent(false, "setPermission", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setPermission");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setPermission", src, null, auditStat);
@@ -1678,7 +1762,7 @@ void setOwner(String src, String username, String group)
       logAuditEvent(false, "setOwner", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setOwner");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setOwner", src, null, auditStat);
@@ -1714,12 +1798,26 @@ LocatedBlocks getBlockLocations(String clientMachine, String srcArg,
       logAuditEvent(false, "open", srcArg);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("open");
     }
 
+    OperationCost.addBlockLocations(res.blocks);
     logAuditEvent(true, "open", srcArg);
 
-    if (res.updateAccessTime()) {
+    // The standby may not have received the replicas of the newest blocks
+    // yet, the client should then ask the active. The standby cannot log the
+    // access time either.
+    final boolean standbyRead = isConsistentStandbyRead();
+    if (standbyRead && res.blocks != null) {
+      for (LocatedBlock b : res.blocks.getLocatedBlocks()) {
+        if (b.getLocations().length == 0) {
+          throw new StandbyException("The standby has no location for "
+              + b.getBlock());
+        }
+      }
+    }
+
+    if (res.updateAccessTime() && !standbyRead) {
       byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(
           srcArg);
       String src = srcArg;
@@ -1760,7 +1858,7 @@ LocatedBlocks getBlockLocations(String clientMachine, String srcArg,
       } catch (Throwable e) {
         LOG.warn("Failed to update the access time of " + src, e);
       } finally {
-        writeUnlock();
+        writeUnlock("open");
       }
     }
 
@@ -1884,7 +1982,7 @@ void concat(String target, String [] srcs, boolean logRetryCache)
       stat = FSDirConcatOp.concat(dir, target, srcs, logRetryCache);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("concat");
       if (success) {
         getEditLog().logSync();
       }
@@ -1909,12 +2007,134 @@ void setTimes(String src, long mtime, long atime) throws IOException {
       logAuditEvent(false, "setTimes", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setTimes");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setTimes", src, null, auditStat);
   }
 
+  /**
+   * Apply a batch of namespace mutations under a single acquisition of the
+   * write lock, with a single sync of the edit log.
+   * For description of parameters and exceptions thrown see
+   * {@link ClientProtocol#batch}
+   */
+  List<BatchedOperationResult> batch(List<BatchedOperation> ops, String user,
+      String clientName, String clientMachine) throws IOException {
+    if (ops.size() > maxBatchOperations) {
+      throw new IOException("The batch has " + ops.size()
+          + " operations, more than the maximum "
+          + DFSConfigKeys.DFS_NAMENODE_BATCH_MAX_OPERATIONS_KEY + "="
+          + maxBatchOperations);
+    }
+    final List<BatchedOperationResult> results =
+        new ArrayList<BatchedOperationResult>(ops.size());
+    final HdfsFileStatus[] auditStats = new HdfsFileStatus[ops.size()];
+    checkOperation(OperationCategory.WRITE);
+    waitForLoadingFSImage();
+    writeLock();
+    try {
+      checkOperation(OperationCategory.WRITE);
+      checkNameNodeSafeMode("Cannot apply a batch of " + ops.size()
+          + " operations");
+      for (int i = 0; i < ops.size(); i++) {
+        try {
+          auditStats[i] = applyBatchedOperation(ops.get(i), user, clientName,
+              clientMachine);
+          results.add(BatchedOperationResult.SUCCESS);
+        } catch (IOException e) {
+          results.add(new BatchedOperationResult(e));
+        }
+      }
+    } finally {
+      writeUnlock("batch");
+    }
+    getEditLog().logSync();
+    for (int i = 0; i < ops.size(); i++) {
+      final BatchedOperation op = ops.get(i);
+      final BatchedOperationResult result = results.get(i);
+      final String src = op.getPath().toUri().getPath();
+      if (result.isSuccess()) {
+        logAuditEvent(true, op.getType().getAuditCommand(), src, null,
+            auditStats[i]);
+      } else if (result.getException() instanceof AccessControlException) {
+        logAuditEvent(false, op.getType().getAuditCommand(), src);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Apply a single operation of a batch, the write lock being held.
+   * @return the status of the path for the audit log
+   */
+  private HdfsFileStatus applyBatchedOperation(BatchedOperation op,
+      String user, String clientName, String clientMachine)
+      throws IOException {
+    assert hasWriteLock();
+    final String src = op.getPath().toUri().getPath();
+    switch (op.getType()) {
+    case MKDIRS:
+      return FSDirMkdirOp.mkdirs(this, src,
+          new PermissionStatus(user, null, op.getPermission()),
+          op.getCreateParent());
+    case CREATE:
+      return createEmptyFile(src,
+          new PermissionStatus(user, null, op.getPermission()), clientName,
+          clientMachine, op.getCreateParent(), op.getReplication(),
+          op.getBlockSize());
+    case SET_PERMISSION:
+      return FSDirAttrOp.setPermission(dir, src, op.getPermission());
+    case SET_OWNER:
+      return FSDirAttrOp.setOwner(dir, src, op.getUsername(),
+          op.getGroupname());
+    case SET_TIMES:
+      return FSDirAttrOp.setTimes(dir, src, op.getMtime(), op.getAtime());
+    default:
+      throw new IOException("Unsupported batched operation " + op);
+    }
+  }
+
+  /**
+   * Create a file and close it right away, as a create followed by a
+   * complete with no block. The files of the encryption zones need a key
+   * generated out of the lock, they cannot be created this way.
+   */
+  private HdfsFileStatus createEmptyFile(String src,
+      PermissionStatus permissions, String holder, String clientMachine,
+      boolean createParent, short replication, long blockSize)
+      throws IOException {
+    assert hasWriteLock();
+    if (!DFSUtil.isValidName(src)) {
+      throw new InvalidPathException(src);
+    }
+    blockManager.verifyReplication(src, replication, clientMachine);
+    if (blockSize < minBlockSize) {
+      throw new IOException("Specified block size is less than configured" +
+          " minimum value (" + DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY
+          + "): " + blockSize + " < " + minBlockSize);
+    }
+    final FSPermissionChecker pc = getPermissionChecker();
+    final byte[][] pathComponents =
+        FSDirectory.getPathComponentsForReservedPath(src);
+    final INodesInPath iip;
+    dir.writeLock();
+    try {
+      src = dir.resolvePath(pc, src, pathComponents);
+      startFileInternal(pc, dir.getINodesInPath4Write(src), permissions,
+          holder, clientMachine, true, false, createParent, replication,
+          blockSize, false, null, null, null, false);
+      iip = dir.getINodesInPath4Write(src);
+    } finally {
+      dir.writeUnlock();
+    }
+    final long fileId = iip.getLastINode().getId();
+    if (!completeFileInternal(src, holder, null, fileId)) {
+      throw new IOException("Could not close the new file " + src);
+    }
+    return dir.getAuditFileInfo(iip);
+  }
+
   /**
    * Create a symbolic link.
    */
@@ -1937,7 +2157,7 @@ void createSymlink(String target, String link,
       logAuditEvent(false, "createSymlink", link, target, null);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("createSymlink");
     }
     getEditLog().logSync();
     logAuditEvent(true, "createSymlink", link, target, auditStat);
@@ -1970,7 +2190,7 @@ boolean setReplication(final String src, final short replication)
       logAuditEvent(false, "setReplication", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setReplication");
     }
     if (success) {
       getEditLog().logSync();
@@ -2029,7 +2249,7 @@ boolean truncateInt(String srcArg, long newLength,
           clientMachine, mtime, pc, toRemoveBlocks);
       stat = dir.getAuditFileInfo(dir.getINodesInPath4Write(src, false));
     } finally {
-      writeUnlock();
+      writeUnlock("truncate");
     }
     getEditLog().logSync();
     if (!toRemoveBlocks.getToDeleteList().isEmpty()) {
@@ -2135,10 +2355,13 @@ Block prepareFileForTruncate(INodesInPath iip,
     INodeFile file = iip.getLastINode().asFile();
     String src = iip.getPath();
     file.recordModification(iip.getLatestSnapshotId());
+    final ContentSummaryCache csCache = dir.getContentSummaryCache();
+    csCache.fileChanging(file, iip.getLatestSnapshotId());
     file.toUnderConstruction(leaseHolder, clientMachine);
+    csCache.fileChanged(file, iip.getLatestSnapshotId());
     assert file.isUnderConstruction() : "inode should be under construction.";
     leaseManager.addLease(
-        file.getFileUnderConstructionFeature().getClientName(), src);
+        file.getFileUnderConstructionFeature().getClientName(), file.getId());
     boolean shouldRecoverNow = (newBlock == null);
     BlockInfoContiguous oldBlock = file.getLastBlock();
     boolean shouldCopyOnTruncate = shouldCopyOnTruncate(file, oldBlock);
@@ -2221,7 +2444,7 @@ void setStoragePolicy(String src, String policyName) throws IOException {
       logAuditEvent(false, "setStoragePolicy", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setStoragePolicy");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setStoragePolicy", src, null, auditStat);
@@ -2242,7 +2465,7 @@ BlockStoragePolicy getStoragePolicy(String src) throws IOException {
       checkOperation(OperationCategory.READ);
       return FSDirAttrOp.getStoragePolicy(dir, blockManager, src);
     } finally {
-      readUnlock();
+      readUnlock("getStoragePolicy");
     }
   }
 
@@ -2263,7 +2486,7 @@ void unsetStoragePolicy(String src) throws IOException {
       logAuditEvent(false, "unsetStoragePolicy", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("unsetStoragePolicy");
     }
     getEditLog().logSync();
     logAuditEvent(true, "unsetStoragePolicy", src, null, auditStat);
@@ -2291,7 +2514,7 @@ long getPreferredBlockSize(String src) throws IOException {
       checkOperation(OperationCategory.READ);
       return FSDirAttrOp.getPreferredBlockSize(dir, src);
     } finally {
-      readUnlock();
+      readUnlock("getPreferredBlockSize");
     }
   }
 
@@ -2466,7 +2689,7 @@ private HdfsFileStatus startFileInt(final String srcArg,
           Preconditions.checkNotNull(ezKeyName);
         }
       } finally {
-        readUnlock();
+        readUnlock("create");
       }
 
       Preconditions.checkState(
@@ -2505,7 +2728,7 @@ private HdfsFileStatus startFileInt(final String srcArg,
       skipSync = true;
       throw se;
     } finally {
-      writeUnlock();
+      writeUnlock("create");
       // There might be transactions logged while trying to recover the lease.
       // They need to be sync'ed even when an exception was thrown.
       if (!skipSync) {
@@ -2592,12 +2815,14 @@ private BlocksMapUpdateInfo startFileInternal(FSPermissionChecker pc,
         if (overwrite) {
           toRemoveBlocks = new BlocksMapUpdateInfo();
           List<INode> toRemoveINodes = new ChunkedArrayList<INode>();
+          List<Long> toRemoveUCFiles = new ChunkedArrayList<Long>();
           long ret = FSDirDeleteOp.delete(dir, iip, toRemoveBlocks,
-                                          toRemoveINodes, now());
+                                          toRemoveINodes, toRemoveUCFiles,
+                                          now());
           if (ret >= 0) {
             iip = INodesInPath.replace(iip, iip.length() - 1, null);
             FSDirDeleteOp.incrDeletedFileCount(ret);
-            removeLeasesAndINodes(src, toRemoveINodes, true);
+            removeLeasesAndINodes(toRemoveUCFiles, toRemoveINodes, true);
           }
         } else {
           // If lease soft limit time is expired, recover the lease
@@ -2624,7 +2849,7 @@ private BlocksMapUpdateInfo startFileInternal(FSPermissionChecker pc,
         throw new IOException("Unable to add " + src +  " to namespace");
       }
       leaseManager.addLease(newNode.getFileUnderConstructionFeature()
-          .getClientName(), src);
+          .getClientName(), newNode.getId());
 
       // Set encryption attributes if necessary
       if (feInfo != null) {
@@ -2763,10 +2988,13 @@ LocatedBlock prepareFileForAppend(String src, INodesInPath iip,
     final QuotaCounts delta = verifyQuotaForUCBlock(file, iip);
 
     file.recordModification(iip.getLatestSnapshotId());
+    final ContentSummaryCache csCache = dir.getContentSummaryCache();
+    csCache.fileChanging(file, iip.getLatestSnapshotId());
     file.toUnderConstruction(leaseHolder, clientMachine);
+    csCache.fileChanged(file, iip.getLatestSnapshotId());
 
     leaseManager.addLease(
-        file.getFileUnderConstructionFeature().getClientName(), src);
+        file.getFileUnderConstructionFeature().getClientName(), file.getId());
 
     LocatedBlock ret = null;
     if (!newBlock) {
@@ -2888,7 +3116,7 @@ boolean recoverLease(String src, String holder, String clientMachine)
       skipSync = true;
       throw se;
     } finally {
-      writeUnlock();
+      writeUnlock("recoverLease");
       // There might be transactions logged while trying to recover the lease.
       // They need to be sync'ed even when an exception was thrown.
       if (!skipSync) {
@@ -2923,7 +3151,7 @@ boolean recoverLeaseInternal(RecoverLeaseOp op, INodesInPath iip,
       Lease lease = leaseManager.getLease(holder);
 
       if (!force && lease != null) {
-        Lease leaseFile = leaseManager.getLeaseByPath(src);
+        Lease leaseFile = leaseManager.getLease(file);
         if (leaseFile != null && leaseFile.equals(lease)) {
           // We found the lease for this file but the original
           // holder is trying to obtain it again.
@@ -3038,7 +3266,7 @@ private LastBlockWithStatus appendFileInt(final String srcArg, String holder,
       skipSync = true;
       throw se;
     } finally {
-      writeUnlock();
+      writeUnlock("append");
       // There might be transactions logged while trying to recover the lease.
       // They need to be sync'ed even when an exception was thrown.
       if (!skipSync) {
@@ -3147,7 +3375,7 @@ DatanodeStorageInfo[] getNewBlockTargets(String src, long fileId,
       replication = pendingFile.getFileReplication();
       storagePolicyID = pendingFile.getStoragePolicyID();
     } finally {
-      readUnlock();
+      readUnlock("addBlock");
     }
 
     if (clientNode == null) {
@@ -3210,7 +3438,7 @@ LocatedBlock storeAllocatedBlock(String src, long fileId, String clientName,
       persistNewBlock(src, pendingFile);
       offset = pendingFile.computeFileSize();
     } finally {
-      writeUnlock();
+      writeUnlock("addBlock");
     }
     getEditLog().logSync();
 
@@ -3405,7 +3633,7 @@ LocatedBlock getAdditionalDatanode(String src, long fileId,
           "src=%s, fileId=%d, blk=%s, clientName=%s, clientMachine=%s",
           src, fileId, blk, clientName, clientMachine));
     } finally {
-      readUnlock();
+      readUnlock("getAdditionalDatanode");
     }
 
     if (clientnode == null) {
@@ -3465,7 +3693,7 @@ boolean abandonBlock(ExtendedBlock b, long fileId, String src, String holder)
           "removed from pendingCreates", b);
       persistBlocks(src, file, false);
     } finally {
-      writeUnlock();
+      writeUnlock("abandonBlock");
     }
     getEditLog().logSync();
 
@@ -3538,7 +3766,7 @@ boolean completeFile(final String srcArg, String holder,
       success = completeFileInternal(src, holder,
         ExtendedBlock.getLocalBlock(last), fileId);
     } finally {
-      writeUnlock();
+      writeUnlock("completeFile");
     }
     getEditLog().logSync();
     if (success) {
@@ -3730,7 +3958,7 @@ boolean renameTo(String src, String dst, boolean logRetryCache)
       logAuditEvent(false, "rename", src, dst, null);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("rename");
     }
     boolean success = ret != null && ret.success;
     if (success) {
@@ -3756,7 +3984,7 @@ void renameTo(final String src, final String dst,
           ")", src, dst, null);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("rename");
     }
 
     getEditLog().logSync();
@@ -3782,23 +4010,26 @@ boolean delete(String src, boolean recursive, boolean logRetryCache)
       throws IOException {
     waitForLoadingFSImage();
     BlocksMapUpdateInfo toRemovedBlocks = null;
+    List<INode> toRemovedINodes = new ChunkedArrayList<INode>();
     writeLock();
     boolean ret = false;
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot delete " + src);
       toRemovedBlocks = FSDirDeleteOp.delete(
-          this, src, recursive, logRetryCache);
+          this, src, recursive, logRetryCache, toRemovedINodes);
       ret = toRemovedBlocks != null;
     } catch (AccessControlException e) {
       logAuditEvent(false, "delete", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("delete");
     }
     getEditLog().logSync();
     if (toRemovedBlocks != null) {
-      removeBlocks(toRemovedBlocks); // Incremental deletion of blocks
+      // the subtree is unlinked, reclaim it incrementally
+      removeINodes(toRemovedINodes);
+      removeBlocks(toRemovedBlocks);
     }
     logAuditEvent(true, "delete", src);
     return ret;
@@ -3811,7 +4042,7 @@ FSPermissionChecker getPermissionChecker()
 
   /**
    * From the given list, incrementally remove the blocks from blockManager
-   * Writelock is dropped and reacquired every BLOCK_DELETION_INCREMENT to
+   * Writelock is dropped and reacquired every blockDeletionIncrement to
    * ensure that other waiters on the lock can get in. See HDFS-2938
    * 
    * @param blocks
@@ -3821,29 +4052,85 @@ FSPermissionChecker getPermissionChecker()
   void removeBlocks(BlocksMapUpdateInfo blocks) {
     List<Block> toDeleteList = blocks.getToDeleteList();
     Iterator<Block> iter = toDeleteList.iterator();
-    while (iter.hasNext()) {
-      writeLock();
-      try {
-        for (int i = 0; i < BLOCK_DELETION_INCREMENT && iter.hasNext(); i++) {
-          blockManager.removeBlock(iter.next());
+    long remaining = toDeleteList.size();
+    pendingReclaimBlocks.addAndGet(remaining);
+    try {
+      while (iter.hasNext()) {
+        int removed = 0;
+        writeLock();
+        try {
+          for (; removed < blockDeletionIncrement && iter.hasNext();
+               removed++) {
+            blockManager.removeBlock(iter.next());
+          }
+        } finally {
+          writeUnlock("delete");
         }
-      } finally {
-        writeUnlock();
+        remaining -= removed;
+        pendingReclaimBlocks.addAndGet(-removed);
+      }
+    } finally {
+      pendingReclaimBlocks.addAndGet(-remaining);
+    }
+  }
+
+  /**
+   * From the given list, incrementally remove the inodes of a deleted
+   * subtree from the inodeMap, dropping and reacquiring the write lock every
+   * blockDeletionIncrement inodes like {@link #removeBlocks}. The inodes
+   * must already be unlinked from the namespace, so the only way to reach
+   * them meanwhile is by inode id, and {@link #isFileDeleted} treats them as
+   * deleted. The checkpoint lock is held throughout so that the namespace is
+   * not saved with a partially reclaimed inodeMap. The leases of the removed
+   * files must already be released with {@link #removeLeases}.
+   *
+   * @param removedINodes inodes to remove from the inodeMap
+   */
+  void removeINodes(List<INode> removedINodes) {
+    Iterator<INode> iter = removedINodes.iterator();
+    long remaining = removedINodes.size();
+    pendingReclaimINodes.addAndGet(remaining);
+    List<INode> batch = new ArrayList<INode>(
+        (int) Math.min(remaining, blockDeletionIncrement));
+    cpLock();
+    try {
+      while (iter.hasNext()) {
+        for (int i = 0; i < blockDeletionIncrement && iter.hasNext(); i++) {
+          batch.add(iter.next());
+        }
+        writeLock();
+        try {
+          dir.writeLock();
+          try {
+            dir.removeFromInodeMap(batch);
+          } finally {
+            dir.writeUnlock();
+          }
+        } finally {
+          writeUnlock("delete");
+        }
+        remaining -= batch.size();
+        pendingReclaimINodes.addAndGet(-batch.size());
+        batch.clear();
       }
+      removedINodes.clear();
+    } finally {
+      cpUnlock();
+      pendingReclaimINodes.addAndGet(-remaining);
     }
   }
   
   /**
-   * Remove leases and inodes related to a given path
-   * @param src The given path
+   * Remove the leases of the removed files, and the removed inodes
+   * @param removedUCFiles ids of the removed files under construction
    * @param removedINodes Containing the list of inodes to be removed from
    *                      inodesMap
    * @param acquireINodeMapLock Whether to acquire the lock for inode removal
    */
-  void removeLeasesAndINodes(String src, List<INode> removedINodes,
-      final boolean acquireINodeMapLock) {
+  void removeLeasesAndINodes(List<Long> removedUCFiles,
+      List<INode> removedINodes, final boolean acquireINodeMapLock) {
     assert hasWriteLock();
-    leaseManager.removeLeaseWithPrefixPath(src);
+    removeLeases(removedUCFiles);
     // remove inodes from inodesMap
     if (removedINodes != null) {
       if (acquireINodeMapLock) {
@@ -3860,6 +4147,17 @@ void removeLeasesAndINodes(String src, List<INode> removedINodes,
     }
   }
 
+  /**
+   * Release the leases of the open files unlinked from the namespace.
+   * @param removedUCFiles ids of the removed files under construction
+   */
+  void removeLeases(List<Long> removedUCFiles) {
+    assert hasWriteLock();
+    for (long id : removedUCFiles) {
+      leaseManager.removeLease(id);
+    }
+  }
+
   /**
    * Removes the blocks from blocksmap and updates the safemode blocks total
    * 
@@ -3935,7 +4233,7 @@ HdfsFileStatus getFileInfo(final String src, boolean resolveLink)
       logAuditEvent(false, "getfileinfo", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("getfileinfo");
     }
     logAuditEvent(true, "getfileinfo", src);
     return stat;
@@ -3954,7 +4252,7 @@ boolean isFileClosed(final String src) throws IOException {
       logAuditEvent(false, "isFileClosed", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("isFileClosed");
     }
   }
 
@@ -3974,7 +4272,7 @@ boolean mkdirs(String src, PermissionStatus permissions,
       logAuditEvent(false, "mkdirs", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("mkdirs");
     }
     getEditLog().logSync();
     logAuditEvent(true, "mkdirs", src, null, auditStat);
@@ -4006,7 +4304,7 @@ ContentSummary getContentSummary(final String src) throws IOException {
       success = false;
       throw ace;
     } finally {
-      readUnlock();
+      readUnlock("contentSummary");
       logAuditEvent(success, "contentSummary", src);
     }
   }
@@ -4032,7 +4330,7 @@ void setQuota(String src, long nsQuota, long ssQuota, StorageType type)
       FSDirAttrOp.setQuota(dir, src, nsQuota, ssQuota, type);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("setQuota");
       if (success) {
         getEditLog().logSync();
       }
@@ -4079,7 +4377,7 @@ void fsync(String src, long fileId, String clientName, long lastBlockLength)
       }
       persistBlocks(src, pendingFile, false);
     } finally {
-      writeUnlock();
+      writeUnlock("fsync");
     }
     getEditLog().logSync();
   }
@@ -4238,14 +4536,14 @@ private Lease reassignLease(Lease lease, String src, String newHolder,
       return lease;
     // The following transaction is not synced. Make sure it's sync'ed later.
     logReassignLease(lease.getHolder(), src, newHolder);
-    return reassignLeaseInternal(lease, src, newHolder, pendingFile);
+    return reassignLeaseInternal(lease, newHolder, pendingFile);
   }
   
-  Lease reassignLeaseInternal(Lease lease, String src, String newHolder,
+  Lease reassignLeaseInternal(Lease lease, String newHolder,
       INodeFile pendingFile) {
     assert hasWriteLock();
     pendingFile.getFileUnderConstructionFeature().setClientName(newHolder);
-    return leaseManager.reassignLease(lease, src, newHolder);
+    return leaseManager.reassignLease(lease, pendingFile, newHolder);
   }
 
   private void commitOrCompleteLastBlock(final INodeFile fileINode,
@@ -4276,14 +4574,17 @@ private void finalizeINodeFileUnderConstruction(String src,
       throw new IOException("Cannot finalize file " + src
           + " because it is not under construction");
     }
-    leaseManager.removeLease(uc.getClientName(), src);
+    leaseManager.removeLease(uc.getClientName(), pendingFile);
     
     pendingFile.recordModification(latestSnapshot);
 
     // The file is no longer pending.
     // Create permanent INode, update blocks. No need to replace the inode here
     // since we just remove the uc feature from pendingFile
+    final ContentSummaryCache csCache = dir.getContentSummaryCache();
+    csCache.fileChanging(pendingFile, latestSnapshot);
     pendingFile.toCompleteFile(now());
+    csCache.fileChanged(pendingFile, latestSnapshot);
 
     waitForLoadingFSImage();
     // close file and persist block allocations for this file
@@ -4494,7 +4795,7 @@ void commitBlockSynchronization(ExtendedBlock oldBlock,
         persistBlocks(src, iFile, false);
       }
     } finally {
-      writeUnlock();
+      writeUnlock("commitBlockSynchronization");
     }
     getEditLog().logSync();
     if (closeFile) {
@@ -4538,7 +4839,7 @@ void renewLease(String holder) throws IOException {
       checkNameNodeSafeMode("Cannot renew lease for " + holder);
       leaseManager.renewLease(holder);
     } finally {
-      readUnlock();
+      readUnlock("renewLease");
     }
   }
 
@@ -4568,12 +4869,45 @@ DirectoryListing getListing(String src, byte[] startAfter,
       logAuditEvent(false, "listStatus", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("listStatus");
     }
+    OperationCost.addListing(dl);
     logAuditEvent(true, "listStatus", src);
     return dl;
   }
 
+  /**
+   * Get a partial recursive listing of the indicated directory
+   *
+   * @param src the directory name
+   * @param startAfter the relative path to start after
+   * @param needLocation if blockLocations need to be returned
+   * @return a partial listing of the subtree starting after startAfter
+   *
+   * @throws AccessControlException if access is denied
+   * @throws UnresolvedLinkException if symbolic link is encountered
+   * @throws IOException if other I/O error occurred
+   */
+  DirectoryListing getListingRecursive(String src, byte[] startAfter,
+      boolean needLocation) throws IOException {
+    checkOperation(OperationCategory.READ);
+    DirectoryListing dl = null;
+    readLock();
+    try {
+      checkOperation(NameNode.OperationCategory.READ);
+      dl = FSDirStatAndListingOp.getListingRecursiveInt(dir, src, startAfter,
+          needLocation);
+    } catch (AccessControlException e) {
+      logAuditEvent(false, "listStatusRecursive", src);
+      throw e;
+    } finally {
+      readUnlock("listStatusRecursive");
+    }
+    OperationCost.addListing(dl);
+    logAuditEvent(true, "listStatusRecursive", src);
+    return dl;
+  }
+
   /////////////////////////////////////////////////////////
   //
   // These methods are called by datanodes
@@ -4608,7 +4942,7 @@ void registerDatanode(DatanodeRegistration nodeReg) throws IOException {
       getBlockManager().getDatanodeManager().registerDatanode(nodeReg);
       checkSafeMode();
     } finally {
-      writeUnlock();
+      writeUnlock("registerDatanode");
     }
   }
   
@@ -4658,7 +4992,7 @@ HeartbeatResponse handleHeartbeat(DatanodeRegistration nodeReg,
       return new HeartbeatResponse(cmds, haState, rollingUpgradeInfo,
           blockReportLeaseId);
     } finally {
-      readUnlock();
+      readUnlock("handleHeartbeat");
     }
   }
 
@@ -5091,7 +5425,7 @@ DatanodeInfo[] datanodeReport(final DatanodeReportType type
       }
       return arr;
     } finally {
-      readUnlock();
+      readUnlock("datanodeReport");
     }
   }
 
@@ -5113,7 +5447,7 @@ DatanodeStorageReport[] getDatanodeStorageReport(final DatanodeReportType type
       }
       return reports;
     } finally {
-      readUnlock();
+      readUnlock("getDatanodeStorageReport");
     }
   }
 
@@ -5140,7 +5474,7 @@ void saveNamespace() throws AccessControlException, IOException {
       }
       getFSImage().saveNamespace(this);
     } finally {
-      readUnlock();
+      readUnlock("saveNamespace");
       cpUnlock();
     }
     LOG.info("New namespace image has been created");
@@ -6036,7 +6370,7 @@ CheckpointSignature rollEditLog() throws IOException {
       }
       return getFSImage().rollEditLog(getEffectiveLayoutVersion());
     } finally {
-      writeUnlock();
+      writeUnlock("rollEditLog");
     }
   }
 
@@ -6065,7 +6399,7 @@ public void processIncrementalBlockReport(final DatanodeID nodeID,
     try {
       blockManager.processIncrementalBlockReport(nodeID, srdb);
     } finally {
-      writeUnlock();
+      writeUnlock("processIncrementalBlockReport");
     }
   }
   
@@ -6169,6 +6503,18 @@ public long getPendingDeletionBlocks() {
     return blockManager.getPendingDeletionBlocksCount();
   }
 
+  @Metric({"PendingReclaimINodes",
+      "Inodes of deleted subtrees not yet removed from the inode map"})
+  public long getPendingReclaimINodes() {
+    return pendingReclaimINodes.get();
+  }
+
+  @Metric({"PendingReclaimBlocks",
+      "Blocks of deleted files not yet removed from the blocks map"})
+  public long getPendingReclaimBlocks() {
+    return pendingReclaimBlocks.get();
+  }
+
   @Override
   public long getBlockDeletionStartTime() {
     return startTime + blockManager.getStartupDelayBlockDeletionInMs();
@@ -6339,6 +6685,24 @@ public int getNumStaleStorages() {
     return getBlockManager().getDatanodeManager().getNumStaleStorages();
   }
 
+  @Override // FSNamesystemMBean
+  public String getTopUserOpCosts() {
+    if (!topConf.isEnabled || !topMetrics.isCostsEnabled()) {
+      return null;
+    }
+
+    Date now = new Date();
+    Map<String, Object> topMap = new TreeMap<String, Object>();
+    topMap.put("costs", topMetrics.getTopCostWindows());
+    topMap.put("timestamp", DFSUtil.dateToIso8601String(now));
+    try {
+      return JsonUtil.toJsonString(topMap);
+    } catch (IOException e) {
+      LOG.warn("Failed to fetch TopUser cost metrics", e);
+    }
+    return null;
+  }
+
   @Override // FSNamesystemMBean
   public String getTopUserOpCounts() {
     if (!topConf.isEnabled) {
@@ -6390,7 +6754,7 @@ private long nextBlockId() throws IOException {
     return blockId;
   }
 
-  private boolean isFileDeleted(INodeFile file) {
+  boolean isFileDeleted(INodeFile file) {
     // Not in the inodeMap or in the snapshot but marked deleted.
     if (dir.getInode(file.getId()) == null) {
       return true;
@@ -6480,7 +6844,7 @@ void reportBadBlocks(LocatedBlock[] blocks) throws IOException {
         }
       }
     } finally {
-      writeUnlock();
+      writeUnlock("reportBadBlocks");
     }
   }
 
@@ -6512,7 +6876,7 @@ LocatedBlock updateBlockForPipeline(ExtendedBlock block,
       locatedBlock = new LocatedBlock(block, new DatanodeInfo[0]);
       blockManager.setBlockToken(locatedBlock, AccessMode.WRITE);
     } finally {
-      writeUnlock();
+      writeUnlock("updateBlockForPipeline");
     }
     // Ensure we record the new generation stamp
     getEditLog().logSync();
@@ -6548,7 +6912,7 @@ void updatePipeline(
       updatePipelineInternal(clientName, oldBlock, newBlock, newNodes,
           newStorageIDs, logRetryCache);
     } finally {
-      writeUnlock();
+      writeUnlock("updatePipeline");
     }
     getEditLog().logSync();
     LOG.info("updatePipeline(" + oldBlock.getLocalBlock() + " => "
@@ -6590,13 +6954,6 @@ private void updatePipelineInternal(String clientName, ExtendedBlock oldBlock,
     persistBlocks(src, pendingFile, logRetryCache);
   }
 
-  // rename was successful. If any part of the renamed subtree had
-  // files that were being written to, update with new filename.
-  void unprotectedChangeLease(String src, String dst) {
-    assert hasWriteLock();
-    leaseManager.changeLease(src, dst);
-  }
-
   /**
    * Serializes leases.
    */
@@ -6776,7 +7133,7 @@ Collection<CorruptFileBlockInfo> listCorruptFileBlocks(String path,
       }
       return corruptFiles;
     } finally {
-      readUnlock();
+      readUnlock("listCorruptFileBlocks");
     }
   }
 
@@ -7434,6 +7791,53 @@ public Map<String, Integer> getDistinctVersions() {
     return blockManager.getDatanodeManager().getDatanodesSoftwareVersions();
   }
 
+  @Override  // NameNodeMXBean
+  public String getTopLockHolders() {
+    List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+    for (FSNamesystemLock.LockHoldStats stats :
+        fsLock.getTopLockHolders(TOP_LOCK_HOLDERS)) {
+      list.add(stats.toMap());
+    }
+    return JSON.toString(list);
+  }
+
+  @Override  // NameNodeMXBean
+  public String getInternedFeatures() {
+    final Map<String, Object> features = new TreeMap<String, Object>();
+    long references = 0, heapBytes = 0, savedHeapBytes = 0;
+    final List<AclFeature> acls =
+        AclStorage.getUniqueAclFeatures().getEntries();
+    for (AclFeature f : acls) {
+      references += f.getRefCount();
+      heapBytes += f.getHeapSize();
+      savedHeapBytes += Math.max(f.getRefCount() - 1, 0) * f.getHeapSize();
+    }
+    features.put(AclFeature.class.getSimpleName(), getInternedFeatureStats(
+        acls.size(), references, heapBytes, savedHeapBytes));
+
+    references = heapBytes = savedHeapBytes = 0;
+    final List<XAttrFeature> xAttrs =
+        XAttrStorage.getUniqueXAttrFeatures().getEntries();
+    for (XAttrFeature f : xAttrs) {
+      references += f.getRefCount();
+      heapBytes += f.getHeapSize();
+      savedHeapBytes += Math.max(f.getRefCount() - 1, 0) * f.getHeapSize();
+    }
+    features.put(XAttrFeature.class.getSimpleName(), getInternedFeatureStats(
+        xAttrs.size(), references, heapBytes, savedHeapBytes));
+    return JSON.toString(features);
+  }
+
+  private static Map<String, Long> getInternedFeatureStats(long unique,
+      long references, long heapBytes, long savedHeapBytes) {
+    final Map<String, Long> stats = new LinkedHashMap<String, Long>();
+    stats.put("unique", unique);
+    stats.put("references", references);
+    stats.put("heapBytes", heapBytes);
+    stats.put("savedHeapBytes", savedHeapBytes);
+    return stats;
+  }
+
   @Override  //NameNodeMXBean
   public String getSoftwareVersion() {
     return VersionInfo.getVersion();
@@ -7512,7 +7916,7 @@ void allowSnapshot(String path) throws IOException {
       FSDirSnapshotOp.allowSnapshot(dir, snapshotManager, path);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("allowSnapshot");
     }
     getEditLog().logSync();
     logAuditEvent(success, "allowSnapshot", path, null, null);
@@ -7530,7 +7934,7 @@ void disallowSnapshot(String path) throws IOException {
       FSDirSnapshotOp.disallowSnapshot(dir, snapshotManager, path);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("disallowSnapshot");
     }
     getEditLog().logSync();
     logAuditEvent(success, "disallowSnapshot", path, null, null);
@@ -7551,7 +7955,7 @@ String createSnapshot(String snapshotRoot, String snapshotName,
       snapshotPath = FSDirSnapshotOp.createSnapshot(dir,
           snapshotManager, snapshotRoot, snapshotName, logRetryCache);
     } finally {
-      writeUnlock();
+      writeUnlock("createSnapshot");
     }
     getEditLog().logSync();
     logAuditEvent(snapshotPath != null, "createSnapshot", snapshotRoot,
@@ -7579,7 +7983,7 @@ void renameSnapshot(
           snapshotOldName, snapshotNewName, logRetryCache);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("renameSnapshot");
     }
     getEditLog().logSync();
     String oldSnapshotRoot = Snapshot.getSnapshotPath(path, snapshotOldName);
@@ -7606,7 +8010,7 @@ public SnapshottableDirectoryStatus[] getSnapshottableDirListing()
       status = FSDirSnapshotOp.getSnapshottableDirListing(dir, snapshotManager);
       success = true;
     } finally {
-      readUnlock();
+      readUnlock("listSnapshottableDirectory");
     }
     logAuditEvent(success, "listSnapshottableDirectory", null, null, null);
     return status;
@@ -7637,7 +8041,7 @@ SnapshotDiffReport getSnapshotDiffReport(String path,
       diffs = FSDirSnapshotOp.getSnapshotDiffReport(dir, snapshotManager,
           path, fromSnapshot, toSnapshot);
     } finally {
-      readUnlock();
+      readUnlock("computeSnapshotDiff");
     }
 
     logAuditEvent(diffs != null, "computeSnapshotDiff", null, null, null);
@@ -7664,7 +8068,7 @@ void deleteSnapshot(String snapshotRoot, String snapshotName,
           snapshotRoot, snapshotName, logRetryCache);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("deleteSnapshot");
     }
     getEditLog().logSync();
 
@@ -7954,7 +8358,7 @@ long addCacheDirective(CacheDirectiveInfo directive,
       effectiveDirective = FSNDNCacheOp.addCacheDirective(this, cacheManager,
           directive, flags, logRetryCache);
     } finally {
-      writeUnlock();
+      writeUnlock("addCacheDirective");
       boolean success = effectiveDirective != null;
       if (success) {
         getEditLog().logSync();
@@ -7985,7 +8389,7 @@ void modifyCacheDirective(CacheDirectiveInfo directive,
           logRetryCache);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("modifyCacheDirective");
       if (success) {
         getEditLog().logSync();
       }
@@ -8007,7 +8411,7 @@ void removeCacheDirective(long id, boolean logRetryCache) throws IOException {
       FSNDNCacheOp.removeCacheDirective(this, cacheManager, id, logRetryCache);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("removeCacheDirective");
       String idStr = "{id: " + Long.toString(id) + "}";
       logAuditEvent(success, "removeCacheDirective", idStr, null,
           null);
@@ -8028,7 +8432,7 @@ BatchedListEntries<CacheDirectiveEntry> listCacheDirectives(
           filter);
       success = true;
     } finally {
-      readUnlock();
+      readUnlock("listCacheDirectives");
       logAuditEvent(success, "listCacheDirectives", filter.toString(), null,
           null);
     }
@@ -8051,7 +8455,7 @@ void addCachePool(CachePoolInfo req, boolean logRetryCache)
       poolInfoStr = info.toString();
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("addCachePool");
       logAuditEvent(success, "addCachePool", poolInfoStr, null, null);
     }
     
@@ -8071,7 +8475,7 @@ void modifyCachePool(CachePoolInfo req, boolean logRetryCache)
       FSNDNCacheOp.modifyCachePool(this, cacheManager, req, logRetryCache);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("modifyCachePool");
       String poolNameStr = "{poolName: " +
           (req == null ? null : req.getPoolName()) + "}";
       logAuditEvent(success, "modifyCachePool", poolNameStr,
@@ -8095,7 +8499,7 @@ void removeCachePool(String cachePoolName, boolean logRetryCache)
           logRetryCache);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("removeCachePool");
       String poolNameStr = "{poolName: " + cachePoolName + "}";
       logAuditEvent(success, "removeCachePool", poolNameStr, null, null);
     }
@@ -8115,7 +8519,7 @@ BatchedListEntries<CachePoolEntry> listCachePools(String prevKey)
       results = FSNDNCacheOp.listCachePools(this, cacheManager, prevKey);
       success = true;
     } finally {
-      readUnlock();
+      readUnlock("listCachePools");
       logAuditEvent(success, "listCachePools", null, null, null);
     }
     return results;
@@ -8134,7 +8538,7 @@ void modifyAclEntries(final String src, List<AclEntry> aclSpec)
       logAuditEvent(false, "modifyAclEntries", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("modifyAclEntries");
     }
     getEditLog().logSync();
     logAuditEvent(true, "modifyAclEntries", src, null, auditStat);
@@ -8153,7 +8557,7 @@ void removeAclEntries(final String src, List<AclEntry> aclSpec)
       logAuditEvent(false, "removeAclEntries", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("removeAclEntries");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeAclEntries", src, null, auditStat);
@@ -8171,7 +8575,7 @@ void removeDefaultAcl(final String src) throws IOException {
       logAuditEvent(false, "removeDefaultAcl", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("removeDefaultAcl");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeDefaultAcl", src, null, auditStat);
@@ -8189,7 +8593,7 @@ void removeAcl(final String src) throws IOException {
       logAuditEvent(false, "removeAcl", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("removeAcl");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeAcl", src, null, auditStat);
@@ -8207,7 +8611,7 @@ void setAcl(final String src, List<AclEntry> aclSpec) throws IOException {
       logAuditEvent(false, "setAcl", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setAcl");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setAcl", src, null, auditStat);
@@ -8223,7 +8627,7 @@ AclStatus getAclStatus(String src) throws IOException {
       success = true;
       return ret;
     } finally {
-      readUnlock();
+      readUnlock("getAclStatus");
       logAuditEvent(success, "getAclStatus", src);
     }
   }
@@ -8302,7 +8706,7 @@ private void createEncryptionZoneInt(final String srcArg, String cipher,
       final INodesInPath iip = dir.getINodesInPath4Write(src, false);
       resultingStat = dir.getAuditFileInfo(iip);
     } finally {
-      writeUnlock();
+      writeUnlock("createEncryptionZone");
     }
     getEditLog().logSync();
     logAuditEvent(true, "createEncryptionZone", srcArg, null, resultingStat);
@@ -8338,7 +8742,7 @@ EncryptionZone getEZForPath(final String srcArg)
       success = true;
       return ret;
     } finally {
-      readUnlock();
+      readUnlock("getEZForPath");
       logAuditEvent(success, "getEZForPath", srcArg, null, resultingStat);
     }
   }
@@ -8357,7 +8761,7 @@ BatchedListEntries<EncryptionZone> listEncryptionZones(long prevId)
       success = true;
       return ret;
     } finally {
-      readUnlock();
+      readUnlock("listEncryptionZones");
       logAuditEvent(success, "listEncryptionZones", null);
     }
   }
@@ -8375,7 +8779,7 @@ void setXAttr(String src, XAttr xAttr, EnumSet<XAttrSetFlag> flag,
       logAuditEvent(false, "setXAttr", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setXAttr");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setXAttr", src, null, auditStat);
@@ -8392,7 +8796,7 @@ List<XAttr> getXAttrs(final String src, List<XAttr> xAttrs)
       logAuditEvent(false, "getXAttrs", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("getXAttrs");
     }
   }
 
@@ -8406,7 +8810,7 @@ List<XAttr> listXAttrs(String src) throws IOException {
       logAuditEvent(false, "listXAttrs", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("listXAttrs");
     }
   }
 
@@ -8422,7 +8826,7 @@ void removeXAttr(String src, XAttr xAttr, boolean logRetryCache)
       logAuditEvent(false, "removeXAttr", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("removeXAttr");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeXAttr", src, null, auditStat);
@@ -8448,7 +8852,7 @@ void checkAccess(String src, FsAction mode) throws IOException {
       logAuditEvent(false, "checkAccess", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("checkAccess");
     }
   }
 
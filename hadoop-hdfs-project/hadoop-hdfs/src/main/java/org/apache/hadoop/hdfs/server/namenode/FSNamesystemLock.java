@@ -19,22 +19,107 @@
 
 package org.apache.hadoop.hdfs.server.namenode;
 
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LOCK_SUPPRESS_WARNING_INTERVAL_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LOCK_SUPPRESS_WARNING_INTERVAL_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_KEY;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import org.apache.hadoop.hdfs.server.namenode.top.OperationCost;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Timer;
+
 import com.google.common.annotations.VisibleForTesting;
 
 /**
  * Mimics a ReentrantReadWriteLock so more sophisticated locking capabilities
  * are possible.
+ *
+ * Acquisitions made through {@link #acquireReadLock()} and
+ * {@link #acquireWriteLock()} are instrumented: the time the outermost hold
+ * lasted is accumulated per operation name, published as NameNode metrics,
+ * and holds longer than a configurable threshold are logged together with
+ * the stack of the holder.
  */
 class FSNamesystemLock implements ReadWriteLock {
+  /** Operation name used when the lock holder does not report one. */
+  static final String OP_NAME_OTHER = "OTHER";
+
   @VisibleForTesting
   protected ReentrantReadWriteLock coarseLock;
-  
+
+  private final Timer timer;
+  private final long writeLockReportingThresholdMs;
+  private final long readLockReportingThresholdMs;
+  private final long lockSuppressWarningIntervalMs;
+
+  /** Time the current holder acquired the write lock. Guarded by it. */
+  private long writeLockHeldTimeStampNanos;
+  /** Last time a long write lock hold was logged. Guarded by the lock. */
+  private long lastWriteLockReportMs;
+  private int numWriteLockWarningsSuppressed;
+
+  /** Time the current thread acquired its outermost read lock. */
+  private final ThreadLocal<Long> readLockHeldTimeStampNanos =
+      new ThreadLocal<Long>();
+  private final AtomicLong lastReadLockReportMs = new AtomicLong();
+  private final AtomicInteger numReadLockWarningsSuppressed =
+      new AtomicInteger();
+
+  /** Cumulative hold statistics by operation name. */
+  private final ConcurrentMap<String, LockHoldStats> writeHoldStats =
+      new ConcurrentHashMap<String, LockHoldStats>();
+  private final ConcurrentMap<String, LockHoldStats> readHoldStats =
+      new ConcurrentHashMap<String, LockHoldStats>();
+
   FSNamesystemLock(boolean fair) {
+    this(fair, new Configuration(false), new Timer());
+  }
+
+  FSNamesystemLock(Configuration conf) {
+    this(conf, new Timer());
+  }
+
+  @VisibleForTesting
+  FSNamesystemLock(Configuration conf, Timer timer) {
+    this(conf.getBoolean("dfs.namenode.fslock.fair", true), conf, timer);
+  }
+
+  /**
+   * @param fair whether the lock should use a fair ordering policy
+   * @param conf configuration for the lock hold reporting thresholds
+   * @param timer clock used to measure lock hold times
+   */
+  private FSNamesystemLock(boolean fair, Configuration conf, Timer timer) {
+    this.timer = timer;
+    this.writeLockReportingThresholdMs = conf.getLong(
+        DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_KEY,
+        DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_DEFAULT);
+    this.readLockReportingThresholdMs = conf.getLong(
+        DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_KEY,
+        DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_DEFAULT);
+    this.lockSuppressWarningIntervalMs = conf.getTimeDuration(
+        DFS_NAMENODE_LOCK_SUPPRESS_WARNING_INTERVAL_KEY,
+        DFS_NAMENODE_LOCK_SUPPRESS_WARNING_INTERVAL_DEFAULT,
+        TimeUnit.MILLISECONDS);
     this.coarseLock = new ReentrantReadWriteLock(fair);
   }
   
@@ -48,6 +133,143 @@ public Lock writeLock() {
     return coarseLock.writeLock();
   }
 
+  /**
+   * Acquire the read lock, starting the hold-time measurement if this is
+   * the outermost read hold of the current thread.
+   */
+  public void acquireReadLock() {
+    coarseLock.readLock().lock();
+    if (coarseLock.getReadHoldCount() == 1) {
+      readLockHeldTimeStampNanos.set(timer.monotonicNowNanos());
+    }
+  }
+
+  /**
+   * Release the read lock, attributing the hold time of the outermost hold
+   * to the given operation.
+   */
+  public void releaseReadLock(String opName) {
+    final boolean needReport = coarseLock.getReadHoldCount() == 1;
+    final Long start = needReport ? readLockHeldTimeStampNanos.get() : null;
+    coarseLock.readLock().unlock();
+    if (start == null) {
+      return;
+    }
+    readLockHeldTimeStampNanos.remove();
+    final long heldNanos = timer.monotonicNowNanos() - start;
+    addHoldTime(readHoldStats, opName, false, heldNanos);
+    if (TimeUnit.NANOSECONDS.toMillis(heldNanos)
+        >= readLockReportingThresholdMs) {
+      final long now = timer.monotonicNow();
+      final long lastReport = lastReadLockReportMs.get();
+      if (now - lastReport >= lockSuppressWarningIntervalMs
+          && lastReadLockReportMs.compareAndSet(lastReport, now)) {
+        logLongHold("read", opName, heldNanos,
+            numReadLockWarningsSuppressed.getAndSet(0),
+            StringUtils.getStackTrace(Thread.currentThread()));
+      } else {
+        numReadLockWarningsSuppressed.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Acquire the write lock, starting the hold-time measurement if this is
+   * the outermost write hold.
+   */
+  public void acquireWriteLock() {
+    coarseLock.writeLock().lock();
+    if (coarseLock.getWriteHoldCount() == 1) {
+      writeLockHeldTimeStampNanos = timer.monotonicNowNanos();
+    }
+  }
+
+  public void acquireWriteLockInterruptibly() throws InterruptedException {
+    coarseLock.writeLock().lockInterruptibly();
+    if (coarseLock.getWriteHoldCount() == 1) {
+      writeLockHeldTimeStampNanos = timer.monotonicNowNanos();
+    }
+  }
+
+  /**
+   * Release the write lock, attributing the hold time of the outermost hold
+   * to the given operation.
+   */
+  public void releaseWriteLock(String opName) {
+    final boolean needReport = coarseLock.getWriteHoldCount() == 1
+        && coarseLock.isWriteLockedByCurrentThread();
+    long heldNanos = 0;
+    String stackTrace = null;
+    int suppressed = 0;
+    if (needReport) {
+      heldNanos = timer.monotonicNowNanos() - writeLockHeldTimeStampNanos;
+      if (TimeUnit.NANOSECONDS.toMillis(heldNanos)
+          >= writeLockReportingThresholdMs) {
+        final long now = timer.monotonicNow();
+        if (now - lastWriteLockReportMs >= lockSuppressWarningIntervalMs) {
+          lastWriteLockReportMs = now;
+          suppressed = numWriteLockWarningsSuppressed;
+          numWriteLockWarningsSuppressed = 0;
+          stackTrace = StringUtils.getStackTrace(Thread.currentThread());
+        } else {
+          numWriteLockWarningsSuppressed++;
+        }
+      }
+    }
+    coarseLock.writeLock().unlock();
+    if (needReport) {
+      addHoldTime(writeHoldStats, opName, true, heldNanos);
+      if (stackTrace != null) {
+        logLongHold("write", opName, heldNanos, suppressed, stackTrace);
+      }
+    }
+  }
+
+  private static void addHoldTime(ConcurrentMap<String, LockHoldStats> stats,
+      String opName, boolean write, long heldNanos) {
+    LockHoldStats opStats = stats.get(opName);
+    if (opStats == null) {
+      LockHoldStats newStats = new LockHoldStats(opName, write);
+      opStats = stats.putIfAbsent(opName, newStats);
+      if (opStats == null) {
+        opStats = newStats;
+      }
+    }
+    opStats.add(heldNanos);
+    OperationCost.add(OperationCost.Type.LOCK_HOLD_MICROS,
+        TimeUnit.NANOSECONDS.toMicros(heldNanos));
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addLockHoldTime(opName, write,
+          TimeUnit.NANOSECONDS.toMicros(heldNanos));
+    }
+  }
+
+  private static void logLongHold(String mode, String opName, long heldNanos,
+      int suppressed, String stackTrace) {
+    FSNamesystem.LOG.info("FSNamesystem " + mode + " lock held for "
+        + TimeUnit.NANOSECONDS.toMillis(heldNanos) + " ms by operation "
+        + opName + " via\n" + stackTrace
+        + "\tNumber of suppressed " + mode + "-lock reports: " + suppressed);
+  }
+
+  /**
+   * @return the lock hold statistics of all operations, in both modes,
+   *         ordered by descending cumulative hold time.
+   */
+  List<LockHoldStats> getTopLockHolders(int limit) {
+    List<LockHoldStats> all = new ArrayList<LockHoldStats>(
+        writeHoldStats.values());
+    all.addAll(readHoldStats.values());
+    Collections.sort(all, new Comparator<LockHoldStats>() {
+      @Override
+      public int compare(LockHoldStats a, LockHoldStats b) {
+        return Long.compare(b.getTotalNanos(), a.getTotalNanos());
+      }
+    });
+    return all.size() > limit ? all.subList(0, limit) : all;
+  }
+
   public int getReadHoldCount() {
     return coarseLock.getReadHoldCount();
   }
@@ -70,4 +292,59 @@ public boolean isWriteLockedByCurrentThread() {
   public int getQueueLength() {
     return coarseLock.getQueueLength();
   }
+
+  /**
+   * Cumulative lock hold statistics of a single operation in one lock mode.
+   */
+  static class LockHoldStats {
+    private final String opName;
+    private final boolean write;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    LockHoldStats(String opName, boolean write) {
+      this.opName = opName;
+      this.write = write;
+    }
+
+    void add(long heldNanos) {
+      count.incrementAndGet();
+      totalNanos.addAndGet(heldNanos);
+      long max = maxNanos.get();
+      while (heldNanos > max && !maxNanos.compareAndSet(max, heldNanos)) {
+        max = maxNanos.get();
+      }
+    }
+
+    String getOpName() {
+      return opName;
+    }
+
+    boolean isWrite() {
+      return write;
+    }
+
+    long getCount() {
+      return count.get();
+    }
+
+    long getTotalNanos() {
+      return totalNanos.get();
+    }
+
+    long getMaxNanos() {
+      return maxNanos.get();
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> map = new LinkedHashMap<String, Object>();
+      map.put("opName", opName);
+      map.put("lockMode", write ? "write" : "read");
+      map.put("count", getCount());
+      map.put("totalTimeMs", TimeUnit.NANOSECONDS.toMillis(getTotalNanos()));
+      map.put("maxTimeMs", TimeUnit.NANOSECONDS.toMillis(getMaxNanos()));
+      return map;
+    }
+  }
 }
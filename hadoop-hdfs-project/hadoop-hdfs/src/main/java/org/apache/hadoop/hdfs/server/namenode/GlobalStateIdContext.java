@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.util.Time.monotonicNow;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.StandbyException;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * The server side of the consistent reads from the standby. The state id is
+ * the id of the last transaction visible to the clients: synced to the
+ * journals on the active, and applied by the edit log tailer on the standby.
+ * A client sends the highest state id it has seen, and the standby answers
+ * its reads once it has applied that transaction, so that the client reads
+ * its own writes.
+ */
+@InterfaceAudience.Private
+public class GlobalStateIdContext implements AlignmentContext {
+  private final FSNamesystem namesystem;
+  /** The last transaction applied by the edit log tailer. */
+  private volatile long lastAppliedTxId = 0;
+
+  GlobalStateIdContext(FSNamesystem namesystem) {
+    this.namesystem = namesystem;
+  }
+
+  /**
+   * @return the id of the last transaction visible to the clients. The synced
+   * transaction id is only advanced on the active, and the applied one on the
+   * standby, the highest is the one of the current state.
+   */
+  long getLastSeenStateId() {
+    return Math.max(namesystem.getEditLog().getSyncTxId(), lastAppliedTxId);
+  }
+
+  /**
+   * Called by the edit log tailer once the transactions up to the given one
+   * are applied, to release the reads waiting for them.
+   */
+  public synchronized void setLastAppliedTxId(long txId) {
+    if (txId > lastAppliedTxId) {
+      lastAppliedTxId = txId;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Check that the transactions seen by a client are applied.
+   * @param clientStateId the state id sent by the client
+   * @param maxWaitMs how long to wait for the transactions to be applied,
+   *        0 not to wait, e.g. when holding the namesystem lock.
+   * @throws StandbyException if they are still not applied, so that the
+   *         client reads from the active instead.
+   */
+  void checkClientStateId(long clientStateId, long maxWaitMs)
+      throws StandbyException {
+    if (clientStateId <= lastAppliedTxId) {
+      return;
+    }
+    if (maxWaitMs > 0) {
+      final long deadline = monotonicNow() + maxWaitMs;
+      synchronized (this) {
+        try {
+          for (long remaining = maxWaitMs;
+               clientStateId > lastAppliedTxId && remaining > 0;
+               remaining = deadline - monotonicNow()) {
+            wait(remaining);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+    final long applied = lastAppliedTxId;
+    if (clientStateId > applied) {
+      throw new StandbyException("The standby has applied the transactions up"
+          + " to " + applied + ", the client has seen " + clientStateId);
+    }
+  }
+
+  @Override
+  public void updateResponseState(RpcResponseHeaderProto.Builder header) {
+    header.setStateId(getLastSeenStateId());
+  }
+
+  @Override
+  public void receiveResponseState(RpcResponseHeaderProto header) {
+    throw new UnsupportedOperationException("Client side only");
+  }
+
+  @Override
+  public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+    throw new UnsupportedOperationException("Client side only");
+  }
+}
@@ -402,12 +402,15 @@ public INodeSymlink asSymlink() {
    * @param removedINodes
    *          INodes collected from the descents for further cleaning up of 
    *          inodeMap
+   * @param removedUCFiles
+   *          ids of the files under construction unlinked from the current
+   *          tree, whose leases need to be released
    * @return quota usage delta when deleting a snapshot
    */
   public abstract QuotaCounts cleanSubtree(final BlockStoragePolicySuite bsps,
       final int snapshotId,
       int priorSnapshotId, BlocksMapUpdateInfo collectedBlocks,
-      List<INode> removedINodes);
+      List<INode> removedINodes, List<Long> removedUCFiles);
   
   /**
    * Destroy self and clear everything! If the INode is a file, this method
@@ -426,10 +429,14 @@ public abstract QuotaCounts cleanSubtree(final BlockStoragePolicySuite bsps,
    * @param removedINodes
    *          INodes collected from the descents for further cleaning up of
    *          inodeMap
+   * @param removedUCFiles
+   *          ids of the files under construction unlinked from the current
+   *          tree, whose leases need to be released
    */
   public abstract void destroyAndCollectBlocks(
       BlockStoragePolicySuite bsps,
-      BlocksMapUpdateInfo collectedBlocks, List<INode> removedINodes);
+      BlocksMapUpdateInfo collectedBlocks, List<INode> removedINodes,
+      List<Long> removedUCFiles);
 
   /** Compute {@link ContentSummary}. Blocking call */
   public final ContentSummary computeContentSummary(BlockStoragePolicySuite bsps) {
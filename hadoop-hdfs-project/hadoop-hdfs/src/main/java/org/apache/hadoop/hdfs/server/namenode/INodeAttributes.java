@@ -84,6 +84,9 @@ public static abstract class SnapshotCopy implements INodeAttributes {
       this.aclFeature = aclFeature;
       this.modificationTime = modificationTime;
       this.accessTime = accessTime;
+      if (xAttrFeature != null) {
+        xAttrFeature = XAttrStorage.addXAttrFeature(xAttrFeature);
+      }
       this.xAttrFeature = xAttrFeature;
     }
 
@@ -97,7 +100,9 @@ public static abstract class SnapshotCopy implements INodeAttributes {
       }
       this.modificationTime = inode.getModificationTime();
       this.accessTime = inode.getAccessTime();
-      this.xAttrFeature = inode.getXAttrFeature();
+      if (inode.getXAttrFeature() != null) {
+        xAttrFeature = XAttrStorage.addXAttrFeature(inode.getXAttrFeature());
+      }
     }
 
     @Override
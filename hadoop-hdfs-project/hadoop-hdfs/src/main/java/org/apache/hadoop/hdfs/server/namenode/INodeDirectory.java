@@ -101,6 +101,12 @@ public INodeDirectory(INodeDirectory other, boolean adopt,
       removeFeature(aclFeature);
       addFeature(AclStorage.addAclFeature(aclFeature));
     }
+    XAttrFeature xAttrFeature = getFeature(XAttrFeature.class);
+    if (xAttrFeature != null) {
+      // for the de-duplication of XAttrFeature
+      removeFeature(xAttrFeature);
+      addFeature(XAttrStorage.addXAttrFeature(xAttrFeature));
+    }
   }
 
   /** @return true unconditionally. */
@@ -266,10 +272,11 @@ public Snapshot addSnapshot(int id, String name) throws SnapshotException,
   }
 
   public Snapshot removeSnapshot(BlockStoragePolicySuite bsps, String snapshotName,
-      BlocksMapUpdateInfo collectedBlocks, final List<INode> removedINodes)
+      BlocksMapUpdateInfo collectedBlocks, final List<INode> removedINodes,
+      final List<Long> removedUCFiles)
       throws SnapshotException {
     return getDirectorySnapshottableFeature().removeSnapshot(bsps, this,
-        snapshotName, collectedBlocks, removedINodes);
+        snapshotName, collectedBlocks, removedINodes, removedUCFiles);
   }
 
   public void renameSnapshot(String path, String oldName, String newName)
@@ -759,7 +766,8 @@ public void clear() {
   public QuotaCounts cleanSubtreeRecursively(final BlockStoragePolicySuite bsps,
       final int snapshot,
       int prior, final BlocksMapUpdateInfo collectedBlocks,
-      final List<INode> removedINodes, final Map<INode, INode> excludedNodes) {
+      final List<INode> removedINodes, final List<Long> removedUCFiles,
+      final Map<INode, INode> excludedNodes) {
     QuotaCounts counts = new QuotaCounts.Builder().build();
     // in case of deletion snapshot, since this call happens after we modify
     // the diff list, the snapshot to be deleted has been combined or renamed
@@ -774,7 +782,7 @@ public QuotaCounts cleanSubtreeRecursively(final BlockStoragePolicySuite bsps,
         continue;
       } else {
         QuotaCounts childCounts = child.cleanSubtree(bsps, snapshot, prior,
-            collectedBlocks, removedINodes);
+            collectedBlocks, removedINodes, removedUCFiles);
         counts.add(childCounts);
       }
     }
@@ -784,17 +792,21 @@ public QuotaCounts cleanSubtreeRecursively(final BlockStoragePolicySuite bsps,
   @Override
   public void destroyAndCollectBlocks(final BlockStoragePolicySuite bsps,
       final BlocksMapUpdateInfo collectedBlocks,
-      final List<INode> removedINodes) {
+      final List<INode> removedINodes, final List<Long> removedUCFiles) {
     final DirectoryWithSnapshotFeature sf = getDirectoryWithSnapshotFeature();
     if (sf != null) {
-      sf.clear(bsps, this, collectedBlocks, removedINodes);
+      sf.clear(bsps, this, collectedBlocks, removedINodes, removedUCFiles);
     }
     for (INode child : getChildrenList(Snapshot.CURRENT_STATE_ID)) {
-      child.destroyAndCollectBlocks(bsps, collectedBlocks, removedINodes);
+      child.destroyAndCollectBlocks(bsps, collectedBlocks, removedINodes,
+          removedUCFiles);
     }
     if (getAclFeature() != null) {
       AclStorage.removeAclFeature(getAclFeature());
     }
+    if (getXAttrFeature() != null) {
+      XAttrStorage.removeXAttrFeature(getXAttrFeature());
+    }
     clear();
     removedINodes.add(this);
   }
@@ -803,12 +815,12 @@ public void destroyAndCollectBlocks(final BlockStoragePolicySuite bsps,
   public QuotaCounts cleanSubtree(final BlockStoragePolicySuite bsps,
       final int snapshotId, int priorSnapshotId,
       final BlocksMapUpdateInfo collectedBlocks,
-      final List<INode> removedINodes) {
+      final List<INode> removedINodes, final List<Long> removedUCFiles) {
     DirectoryWithSnapshotFeature sf = getDirectoryWithSnapshotFeature();
     // there is snapshot data
     if (sf != null) {
       return sf.cleanDirectory(bsps, this, snapshotId, priorSnapshotId,
-          collectedBlocks, removedINodes);
+          collectedBlocks, removedINodes, removedUCFiles);
     }
     // there is no snapshot data
     if (priorSnapshotId == Snapshot.NO_SNAPSHOT_ID
@@ -816,12 +828,13 @@ public QuotaCounts cleanSubtree(final BlockStoragePolicySuite bsps,
       // destroy the whole subtree and collect blocks that should be deleted
       QuotaCounts counts = new QuotaCounts.Builder().build();
       this.computeQuotaUsage(bsps, counts, true);
-      destroyAndCollectBlocks(bsps, collectedBlocks, removedINodes);
+      destroyAndCollectBlocks(bsps, collectedBlocks, removedINodes,
+          removedUCFiles);
       return counts; 
     } else {
       // process recursively down the subtree
       QuotaCounts counts = cleanSubtreeRecursively(bsps, snapshotId, priorSnapshotId,
-          collectedBlocks, removedINodes, null);
+          collectedBlocks, removedINodes, removedUCFiles, null);
       if (isQuotaSet()) {
         getDirectoryWithQuotaFeature().addSpaceConsumed2Cache(counts.negation());
       }
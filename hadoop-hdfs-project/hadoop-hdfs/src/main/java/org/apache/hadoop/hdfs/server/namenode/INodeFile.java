@@ -497,11 +497,11 @@ public void setBlocks(BlockInfoContiguous[] blocks) {
   public QuotaCounts cleanSubtree(BlockStoragePolicySuite bsps, final int snapshot,
                                   int priorSnapshotId,
       final BlocksMapUpdateInfo collectedBlocks,
-      final List<INode> removedINodes) {
+      final List<INode> removedINodes, final List<Long> removedUCFiles) {
     FileWithSnapshotFeature sf = getFileWithSnapshotFeature();
     if (sf != null) {
       return sf.cleanFile(bsps, this, snapshot, priorSnapshotId, collectedBlocks,
-          removedINodes);
+          removedINodes, removedUCFiles);
     }
     QuotaCounts counts = new QuotaCounts.Builder().build();
     if (snapshot == CURRENT_STATE_ID) {
@@ -509,13 +509,15 @@ public QuotaCounts cleanSubtree(BlockStoragePolicySuite bsps, final int snapshot
         // this only happens when deleting the current file and the file is not
         // in any snapshot
         computeQuotaUsage(bsps, counts, false);
-        destroyAndCollectBlocks(bsps, collectedBlocks, removedINodes);
+        destroyAndCollectBlocks(bsps, collectedBlocks, removedINodes,
+            removedUCFiles);
       } else {
         // when deleting the current file and the file is in snapshot, we should
         // clean the 0-sized block if the file is UC
         FileUnderConstructionFeature uc = getFileUnderConstructionFeature();
         if (uc != null) {
           uc.cleanZeroSizeBlock(this, collectedBlocks);
+          removedUCFiles.add(getId());
         }
       }
     }
@@ -524,7 +526,8 @@ public QuotaCounts cleanSubtree(BlockStoragePolicySuite bsps, final int snapshot
 
   @Override
   public void destroyAndCollectBlocks(BlockStoragePolicySuite bsps,
-      BlocksMapUpdateInfo collectedBlocks, final List<INode> removedINodes) {
+      BlocksMapUpdateInfo collectedBlocks, final List<INode> removedINodes,
+      final List<Long> removedUCFiles) {
     if (blocks != null && collectedBlocks != null) {
       for (BlockInfoContiguous blk : blocks) {
         collectedBlocks.addDeleteBlock(blk);
@@ -535,6 +538,12 @@ public void destroyAndCollectBlocks(BlockStoragePolicySuite bsps,
     if (getAclFeature() != null) {
       AclStorage.removeAclFeature(getAclFeature());
     }
+    if (getXAttrFeature() != null) {
+      XAttrStorage.removeXAttrFeature(getXAttrFeature());
+    }
+    if (isUnderConstruction()) {
+      removedUCFiles.add(getId());
+    }
     clear();
     removedINodes.add(this);
     FileWithSnapshotFeature sf = getFileWithSnapshotFeature();
@@ -97,7 +97,8 @@ void recordModification(int latestSnapshotId) {
       
       @Override
       public void destroyAndCollectBlocks(BlockStoragePolicySuite bsps,
-          BlocksMapUpdateInfo collectedBlocks, List<INode> removedINodes) {
+          BlocksMapUpdateInfo collectedBlocks, List<INode> removedINodes,
+          List<Long> removedUCFiles) {
         // Nothing to do
       }
 
@@ -117,7 +118,8 @@ public ContentSummaryComputationContext computeContentSummary(
       @Override
       public QuotaCounts cleanSubtree(BlockStoragePolicySuite bsps,
           int snapshotId, int priorSnapshotId,
-          BlocksMapUpdateInfo collectedBlocks, List<INode> removedINodes) {
+          BlocksMapUpdateInfo collectedBlocks, List<INode> removedINodes,
+          List<Long> removedUCFiles) {
           return null;
       }
 
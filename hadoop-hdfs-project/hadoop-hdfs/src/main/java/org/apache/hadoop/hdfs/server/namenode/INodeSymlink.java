@@ -76,10 +76,11 @@ public byte[] getSymlink() {
   public QuotaCounts cleanSubtree(BlockStoragePolicySuite bsps,
       final int snapshotId, int priorSnapshotId,
       final BlocksMapUpdateInfo collectedBlocks,
-      final List<INode> removedINodes) {
+      final List<INode> removedINodes, final List<Long> removedUCFiles) {
     if (snapshotId == Snapshot.CURRENT_STATE_ID
         && priorSnapshotId == Snapshot.NO_SNAPSHOT_ID) {
-      destroyAndCollectBlocks(bsps, collectedBlocks, removedINodes);
+      destroyAndCollectBlocks(bsps, collectedBlocks, removedINodes,
+          removedUCFiles);
     }
     return new QuotaCounts.Builder().nameSpace(1).build();
   }
@@ -87,7 +88,7 @@ public QuotaCounts cleanSubtree(BlockStoragePolicySuite bsps,
   @Override
   public void destroyAndCollectBlocks(final BlockStoragePolicySuite bsps,
       final BlocksMapUpdateInfo collectedBlocks,
-      final List<INode> removedINodes) {
+      final List<INode> removedINodes, final List<Long> removedUCFiles) {
     removedINodes.add(this);
   }
 
@@ -353,6 +353,7 @@ public void removeXAttrFeature() {
     XAttrFeature f = getXAttrFeature();
     Preconditions.checkNotNull(f);
     removeFeature(f);
+    XAttrStorage.removeXAttrFeature(f);
   }
   
   @Override
@@ -360,7 +361,7 @@ public void addXAttrFeature(XAttrFeature f) {
     XAttrFeature f1 = getXAttrFeature();
     Preconditions.checkState(f1 == null, "Duplicated XAttrFeature");
     
-    addFeature(f);
+    addFeature(XAttrStorage.addXAttrFeature(f));
   }
 
   public final Feature[] getFeatures() {
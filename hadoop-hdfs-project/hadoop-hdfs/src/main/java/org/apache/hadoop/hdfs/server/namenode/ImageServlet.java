@@ -38,6 +38,7 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.HAUtil;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.server.common.JspHelper;
 import org.apache.hadoop.hdfs.server.common.Storage;
 import org.apache.hadoop.hdfs.server.common.StorageInfo;
@@ -54,6 +55,7 @@
 import org.apache.hadoop.util.StringUtils;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 
 /**
@@ -75,12 +77,25 @@ public class ImageServlet extends HttpServlet {
   public final static String HADOOP_IMAGE_EDITS_HEADER = "X-Image-Edits-Name";
   
   private static final String TXID_PARAM = "txid";
+  private static final String BASE_TXID_PARAM = "baseTxId";
   private static final String START_TXID_PARAM = "startTxId";
   private static final String END_TXID_PARAM = "endTxId";
   private static final String STORAGEINFO_PARAM = "storageInfo";
   private static final String LATEST_FSIMAGE_VALUE = "latest";
   private static final String IMAGE_FILE_TYPE = "imageFile";
 
+  // the upload of an image in parts, see TransferFsImage
+  static final String PART_PARAM = "part";
+  static final String PART_SIZE_PARAM = "partSize";
+  static final String PART_CRC_PARAM = "partCrc";
+  static final String PART_CODEC_PARAM = "partCodec";
+  /** The value of PART_PARAM which starts or resumes an upload. */
+  static final String PART_BEGIN = "begin";
+  /** The value of PART_PARAM which ends an upload once all parts are sent. */
+  static final String PART_COMMIT = "commit";
+  /** The parts the namenode already has, in the response to PART_BEGIN. */
+  static final String PARTS_RECEIVED_HEADER = "X-Image-Parts-Received";
+
   @Override
   public void doGet(final HttpServletRequest request,
       final HttpServletResponse response) throws ServletException, IOException {
@@ -103,7 +118,7 @@ public Void run() throws Exception {
             File imageFile = null;
             String errorMessage = "Could not find image";
             if (parsedParams.shouldFetchLatest()) {
-              imageFile = nnImage.getStorage().getHighestFsImageName();
+              imageFile = getLatestFullImage(nnImage.getStorage());
             } else {
               errorMessage += " with txid " + txid;
               imageFile = nnImage.getStorage().getFsImage(txid,
@@ -169,6 +184,30 @@ private void serveFile(File file) throws IOException {
     }
   }
 
+  /**
+   * @return the newest image which can be loaded on its own, i.e. the full
+   *         image the newest image applies to if it is a delta image, or
+   *         null if there is none.
+   */
+  private static File getLatestFullImage(NNStorage storage)
+      throws IOException {
+    final File imageFile = storage.getHighestFsImageName();
+    if (imageFile == null) {
+      return null;
+    }
+    final long baseTxId = FSImageUtil.getBaseImageTxId(imageFile);
+    if (baseTxId == HdfsConstants.INVALID_TXID) {
+      return imageFile;
+    }
+    final File baseImageFile =
+        storage.findImageFile(NameNodeFile.IMAGE, baseTxId);
+    if (baseImageFile == null) {
+      throw new IOException("Could not find image with txid " + baseTxId
+          + " which the delta image " + imageFile + " applies to");
+    }
+    return baseImageFile;
+  }
+
   private void validateRequest(ServletContext context, Configuration conf,
       HttpServletRequest request, HttpServletResponse response,
       FSImage nnImage, String theirStorageInfoString) throws IOException {
@@ -428,9 +467,12 @@ static void setVerificationHeadersForPut(HttpURLConnection connection,
    * @return Returns map of parameters to be used with PUT request.
    */
   static Map<String, String> getParamsForPutImage(Storage storage, long txid,
-      long imageFileSize, NameNodeFile nnf) {
+      long baseTxId, long imageFileSize, NameNodeFile nnf) {
     Map<String, String> params = new HashMap<String, String>();
     params.put(TXID_PARAM, Long.toString(txid));
+    if (baseTxId != HdfsConstants.INVALID_TXID) {
+      params.put(BASE_TXID_PARAM, Long.toString(baseTxId));
+    }
     params.put(STORAGEINFO_PARAM, storage.toColonSeparatedString());
     // setting the length of the file to be uploaded in separate property as
     // Content-Length only supports up to 2GB
@@ -460,6 +502,12 @@ protected void doPut(final HttpServletRequest request,
             @Override
             public Void run() throws Exception {
 
+              if (parsedParams.isPart()) {
+                doPutPart(request, response, conf, nnImage, parsedParams,
+                    metrics);
+                return null;
+              }
+
               final long txid = parsedParams.getTxId();
 
               final NameNodeFile nnf = parsedParams.getNameNodeFile();
@@ -480,6 +528,20 @@ public Void run() throws Exception {
                           + "checkpoint for txid " + txid);
                   return null;
                 }
+                final long baseTxId = parsedParams.getBaseTxId();
+                if (baseTxId != HdfsConstants.INVALID_TXID && nnImage
+                    .getStorage().findImageFile(nnf, baseTxId) == null) {
+                  // the checkpointer uploads the full image first
+                  response.sendError(
+                      HttpServletResponse.SC_PRECONDITION_FAILED,
+                      "The delta image of txid " + txid + " applies to the "
+                          + "image of txid " + baseTxId + " which this "
+                          + "namenode does not have");
+                  return null;
+                }
+                // the full image a delta image applies to is older
+                final boolean newest = txid > nnImage.getStorage()
+                    .getMostRecentCheckpointTxId();
 
                 InputStream stream = request.getInputStream();
                 try {
@@ -497,7 +559,9 @@ public Void run() throws Exception {
                   }
                   // Now that we have a new checkpoint, we might be able to
                   // remove some old ones.
-                  nnImage.purgeOldStorage(nnf);
+                  if (newest) {
+                    nnImage.purgeOldStorage(nnf);
+                  }
                 } finally {
                   stream.close();
                 }
@@ -515,18 +579,122 @@ public Void run() throws Exception {
     }
   }
 
+  /**
+   * Handle a request of an image upload in parts: begin or resume the
+   * upload, receive one of its parts, or commit it once all are received.
+   */
+  private static void doPutPart(HttpServletRequest request,
+      HttpServletResponse response, Configuration conf, FSImage nnImage,
+      PutImageParams parsedParams, NameNodeMetrics metrics)
+      throws IOException {
+    final long txid = parsedParams.getTxId();
+    final NameNodeFile nnf = parsedParams.getNameNodeFile();
+    final PartialImageUpload.Uploads uploads = nnImage.getPartialUploads();
+    final String part = parsedParams.getPart();
+
+    if (PART_BEGIN.equals(part)) {
+      if (nnImage.getStorage().findImageFile(nnf, txid) != null) {
+        response.sendError(HttpServletResponse.SC_CONFLICT,
+            "Either current namenode has checkpointed or "
+                + "another checkpointer already uploaded an "
+                + "checkpoint for txid " + txid);
+        return;
+      }
+      final long baseTxId = parsedParams.getBaseTxId();
+      if (baseTxId != HdfsConstants.INVALID_TXID && nnImage.getStorage()
+          .findImageFile(nnf, baseTxId) == null) {
+        response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED,
+            "The delta image of txid " + txid + " applies to the image of "
+                + "txid " + baseTxId + " which this namenode does not have");
+        return;
+      }
+      final PartialImageUpload upload = uploads.begin(nnImage, nnf, txid,
+          baseTxId, parsedParams.getFileSize(), parsedParams.getPartSize(),
+          getThrottler(conf));
+      if (upload == null) {
+        response.sendError(HttpServletResponse.SC_CONFLICT,
+            "Either current namenode is checkpointing or another"
+                + " checkpointer is already in the process of "
+                + "uploading a checkpoint made at transaction ID " + txid);
+        return;
+      }
+      response.setHeader(PARTS_RECEIVED_HEADER,
+          Joiner.on(',').join(upload.getReceivedParts()));
+      return;
+    }
+
+    final PartialImageUpload upload = uploads.get(txid);
+    if (upload == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND,
+          "No upload in progress of the checkpoint made at transaction ID "
+              + txid);
+      return;
+    }
+
+    if (PART_COMMIT.equals(part)) {
+      if (!upload.isComplete()) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+            "Received " + upload.getReceivedParts().size() + " of the "
+                + upload.getNumParts() + " parts of the checkpoint made at "
+                + "transaction ID " + txid);
+        return;
+      }
+      // the full image a delta image applies to is older
+      final boolean newest = txid > nnImage.getStorage()
+          .getMostRecentCheckpointTxId();
+      try {
+        MD5Hash digest = upload.commit(
+            TransferFsImage.parseMD5Header(request));
+        nnImage.saveDigestAndRenameCheckpointImage(nnf, txid, digest);
+      } finally {
+        uploads.remove(nnImage, upload);
+      }
+      // Metrics non-null only when used inside name node
+      if (metrics != null) {
+        metrics.addPutImage(upload.getElapsedTime());
+      }
+      if (newest) {
+        nnImage.purgeOldStorage(nnf);
+      }
+      return;
+    }
+
+    InputStream stream = request.getInputStream();
+    try {
+      final String codec = parsedParams.getPartCodec();
+      if (codec != null) {
+        stream = FSImageCompression.createCompression(conf, codec)
+            .getImageCodec().createInputStream(stream);
+      }
+      upload.receivePart(parsedParams.getPartIndex(),
+          parsedParams.getPartCrc(), stream);
+    } finally {
+      stream.close();
+    }
+  }
+
   /*
    * Params required to handle put image request
    */
   static class PutImageParams {
     private long txId = -1;
+    private long baseTxId = HdfsConstants.INVALID_TXID;
     private String storageInfoString = null;
     private long fileSize = 0L;
     private NameNodeFile nnf;
+    /** Null unless the image is uploaded in parts. */
+    private String part = null;
+    private long partSize = 0L;
+    private int partIndex = -1;
+    private long partCrc = 0L;
+    private String partCodec = null;
 
     public PutImageParams(HttpServletRequest request,
         HttpServletResponse response, Configuration conf) throws IOException {
       txId = ServletUtil.parseLongParam(request, TXID_PARAM);
+      if (request.getParameter(BASE_TXID_PARAM) != null) {
+        baseTxId = ServletUtil.parseLongParam(request, BASE_TXID_PARAM);
+      }
       storageInfoString = ServletUtil.getParameter(request, STORAGEINFO_PARAM);
       fileSize = ServletUtil.parseLongParam(request,
           TransferFsImage.FILE_LENGTH);
@@ -537,12 +705,32 @@ public PutImageParams(HttpServletRequest request,
           || storageInfoString.isEmpty()) {
         throw new IOException("Illegal parameters to TransferFsImage");
       }
+      part = ServletUtil.getParameter(request, PART_PARAM);
+      if (part != null) {
+        partSize = ServletUtil.parseLongParam(request, PART_SIZE_PARAM);
+        if (partSize <= 0) {
+          throw new IOException("Illegal parameters to TransferFsImage");
+        }
+        if (!part.equals(PART_BEGIN) && !part.equals(PART_COMMIT)) {
+          partIndex = Integer.parseInt(part);
+          partCrc = ServletUtil.parseLongParam(request, PART_CRC_PARAM);
+          partCodec = ServletUtil.getParameter(request, PART_CODEC_PARAM);
+        }
+      }
     }
 
     public long getTxId() {
       return txId;
     }
 
+    /**
+     * @return the full image the uploaded image applies to if it is a delta
+     *         image, or INVALID_TXID.
+     */
+    public long getBaseTxId() {
+      return baseTxId;
+    }
+
     public String getStorageInfoString() {
       return storageInfoString;
     }
@@ -554,5 +742,31 @@ public long getFileSize() {
     public NameNodeFile getNameNodeFile() {
       return nnf;
     }
+
+    boolean isPart() {
+      return part != null;
+    }
+
+    /** @return PART_BEGIN, PART_COMMIT or the index of the part. */
+    String getPart() {
+      return part;
+    }
+
+    long getPartSize() {
+      return partSize;
+    }
+
+    int getPartIndex() {
+      return partIndex;
+    }
+
+    long getPartCrc() {
+      return partCrc;
+    }
+
+    /** @return the codec the part is compressed with, or null. */
+    String getPartCodec() {
+      return partCodec;
+    }
   }
 }
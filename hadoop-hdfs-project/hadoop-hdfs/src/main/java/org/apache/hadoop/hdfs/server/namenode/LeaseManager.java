@@ -21,9 +21,6 @@
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,11 +33,10 @@
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
-import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.fs.UnresolvedLinkException;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfoContiguous;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
+import org.apache.hadoop.hdfs.util.LongHashSet;
 import org.apache.hadoop.util.Daemon;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -67,6 +63,10 @@
  * 2.9) Namenode removes f from the lease
  *      and removes the lease once all files have been removed
  * 2.10) Namenode commit changes to edit log
+ *
+ * The files of a lease are identified by their inode id, so that renaming
+ * or deleting a directory does not need to find and rewrite the paths of
+ * the open files under it.
  */
 @InterfaceAudience.Private
 public class LeaseManager {
@@ -85,11 +85,10 @@ public class LeaseManager {
   // Set of: Lease
   private final NavigableSet<Lease> sortedLeases = new TreeSet<Lease>();
 
-  // 
-  // Map path names to leases. It is protected by the sortedLeases lock.
-  // The map stores pathnames in lexicographical order.
   //
-  private final SortedMap<String, Lease> sortedLeasesByPath = new TreeMap<String, Lease>();
+  // Map the inode ids of the files being written to their leases.
+  //
+  private final Map<Long, Lease> leasesById = new HashMap<Long, Lease>();
 
   private Daemon lmthread;
   private volatile boolean shouldRunMonitor;
@@ -113,18 +112,19 @@ synchronized long getNumUnderConstructionBlocks() {
     assert this.fsnamesystem.hasReadLock() : "The FSNamesystem read lock wasn't"
       + "acquired before counting under construction blocks";
     long numUCBlocks = 0;
+    final FSDirectory fsd = fsnamesystem.getFSDirectory();
     for (Lease lease : sortedLeases) {
-      for (String path : lease.getPaths()) {
-        final INodeFile cons;
-        try {
-          cons = this.fsnamesystem.getFSDirectory().getINode(path).asFile();
-          if (!cons.isUnderConstruction()) {
-            LOG.warn("The file " + cons.getFullPathName()
-                + " is not under construction but has lease.");
-            continue;
-          }
-        } catch (UnresolvedLinkException e) {
-          throw new AssertionError("Lease files should reside on this FS");
+      for (long id : lease.getFiles()) {
+        final INode inode = fsd.getInode(id);
+        if (inode == null || !inode.isFile()) {
+          LOG.warn("The inode " + id + " has a lease but is not a file.");
+          continue;
+        }
+        final INodeFile cons = inode.asFile();
+        if (!cons.isUnderConstruction()) {
+          LOG.warn("The file " + cons.getFullPathName()
+              + " is not under construction but has lease.");
+          continue;
         }
         BlockInfoContiguous[] blocks = cons.getBlocks();
         if(blocks == null)
@@ -139,21 +139,23 @@ synchronized long getNumUnderConstructionBlocks() {
     return numUCBlocks;
   }
 
-  /** @return the lease containing src */
-  public Lease getLeaseByPath(String src) {return sortedLeasesByPath.get(src);}
+  /** @return the lease of the file */
+  public synchronized Lease getLease(INodeFile src) {
+    return leasesById.get(src.getId());
+  }
 
   /** @return the number of leases currently in the system */
   public synchronized int countLease() {return sortedLeases.size();}
 
-  /** @return the number of paths contained in all leases */
+  /** @return the number of files contained in all leases */
   synchronized int countPath() {
-    return sortedLeasesByPath.size();
+    return leasesById.size();
   }
   
   /**
    * Adds (or re-adds) the lease for the specified file.
    */
-  synchronized Lease addLease(String holder, String src) {
+  synchronized Lease addLease(String holder, long inodeId) {
     Lease lease = getLease(holder);
     if (lease == null) {
       lease = new Lease(holder);
@@ -162,23 +164,52 @@ synchronized Lease addLease(String holder, String src) {
     } else {
       renewLease(lease);
     }
-    sortedLeasesByPath.put(src, lease);
-    lease.paths.add(src);
+    final Lease previous = leasesById.put(inodeId, lease);
+    if (previous != null && previous != lease) {
+      // the file changed holder without its lease being reassigned
+      removeFile(previous, inodeId);
+    }
+    lease.files.add(inodeId);
     return lease;
   }
 
   /**
-   * Remove the specified lease and src.
+   * Remove the lease of the file, if any.
+   */
+  synchronized void removeLease(long inodeId) {
+    final Lease lease = leasesById.get(inodeId);
+    if (lease != null) {
+      removeLease(lease, inodeId);
+    }
+  }
+
+  /**
+   * Remove the leases of the given files, if any.
+   */
+  synchronized void removeLeases(long[] inodeIds) {
+    for (long id : inodeIds) {
+      removeLease(id);
+    }
+  }
+
+  /**
+   * Remove the specified lease and file.
    */
-  synchronized void removeLease(Lease lease, String src) {
-    sortedLeasesByPath.remove(src);
-    if (!lease.removePath(src)) {
+  synchronized void removeLease(Lease lease, long inodeId) {
+    if (leasesById.get(inodeId) == lease) {
+      leasesById.remove(inodeId);
+    }
+    removeFile(lease, inodeId);
+  }
+
+  private void removeFile(Lease lease, long inodeId) {
+    if (!lease.removeFile(inodeId)) {
       if (LOG.isDebugEnabled()) {
-        LOG.debug(src + " not found in lease.paths (=" + lease.paths + ")");
+        LOG.debug("inode " + inodeId + " not found in " + lease);
       }
     }
 
-    if (!lease.hasPath()) {
+    if (!lease.hasFiles()) {
       leases.remove(lease.holder);
       if (!sortedLeases.remove(lease)) {
         LOG.error(lease + " not found in sortedLeases");
@@ -189,31 +220,32 @@ synchronized void removeLease(Lease lease, String src) {
   /**
    * Remove the lease for the specified holder and src
    */
-  synchronized void removeLease(String holder, String src) {
+  synchronized void removeLease(String holder, INodeFile src) {
     Lease lease = getLease(holder);
     if (lease != null) {
-      removeLease(lease, src);
+      removeLease(lease, src.getId());
     } else {
       LOG.warn("Removing non-existent lease! holder=" + holder +
-          " src=" + src);
+          " src=" + src.getFullPathName());
     }
   }
 
   synchronized void removeAllLeases() {
     sortedLeases.clear();
-    sortedLeasesByPath.clear();
+    leasesById.clear();
     leases.clear();
   }
 
   /**
    * Reassign lease for file src to the new holder.
    */
-  synchronized Lease reassignLease(Lease lease, String src, String newHolder) {
+  synchronized Lease reassignLease(Lease lease, INodeFile src,
+      String newHolder) {
     assert newHolder != null : "new lease holder is null";
     if (lease != null) {
-      removeLease(lease, src);
+      removeLease(lease, src.getId());
     }
-    return addLease(newHolder, src);
+    return addLease(newHolder, src.getId());
   }
 
   /**
@@ -249,7 +281,8 @@ synchronized void renewAllLeases() {
   class Lease implements Comparable<Lease> {
     private final String holder;
     private long lastUpdate;
-    private final Collection<String> paths = new TreeSet<String>();
+    /** The inode ids of the files. */
+    private final LongHashSet files = new LongHashSet();
   
     /** Only LeaseManager object can create a lease */
     private Lease(String holder) {
@@ -271,17 +304,17 @@ public boolean expiredSoftLimit() {
       return monotonicNow() - lastUpdate > softLimit;
     }
 
-    /** Does this lease contain any path? */
-    boolean hasPath() {return !paths.isEmpty();}
+    /** Does this lease contain any file? */
+    boolean hasFiles() {return !files.isEmpty();}
 
-    boolean removePath(String src) {
-      return paths.remove(src);
+    boolean removeFile(long inodeId) {
+      return files.remove(inodeId);
     }
 
     @Override
     public String toString() {
       return "[Lease.  Holder: " + holder
-          + ", pendingcreates: " + paths.size() + "]";
+          + ", pendingcreates: " + files.size() + "]";
     }
   
     @Override
@@ -317,84 +350,21 @@ public int hashCode() {
       return holder.hashCode();
     }
     
-    Collection<String> getPaths() {
-      return paths;
+    /** @return a copy of the inode ids of the files. */
+    long[] getFiles() {
+      return files.toArray();
     }
 
     String getHolder() {
       return holder;
     }
 
-    void replacePath(String oldpath, String newpath) {
-      paths.remove(oldpath);
-      paths.add(newpath);
-    }
-    
     @VisibleForTesting
     long getLastUpdate() {
       return lastUpdate;
     }
   }
 
-  synchronized void changeLease(String src, String dst) {
-    if (LOG.isDebugEnabled()) {
-      LOG.debug(getClass().getSimpleName() + ".changelease: " +
-               " src=" + src + ", dest=" + dst);
-    }
-
-    final int len = src.length();
-    for(Map.Entry<String, Lease> entry
-        : findLeaseWithPrefixPath(src, sortedLeasesByPath).entrySet()) {
-      final String oldpath = entry.getKey();
-      final Lease lease = entry.getValue();
-      // replace stem of src with new destination
-      final String newpath = dst + oldpath.substring(len);
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("changeLease: replacing " + oldpath + " with " + newpath);
-      }
-      lease.replacePath(oldpath, newpath);
-      sortedLeasesByPath.remove(oldpath);
-      sortedLeasesByPath.put(newpath, lease);
-    }
-  }
-
-  synchronized void removeLeaseWithPrefixPath(String prefix) {
-    for(Map.Entry<String, Lease> entry
-        : findLeaseWithPrefixPath(prefix, sortedLeasesByPath).entrySet()) {
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(LeaseManager.class.getSimpleName()
-            + ".removeLeaseWithPrefixPath: entry=" + entry);
-      }
-      removeLease(entry.getValue(), entry.getKey());    
-    }
-  }
-
-  static private Map<String, Lease> findLeaseWithPrefixPath(
-      String prefix, SortedMap<String, Lease> path2lease) {
-    if (LOG.isDebugEnabled()) {
-      LOG.debug(LeaseManager.class.getSimpleName() + ".findLease: prefix=" + prefix);
-    }
-
-    final Map<String, Lease> entries = new HashMap<String, Lease>();
-    int srclen = prefix.length();
-    
-    // prefix may ended with '/'
-    if (prefix.charAt(srclen - 1) == Path.SEPARATOR_CHAR) {
-      srclen -= 1;
-    }
-
-    for(Map.Entry<String, Lease> entry : path2lease.tailMap(prefix).entrySet()) {
-      final String p = entry.getKey();
-      if (!p.startsWith(prefix)) {
-        return entries;
-      }
-      if (p.length() == srclen || p.charAt(srclen) == Path.SEPARATOR_CHAR) {
-        entries.put(entry.getKey(), entry.getValue());
-      }
-    }
-    return entries;
-  }
-
   public void setLeasePeriod(long softLimit, long hardLimit) {
     this.softLimit = softLimit;
     this.hardLimit = hardLimit; 
@@ -437,23 +407,24 @@ public void run() {
   }
 
   /**
-   * Get the list of inodes corresponding to valid leases.
-   * @return list of inodes
+   * Get the inodes corresponding to valid leases, with their current path.
+   * The files which were deleted but are still in a snapshot are skipped.
+   * @return map of paths to inodes
    */
   Map<String, INodeFile> getINodesUnderConstruction() {
-    Map<String, INodeFile> inodes = new TreeMap<String, INodeFile>();
-    for (String p : sortedLeasesByPath.keySet()) {
-      // verify that path exists in namespace
-      try {
-        INodeFile node = INodeFile.valueOf(fsnamesystem.dir.getINode(p), p);
-        if (node.isUnderConstruction()) {
-          inodes.put(p, node);
-        } else {
-          LOG.warn("Ignore the lease of file " + p
-              + " for checkpoint since the file is not under construction");
-        }
-      } catch (IOException ioe) {
-        LOG.error(ioe);
+    final FSDirectory fsd = fsnamesystem.getFSDirectory();
+    final Map<String, INodeFile> inodes =
+        new HashMap<String, INodeFile>(leasesById.size());
+    for (long id : leasesById.keySet()) {
+      final INode inode = fsd.getInode(id);
+      if (inode == null || !inode.isFile()) {
+        LOG.warn("Ignore the lease of inode " + id
+            + " for checkpoint since it is not a file");
+      } else if (!inode.asFile().isUnderConstruction()) {
+        LOG.warn("Ignore the lease of file " + inode.getFullPathName()
+            + " for checkpoint since the file is not under construction");
+      } else if (!fsnamesystem.isFileDeleted(inode.asFile())) {
+        inodes.put(inode.getFullPathName(), inode.asFile());
       }
     }
     return inodes;
@@ -478,17 +449,24 @@ synchronized boolean checkLeases() {
 
       LOG.info(leaseToCheck + " has expired hard limit");
 
-      final List<String> removing = new ArrayList<String>();
-      // need to create a copy of the oldest lease paths, because 
-      // internalReleaseLease() removes paths corresponding to empty files,
-      // i.e. it needs to modify the collection being iterated over
-      // causing ConcurrentModificationException
-      String[] leasePaths = new String[leaseToCheck.getPaths().size()];
-      leaseToCheck.getPaths().toArray(leasePaths);
-      for(String p : leasePaths) {
+      final List<Long> removing = new ArrayList<Long>();
+      // getFiles() returns a copy of the files of the lease, because
+      // internalReleaseLease() removes the files which are empty,
+      // i.e. it modifies the collection being iterated over
+      final FSDirectory fsd = fsnamesystem.getFSDirectory();
+      for(long id : leaseToCheck.getFiles()) {
+        final INode inode = fsd.getInode(id);
+        if (inode == null || !inode.isFile()
+            || fsnamesystem.isFileDeleted(inode.asFile())) {
+          // the file was deleted while still in a snapshot
+          LOG.info("Removing the lease of deleted inode " + id);
+          removing.add(id);
+          continue;
+        }
+        final INodeFile file = inode.asFile();
+        final String p = file.getFullPathName();
         try {
-          INodesInPath iip = fsnamesystem.getFSDirectory().getINodesInPath(p,
-              true);
+          INodesInPath iip = INodesInPath.fromINode(file);
           boolean completed = fsnamesystem.internalReleaseLease(leaseToCheck, p,
               iip, HdfsServerConstants.NAMENODE_LEASE_HOLDER);
           if (LOG.isDebugEnabled()) {
@@ -505,12 +483,12 @@ synchronized boolean checkLeases() {
         } catch (IOException e) {
           LOG.error("Cannot release the path " + p + " in the lease "
               + leaseToCheck, e);
-          removing.add(p);
+          removing.add(id);
         }
       }
 
-      for(String p : removing) {
-        removeLease(leaseToCheck, p);
+      for(long id : removing) {
+        removeLease(leaseToCheck, id);
       }
       leaseToCheck = sortedLeases.higher(leaseToCheck);
     }
@@ -529,7 +507,7 @@ public synchronized String toString() {
     return getClass().getSimpleName() + "= {"
         + "\n leases=" + leases
         + "\n sortedLeases=" + sortedLeases
-        + "\n sortedLeasesByPath=" + sortedLeasesByPath
+        + "\n leasesById=" + leasesById
         + "\n}";
   }
 
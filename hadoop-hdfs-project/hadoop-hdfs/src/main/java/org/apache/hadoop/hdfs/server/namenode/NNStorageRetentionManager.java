@@ -26,12 +26,14 @@
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.TreeSet;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.server.namenode.FSImageStorageInspector.FSImageFile;
 import org.apache.hadoop.hdfs.server.namenode.FileJournalManager.EditLogFile;
 import org.apache.hadoop.hdfs.server.namenode.NNStorage.NameNodeFile;
@@ -114,7 +116,8 @@ void purgeOldStorage(NameNodeFile nnf) throws IOException {
     storage.inspectStorageDirs(inspector);
 
     long minImageTxId = getImageTxIdToRetain(inspector);
-    purgeCheckpointsOlderThan(inspector, minImageTxId);
+    purgeCheckpointsOlderThan(inspector, minImageTxId,
+        getBaseImageTxIds(inspector, minImageTxId));
     
     if (nnf == NameNodeFile.IMAGE_ROLLBACK) {
       // do not purge edits for IMAGE_ROLLBACK.
@@ -171,14 +174,42 @@ public int compare(EditLogInputStream a, EditLogInputStream b) {
   
   private void purgeCheckpointsOlderThan(
       FSImageTransactionalStorageInspector inspector,
-      long minTxId) {
+      long minTxId, Set<Long> baseTxIds) {
     for (FSImageFile image : inspector.getFoundImages()) {
-      if (image.getCheckpointTxId() < minTxId) {
+      if (image.getCheckpointTxId() < minTxId
+          && !baseTxIds.contains(image.getCheckpointTxId())) {
         purger.purgeImage(image);
       }
     }
   }
 
+  /**
+   * @return the full images the retained delta images apply to, which must
+   *         be retained with them.
+   */
+  private static Set<Long> getBaseImageTxIds(
+      FSImageTransactionalStorageInspector inspector, long minTxId) {
+    Set<Long> baseTxIds = Sets.newHashSet();
+    for (FSImageFile image : inspector.getFoundImages()) {
+      if (image.getCheckpointTxId() < minTxId || !image.getFile().exists()) {
+        continue;
+      }
+      try {
+        long baseTxId = FSImageUtil.getBaseImageTxId(image.getFile());
+        if (baseTxId != HdfsConstants.INVALID_TXID) {
+          baseTxIds.add(baseTxId);
+        }
+      } catch (IOException e) {
+        LOG.warn("Unable to read the summary of " + image.getFile(), e);
+      }
+    }
+    if (!baseTxIds.isEmpty()) {
+      LOG.info("Going to retain the images with txid " + baseTxIds
+          + " which delta images apply to");
+    }
+    return baseTxIds;
+  }
+
   /**
    * @param inspector inspector that has already inspected all storage dirs
    * @return the transaction ID corresponding to the oldest checkpoint
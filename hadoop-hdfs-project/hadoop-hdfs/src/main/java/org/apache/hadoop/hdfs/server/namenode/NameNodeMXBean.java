@@ -265,5 +265,23 @@ public interface NameNodeMXBean {
    * @return the number of live datanodes for each distinct versions
    */
   public Map<String, Integer> getDistinctVersions();
+
+  /**
+   * Get the operations which held the namesystem lock the longest, ordered
+   * by cumulative hold time, with their hold count and maximum hold time.
+   *
+   * @return the top namesystem lock holders, as a JSON string.
+   */
+  public String getTopLockHolders();
+
+  /**
+   * Get the memory used by the ACL and xattr features, which are shared by
+   * the inodes with the same ACL or xattrs: for each feature type, the number
+   * of unique features, of references from the inodes, the estimated heap
+   * used by the features and the estimated heap saved by sharing them.
+   *
+   * @return the interned features, as a JSON string.
+   */
+  public String getInternedFeatures();
   
 }
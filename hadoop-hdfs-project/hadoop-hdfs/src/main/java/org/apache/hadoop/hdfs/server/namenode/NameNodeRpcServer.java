@@ -76,6 +76,8 @@
 import org.apache.hadoop.hdfs.inotify.EventBatchList;
 import org.apache.hadoop.hdfs.protocol.AclException;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchedOperation;
+import org.apache.hadoop.hdfs.protocol.BatchedOperationResult;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
@@ -248,7 +250,7 @@ public NameNodeRpcServer(Configuration conf, NameNode nn)
          newReflectiveBlockingService(clientProtocolServerTranslator);
     
     DatanodeProtocolServerSideTranslatorPB dnProtoPbTranslator = 
-        new DatanodeProtocolServerSideTranslatorPB(this);
+        new DatanodeProtocolServerSideTranslatorPB(this, conf);
     BlockingService dnProtoPbService = DatanodeProtocolService
         .newReflectiveBlockingService(dnProtoPbTranslator);
 
@@ -409,6 +411,9 @@ public NameNodeRpcServer(Configuration conf, NameNode nn)
         .setPort(rpcAddr.getPort()).setNumHandlers(handlerCount)
         .setVerbose(false)
         .setSecretManager(namesystem.getDelegationTokenSecretManager()).build();
+    // the clients learn the last transaction id from the responses, and send
+    // it with the reads served by the standby
+    clientRpcServer.setAlignmentContext(namesystem.getStateIdContext());
 
     // Add all the RPC protocols that the namenode implements
     DFSUtil.addPBProtocol(conf, HAServiceProtocolPB.class, haPbService,
@@ -1102,6 +1107,19 @@ public DirectoryListing getListing(String src, byte[] startAfter,
     return files;
   }
 
+  @Override // ClientProtocol
+  public DirectoryListing getListingRecursive(String src, byte[] startAfter,
+      boolean needLocation) throws IOException {
+    checkNNStartup();
+    DirectoryListing files = namesystem.getListingRecursive(
+        src, startAfter, needLocation);
+    if (files != null) {
+      metrics.incrGetListingOps();
+      metrics.incrFilesInGetListingOps(files.getPartialListing().length);
+    }
+    return files;
+  }
+
   @Override // ClientProtocol
   public HdfsFileStatus getFileInfo(String src)  throws IOException {
     checkNNStartup();
@@ -1320,6 +1338,36 @@ public void setTimes(String src, long mtime, long atime)
     namesystem.setTimes(src, mtime, atime);
   }
 
+  @Override // ClientProtocol
+  public List<BatchedOperationResult> batch(List<BatchedOperation> ops,
+      String clientName) throws IOException {
+    checkNNStartup();
+    for (BatchedOperation op : ops) {
+      if (!checkPathLength(op.getPath().toUri().getPath())) {
+        throw new IOException("batch: Pathname too long.  Limit "
+            + MAX_PATH_LENGTH + " characters, " + MAX_PATH_DEPTH + " levels.");
+      }
+    }
+    namesystem.checkOperation(OperationCategory.WRITE);
+    CacheEntryWithPayload cacheEntry = RetryCache.waitForCompletion(retryCache,
+        null);
+    if (cacheEntry != null && cacheEntry.isSuccess()) {
+      @SuppressWarnings("unchecked")
+      List<BatchedOperationResult> cached =
+          (List<BatchedOperationResult>) cacheEntry.getPayload();
+      return cached;
+    }
+
+    List<BatchedOperationResult> results = null;
+    try {
+      results = namesystem.batch(ops, getRemoteUser().getShortUserName(),
+          clientName, getClientMachine());
+    } finally {
+      RetryCache.setState(cacheEntry, results != null, results);
+    }
+    return results;
+  }
+
   @Override // ClientProtocol
   public void createSymlink(String target, String link, FsPermission dirPerms,
       boolean createParent) throws IOException {
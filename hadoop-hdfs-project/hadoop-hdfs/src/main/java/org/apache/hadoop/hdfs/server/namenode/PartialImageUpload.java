@@ -0,0 +1,383 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.util.Time.monotonicNow;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.namenode.NNStorage.NameNodeDirType;
+import org.apache.hadoop.hdfs.server.namenode.NNStorage.NameNodeFile;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
+import org.apache.hadoop.hdfs.util.MD5FileUtils;
+import org.apache.hadoop.io.MD5Hash;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * An image uploaded to the namenode in parts, see
+ * dfs.image.transfer.parallel.enabled. The parts are written in place in the
+ * checkpoint files of the image directories, in any order and possibly in
+ * parallel, and the image is renamed once all of them are received and its
+ * digest is checked.
+ *
+ * The upload is kept until it is committed or idle for too long, so that a
+ * checkpointer whose upload failed resumes it with the missing parts.
+ */
+@InterfaceAudience.Private
+class PartialImageUpload {
+  private static final Log LOG = LogFactory.getLog(PartialImageUpload.class);
+
+  /** How long an upload is kept without receiving any part. */
+  @VisibleForTesting
+  static long expiryMs = 10 * 60 * 1000;
+
+  private final NameNodeFile nnf;
+  private final long txId;
+  private final long baseTxId;
+  private final long fileLength;
+  private final long partSize;
+  private final int numParts;
+  private final List<File> files = new ArrayList<File>();
+  /** Shared by the parts, the bandwidth limit is the one of the upload. */
+  private final DataTransferThrottler throttler;
+  private final long startTime = monotonicNow();
+  /** The uploads this one is registered with, whose lock guards its files. */
+  private final Uploads uploads;
+
+  private final BitSet received = new BitSet();
+  private long lastActive = startTime;
+
+  // guarded by the lock of uploads
+  /** The parts being written, the upload is not committed meanwhile. */
+  private int writing;
+  private boolean committing;
+
+  private PartialImageUpload(Uploads uploads, NNStorage storage,
+      NameNodeFile nnf, long txId, long baseTxId, long fileLength,
+      long partSize, DataTransferThrottler throttler) throws IOException {
+    Preconditions.checkArgument(fileLength > 0 && partSize > 0,
+        "Invalid file length %s or part size %s", fileLength, partSize);
+    final long n = (fileLength + partSize - 1) / partSize;
+    if (n > Integer.MAX_VALUE) {
+      throw new IOException("The image with txid " + txId + " of " + fileLength
+          + " bytes has too many parts of " + partSize + " bytes");
+    }
+    this.nnf = nnf;
+    this.txId = txId;
+    this.baseTxId = baseTxId;
+    this.fileLength = fileLength;
+    this.partSize = partSize;
+    this.numParts = (int) n;
+    this.throttler = throttler;
+    this.uploads = uploads;
+
+    final String fileName = NNStorage.getCheckpointImageFileName(txId);
+    for (File f : storage.getFiles(NameNodeDirType.IMAGE, fileName)) {
+      try {
+        if (f.exists()) {
+          LOG.warn("Overwriting existing file " + f
+              + " with the uploaded image");
+        }
+        final RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+          raf.setLength(fileLength);
+        } finally {
+          raf.close();
+        }
+        files.add(f);
+      } catch (IOException ioe) {
+        LOG.warn("Unable to upload the image to " + f, ioe);
+        storage.reportErrorOnFile(f);
+      }
+    }
+    if (files.isEmpty()) {
+      throw new IOException("Unable to upload to any storage directory");
+    }
+  }
+
+  int getNumParts() {
+    return numParts;
+  }
+
+  /** @return the indexes of the parts received so far. */
+  synchronized List<Integer> getReceivedParts() {
+    final List<Integer> parts = new ArrayList<Integer>(received.cardinality());
+    for (int i = received.nextSetBit(0); i >= 0;
+         i = received.nextSetBit(i + 1)) {
+      parts.add(i);
+    }
+    return parts;
+  }
+
+  synchronized boolean isComplete() {
+    return received.cardinality() == numParts;
+  }
+
+  private synchronized boolean matches(NameNodeFile nnf, long baseTxId,
+      long fileLength, long partSize) {
+    return this.nnf == nnf && this.baseTxId == baseTxId
+        && this.fileLength == fileLength && this.partSize == partSize;
+  }
+
+  /** Called with the lock of uploads held. */
+  private synchronized boolean isExpired(long now) {
+    return writing == 0 && now - lastActive > expiryMs;
+  }
+
+  /**
+   * Check, with the lock of uploads held, that the upload is still registered
+   * and not being committed.
+   */
+  private void checkActive(int index) throws IOException {
+    if (committing || uploads.get(txId) != this) {
+      throw new IOException("Part " + index + " of the image with txid "
+          + txId + " arrived after its upload was "
+          + (committing ? "committed" : "aborted"));
+    }
+  }
+
+  /**
+   * Write a part to the checkpoint files.
+   * @param index the index of the part
+   * @param expectedCrc the CRC32 checksum of the part computed by the sender
+   * @param in the content of the part, uncompressed
+   * @throws IOException if the part is truncated or corrupt, in which case
+   *         it must be sent again, or if the upload is aborted or committed.
+   */
+  void receivePart(int index, long expectedCrc, InputStream in)
+      throws IOException {
+    if (index < 0 || index >= numParts) {
+      throw new IOException("Invalid part " + index + " of the image with txid "
+          + txId + ", it has " + numParts + " parts");
+    }
+    final long offset = index * partSize;
+    final long length = Math.min(partSize, fileLength - offset);
+    final List<RandomAccessFile> outs = new ArrayList<RandomAccessFile>();
+    try {
+      synchronized (uploads) {
+        // once the upload is aborted, opening its deleted files would create
+        // them again
+        checkActive(index);
+        for (File f : files) {
+          final RandomAccessFile raf = new RandomAccessFile(f, "rw");
+          outs.add(raf);
+          raf.seek(offset);
+        }
+        writing++;
+      }
+      try {
+        writePart(index, offset, length, expectedCrc, in, outs);
+        synchronized (uploads) {
+          checkActive(index);
+          synchronized (this) {
+            received.set(index);
+            lastActive = monotonicNow();
+          }
+        }
+      } finally {
+        synchronized (uploads) {
+          writing--;
+        }
+      }
+    } finally {
+      for (RandomAccessFile raf : outs) {
+        raf.close();
+      }
+    }
+  }
+
+  private void writePart(int index, long offset, long length,
+      long expectedCrc, InputStream in, List<RandomAccessFile> outs)
+      throws IOException {
+    final CRC32 crc = new CRC32();
+    final byte[] buf = new byte[HdfsConstants.IO_FILE_BUFFER_SIZE];
+    for (long remaining = length; remaining > 0; ) {
+      final int num = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+      if (num < 0) {
+        throw new IOException("Part " + index + " of the image with txid "
+            + txId + " ended after " + (length - remaining) + " of its "
+            + length + " bytes");
+      }
+      crc.update(buf, 0, num);
+      for (RandomAccessFile raf : outs) {
+        raf.write(buf, 0, num);
+      }
+      remaining -= num;
+      if (throttler != null) {
+        throttler.throttle(num);
+      }
+    }
+    if (in.read() >= 0) {
+      throw new IOException("Part " + index + " of the image with txid "
+          + txId + " is longer than its " + length + " bytes");
+    }
+    if (crc.getValue() != expectedCrc) {
+      throw new IOException("Part " + index + " of the image with txid "
+          + txId + " has checksum " + crc.getValue() + ", expected "
+          + expectedCrc);
+    }
+  }
+
+  /**
+   * Sync the checkpoint files once all the parts are received, and check
+   * their digest.
+   * @param advertisedDigest the digest of the image computed by the sender,
+   *        null not to check it
+   * @return the digest of the image
+   */
+  MD5Hash commit(MD5Hash advertisedDigest) throws IOException {
+    if (!isComplete()) {
+      throw new IOException("Received " + getReceivedParts().size() + " of the "
+          + numParts + " parts of the image with txid " + txId);
+    }
+    synchronized (uploads) {
+      if (uploads.get(txId) != this) {
+        throw new IOException("The upload of the image with txid " + txId
+            + " was aborted");
+      }
+      // a part written again would change the image after its digest
+      if (writing > 0) {
+        throw new IOException(writing + " parts of the image with txid "
+            + txId + " are being written");
+      }
+      committing = true;
+    }
+    for (File f : files) {
+      final RandomAccessFile raf = new RandomAccessFile(f, "rw");
+      try {
+        raf.getChannel().force(true);
+      } finally {
+        raf.close();
+      }
+    }
+    final MD5Hash digest = MD5FileUtils.computeMd5ForFile(files.get(0));
+    if (advertisedDigest != null && !digest.equals(advertisedDigest)) {
+      throw new IOException("The image with txid " + txId + " has digest "
+          + digest + " which does not match advertised digest "
+          + advertisedDigest);
+    }
+    final double xferSec = Math.max(
+        (monotonicNow() - startTime) / 1000.0, 0.001);
+    LOG.info(String.format("Received the %d parts of the image with txid %d,"
+        + " %d bytes, in %.2fs", numParts, txId, fileLength, xferSec));
+    return digest;
+  }
+
+  /** Delete the checkpoint files, unless they are already renamed. */
+  private void abort() {
+    for (File f : files) {
+      if (f.exists() && !f.delete()) {
+        LOG.warn("Deleting " + f + " has failed");
+      }
+    }
+  }
+
+  long getElapsedTime() {
+    return monotonicNow() - startTime;
+  }
+
+  /** The uploads in progress to a namenode, by transaction id. */
+  static class Uploads {
+    private final Map<Long, PartialImageUpload> uploads =
+        new HashMap<Long, PartialImageUpload>();
+
+    /**
+     * Start the upload of an image, or resume it with the same parameters.
+     * @return the upload, or null if the namenode is saving or receiving
+     *         the image of this transaction otherwise.
+     */
+    synchronized PartialImageUpload begin(FSImage image, NameNodeFile nnf,
+        long txId, long baseTxId, long fileLength, long partSize,
+        DataTransferThrottler throttler) throws IOException {
+      expire(image);
+      PartialImageUpload upload = uploads.get(txId);
+      if (upload != null) {
+        if (upload.matches(nnf, baseTxId, fileLength, partSize)) {
+          LOG.info("Resuming the upload of the image with txid " + txId
+              + ", " + upload.getReceivedParts().size() + " of its "
+              + upload.numParts + " parts received");
+          return upload;
+        }
+        LOG.warn("Restarting the upload of the image with txid " + txId
+            + " which was started with different parameters");
+        remove(image, upload);
+      }
+      if (!image.addToCheckpointing(txId)) {
+        return null;
+      }
+      try {
+        upload = new PartialImageUpload(this, image.getStorage(), nnf, txId,
+            baseTxId, fileLength, partSize, throttler);
+      } catch (IOException e) {
+        image.removeFromCheckpointing(txId);
+        throw e;
+      }
+      uploads.put(txId, upload);
+      return upload;
+    }
+
+    /** @return the upload in progress of the given image, or null. */
+    synchronized PartialImageUpload get(long txId) {
+      return uploads.get(txId);
+    }
+
+    /**
+     * End an upload once it is committed or failed, deleting what was
+     * received unless the image was renamed.
+     */
+    synchronized void remove(FSImage image, PartialImageUpload upload) {
+      if (uploads.get(upload.txId) == upload) {
+        uploads.remove(upload.txId);
+        upload.abort();
+        image.removeFromCheckpointing(upload.txId);
+      }
+    }
+
+    private void expire(FSImage image) {
+      final long now = monotonicNow();
+      for (Iterator<PartialImageUpload> it = uploads.values().iterator();
+           it.hasNext(); ) {
+        final PartialImageUpload upload = it.next();
+        if (upload.isExpired(now)) {
+          LOG.warn("Abandoning the upload of the image with txid "
+              + upload.txId + " which is idle for more than " + expiryMs
+              + " ms");
+          it.remove();
+          upload.abort();
+          image.removeFromCheckpointing(upload.txId);
+        }
+      }
+    }
+  }
+}
@@ -23,6 +23,7 @@
 import java.util.concurrent.CountDownLatch;
 
 import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.server.common.Storage.StorageDirectory;
 import org.apache.hadoop.hdfs.util.Canceler;
 
@@ -43,6 +44,11 @@ public class SaveNamespaceContext {
   private final Canceler canceller;
   private final CountDownLatch completionLatch = new CountDownLatch(1);
 
+  /** The full image a delta image is saved against, INVALID_TXID if none */
+  private long deltaBaseTxId = HdfsConstants.INVALID_TXID;
+  /** The inodes changed since the full image, saved in the delta image */
+  private long[] changedINodes;
+
   SaveNamespaceContext(
       FSNamesystem sourceNamesystem,
       long txid,
@@ -60,6 +66,28 @@ long getTxId() {
     return txid;
   }
 
+  /**
+   * Save a delta image rather than a full image.
+   * @param baseTxId the full image the delta image applies to
+   * @param changedINodes the inodes changed since the full image
+   */
+  void setDelta(long baseTxId, long[] changedINodes) {
+    this.deltaBaseTxId = baseTxId;
+    this.changedINodes = changedINodes;
+  }
+
+  /**
+   * @return the full image the delta image applies to, or INVALID_TXID if
+   *         a full image is saved.
+   */
+  long getDeltaBaseTxId() {
+    return deltaBaseTxId;
+  }
+
+  long[] getChangedINodes() {
+    return changedINodes;
+  }
+
   void reportErrorOnStorageDirectory(StorageDirectory sd) {
     errorSDs.add(sd);
   }
@@ -458,6 +458,8 @@ public Boolean run() throws Exception {
                   dstImage.getStorage(), true);
               dstImage.saveDigestAndRenameCheckpointImage(NameNodeFile.IMAGE,
                   sig.mostRecentCheckpointTxId, downloadedHash);
+              TransferFsImage.downloadBaseImageToStorage(nnHostPort,
+                  sig.mostRecentCheckpointTxId, dstImage);
             }
         
             // get edits file
@@ -22,13 +22,14 @@
 import java.util.concurrent.atomic.AtomicInteger;
 
 
-/** Manage name-to-serial-number maps for users and groups. */
+/** Manage name-to-serial-number maps for users, groups and xattr names. */
 class SerialNumberManager {
   /** This is the only instance of {@link SerialNumberManager}.*/
   static final SerialNumberManager INSTANCE = new SerialNumberManager();
 
   private final SerialNumberMap<String> usermap = new SerialNumberMap<String>();
   private final SerialNumberMap<String> groupmap = new SerialNumberMap<String>();
+  private final SerialNumberMap<String> xattrmap = new SerialNumberMap<String>();
 
   private SerialNumberManager() {}
 
@@ -36,10 +37,13 @@ private SerialNumberManager() {}
   int getGroupSerialNumber(String g) {return groupmap.get(g);}
   String getUser(int n) {return usermap.get(n);}
   String getGroup(int n) {return groupmap.get(n);}
+  int getXAttrNameSerialNumber(String name) {return xattrmap.get(name);}
+  String getXAttrName(int n) {return xattrmap.get(n);}
 
   {
     getUserSerialNumber(null);
     getGroupSerialNumber(null);
+    getXAttrNameSerialNumber(null);
   }
 
   private static class SerialNumberMap<T> {
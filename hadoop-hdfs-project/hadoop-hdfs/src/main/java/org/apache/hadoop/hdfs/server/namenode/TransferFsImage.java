@@ -17,12 +17,14 @@
  */
 package org.apache.hadoop.hdfs.server.namenode;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
@@ -30,9 +32,18 @@
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -53,16 +64,23 @@
 import org.apache.hadoop.hdfs.server.protocol.RemoteEditLog;
 import org.apache.hadoop.hdfs.util.Canceler;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
+import org.apache.hadoop.hdfs.util.MD5FileUtils;
 import org.apache.hadoop.hdfs.web.URLConnectionFactory;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.authentication.client.AuthenticationException;
 import org.apache.hadoop.util.Time;
 import org.apache.http.client.utils.URIBuilder;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.mortbay.jetty.EofException;
 
 /**
@@ -117,6 +135,33 @@ public static MD5Hash downloadImageToStorage(URL fsName, long imageTxId,
     return hash;
   }
 
+  /**
+   * Download the full image a downloaded delta image applies to, unless the
+   * storage already has it, as the delta image is loaded with it.
+   *
+   * @param fsName the http address of the NN to download it from
+   * @param imageTxId the transaction ID of the downloaded image
+   * @param dstImage the image the downloaded image was saved to
+   */
+  public static void downloadBaseImageToStorage(URL fsName, long imageTxId,
+      FSImage dstImage) throws IOException {
+    NNStorage storage = dstImage.getStorage();
+    File imageFile = storage.findImageFile(NameNodeFile.IMAGE, imageTxId);
+    if (imageFile == null) {
+      throw new IOException("Could not find image with txid " + imageTxId);
+    }
+    long baseTxId = FSImageUtil.getBaseImageTxId(imageFile);
+    if (baseTxId == HdfsConstants.INVALID_TXID
+        || storage.findImageFile(NameNodeFile.IMAGE, baseTxId) != null) {
+      return;
+    }
+    LOG.info("Downloading the image with txid " + baseTxId
+        + " which the delta image with txid " + imageTxId + " applies to");
+    MD5Hash hash = downloadImageToStorage(fsName, baseTxId, storage, true);
+    dstImage.saveDigestAndRenameCheckpointImage(NameNodeFile.IMAGE, baseTxId,
+        hash);
+  }
+
   static MD5Hash handleUploadImageRequest(HttpServletRequest request,
       long imageTxId, Storage dstStorage, InputStream stream,
       long advertisedSize, DataTransferThrottler throttler) throws IOException {
@@ -219,7 +264,22 @@ public static void uploadImageFromStorage(URL fsName, Configuration conf,
     URL url = new URL(fsName, ImageServlet.PATH_SPEC);
     long startTime = Time.monotonicNow();
     try {
-      uploadImage(url, conf, storage, nnf, txid, canceler);
+      try {
+        uploadImage(url, conf, storage, nnf, txid, canceler);
+      } catch (HttpPutFailedException e) {
+        if (e.getResponseCode() !=
+            HttpServletResponse.SC_PRECONDITION_FAILED) {
+          throw e;
+        }
+        // the NN does not have the full image the delta image applies to
+        long baseTxId = FSImageUtil.getBaseImageTxId(
+            storage.findImageFile(nnf, txid));
+        LOG.info("Uploading the image with txid " + baseTxId + " which the "
+            + "delta image with txid " + txid + " applies to");
+        uploadImageFromStorage(fsName, conf, storage, nnf, baseTxId,
+            canceler);
+        uploadImage(url, conf, storage, nnf, txid, canceler);
+      }
     } catch (HttpPutFailedException e) {
       if (e.getResponseCode() == HttpServletResponse.SC_CONFLICT) {
         // this is OK - this means that a previous attempt to upload
@@ -250,26 +310,19 @@ private static void uploadImage(URL url, Configuration conf,
       throw new IOException("Could not find image with txid " + txId);
     }
 
-    HttpURLConnection connection = null;
-    try {
-      URIBuilder uriBuilder = new URIBuilder(url.toURI());
-
-      // write all params for image upload request as query itself.
-      // Request body contains the image to be uploaded.
-      Map<String, String> params = ImageServlet.getParamsForPutImage(storage,
-          txId, imageFile.length(), nnf);
-      for (Entry<String, String> entry : params.entrySet()) {
-        uriBuilder.addParameter(entry.getKey(), entry.getValue());
-      }
-
-      URL urlWithParams = uriBuilder.build().toURL();
-      connection = (HttpURLConnection) connectionFactory.openConnection(
-          urlWithParams, UserGroupInformation.isSecurityEnabled());
-      // Set the request to PUT
-      connection.setRequestMethod("PUT");
-      connection.setDoOutput(true);
+    // write all params for image upload request as query itself.
+    // Request body contains the image to be uploaded.
+    Map<String, String> params = ImageServlet.getParamsForPutImage(storage,
+        txId, FSImageUtil.getBaseImageTxId(imageFile), imageFile.length(),
+        nnf);
+    if (conf.getBoolean(DFSConfigKeys.DFS_IMAGE_TRANSFER_PARALLEL_ENABLED_KEY,
+        DFSConfigKeys.DFS_IMAGE_TRANSFER_PARALLEL_ENABLED_DEFAULT)) {
+      uploadImageInParts(url, conf, params, imageFile, txId, canceler);
+      return;
+    }
 
-      
+    HttpURLConnection connection = openPutConnection(url, params);
+    try {
       int chunkSize = conf.getInt(
           DFSConfigKeys.DFS_IMAGE_TRANSFER_CHUNKSIZE_KEY,
           DFSConfigKeys.DFS_IMAGE_TRANSFER_CHUNKSIZE_DEFAULT);
@@ -281,30 +334,280 @@ private static void uploadImage(URL url, Configuration conf,
         connection.setChunkedStreamingMode(chunkSize);
       }
 
-      setTimeout(connection);
-
       // set headers for verification
       ImageServlet.setVerificationHeadersForPut(connection, imageFile);
 
       // Write the file to output stream.
       writeFileToPutRequest(conf, connection, imageFile, canceler);
 
-      int responseCode = connection.getResponseCode();
-      if (responseCode != HttpURLConnection.HTTP_OK) {
-        throw new HttpPutFailedException(String.format(
-            "Image uploading failed, status: %d, url: %s, message: %s",
-            responseCode, urlWithParams, connection.getResponseMessage()),
-            responseCode);
+      checkPutResponse(connection);
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Open a PUT request to the image servlet, with the parameters in its
+   * query.
+   */
+  private static HttpURLConnection openPutConnection(URL url,
+      Map<String, String> params) throws IOException {
+    try {
+      URIBuilder uriBuilder = new URIBuilder(url.toURI());
+      for (Entry<String, String> entry : params.entrySet()) {
+        uriBuilder.addParameter(entry.getKey(), entry.getValue());
       }
+
+      URL urlWithParams = uriBuilder.build().toURL();
+      HttpURLConnection connection = (HttpURLConnection)
+          connectionFactory.openConnection(urlWithParams,
+              UserGroupInformation.isSecurityEnabled());
+      // Set the request to PUT
+      connection.setRequestMethod("PUT");
+      connection.setDoOutput(true);
+      setTimeout(connection);
+      return connection;
     } catch (AuthenticationException e) {
       throw new IOException(e);
     } catch (URISyntaxException e) {
       throw new IOException(e);
+    }
+  }
+
+  private static void checkPutResponse(HttpURLConnection connection)
+      throws IOException {
+    int responseCode = connection.getResponseCode();
+    if (responseCode != HttpURLConnection.HTTP_OK) {
+      throw new HttpPutFailedException(String.format(
+          "Image uploading failed, status: %d, url: %s, message: %s",
+          responseCode, connection.getURL(), connection.getResponseMessage()),
+          responseCode);
+    }
+  }
+
+  /**
+   * Uploads the image in parts, see dfs.image.transfer.parallel.enabled. The
+   * namenode first tells which parts it already has from a previous attempt,
+   * the other parts are sent over parallel connections with their CRC32
+   * checksum and retried on their own, and the upload is committed with the
+   * digest of the whole image.
+   */
+  private static void uploadImageInParts(URL url, Configuration conf,
+      Map<String, String> params, File imageFile, long txId,
+      Canceler canceler) throws IOException {
+    final long partSize = conf.getLong(
+        DFSConfigKeys.DFS_IMAGE_TRANSFER_PARALLEL_PART_SIZE_KEY,
+        DFSConfigKeys.DFS_IMAGE_TRANSFER_PARALLEL_PART_SIZE_DEFAULT);
+    Preconditions.checkArgument(partSize > 0, "%s must be positive",
+        DFSConfigKeys.DFS_IMAGE_TRANSFER_PARALLEL_PART_SIZE_KEY);
+    final int numParts = Ints.checkedCast(
+        (imageFile.length() + partSize - 1) / partSize);
+    params.put(ImageServlet.PART_SIZE_PARAM, Long.toString(partSize));
+
+    final List<Integer> missingParts = new ArrayList<Integer>();
+    HttpURLConnection connection = openPartConnection(url, params,
+        ImageServlet.PART_BEGIN);
+    try {
+      sendEmptyBody(connection);
+      checkPutResponse(connection);
+      final Set<Integer> received = new HashSet<Integer>();
+      final String header = connection.getHeaderField(
+          ImageServlet.PARTS_RECEIVED_HEADER);
+      if (header != null) {
+        for (String index : Splitter.on(',').omitEmptyStrings().split(header)) {
+          received.add(Integer.parseInt(index));
+        }
+      }
+      for (int i = 0; i < numParts; i++) {
+        if (!received.contains(i)) {
+          missingParts.add(i);
+        }
+      }
+      if (!received.isEmpty()) {
+        LOG.info("Resuming the upload of the image with txid " + txId
+            + ", the namenode has " + received.size() + " of its "
+            + numParts + " parts");
+      }
+    } finally {
+      connection.disconnect();
+    }
+
+    if (!missingParts.isEmpty()) {
+      uploadParts(url, conf, params, imageFile, txId, partSize, missingParts,
+          canceler);
+    }
+
+    connection = openPartConnection(url, params, ImageServlet.PART_COMMIT);
+    try {
+      MD5Hash hash = MD5FileUtils.readStoredMd5ForFile(imageFile);
+      if (hash != null) {
+        connection.setRequestProperty(MD5_HEADER, hash.toString());
+      }
+      sendEmptyBody(connection);
+      checkPutResponse(connection);
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private static void uploadParts(final URL url, Configuration conf,
+      final Map<String, String> params, final File imageFile, final long txId,
+      final long partSize, List<Integer> parts, final Canceler canceler)
+      throws IOException {
+    final int numConnections = Math.max(1, Math.min(parts.size(), conf.getInt(
+        DFSConfigKeys.DFS_IMAGE_TRANSFER_PARALLEL_CONNECTIONS_KEY,
+        DFSConfigKeys.DFS_IMAGE_TRANSFER_PARALLEL_CONNECTIONS_DEFAULT)));
+    final int retries = conf.getInt(
+        DFSConfigKeys.DFS_IMAGE_TRANSFER_PARALLEL_PART_RETRIES_KEY,
+        DFSConfigKeys.DFS_IMAGE_TRANSFER_PARALLEL_PART_RETRIES_DEFAULT);
+    final int chunkSize = conf.getInt(
+        DFSConfigKeys.DFS_IMAGE_TRANSFER_CHUNKSIZE_KEY,
+        DFSConfigKeys.DFS_IMAGE_TRANSFER_CHUNKSIZE_DEFAULT);
+    final String codecName = conf.getTrimmed(
+        DFSConfigKeys.DFS_IMAGE_TRANSFER_PARALLEL_COMPRESSION_CODEC_KEY,
+        DFSConfigKeys.DFS_IMAGE_TRANSFER_PARALLEL_COMPRESSION_CODEC_DEFAULT);
+    final CompressionCodec codec = codecName.isEmpty() ? null
+        : FSImageCompression.createCompression(conf, codecName)
+            .getImageCodec();
+    // shared by the parts, the bandwidth limit is the one of the upload
+    final DataTransferThrottler throttler = ImageServlet.getThrottler(conf);
+
+    LOG.info("Uploading " + parts.size() + " parts of the image with txid "
+        + txId + " over " + numConnections + " connections");
+    final ExecutorService executor = Executors.newFixedThreadPool(
+        numConnections, new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("Image upload #%d").build());
+    try {
+      final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (final int index : parts) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            for (int attempt = 1; ; attempt++) {
+              try {
+                uploadPart(url, params, imageFile, index, partSize, codec,
+                    chunkSize, throttler, canceler);
+                return null;
+              } catch (IOException e) {
+                // the namenode abandoned the upload, it must be restarted
+                final boolean abandoned = e instanceof HttpPutFailedException
+                    && ((HttpPutFailedException) e).getResponseCode()
+                        == HttpServletResponse.SC_NOT_FOUND;
+                if (attempt > retries || abandoned
+                    || e instanceof SaveNamespaceCancelledException) {
+                  throw e;
+                }
+                LOG.warn("Failed to upload part " + index + " of the image "
+                    + "with txid " + txId + ", retrying", e);
+              }
+            }
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException("Interrupted while uploading the "
+              + "image with txid " + txId);
+        } catch (ExecutionException e) {
+          Throwables.propagateIfPossible(e.getCause(), IOException.class);
+          throw new IOException(e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void uploadPart(URL url, Map<String, String> params,
+      File imageFile, int index, long partSize, CompressionCodec codec,
+      int chunkSize, DataTransferThrottler throttler, Canceler canceler)
+      throws IOException {
+    final long offset = index * partSize;
+    final long length = Math.min(partSize, imageFile.length() - offset);
+    // the checksum is sent ahead of the part, so it is read twice
+    final long crc = copyPart(imageFile, offset, length, null, null, null);
+
+    final Map<String, String> partParams = new HashMap<String, String>(params);
+    partParams.put(ImageServlet.PART_CRC_PARAM, Long.toString(crc));
+    if (codec != null) {
+      partParams.put(ImageServlet.PART_CODEC_PARAM,
+          codec.getClass().getCanonicalName());
+    }
+    HttpURLConnection connection = openPartConnection(url, partParams,
+        Integer.toString(index));
+    try {
+      connection.setChunkedStreamingMode(chunkSize);
+      connection.setRequestProperty(CONTENT_TYPE, "application/octet-stream");
+      connection.setRequestProperty(CONTENT_TRANSFER_ENCODING, "binary");
+      OutputStream output = connection.getOutputStream();
+      try {
+        if (codec != null) {
+          output = codec.createOutputStream(output);
+        }
+        if (copyPart(imageFile, offset, length, output, throttler, canceler)
+            != crc) {
+          throw new IOException("Part " + index + " of " + imageFile
+              + " changed while it was uploaded");
+        }
+      } finally {
+        IOUtils.closeStream(output);
+      }
+      checkPutResponse(connection);
     } finally {
-      if (connection != null) {
-        connection.disconnect();
+      connection.disconnect();
+    }
+  }
+
+  private static HttpURLConnection openPartConnection(URL url,
+      Map<String, String> params, String part) throws IOException {
+    final Map<String, String> partParams = new HashMap<String, String>(params);
+    partParams.put(ImageServlet.PART_PARAM, part);
+    return openPutConnection(url, partParams);
+  }
+
+  private static void sendEmptyBody(HttpURLConnection connection)
+      throws IOException {
+    connection.setFixedLengthStreamingMode(0);
+    connection.getOutputStream().close();
+  }
+
+  /**
+   * Read a part of a file, and write it to the given stream if any.
+   * @return the CRC32 checksum of the part
+   */
+  private static long copyPart(File file, long offset, long length,
+      OutputStream out, DataTransferThrottler throttler, Canceler canceler)
+      throws IOException {
+    final CRC32 crc = new CRC32();
+    final byte[] buf = new byte[HdfsConstants.IO_FILE_BUFFER_SIZE];
+    final FileInputStream in = new FileInputStream(file);
+    try {
+      in.getChannel().position(offset);
+      for (long remaining = length; remaining > 0; ) {
+        if (canceler != null && canceler.isCancelled()) {
+          throw new SaveNamespaceCancelledException(
+              canceler.getCancellationReason());
+        }
+        final int num = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+        if (num < 0) {
+          throw new EOFException("Unexpected end of " + file + " at offset "
+              + (offset + length - remaining));
+        }
+        crc.update(buf, 0, num);
+        if (out != null) {
+          out.write(buf, 0, num);
+        }
+        if (throttler != null) {
+          throttler.throttle(num, canceler);
+        }
+        remaining -= num;
       }
+    } finally {
+      in.close();
     }
+    return crc.getValue();
   }
 
   private static void writeFileToPutRequest(Configuration conf,
@@ -587,7 +890,7 @@ private static MD5Hash parseMD5Header(HttpURLConnection connection) {
     return (header != null) ? new MD5Hash(header) : null;
   }
 
-  private static MD5Hash parseMD5Header(HttpServletRequest request) {
+  static MD5Hash parseMD5Header(HttpServletRequest request) {
     String header = request.getHeader(MD5_HEADER);
     return (header != null) ? new MD5Hash(header) : null;
   }
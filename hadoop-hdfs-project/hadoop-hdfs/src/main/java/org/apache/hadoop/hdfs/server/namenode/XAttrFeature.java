@@ -17,27 +17,81 @@
  */
 package org.apache.hadoop.hdfs.server.namenode;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.fs.XAttr;
-import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.util.ReferenceCountMap.ReferenceCounter;
 
 import com.google.common.collect.ImmutableList;
 
 /**
- * Feature for extended attributes.
+ * Feature for extended attributes. The attributes are packed into a byte
+ * array by {@link XAttrFormat}, and the features are shared by the inodes
+ * with the same attributes, see {@link XAttrStorage#addXAttrFeature}.
  */
 @InterfaceAudience.Private
-public class XAttrFeature implements INode.Feature {
+public class XAttrFeature implements INode.Feature, ReferenceCounter {
   public static final ImmutableList<XAttr> EMPTY_ENTRY_LIST =
       ImmutableList.of();
+  private int refCount = 0;
 
-  private final ImmutableList<XAttr> xAttrs;
+  private final byte[] attrs;
 
-  public XAttrFeature(ImmutableList<XAttr> xAttrs) {
-    this.xAttrs = xAttrs;
+  public XAttrFeature(List<XAttr> xAttrs) {
+    this.attrs = XAttrFormat.toBytes(xAttrs);
   }
 
   public ImmutableList<XAttr> getXAttrs() {
-    return xAttrs;
+    return XAttrFormat.toXAttrs(attrs);
+  }
+
+  /**
+   * Get an attribute by its name with the namespace prefix, without
+   * decoding the other ones.
+   * @return the attribute, or null if there is none with the given name
+   */
+  public XAttr getXAttr(String prefixedName) {
+    return XAttrFormat.getXAttr(attrs, prefixedName);
+  }
+
+  /**
+   * @return an estimate of the heap used by the feature: the object, and the
+   * array of the packed attributes.
+   */
+  long getHeapSize() {
+    return 24 + ((16 + attrs.length + 7) & ~7);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == null) {
+      return false;
+    }
+    if (getClass() != o.getClass()) {
+      return false;
+    }
+    return Arrays.equals(attrs, ((XAttrFeature) o).attrs);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(attrs);
+  }
+
+  @Override
+  public int getRefCount() {
+    return refCount;
+  }
+
+  @Override
+  public int incrementAndGetRefCount() {
+    return ++refCount;
+  }
+
+  @Override
+  public int decrementAndGetRefCount() {
+    return (refCount > 0) ? --refCount : 0;
   }
 }
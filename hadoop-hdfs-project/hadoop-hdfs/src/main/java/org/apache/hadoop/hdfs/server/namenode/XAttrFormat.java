@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.XAttr;
+import org.apache.hadoop.hdfs.XAttrHelper;
+import org.apache.hadoop.util.StringUtils;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Packs the extended attributes of an inode into a single byte array, rather
+ * than a list of {@link XAttr} objects which each hold a name and a value.
+ * Each attribute is encoded as:
+ * <pre>
+ *   [4 bytes: namespace (3 bits) | serial number of the name (29 bits)]
+ *   [varint: length of the value + 1, 0 for no value]
+ *   [value]
+ * </pre>
+ * The names are interned by {@link SerialNumberManager}, there are few
+ * distinct ones.
+ */
+@InterfaceAudience.Private
+final class XAttrFormat {
+  private static final int NAME_BITS = 29;
+  private static final int NAME_MASK = (1 << NAME_BITS) - 1;
+  private static final XAttr.NameSpace[] NAMESPACES =
+      XAttr.NameSpace.values();
+  /** The prefixes of the names, as {@link XAttrHelper#getPrefixName}. */
+  private static final String[] PREFIXES = new String[NAMESPACES.length];
+  static {
+    for (int i = 0; i < NAMESPACES.length; i++) {
+      PREFIXES[i] = StringUtils.toLowerCase(NAMESPACES[i].toString()) + ".";
+    }
+  }
+
+  private XAttrFormat() {}
+
+  static byte[] toBytes(List<XAttr> xAttrs) {
+    final int[] headers = new int[xAttrs.size()];
+    int size = 0;
+    for (int i = 0; i < headers.length; i++) {
+      final XAttr a = xAttrs.get(i);
+      final int serial = SerialNumberManager.INSTANCE
+          .getXAttrNameSerialNumber(a.getName());
+      if (serial > NAME_MASK) {
+        throw new IllegalStateException("Too many distinct xattr names");
+      }
+      headers[i] = a.getNameSpace().ordinal() << NAME_BITS | serial;
+      final int length = a.getValue() == null ? 0 : a.getValue().length;
+      size += 4 + getVarIntSize(getLengthField(a)) + length;
+    }
+
+    final byte[] bytes = new byte[size];
+    int pos = 0;
+    for (int i = 0; i < headers.length; i++) {
+      final XAttr a = xAttrs.get(i);
+      bytes[pos++] = (byte) (headers[i] >>> 24);
+      bytes[pos++] = (byte) (headers[i] >>> 16);
+      bytes[pos++] = (byte) (headers[i] >>> 8);
+      bytes[pos++] = (byte) headers[i];
+      for (int v = getLengthField(a); ; v >>>= 7) {
+        if ((v & ~0x7F) == 0) {
+          bytes[pos++] = (byte) v;
+          break;
+        }
+        bytes[pos++] = (byte) ((v & 0x7F) | 0x80);
+      }
+      if (a.getValue() != null) {
+        System.arraycopy(a.getValue(), 0, bytes, pos, a.getValue().length);
+        pos += a.getValue().length;
+      }
+    }
+    return bytes;
+  }
+
+  static ImmutableList<XAttr> toXAttrs(byte[] bytes) {
+    final ImmutableList.Builder<XAttr> b = ImmutableList.builder();
+    for (int pos = 0; pos < bytes.length; pos = next(bytes, pos)) {
+      b.add(toXAttr(bytes, pos));
+    }
+    return b.build();
+  }
+
+  /**
+   * Find an attribute by its name with the namespace prefix, decoding only
+   * the matching one.
+   * @return the attribute, or null if there is none with the given name
+   */
+  static XAttr getXAttr(byte[] bytes, String prefixedName) {
+    if (prefixedName == null) {
+      return null;
+    }
+    for (int pos = 0; pos < bytes.length; pos = next(bytes, pos)) {
+      final int header = getHeader(bytes, pos);
+      final String prefix = PREFIXES[header >>> NAME_BITS];
+      if (prefixedName.startsWith(prefix)) {
+        final String name = SerialNumberManager.INSTANCE.getXAttrName(
+            header & NAME_MASK);
+        if (prefixedName.length() == prefix.length() + name.length()
+            && prefixedName.endsWith(name)) {
+          return toXAttr(bytes, pos);
+        }
+      }
+    }
+    return null;
+  }
+
+  /** @return the attribute at the given position */
+  private static XAttr toXAttr(byte[] bytes, int pos) {
+    final int header = getHeader(bytes, pos);
+    final int lengthField = getLengthField(bytes, pos + 4);
+    byte[] value = null;
+    if (lengthField > 0) {
+      final int from = pos + 4 + getVarIntSize(lengthField);
+      value = Arrays.copyOfRange(bytes, from, from + lengthField - 1);
+    }
+    return new XAttr.Builder()
+        .setNameSpace(NAMESPACES[header >>> NAME_BITS])
+        .setName(SerialNumberManager.INSTANCE.getXAttrName(
+            header & NAME_MASK))
+        .setValue(value)
+        .build();
+  }
+
+  /** @return the position of the attribute after the one at pos */
+  private static int next(byte[] bytes, int pos) {
+    final int lengthField = getLengthField(bytes, pos + 4);
+    return pos + 4 + getVarIntSize(lengthField)
+        + (lengthField > 0 ? lengthField - 1 : 0);
+  }
+
+  private static int getHeader(byte[] bytes, int pos) {
+    return (bytes[pos] & 0xFF) << 24
+        | (bytes[pos + 1] & 0xFF) << 16
+        | (bytes[pos + 2] & 0xFF) << 8
+        | (bytes[pos + 3] & 0xFF);
+  }
+
+  private static int getLengthField(byte[] bytes, int pos) {
+    int lengthField = 0;
+    for (int shift = 0; ; shift += 7) {
+      final byte v = bytes[pos++];
+      lengthField |= (v & 0x7F) << shift;
+      if ((v & 0x80) == 0) {
+        return lengthField;
+      }
+    }
+  }
+
+  private static int getLengthField(XAttr a) {
+    return a.getValue() == null ? 0 : a.getValue().length + 1;
+  }
+
+  private static int getVarIntSize(int v) {
+    int size = 1;
+    while ((v & ~0x7F) != 0) {
+      v >>>= 7;
+      size++;
+    }
+    return size;
+  }
+}
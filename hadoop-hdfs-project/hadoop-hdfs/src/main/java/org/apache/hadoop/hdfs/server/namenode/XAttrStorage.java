@@ -19,14 +19,13 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import java.util.List;
-import java.util.Map;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.fs.XAttr;
 import org.apache.hadoop.hdfs.protocol.QuotaExceededException;
+import org.apache.hadoop.hdfs.util.ReferenceCountMap;
 
 /**
  * XAttrStorage is used to read and set xattrs for an inode.
@@ -34,7 +33,8 @@
 @InterfaceAudience.Private
 public class XAttrStorage {
 
-  private static final Map<String, String> internedNames = Maps.newHashMap();
+  private final static ReferenceCountMap<XAttrFeature> UNIQUE_XATTR_FEATURES =
+      new ReferenceCountMap<XAttrFeature>();
 
   /**
    * Reads the existing extended attributes of an inode. If the 
@@ -52,6 +52,22 @@ public static List<XAttr> readINodeXAttrs(INode inode, int snapshotId) {
     return f == null ? ImmutableList.<XAttr> of() : f.getXAttrs();
   }
   
+  /**
+   * Reads one extended attribute of an inode, decoding only that one.
+   * <p/>
+   * Must be called while holding the FSDirectory read lock.
+   *
+   * @param inode INode to read
+   * @param snapshotId
+   * @param prefixedName name of the attribute, with the namespace prefix
+   * @return the <code>XAttr</code>, or null if the inode does not have it
+   */
+  public static XAttr readINodeXAttrByPrefixedName(INode inode,
+      int snapshotId, String prefixedName) {
+    XAttrFeature f = inode.getXAttrFeature(snapshotId);
+    return f == null ? null : f.getXAttr(prefixedName);
+  }
+
   /**
    * Reads the existing extended attributes of an inode.
    * <p/>
@@ -82,27 +98,33 @@ public static void updateINodeXAttrs(INode inode,
       }
       return;
     }
-    // Dedupe the xAttr name and save them into a new interned list
-    List<XAttr> internedXAttrs = Lists.newArrayListWithCapacity(xAttrs.size());
-    for (XAttr xAttr : xAttrs) {
-      final String name = xAttr.getName();
-      String internedName = internedNames.get(name);
-      if (internedName == null) {
-        internedName = name;
-        internedNames.put(internedName, internedName);
-      }
-      XAttr internedXAttr = new XAttr.Builder()
-          .setName(internedName)
-          .setNameSpace(xAttr.getNameSpace())
-          .setValue(xAttr.getValue())
-          .build();
-      internedXAttrs.add(internedXAttr);
-    }
-    // Save the list of interned xattrs
-    ImmutableList<XAttr> newXAttrs = ImmutableList.copyOf(internedXAttrs);
     if (inode.getXAttrFeature() != null) {
       inode.removeXAttrFeature(snapshotId);
     }
-    inode.addXAttrFeature(new XAttrFeature(newXAttrs), snapshotId);
+    inode.addXAttrFeature(new XAttrFeature(xAttrs), snapshotId);
+  }
+
+  @VisibleForTesting
+  public static ReferenceCountMap<XAttrFeature> getUniqueXAttrFeatures() {
+    return UNIQUE_XATTR_FEATURES;
+  }
+
+  /**
+   * Add reference for the said XAttrFeature
+   *
+   * @param xAttrFeature
+   * @return Referenced XAttrFeature
+   */
+  public static XAttrFeature addXAttrFeature(XAttrFeature xAttrFeature) {
+    return UNIQUE_XATTR_FEATURES.put(xAttrFeature);
+  }
+
+  /**
+   * Remove reference to the XAttrFeature
+   *
+   * @param xAttrFeature
+   */
+  public static void removeXAttrFeature(XAttrFeature xAttrFeature) {
+    UNIQUE_XATTR_FEATURES.remove(xAttrFeature);
   }
 }
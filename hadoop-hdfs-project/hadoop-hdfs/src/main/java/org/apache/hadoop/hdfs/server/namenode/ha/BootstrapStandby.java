@@ -319,6 +319,8 @@ private int downloadImage(NNStorage storage, NamenodeProtocol proxy)
           otherHttpAddr, imageTxId, storage, true);
       image.saveDigestAndRenameCheckpointImage(NameNodeFile.IMAGE, imageTxId,
           hash);
+      TransferFsImage.downloadBaseImageToStorage(otherHttpAddr, imageTxId,
+          image);
     } catch (IOException ioe) {
       image.close();
       throw ioe;
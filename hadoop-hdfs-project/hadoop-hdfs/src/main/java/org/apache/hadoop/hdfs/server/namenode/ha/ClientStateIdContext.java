@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * The client side of the consistent reads from the standby. It keeps the
+ * highest transaction id returned by the NameNodes, and sends it with the
+ * requests so that a standby only answers once it has applied it.
+ */
+@InterfaceAudience.Private
+class ClientStateIdContext implements AlignmentContext {
+  private final AtomicLong lastSeenStateId =
+      new AtomicLong(HdfsConstants.INVALID_TXID);
+
+  long getLastSeenStateId() {
+    return lastSeenStateId.get();
+  }
+
+  @Override
+  public void updateResponseState(RpcResponseHeaderProto.Builder header) {
+    throw new UnsupportedOperationException("Server side only");
+  }
+
+  @Override
+  public void receiveResponseState(RpcResponseHeaderProto header) {
+    if (!header.hasStateId()) {
+      return;
+    }
+    final long stateId = header.getStateId();
+    for (long last = lastSeenStateId.get(); stateId > last;
+         last = lastSeenStateId.get()) {
+      if (lastSeenStateId.compareAndSet(last, stateId)) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+    final long stateId = lastSeenStateId.get();
+    if (stateId != HdfsConstants.INVALID_TXID) {
+      header.setStateId(stateId);
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.Client;
+import org.apache.hadoop.ipc.Client.ConnectionId;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RpcInvocationHandler;
+import org.apache.hadoop.ipc.StandbyException;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A FailoverProxyProvider which sends the reads of the namespace to the
+ * standby NameNodes, and all the other calls to the active one.
+ *
+ * Every response carries the last transaction id of the NameNode, and the
+ * client sends the highest one it has seen with its requests. A standby only
+ * answers a read once it has applied that transaction, so the client reads
+ * its own writes. The read is sent to the active when no standby can answer
+ * it in time, see dfs.ha.standby.consistent-reads.enabled.
+ */
+public class ConsistentReadProxyProvider<T> extends
+    ConfiguredFailoverProxyProvider<T> {
+
+  private static final Log LOG =
+      LogFactory.getLog(ConsistentReadProxyProvider.class);
+
+  /** The {@link ClientProtocol} methods which a standby may answer. */
+  static final Set<String> READ_METHODS = Collections.unmodifiableSet(
+      new HashSet<String>(Arrays.asList(
+          "getBlockLocations", "getFileInfo", "getFileLinkInfo", "getListing",
+          "getListingRecursive", "getContentSummary", "getLinkTarget",
+          "isFileClosed",
+          "getAclStatus", "getXAttrs", "listXAttrs", "checkAccess")));
+
+  /** Shared by all the proxies, as the client of this provider is. */
+  private final ClientStateIdContext stateIdContext =
+      new ClientStateIdContext();
+
+  public ConsistentReadProxyProvider(Configuration conf, URI uri,
+      Class<T> xface) {
+    this(conf, uri, xface, new DefaultProxyFactory<T>());
+  }
+
+  @VisibleForTesting
+  ConsistentReadProxyProvider(Configuration conf, URI uri, Class<T> xface,
+      ProxyFactory<T> factory) {
+    super(conf, uri, xface, factory);
+  }
+
+  @VisibleForTesting
+  ClientStateIdContext getStateIdContext() {
+    return stateIdContext;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public synchronized ProxyInfo<T> getProxy() {
+    final ProxyInfo<T> active = super.getProxy();
+    final List<ProxyInfo<T>> standbys = new ArrayList<ProxyInfo<T>>();
+    if (ClientProtocol.class.isAssignableFrom(xface)) {
+      for (int i = 1; i < proxies.size(); i++) {
+        incrementProxyIndex();
+        standbys.add(super.getProxy());
+      }
+      // back to the active
+      incrementProxyIndex();
+    }
+    T wrappedProxy = (T) Proxy.newProxyInstance(
+        ConsistentReadInvocationHandler.class.getClassLoader(),
+        new Class<?>[]{xface},
+        new ConsistentReadInvocationHandler(active, standbys));
+    return new ProxyInfo<T>(wrappedProxy, active.proxyInfo);
+  }
+
+  /**
+   * @return true if the exception means that the NameNode could not answer,
+   * rather than being its answer.
+   */
+  private static boolean isUnavailable(Throwable t) {
+    if (t instanceof RemoteException) {
+      return ((RemoteException) t).unwrapRemoteException()
+          instanceof StandbyException;
+    }
+    return t instanceof IOException;
+  }
+
+  /**
+   * Sends the reads to the standbys first, and all the calls of the current
+   * thread with the state id of the client. It is an RPC invocation handler,
+   * so that the calls are retried with the same call id on failover.
+   */
+  private class ConsistentReadInvocationHandler
+      implements RpcInvocationHandler {
+    private final ProxyInfo<T> active;
+    private final List<ProxyInfo<T>> standbys;
+
+    ConsistentReadInvocationHandler(ProxyInfo<T> active,
+        List<ProxyInfo<T>> standbys) {
+      this.active = active;
+      this.standbys = standbys;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      final AlignmentContext previous = Client.getAlignmentContext();
+      Client.setAlignmentContext(stateIdContext);
+      try {
+        if (!standbys.isEmpty() && READ_METHODS.contains(method.getName())) {
+          for (ProxyInfo<T> standby : standbys) {
+            try {
+              return method.invoke(standby.proxy, args);
+            } catch (InvocationTargetException e) {
+              if (!isUnavailable(e.getCause())) {
+                throw e;
+              }
+              if (LOG.isDebugEnabled()) {
+                LOG.debug("Standby " + standby.proxyInfo + " could not answer "
+                    + method.getName() + ": " + e.getCause());
+              }
+            }
+          }
+        }
+        return method.invoke(active.proxy, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      } finally {
+        Client.setAlignmentContext(previous);
+      }
+    }
+
+    @Override
+    public ConnectionId getConnectionId() {
+      return RPC.getConnectionIdForProxy(active.proxy);
+    }
+
+    @Override
+    public void close() throws IOException {
+      // the proxies are closed with the provider
+    }
+  }
+}
@@ -23,6 +23,7 @@
 import java.security.PrivilegedAction;
 import java.security.PrivilegedExceptionAction;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -40,6 +41,7 @@
 import org.apache.hadoop.hdfs.server.namenode.FSImage;
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocol;
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.security.SecurityUtil;
@@ -87,9 +89,14 @@ public class EditLogTailer {
   private long lastLoadTimeMs;
 
   /**
-   * How often the Standby should roll edit logs. Since the Standby only reads
-   * from finalized log segments, the Standby will only be as up-to-date as how
-   * often the logs are rolled.
+   * The last time a log roll was triggered on the active node.
+   */
+  private long lastRollTimeMs;
+
+  /**
+   * How often the Standby should roll edit logs. Unless it reads the
+   * in-progress segment, the Standby only reads from finalized log segments
+   * and will only be as up-to-date as how often the logs are rolled.
    */
   private final long logRollPeriodMs;
 
@@ -98,6 +105,13 @@ public class EditLogTailer {
    * available to be read from.
    */
   private final long sleepTimeMs;
+
+  /**
+   * Whether the Standby also reads the in-progress segment. The edits are
+   * then applied as soon as they are written to a quorum of journals,
+   * instead of when the segment is rolled.
+   */
+  private final boolean inProgressOk;
   
   public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
     this.tailerThread = new EditLogTailerThread();
@@ -106,6 +120,7 @@ public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
     this.editLog = namesystem.getEditLog();
     
     lastLoadTimeMs = monotonicNow();
+    lastRollTimeMs = lastLoadTimeMs;
 
     logRollPeriodMs = conf.getInt(DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY,
         DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_DEFAULT) * 1000;
@@ -121,13 +136,31 @@ public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
           DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY + " is negative.");
     }
     
-    sleepTimeMs = conf.getInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
-        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT) * 1000;
+    sleepTimeMs = getTailPeriodMs(conf);
+    inProgressOk = conf.getBoolean(
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_DEFAULT);
     
     LOG.debug("logRollPeriodMs=" + logRollPeriodMs +
-        " sleepTime=" + sleepTimeMs);
+        " sleepTime=" + sleepTimeMs + " inProgressOk=" + inProgressOk);
   }
   
+  /**
+   * The tail period is in seconds, unless it has a time unit suffix so that
+   * sub-second periods can be configured.
+   */
+  private static long getTailPeriodMs(Configuration conf) {
+    final String period = conf.getTrimmed(
+        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY);
+    if (period == null || period.matches("-?\\d+")) {
+      return conf.getInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
+          DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT) * 1000L;
+    }
+    return conf.getTimeDuration(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT * 1000L,
+        TimeUnit.MILLISECONDS);
+  }
+
   private InetSocketAddress getActiveNodeAddress() {
     Configuration activeConf = HAUtil.getConfForOtherNode(conf);
     return NameNode.getServiceAddress(activeConf, true);
@@ -211,7 +244,8 @@ void doTailEdits() throws IOException, InterruptedException {
       }
       Collection<EditLogInputStream> streams;
       try {
-        streams = editLog.selectInputStreams(lastTxnId + 1, 0, null, false);
+        streams = editLog.selectInputStreams(lastTxnId + 1, 0, null,
+            inProgressOk);
       } catch (IOException ioe) {
         // This is acceptable. If we try to tail edits in the middle of an edits
         // log roll, i.e. the last one has been finalized but the new inprogress
@@ -228,6 +262,7 @@ void doTailEdits() throws IOException, InterruptedException {
       // for concern, so we don't catch them here. Simple errors reading from
       // disk are ignored.
       long editsLoaded = 0;
+      final long startTime = monotonicNow();
       try {
         editsLoaded = image.loadEdits(streams, namesystem);
       } catch (EditLogInputException elie) {
@@ -241,9 +276,16 @@ void doTailEdits() throws IOException, InterruptedException {
       }
 
       if (editsLoaded > 0) {
-        lastLoadTimeMs = monotonicNow();
+        final long now = monotonicNow();
+        final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+        if (metrics != null) {
+          metrics.addEditLogTail(editsLoaded, now - startTime,
+              now - lastLoadTimeMs);
+        }
+        lastLoadTimeMs = now;
       }
       lastLoadedTxnId = image.getLastAppliedTxId();
+      namesystem.getStateIdContext().setLastAppliedTxId(lastLoadedTxnId);
     } finally {
       namesystem.writeUnlock();
     }
@@ -264,6 +306,17 @@ private boolean tooLongSinceLastLoad() {
       (monotonicNow() - lastLoadTimeMs) > logRollPeriodMs ;
   }
 
+  /**
+   * When reading the in-progress segment, the edits are loaded as they are
+   * written, so the roll is based on the time since the last roll instead.
+   * This bounds the part of the segment which is read again at every tail.
+   * @return true if the configured log roll period has elapsed.
+   */
+  private boolean tooLongSinceLastRoll() {
+    return logRollPeriodMs >= 0 &&
+      (monotonicNow() - lastRollTimeMs) > logRollPeriodMs;
+  }
+
   /**
    * Trigger the active node to roll its logs.
    */
@@ -272,6 +325,7 @@ private void triggerActiveLogRoll() {
     try {
       getActiveNodeProxy().rollEditLog();
       lastRollTriggerTxId = lastLoadedTxnId;
+      lastRollTimeMs = monotonicNow();
     } catch (IOException ioe) {
       LOG.warn("Unable to trigger a roll of the active NN", ioe);
     }
@@ -310,8 +364,9 @@ private void doWork() {
           // There's no point in triggering a log roll if the Standby hasn't
           // read any more transactions since the last time a roll was
           // triggered. 
-          if (tooLongSinceLastLoad() &&
-              lastRollTriggerTxId < lastLoadedTxnId) {
+          final boolean shouldRoll = inProgressOk ?
+              tooLongSinceLastRoll() : tooLongSinceLastLoad();
+          if (shouldRoll && lastRollTriggerTxId < lastLoadedTxnId) {
             triggerActiveLogRoll();
           }
           /**
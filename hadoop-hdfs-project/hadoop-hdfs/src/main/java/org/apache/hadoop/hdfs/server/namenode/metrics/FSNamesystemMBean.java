@@ -185,6 +185,16 @@ public interface FSNamesystemMBean {
    */
   public String getTopUserOpCounts();
 
+  /**
+   * Returns a nested JSON object listing, for each kind of cost, the top
+   * users by the cost of their RPC operations over the tracked time windows:
+   * the time they held the namesystem lock, the number of inodes they
+   * touched and the estimated size of their responses.
+   *
+   * @return JSON string, or null if the costs are not tracked
+   */
+  public String getTopUserOpCosts();
+
   /**
    * Returns the length of the wait Queue for the FSNameSystemLock.
    *
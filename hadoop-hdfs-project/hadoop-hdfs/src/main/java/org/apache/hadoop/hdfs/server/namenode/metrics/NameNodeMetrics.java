@@ -20,6 +20,9 @@
 import static org.apache.hadoop.metrics2.impl.MsInfo.ProcessName;
 import static org.apache.hadoop.metrics2.impl.MsInfo.SessionId;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.NamenodeRole;
@@ -109,7 +112,21 @@ public long totalFileOps(){
   MutableCounterLong transactionsBatchedInSync;
   @Metric("Block report") MutableRate blockReport;
   final MutableQuantiles[] blockReportQuantiles;
+  @Metric("First block report of a storage, including the time waiting for"
+      + " the lock") MutableRate firstBlockReport;
+  final MutableQuantiles[] firstBlockReportQuantiles;
   @Metric("Cache report") MutableRate cacheReport;
+
+  @Metric("Time choosing the targets of the blocks to replicate, per"
+      + " iteration of the replication monitor")
+  MutableRate replicationChooseTargets;
+  @Metric("Time scheduling the replications under the lock, per iteration"
+      + " of the replication monitor")
+  MutableRate replicationSchedule;
+  @Metric("Number of blocks whose replication targets were chosen")
+  MutableCounterLong blocksReplicationTargetsChosen;
+  @Metric("Number of block replications scheduled")
+  MutableCounterLong blocksReplicationScheduled;
   final MutableQuantiles[] cacheReportQuantiles;
 
   @Metric("Duration in SafeMode at startup in msec")
@@ -124,16 +141,34 @@ public long totalFileOps(){
   @Metric("GetImageServlet putImage")
   MutableRate putImage;
 
+  @Metric("Time taken by the standby to read and apply a batch of edits")
+  MutableRate editLogTailTime;
+  @Metric("Time between two batches of edits applied by the standby, which"
+      + " bounds how far it is behind the active")
+  MutableRate editLogTailInterval;
+  @Metric("Number of edits applied by the standby")
+  MutableCounterLong editLogTailedTransactions;
+
+  /**
+   * FSNamesystem lock hold times per operation and lock mode, registered on
+   * first use since the set of operations is not known in advance.
+   */
+  private final ConcurrentMap<String, LockHoldMetrics> lockHoldMetrics =
+      new ConcurrentHashMap<String, LockHoldMetrics>();
+  private final int[] intervals;
+
   JvmMetrics jvmMetrics = null;
   
   NameNodeMetrics(String processName, String sessionId, int[] intervals,
       final JvmMetrics jvmMetrics) {
     this.jvmMetrics = jvmMetrics;
+    this.intervals = intervals;
     registry.tag(ProcessName, processName).tag(SessionId, sessionId);
     
     final int len = intervals.length;
     syncsQuantiles = new MutableQuantiles[len];
     blockReportQuantiles = new MutableQuantiles[len];
+    firstBlockReportQuantiles = new MutableQuantiles[len];
     cacheReportQuantiles = new MutableQuantiles[len];
     
     for (int i = 0; i < len; i++) {
@@ -144,6 +179,9 @@ public long totalFileOps(){
       blockReportQuantiles[i] = registry.newQuantiles(
           "blockReport" + interval + "s", 
           "Block report", "ops", "latency", interval);
+      firstBlockReportQuantiles[i] = registry.newQuantiles(
+          "firstBlockReport" + interval + "s",
+          "First block report", "ops", "latency", interval);
       cacheReportQuantiles[i] = registry.newQuantiles(
           "cacheReport" + interval + "s",
           "Cache report", "ops", "latency", interval);
@@ -293,6 +331,28 @@ public void addBlockReport(long latency) {
     }
   }
 
+  public void addFirstBlockReport(long latency) {
+    firstBlockReport.add(latency);
+    for (MutableQuantiles q : firstBlockReportQuantiles) {
+      q.add(latency);
+    }
+  }
+
+  /**
+   * Record an iteration of the replication monitor.
+   * @param numChosen blocks whose targets were chosen
+   * @param chooseTargetsTime time choosing them
+   * @param numScheduled replications scheduled
+   * @param scheduleTime time scheduling them under the lock
+   */
+  public void addReplicationWork(int numChosen, long chooseTargetsTime,
+      int numScheduled, long scheduleTime) {
+    blocksReplicationTargetsChosen.incr(numChosen);
+    replicationChooseTargets.add(chooseTargetsTime);
+    blocksReplicationScheduled.incr(numScheduled);
+    replicationSchedule.add(scheduleTime);
+  }
+
   public void addCacheBlockReport(long latency) {
     cacheReport.add(latency);
     for (MutableQuantiles q : cacheReportQuantiles) {
@@ -315,4 +375,57 @@ public void addGetImage(long latency) {
   public void addPutImage(long latency) {
     putImage.add(latency);
   }
+
+  public void addEditLogTail(long numEdits, long latency, long interval) {
+    editLogTailedTransactions.incr(numEdits);
+    editLogTailTime.add(latency);
+    editLogTailInterval.add(interval);
+  }
+
+  /**
+   * Record how long an operation held the FSNamesystem lock.
+   * @param opName name of the operation which held the lock
+   * @param write true for the write lock, false for the read lock
+   * @param micros hold time in microseconds
+   */
+  public void addLockHoldTime(String opName, boolean write, long micros) {
+    final String name = (write ? "FSNWriteLock" : "FSNReadLock")
+        + Character.toUpperCase(opName.charAt(0)) + opName.substring(1);
+    LockHoldMetrics m = lockHoldMetrics.get(name);
+    if (m == null) {
+      synchronized (lockHoldMetrics) {
+        m = lockHoldMetrics.get(name);
+        if (m == null) {
+          m = new LockHoldMetrics(name, opName, write);
+          lockHoldMetrics.put(name, m);
+        }
+      }
+    }
+    m.add(micros);
+  }
+
+  /** Hold time rate and quantiles of one operation in one lock mode. */
+  private class LockHoldMetrics {
+    private final MutableRate rate;
+    private final MutableQuantiles[] quantiles;
+
+    LockHoldMetrics(String name, String opName, boolean write) {
+      final String desc = "FSNamesystem " + (write ? "write" : "read")
+          + " lock hold time of " + opName + " in microseconds";
+      rate = registry.newRate(name, desc);
+      quantiles = new MutableQuantiles[intervals.length];
+      for (int i = 0; i < intervals.length; i++) {
+        int interval = intervals[i];
+        quantiles[i] = registry.newQuantiles(name + interval + "s", desc,
+            "ops", "latencyMicros", interval);
+      }
+    }
+
+    void add(long micros) {
+      rate.add(micros);
+      for (MutableQuantiles q : quantiles) {
+        q.add(micros);
+      }
+    }
+  }
 }
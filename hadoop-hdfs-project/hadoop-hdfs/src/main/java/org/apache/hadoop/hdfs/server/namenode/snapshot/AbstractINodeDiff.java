@@ -118,7 +118,7 @@ A getSnapshotINode() {
   abstract QuotaCounts combinePosteriorAndCollectBlocks(
       final BlockStoragePolicySuite bsps, final N currentINode,
       final D posterior, final BlocksMapUpdateInfo collectedBlocks,
-      final List<INode> removedINodes);
+      final List<INode> removedINodes, final List<Long> removedUCFiles);
   
   /**
    * Delete and clear self.
@@ -130,7 +130,8 @@ abstract QuotaCounts combinePosteriorAndCollectBlocks(
    */
   abstract QuotaCounts destroyDiffAndCollectBlocks(
       final BlockStoragePolicySuite bsps, final N currentINode,
-      final BlocksMapUpdateInfo collectedBlocks, final List<INode> removedINodes);
+      final BlocksMapUpdateInfo collectedBlocks,
+      final List<INode> removedINodes, final List<Long> removedUCFiles);
 
   @Override
   public String toString() {
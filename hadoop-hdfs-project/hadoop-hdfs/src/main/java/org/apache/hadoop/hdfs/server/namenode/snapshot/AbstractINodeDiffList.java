@@ -71,7 +71,7 @@ public final QuotaCounts deleteSnapshotDiff(BlockStoragePolicySuite bsps,
       final int snapshot,
       final int prior, final N currentINode,
       final BlocksMapUpdateInfo collectedBlocks,
-      final List<INode> removedINodes) {
+      final List<INode> removedINodes, final List<Long> removedUCFiles) {
     int snapshotIndex = Collections.binarySearch(diffs, snapshot);
     
     QuotaCounts counts = new QuotaCounts.Builder().build();
@@ -83,7 +83,7 @@ public final QuotaCounts deleteSnapshotDiff(BlockStoragePolicySuite bsps,
       } else { // there is no snapshot before
         removed = diffs.remove(0);
         counts.add(removed.destroyDiffAndCollectBlocks(bsps, currentINode,
-            collectedBlocks, removedINodes));
+            collectedBlocks, removedINodes, removedUCFiles));
       }
     } else if (snapshotIndex > 0) {
       final AbstractINodeDiff<N, A, D> previous = diffs.get(snapshotIndex - 1);
@@ -97,7 +97,8 @@ public final QuotaCounts deleteSnapshotDiff(BlockStoragePolicySuite bsps,
         }
 
         counts.add(previous.combinePosteriorAndCollectBlocks(
-            bsps, currentINode, removed, collectedBlocks, removedINodes));
+            bsps, currentINode, removed, collectedBlocks, removedINodes,
+            removedUCFiles));
         previous.setPosterior(removed.getPosterior());
         removed.setPosterior(null);
       }
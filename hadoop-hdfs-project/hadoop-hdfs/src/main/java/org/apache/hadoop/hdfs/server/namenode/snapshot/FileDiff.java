@@ -84,11 +84,12 @@ public BlockInfoContiguous[] getBlocks() {
   QuotaCounts combinePosteriorAndCollectBlocks(
       BlockStoragePolicySuite bsps, INodeFile currentINode,
       FileDiff posterior, BlocksMapUpdateInfo collectedBlocks,
-      final List<INode> removedINodes) {
+      final List<INode> removedINodes, final List<Long> removedUCFiles) {
     FileWithSnapshotFeature sf = currentINode.getFileWithSnapshotFeature();
     assert sf != null : "FileWithSnapshotFeature is null";
     return sf.updateQuotaAndCollectBlocks(
-        bsps, currentINode, posterior, collectedBlocks, removedINodes);
+        bsps, currentINode, posterior, collectedBlocks, removedINodes,
+        removedUCFiles);
   }
   
   @Override
@@ -113,10 +114,11 @@ void write(DataOutput out, ReferenceMap referenceMap) throws IOException {
 
   @Override
   QuotaCounts destroyDiffAndCollectBlocks(BlockStoragePolicySuite bsps, INodeFile currentINode,
-      BlocksMapUpdateInfo collectedBlocks, final List<INode> removedINodes) {
+      BlocksMapUpdateInfo collectedBlocks, final List<INode> removedINodes,
+      final List<Long> removedUCFiles) {
     return currentINode.getFileWithSnapshotFeature()
         .updateQuotaAndCollectBlocks(bsps, currentINode, this, collectedBlocks,
-            removedINodes);
+            removedINodes, removedUCFiles);
   }
 
   public void destroyAndCollectSnapshotBlocks(
@@ -100,13 +100,15 @@ public BlockInfoContiguous[] findLaterSnapshotBlocks(int snapshotId) {
   void combineAndCollectSnapshotBlocks(BlockStoragePolicySuite bsps, INodeFile file,
                                        FileDiff removed,
                                        BlocksMapUpdateInfo collectedBlocks,
-                                       List<INode> removedINodes) {
+                                       List<INode> removedINodes,
+                                       List<Long> removedUCFiles) {
     BlockInfoContiguous[] removedBlocks = removed.getBlocks();
     if(removedBlocks == null) {
       FileWithSnapshotFeature sf = file.getFileWithSnapshotFeature();
       assert sf != null : "FileWithSnapshotFeature is null";
       if(sf.isCurrentFileDeleted())
-        sf.collectBlocksAndClear(bsps, file, collectedBlocks, removedINodes);
+        sf.collectBlocksAndClear(bsps, file, collectedBlocks, removedINodes,
+            removedUCFiles);
       return;
     }
     int p = getPrior(removed.getSnapshotId(), true);
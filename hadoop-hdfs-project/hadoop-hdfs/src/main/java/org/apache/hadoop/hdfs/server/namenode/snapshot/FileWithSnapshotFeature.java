@@ -30,6 +30,8 @@
 import org.apache.hadoop.hdfs.server.namenode.INodeFile;
 import org.apache.hadoop.hdfs.server.namenode.INodeFileAttributes;
 import org.apache.hadoop.hdfs.server.namenode.QuotaCounts;
+import org.apache.hadoop.hdfs.server.namenode.XAttrFeature;
+import org.apache.hadoop.hdfs.server.namenode.XAttrStorage;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.util.EnumCounters;
 
@@ -121,19 +123,23 @@ public String getDetailedString() {
   public QuotaCounts cleanFile(final BlockStoragePolicySuite bsps,
       final INodeFile file, final int snapshotId,
       int priorSnapshotId, final BlocksMapUpdateInfo collectedBlocks,
-      final List<INode> removedINodes) {
+      final List<INode> removedINodes, final List<Long> removedUCFiles) {
     if (snapshotId == Snapshot.CURRENT_STATE_ID) {
       // delete the current file while the file has snapshot feature
       if (!isCurrentFileDeleted()) {
         file.recordModification(priorSnapshotId);
         deleteCurrentFile();
+        if (file.isUnderConstruction()) {
+          removedUCFiles.add(file.getId());
+        }
       }
-      collectBlocksAndClear(bsps, file, collectedBlocks, removedINodes);
+      collectBlocksAndClear(bsps, file, collectedBlocks, removedINodes,
+          removedUCFiles);
       return new QuotaCounts.Builder().build();
     } else { // delete the snapshot
       priorSnapshotId = getDiffs().updatePrior(snapshotId, priorSnapshotId);
       return diffs.deleteSnapshotDiff(bsps, snapshotId, priorSnapshotId, file,
-          collectedBlocks, removedINodes);
+          collectedBlocks, removedINodes, removedUCFiles);
     }
   }
   
@@ -143,7 +149,7 @@ public void clearDiffs() {
   
   public QuotaCounts updateQuotaAndCollectBlocks(BlockStoragePolicySuite bsps, INodeFile file,
       FileDiff removed, BlocksMapUpdateInfo collectedBlocks,
-      final List<INode> removedINodes) {
+      final List<INode> removedINodes, final List<Long> removedUCFiles) {
     long oldStoragespace = file.storagespaceConsumed();
 
     byte storagePolicyID = file.getStoragePolicyID();
@@ -192,10 +198,15 @@ public QuotaCounts updateQuotaAndCollectBlocks(BlockStoragePolicySuite bsps, INo
       if (aclFeature != null) {
         AclStorage.removeAclFeature(aclFeature);
       }
+      XAttrFeature xAttrFeature =
+          removed.getSnapshotINode().getXAttrFeature();
+      if (xAttrFeature != null) {
+        XAttrStorage.removeXAttrFeature(xAttrFeature);
+      }
     }
 
     getDiffs().combineAndCollectSnapshotBlocks(
-        bsps, file, removed, collectedBlocks, removedINodes);
+        bsps, file, removed, collectedBlocks, removedINodes, removedUCFiles);
 
     long ssDelta = oldStoragespace - file.storagespaceConsumed();
     return new QuotaCounts.Builder().
@@ -209,10 +220,11 @@ public QuotaCounts updateQuotaAndCollectBlocks(BlockStoragePolicySuite bsps, INo
    * any inode, collect them and update the block list.
    */
   public void collectBlocksAndClear(final BlockStoragePolicySuite bsps, final INodeFile file,
-      final BlocksMapUpdateInfo info, final List<INode> removedINodes) {
+      final BlocksMapUpdateInfo info, final List<INode> removedINodes,
+      final List<Long> removedUCFiles) {
     // check if everything is deleted.
     if (isCurrentFileDeleted() && getDiffs().asList().isEmpty()) {
-      file.destroyAndCollectBlocks(bsps, info, removedINodes);
+      file.destroyAndCollectBlocks(bsps, info, removedINodes, removedUCFiles);
       return;
     }
     // find max file size.
@@ -231,11 +231,12 @@ public String createSnapshot(final INodesInPath iip, String snapshotRoot,
    * @throws IOException
    */
   public void deleteSnapshot(final INodesInPath iip, final String snapshotName,
-      BlocksMapUpdateInfo collectedBlocks, final List<INode> removedINodes)
+      BlocksMapUpdateInfo collectedBlocks, final List<INode> removedINodes,
+      final List<Long> removedUCFiles)
       throws IOException {
     INodeDirectory srcRoot = getSnapshottableRoot(iip);
     srcRoot.removeSnapshot(fsdir.getBlockStoragePolicySuite(), snapshotName,
-        collectedBlocks, removedINodes);
+        collectedBlocks, removedINodes, removedUCFiles);
     numSnapshots.getAndDecrement();
   }
 
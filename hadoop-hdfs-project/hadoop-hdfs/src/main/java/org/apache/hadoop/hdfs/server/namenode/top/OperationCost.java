@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.top;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.HdfsLocatedFileStatus;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.ipc.RpcConstants;
+import org.apache.hadoop.ipc.Server;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * The cost of the NameNode operation of the current thread, reported to
+ * {@link org.apache.hadoop.hdfs.server.namenode.top.metrics.TopMetrics} along
+ * with its audit event.
+ * <p/>
+ * The namesystem adds to the cost while it serves the call: the lock
+ * releases add the time the lock was held, the listings, content summaries
+ * and deletions the number of inodes, and the operations returning a
+ * variable number of entries the estimated size of their response. The cost
+ * is reset when the thread serves another RPC call, and when it is taken by
+ * the audit logger.
+ * <p/>
+ * Not thread-safe: each thread only accesses its own cost.
+ */
+@InterfaceAudience.Private
+public final class OperationCost {
+  /** The kinds of cost, with the name they are published under. */
+  public enum Type {
+    LOCK_HOLD_MICROS("lockHoldMicros"),
+    INODES("inodes"),
+    RESPONSE_BYTES("responseBytes");
+
+    private final String name;
+
+    Type(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+  }
+
+  /** Rough serialized sizes of the entries of the responses, in bytes. */
+  static final int FILE_STATUS_BYTES = 64;
+  static final int LOCATED_BLOCK_BYTES = 48;
+  static final int BLOCK_LOCATION_BYTES = 96;
+
+  private static volatile boolean enabled = false;
+
+  private static final ThreadLocal<OperationCost> CURRENT =
+      new ThreadLocal<OperationCost>() {
+        @Override
+        protected OperationCost initialValue() {
+          return new OperationCost();
+        }
+      };
+
+  /** The RPC call the cost belongs to. */
+  private int callId = RpcConstants.INVALID_CALL_ID;
+  private byte[] clientId = RpcConstants.DUMMY_CLIENT_ID;
+  private final long[] values = new long[Type.values().length];
+
+  private OperationCost() {
+  }
+
+  /** Start or stop collecting the costs, for all the threads. */
+  public static void setEnabled(boolean enable) {
+    enabled = enable;
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  private static OperationCost current() {
+    final OperationCost cost = CURRENT.get();
+    final int callId = Server.getCallId();
+    final byte[] clientId = Server.getClientId();
+    if (callId != cost.callId || clientId != cost.clientId) {
+      // the thread serves another call
+      Arrays.fill(cost.values, 0);
+      cost.callId = callId;
+      cost.clientId = clientId;
+    }
+    return cost;
+  }
+
+  /** Add to the cost of the operation of the current thread. */
+  public static void add(Type type, long value) {
+    if (enabled) {
+      current().values[type.ordinal()] += value;
+    }
+  }
+
+  /**
+   * Add the entries of the listing, and its estimated size, to the current
+   * cost.
+   */
+  public static void addListing(DirectoryListing listing) {
+    if (!enabled || listing == null) {
+      return;
+    }
+    final HdfsFileStatus[] entries = listing.getPartialListing();
+    long bytes = 0;
+    for (HdfsFileStatus status : entries) {
+      bytes += FILE_STATUS_BYTES + status.getLocalNameInBytes().length;
+      if (status.isSymlink()) {
+        bytes += status.getSymlinkInBytes().length;
+      }
+      if (status instanceof HdfsLocatedFileStatus) {
+        bytes += estimateSize(
+            ((HdfsLocatedFileStatus) status).getBlockLocations());
+      }
+    }
+    final OperationCost cost = current();
+    cost.values[Type.INODES.ordinal()] += entries.length;
+    cost.values[Type.RESPONSE_BYTES.ordinal()] += bytes;
+  }
+
+  /** Add the estimated size of the block locations to the current cost. */
+  public static void addBlockLocations(LocatedBlocks blocks) {
+    if (enabled) {
+      add(Type.RESPONSE_BYTES, estimateSize(blocks));
+    }
+  }
+
+  @VisibleForTesting
+  static long estimateSize(LocatedBlocks blocks) {
+    if (blocks == null) {
+      return 0;
+    }
+    long bytes = 0;
+    for (LocatedBlock b : blocks.getLocatedBlocks()) {
+      bytes += LOCATED_BLOCK_BYTES
+          + (long) b.getLocations().length * BLOCK_LOCATION_BYTES;
+    }
+    final LocatedBlock last = blocks.getLastLocatedBlock();
+    if (last != null) {
+      bytes += LOCATED_BLOCK_BYTES
+          + (long) last.getLocations().length * BLOCK_LOCATION_BYTES;
+    }
+    return bytes;
+  }
+
+  /**
+   * Take the cost of the operation of the current thread, and reset it.
+   * @return the values of the cost, indexed by the ordinal of their type.
+   */
+  public static long[] take() {
+    final OperationCost cost = current();
+    final long[] taken = cost.values.clone();
+    Arrays.fill(cost.values, 0);
+    return taken;
+  }
+}
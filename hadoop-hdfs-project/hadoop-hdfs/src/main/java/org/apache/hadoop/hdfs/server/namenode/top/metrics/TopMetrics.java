@@ -18,7 +18,9 @@
 package org.apache.hadoop.hdfs.server.namenode.top.metrics;
 
 import java.net.InetAddress;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -28,6 +30,7 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.top.OperationCost;
 import org.apache.hadoop.hdfs.server.namenode.top.TopConf;
 import org.apache.hadoop.hdfs.server.namenode.top.window.RollingWindowManager;
 import org.apache.hadoop.security.UserGroupInformation;
@@ -55,6 +58,13 @@
  * done by calling {@link org.apache.hadoop.hdfs.server.namenode.top.window
  * .RollingWindowManager#snapshot} on each RollingWindowManager.
  * <p/>
+ * Unless dfs.namenode.top.costs.enabled is false, the users are also ranked
+ * by the cost of their operations, one more RollingWindowManager per interval
+ * and kind of {@link OperationCost}. The audit logger takes the cost of the
+ * operation of the handler along with its audit event. These rankings are
+ * published by {@link org.apache.hadoop.hdfs.server.namenode.metrics
+ * .FSNamesystemMBean#getTopUserOpCosts}.
+ * <p/>
  * Thread-safe: relies on thread-safety of RollingWindowManager
  */
 @InterfaceAudience.Private
@@ -68,6 +78,8 @@ private static void logConf(Configuration conf) {
         " = " +  conf.get(DFSConfigKeys.NNTOP_NUM_USERS_KEY));
     LOG.info("NNTop conf: " + DFSConfigKeys.NNTOP_WINDOWS_MINUTES_KEY +
         " = " +  conf.get(DFSConfigKeys.NNTOP_WINDOWS_MINUTES_KEY));
+    LOG.info("NNTop conf: " + DFSConfigKeys.NNTOP_COSTS_ENABLED_KEY +
+        " = " +  conf.get(DFSConfigKeys.NNTOP_COSTS_ENABLED_KEY));
   }
 
   /**
@@ -77,12 +89,41 @@ private static void logConf(Configuration conf) {
   final Map<Integer, RollingWindowManager> rollingWindowManagers =
       new HashMap<Integer, RollingWindowManager>();
 
+  /**
+   * The WindowManagers of each kind of cost, by reporting period, or null if
+   * the costs are not tracked. Not changed after construction either.
+   */
+  final Map<OperationCost.Type, Map<Integer, RollingWindowManager>>
+      costWindowManagers;
+
   public TopMetrics(Configuration conf, int[] reportingPeriods) {
     logConf(conf);
     for (int i = 0; i < reportingPeriods.length; i++) {
       rollingWindowManagers.put(reportingPeriods[i], new RollingWindowManager(
           conf, reportingPeriods[i]));
     }
+    final boolean costsEnabled = conf.getBoolean(
+        DFSConfigKeys.NNTOP_COSTS_ENABLED_KEY,
+        DFSConfigKeys.NNTOP_COSTS_ENABLED_DEFAULT);
+    if (costsEnabled) {
+      costWindowManagers = new EnumMap<OperationCost.Type,
+          Map<Integer, RollingWindowManager>>(OperationCost.Type.class);
+      for (OperationCost.Type type : OperationCost.Type.values()) {
+        final Map<Integer, RollingWindowManager> managers =
+            new HashMap<Integer, RollingWindowManager>();
+        for (int period : reportingPeriods) {
+          managers.put(period, new RollingWindowManager(conf, period));
+        }
+        costWindowManagers.put(type, managers);
+      }
+    } else {
+      costWindowManagers = null;
+    }
+    OperationCost.setEnabled(costsEnabled);
+  }
+
+  public boolean isCostsEnabled() {
+    return costWindowManagers != null;
   }
 
   /**
@@ -101,6 +142,29 @@ public List<TopWindow> getTopWindows() {
     return windows;
   }
 
+  /**
+   * Get the TopWindows ranking the users by cost, one list of TopWindows per
+   * kind of cost, keyed by its name.
+   */
+  public Map<String, List<TopWindow>> getTopCostWindows() {
+    final Map<String, List<TopWindow>> costs =
+        new LinkedHashMap<String, List<TopWindow>>();
+    if (costWindowManagers == null) {
+      return costs;
+    }
+    long monoTime = Time.monotonicNow();
+    for (Entry<OperationCost.Type, Map<Integer, RollingWindowManager>> entry :
+        costWindowManagers.entrySet()) {
+      List<TopWindow> windows = Lists.newArrayListWithCapacity(
+          entry.getValue().size());
+      for (RollingWindowManager manager : entry.getValue().values()) {
+        windows.add(manager.snapshot(monoTime));
+      }
+      costs.put(entry.getKey().getName(), windows);
+    }
+    return costs;
+  }
+
   /**
    * Pick the same information that DefaultAuditLogger does before writing to a
    * log file. This is to be consistent when {@link TopMetrics} is charged with
@@ -110,7 +174,11 @@ public List<TopWindow> getTopWindows() {
   public void report(boolean succeeded, String userName, InetAddress addr,
       String cmd, String src, String dst, FileStatus status) {
     // currently nntop only makes use of the username and the command
-    report(userName, cmd);
+    long currTime = Time.monotonicNow();
+    report(currTime, userName, cmd);
+    if (costWindowManagers != null) {
+      reportCost(currTime, userName, cmd, OperationCost.take());
+    }
   }
 
   public void report(String userName, String cmd) {
@@ -128,4 +196,29 @@ public void report(long currTime, String userName, String cmd) {
           TopConf.ALL_CMDS, userName, 1);
     }
   }
+
+  /**
+   * @param costs the values of the cost of the operation, indexed by the
+   *              ordinal of their {@link OperationCost.Type}
+   */
+  public void reportCost(long currTime, String userName, String cmd,
+      long[] costs) {
+    if (costWindowManagers == null) {
+      return;
+    }
+    userName = UserGroupInformation.trimLoginMethod(userName);
+    for (Entry<OperationCost.Type, Map<Integer, RollingWindowManager>> entry :
+        costWindowManagers.entrySet()) {
+      final long cost = costs[entry.getKey().ordinal()];
+      if (cost <= 0) {
+        continue;
+      }
+      for (RollingWindowManager rollingWindowManager :
+          entry.getValue().values()) {
+        rollingWindowManager.recordMetric(currTime, cmd, userName, cost);
+        rollingWindowManager.recordMetric(currTime,
+            TopConf.ALL_CMDS, userName, cost);
+      }
+    }
+  }
 }
@@ -292,7 +292,7 @@ public NameValuePair(String metricName, long value) {
 
     @Override
     public int compareTo(NameValuePair other) {
-      return (int) (value - other.value);
+      return Long.compare(value, other.value);
     }
 
     @Override
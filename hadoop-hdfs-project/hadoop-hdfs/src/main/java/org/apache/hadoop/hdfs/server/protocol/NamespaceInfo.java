@@ -61,7 +61,8 @@ private static long getSupportedCapabilities() {
 
   public enum Capability {
     UNKNOWN(false),
-    STORAGE_BLOCK_REPORT_BUFFERS(true); // use optimized ByteString buffers
+    STORAGE_BLOCK_REPORT_BUFFERS(true), // use optimized ByteString buffers
+    STORAGE_BLOCK_REPORT_SORTED_BUFFERS(true); // sorted delta encoded buffers
     private final boolean supported;
     private final long mask;
     Capability(boolean isSupported) {
@@ -27,17 +27,32 @@ public class StorageReport {
   private final long dfsUsed;
   private final long remaining;
   private final long blockPoolUsed;
+  /** Bytes written to the storage per second, recently. */
+  private final long writeBytesPerSec;
+  /** Number of blocks being written to the storage. */
+  private final int activeWriters;
+  /** Whether the disk writes of the storage are slow, recently. */
+  private final boolean slowDisk;
 
   public static final StorageReport[] EMPTY_ARRAY = {};
   
   public StorageReport(DatanodeStorage storage, boolean failed,
       long capacity, long dfsUsed, long remaining, long bpUsed) {
+    this(storage, failed, capacity, dfsUsed, remaining, bpUsed, 0, 0, false);
+  }
+
+  public StorageReport(DatanodeStorage storage, boolean failed,
+      long capacity, long dfsUsed, long remaining, long bpUsed,
+      long writeBytesPerSec, int activeWriters, boolean slowDisk) {
     this.storage = storage;
     this.failed = failed;
     this.capacity = capacity;
     this.dfsUsed = dfsUsed;
     this.remaining = remaining;
     this.blockPoolUsed = bpUsed;
+    this.writeBytesPerSec = writeBytesPerSec;
+    this.activeWriters = activeWriters;
+    this.slowDisk = slowDisk;
   }
 
   public DatanodeStorage getStorage() {
@@ -63,4 +78,16 @@ public long getRemaining() {
   public long getBlockPoolUsed() {
     return blockPoolUsed;
   }
+
+  public long getWriteBytesPerSec() {
+    return writeBytesPerSec;
+  }
+
+  public int getActiveWriters() {
+    return activeWriters;
+  }
+
+  public boolean isSlowDisk() {
+    return slowDisk;
+  }
 }
@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import java.util.concurrent.locks.Lock;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Locks which are held, and released by {@link #close()}, so that they can be
+ * acquired in a try-with-resources statement. They are released in the
+ * reverse order of their acquisition.
+ */
+@InterfaceAudience.Private
+public class AutoCloseableLock implements AutoCloseable {
+  private final Lock[] locks;
+
+  /**
+   * @param locks the locks, already acquired, in the order of acquisition.
+   */
+  public AutoCloseableLock(Lock... locks) {
+    this.locks = locks;
+  }
+
+  @Override
+  public void close() {
+    for (int i = locks.length - 1; i >= 0; i--) {
+      locks[i].unlock();
+    }
+  }
+}
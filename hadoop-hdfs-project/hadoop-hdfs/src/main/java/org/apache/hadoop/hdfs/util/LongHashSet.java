@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A set of primitive longs, stored in a single array with open addressing
+ * and linear probing. Compared to a HashSet of Long, there is no boxing nor
+ * per element entry object, and a small set takes a few dozen bytes.
+ *
+ * The table doubles when it becomes three quarters full. Removal shifts the
+ * following elements back instead of leaving tombstones, so the table never
+ * needs to be rebuilt.
+ *
+ * This class is not thread safe.
+ */
+@InterfaceAudience.Private
+public class LongHashSet {
+  static final int MINIMUM_CAPACITY = 4;
+  static final int MAXIMUM_CAPACITY = 1 << 30;
+
+  /** 0 marks the empty slots, it is stored apart. */
+  private static final long EMPTY = 0L;
+
+  private long[] table;
+  private int mask;
+  /** The number of elements in the table, 0 excluded. */
+  private int tableSize = 0;
+  private boolean containsZero = false;
+
+  public LongHashSet() {
+    this(MINIMUM_CAPACITY);
+  }
+
+  /**
+   * @param initialCapacity the number of slots, rounded up to a power of 2.
+   */
+  public LongHashSet(int initialCapacity) {
+    int capacity = MINIMUM_CAPACITY;
+    while (capacity < initialCapacity && capacity < MAXIMUM_CAPACITY) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    table = new long[capacity];
+    mask = capacity - 1;
+  }
+
+  private int slot(long value) {
+    // spread the bits, consecutive ids would otherwise cluster
+    long h = value * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+
+  public int size() {
+    return tableSize + (containsZero ? 1 : 0);
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public boolean contains(long value) {
+    if (value == EMPTY) {
+      return containsZero;
+    }
+    for (int i = slot(value); table[i] != EMPTY; i = (i + 1) & mask) {
+      if (table[i] == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Add the value to the set.
+   * @return true if the set did not contain it.
+   */
+  public boolean add(long value) {
+    if (value == EMPTY) {
+      final boolean added = !containsZero;
+      containsZero = true;
+      return added;
+    }
+    int i = slot(value);
+    for (; table[i] != EMPTY; i = (i + 1) & mask) {
+      if (table[i] == value) {
+        return false;
+      }
+    }
+    table[i] = value;
+    tableSize++;
+    if (tableSize > (table.length >>> 2) * 3) {
+      resize(table.length << 1);
+    }
+    return true;
+  }
+
+  /**
+   * Remove the value from the set.
+   * @return true if the set contained it.
+   */
+  public boolean remove(long value) {
+    if (value == EMPTY) {
+      final boolean removed = containsZero;
+      containsZero = false;
+      return removed;
+    }
+    int hole = slot(value);
+    for (; table[hole] != value; hole = (hole + 1) & mask) {
+      if (table[hole] == EMPTY) {
+        return false;
+      }
+    }
+    tableSize--;
+    // shift back the elements of the cluster which can fill the hole
+    for (int i = (hole + 1) & mask; table[i] != EMPTY; i = (i + 1) & mask) {
+      final int home = slot(table[i]);
+      final boolean stays = hole <= i
+          ? hole < home && home <= i
+          : hole < home || home <= i;
+      if (!stays) {
+        table[hole] = table[i];
+        hole = i;
+      }
+    }
+    table[hole] = EMPTY;
+    return true;
+  }
+
+  private void resize(int capacity) {
+    if (table.length >= MAXIMUM_CAPACITY) {
+      throw new IllegalStateException("The set is full, size=" + size());
+    }
+    final long[] old = table;
+    allocate(capacity);
+    for (long value : old) {
+      if (value != EMPTY) {
+        int i = slot(value);
+        while (table[i] != EMPTY) {
+          i = (i + 1) & mask;
+        }
+        table[i] = value;
+      }
+    }
+  }
+
+  public void clear() {
+    Arrays.fill(table, EMPTY);
+    tableSize = 0;
+    containsZero = false;
+  }
+
+  /** @return a new array of the elements, in no particular order. */
+  public long[] toArray() {
+    final long[] values = new long[size()];
+    int n = 0;
+    if (containsZero) {
+      values[n++] = EMPTY;
+    }
+    for (long value : table) {
+      if (value != EMPTY) {
+        values[n++] = value;
+      }
+    }
+    return values;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(size=" + size() + ")";
+  }
+}
@@ -23,6 +23,7 @@
   dust.loadSource(dust.compile($('#tmpl-datanode').html(), 'datanode-info'));
   dust.loadSource(dust.compile($('#tmpl-datanode-volume-failures').html(), 'datanode-volume-failures'));
   dust.loadSource(dust.compile($('#tmpl-snapshot').html(), 'snapshot-info'));
+  dust.loadSource(dust.compile($('#tmpl-top').html(), 'top'));
 
   function load_overview() {
     var BEANS = [
@@ -252,6 +253,31 @@
       })).error(ajax_error_handler);
   }
 
+  function load_top() {
+    $.get(
+      '/jmx?qry=Hadoop:service=NameNode,name=FSNamesystemState',
+      guard_with_startup_progress(function (resp) {
+        var json = resp.beans[0].TopUserOpCosts;
+        var costs = [];
+        if (json) {
+          $.each(JSON.parse(json).costs, function (name, windows) {
+            var w = $.map(windows, function (window) {
+              window.ops.sort(function (a, b) {
+                return b.totalCount - a.totalCount;
+              });
+              return {"minutes": window.windowLenMs / 60000, "ops": window.ops};
+            });
+            w.sort(function (a, b) { return a.minutes - b.minutes; });
+            costs.push({"name": name, "windows": w});
+          });
+        }
+        dust.render('top', {"costs": costs}, function(err, out) {
+          $('#tab-top').html(out);
+          $('#ui-tabs a[href="#tab-top"]').tab('show');
+        });
+      })).error(ajax_error_handler);
+  }
+
   function load_page() {
     var hash = window.location.hash;
     switch(hash) {
@@ -267,6 +293,9 @@
       case "#tab-startup-progress":
         load_startup_progress();
         break;
+      case "#tab-top":
+        load_top();
+        break;
       case "#tab-overview":
         load_overview();
         break;
@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.protocol.BatchedOperation;
+import org.apache.hadoop.hdfs.protocol.BatchedOperationResult;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link DistributedFileSystem#batch}.
+ */
+public class TestBatchedOperations {
+  private static final int MAX_OPS = 100;
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_BATCH_MAX_OPERATIONS_KEY, MAX_OPS);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+    fs = cluster.getFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test
+  public void testBatch() throws IOException {
+    final Path dir = new Path("/testBatch/dir");
+    final Path file = new Path(dir, "file");
+    final FsPermission perm = new FsPermission((short) 0700);
+    final List<BatchedOperationResult> results = fs.batch(Arrays.asList(
+        BatchedOperation.mkdirs(dir, null, true),
+        BatchedOperation.create(file, null, false, (short) 0, 0L),
+        BatchedOperation.setPermission(file, perm),
+        BatchedOperation.setOwner(file, "user", "group"),
+        BatchedOperation.setTimes(file, 1000L, 2000L)));
+    assertEquals(5, results.size());
+    for (BatchedOperationResult result : results) {
+      assertTrue(result.toString(), result.isSuccess());
+    }
+
+    // the edits are persisted
+    cluster.restartNameNode();
+    fs = cluster.getFileSystem();
+    assertTrue(fs.getFileStatus(dir).isDirectory());
+    assertTrue(fs.isFileClosed(file));
+    final FileStatus status = fs.getFileStatus(file);
+    assertEquals(0L, status.getLen());
+    assertEquals(fs.getDefaultReplication(file), status.getReplication());
+    assertEquals(perm, status.getPermission());
+    assertEquals("user", status.getOwner());
+    assertEquals("group", status.getGroup());
+    assertEquals(1000L, status.getModificationTime());
+    assertEquals(2000L, status.getAccessTime());
+  }
+
+  @Test
+  public void testFailedOperationsDoNotFailTheBatch() throws IOException {
+    final Path file = new Path("/testFailures/file");
+    final Path other = new Path("/testFailures/other");
+    final List<BatchedOperationResult> results = fs.batch(Arrays.asList(
+        BatchedOperation.create(file, null, true, (short) 0, 0L),
+        BatchedOperation.create(file, null, true, (short) 0, 0L),
+        BatchedOperation.mkdirs(new Path(file, "dir"), null, true),
+        BatchedOperation.create(other, null, true, (short) 0, 0L)));
+    assertTrue(results.get(0).isSuccess());
+    assertTrue(results.get(1).getException()
+        instanceof FileAlreadyExistsException);
+    assertFalse(results.get(2).isSuccess());
+    assertTrue(results.get(3).isSuccess());
+    assertTrue(fs.exists(other));
+  }
+
+  @Test
+  public void testMaxOperations() throws IOException {
+    final List<BatchedOperation> ops = new ArrayList<BatchedOperation>();
+    for (int i = 0; i <= MAX_OPS; i++) {
+      ops.add(BatchedOperation.mkdirs(new Path("/testMax/dir" + i), null,
+          true));
+    }
+    try {
+      fs.batch(ops);
+      fail("Applied a batch larger than the maximum");
+    } catch (IOException e) {
+      GenericTestUtils.assertExceptionContains(
+          DFSConfigKeys.DFS_NAMENODE_BATCH_MAX_OPERATIONS_KEY, e);
+    }
+    assertFalse(fs.exists(new Path("/testMax/dir0")));
+
+    assertEquals(MAX_OPS, fs.batch(ops.subList(0, MAX_OPS)).size());
+    assertTrue(fs.exists(new Path("/testMax/dir" + (MAX_OPS - 1))));
+  }
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.security.AccessControlException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests {@link ClientProtocol#getListingRecursive}.
+ */
+public class TestGetListingRecursive {
+  private static final int LS_LIMIT = 3;
+
+  private static MiniDFSCluster cluster;
+  private static DistributedFileSystem fs;
+  private static ClientProtocol nn;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_LIST_LIMIT, LS_LIMIT);
+    conf.setBoolean(DFSConfigKeys.DFS_PERMISSIONS_ENABLED_KEY, true);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    fs = cluster.getFileSystem();
+    nn = cluster.getNameNodeRpc();
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  /** @return all the relative paths listed, in order, batch by batch. */
+  private static List<String> listAll(String src) throws IOException {
+    final List<String> names = new ArrayList<String>();
+    byte[] startAfter = HdfsFileStatus.EMPTY_NAME;
+    DirectoryListing listing;
+    do {
+      listing = nn.getListingRecursive(src, startAfter, false);
+      assertTrue(listing.getPartialListing().length <= LS_LIMIT);
+      for (HdfsFileStatus status : listing.getPartialListing()) {
+        names.add(status.getLocalName());
+      }
+      startAfter = listing.getLastName();
+    } while (listing.hasMore());
+    return names;
+  }
+
+  @Test
+  public void testDepthFirstOrderAcrossBatches() throws IOException {
+    final Path root = new Path("/testOrder");
+    fs.mkdirs(new Path(root, "a/b/c"));
+    fs.mkdirs(new Path(root, "a/d"));
+    fs.mkdirs(new Path(root, "e"));
+    DFSTestUtil.createFile(fs, new Path(root, "a/b/f1"), 1, (short) 1, 0L);
+    DFSTestUtil.createFile(fs, new Path(root, "a/b/c/f2"), 1, (short) 1, 0L);
+    DFSTestUtil.createFile(fs, new Path(root, "f3"), 1, (short) 1, 0L);
+
+    assertArrayEquals(new String[] {"a", "a/b", "a/b/c", "a/b/c/f2",
+        "a/b/f1", "a/d", "e", "f3"},
+        listAll(root.toString()).toArray(new String[0]));
+
+    final HdfsFileStatus[] file =
+        nn.getListingRecursive("/testOrder/f3", HdfsFileStatus.EMPTY_NAME,
+            false).getPartialListing();
+    assertEquals(1, file.length);
+    assertTrue(file[0].isEmptyLocalName());
+
+    assertNull(nn.getListingRecursive("/testOrder/none",
+        HdfsFileStatus.EMPTY_NAME, false));
+  }
+
+  @Test
+  public void testResumeAfterDeletedCursor() throws IOException {
+    final Path root = new Path("/testResume");
+    fs.mkdirs(new Path(root, "a/b"));
+    fs.mkdirs(new Path(root, "a/c"));
+    fs.mkdirs(new Path(root, "d"));
+
+    // the cursor and its ancestor are gone, the walk goes on after them
+    fs.delete(new Path(root, "a"), true);
+    final HdfsFileStatus[] rest = nn.getListingRecursive(root.toString(),
+        DFSUtil.string2Bytes("a/b"), false).getPartialListing();
+    assertEquals(1, rest.length);
+    assertEquals("d", rest[0].getLocalName());
+  }
+
+  @Test
+  public void testListFiles() throws IOException {
+    final Path root = new Path("/testListFiles");
+    final int numFiles = 10;
+    for (int i = 0; i < numFiles; i++) {
+      DFSTestUtil.createFile(fs, new Path(root, "dir" + (i % 3) + "/f" + i),
+          1024, (short) 1, 0L);
+    }
+    int count = 0;
+    final RemoteIterator<LocatedFileStatus> it = fs.listFiles(root, true);
+    while (it.hasNext()) {
+      final LocatedFileStatus status = it.next();
+      assertTrue(status.isFile());
+      assertTrue(status.getPath().getParent().getName().startsWith("dir"));
+      assertEquals(1, status.getBlockLocations().length);
+      count++;
+    }
+    assertEquals(numFiles, count);
+  }
+
+  @Test
+  public void testListFilesOfSnapshots() throws IOException {
+    final Path root = new Path("/testSnapshots");
+    DFSTestUtil.createFile(fs, new Path(root, "dir/f1"), 1024, (short) 1, 0L);
+    fs.allowSnapshot(root);
+    fs.createSnapshot(root, "s1");
+    DFSTestUtil.createFile(fs, new Path(root, "f2"), 1024, (short) 1, 0L);
+    fs.createSnapshot(root, "s2");
+
+    // within a snapshot, the recursive listing is used
+    assertEquals(1, countFiles(new Path(root, ".snapshot/s1")));
+    assertEquals(2, countFiles(new Path(root, ".snapshot/s2")));
+    // the .snapshot directory falls back to a listing per directory
+    assertEquals(3, countFiles(new Path(root, ".snapshot")));
+  }
+
+  private static int countFiles(Path dir) throws IOException {
+    int count = 0;
+    final RemoteIterator<LocatedFileStatus> it = fs.listFiles(dir, true);
+    while (it.hasNext()) {
+      assertTrue(it.next().isFile());
+      count++;
+    }
+    return count;
+  }
+
+  @Test
+  public void testSubDirectoryPermission() throws Exception {
+    final Path root = new Path("/testPermission");
+    final Path denied = new Path(root, "denied");
+    fs.mkdirs(new Path(denied, "sub"));
+    fs.setPermission(root, new FsPermission((short) 0755));
+    fs.setPermission(denied, new FsPermission((short) 0700));
+
+    final DistributedFileSystem userFs = (DistributedFileSystem)
+        DFSTestUtil.getFileSystemAs(UserGroupInformation
+            .createUserForTesting("user", new String[] {"group"}),
+            cluster.getConfiguration(0));
+    try {
+      userFs.listFiles(root, true).hasNext();
+      fail("Listed a directory without permission");
+    } catch (AccessControlException e) {
+      assertFalse(e.getMessage().isEmpty());
+    }
+  }
+}
@@ -61,8 +61,8 @@
 
 public class TestLease {
   static boolean hasLease(MiniDFSCluster cluster, Path src) {
-    return NameNodeAdapter.getLeaseManager(cluster.getNamesystem()
-        ).getLeaseByPath(src.toString()) != null;
+    return NameNodeAdapter.getLeaseHolderForPath(cluster.getNameNode(),
+        src.toString()) != null;
   }
 
   static int leaseCount(MiniDFSCluster cluster) {
@@ -23,6 +23,7 @@
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
@@ -36,6 +37,7 @@
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs.BlockReportReplica;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportRequestProto;
@@ -53,6 +55,9 @@
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo.Capability;
 import org.apache.hadoop.hdfs.server.protocol.StorageBlockReport;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -68,7 +73,7 @@ public class TestBlockListAsLongs {
   static Block b4 = new Block(4, 44, 444);
 
   @Test
-  public void testEmptyReport() {
+  public void testEmptyReport() throws IOException {
     BlockListAsLongs blocks = checkReport();
     assertArrayEquals(
         new long[] {
@@ -78,7 +83,7 @@ public void testEmptyReport() {
   }
 
   @Test
-  public void testFinalized() {
+  public void testFinalized() throws IOException {
     BlockListAsLongs blocks = checkReport(
         new FinalizedReplica(b1, null, null));
     assertArrayEquals(
@@ -90,7 +95,7 @@ public void testFinalized() {
   }
 
   @Test
-  public void testUc() {
+  public void testUc() throws IOException {
     BlockListAsLongs blocks = checkReport(
       new ReplicaBeingWritten(b1, null, null, null));
     assertArrayEquals(
@@ -102,7 +107,7 @@ public void testUc() {
   }
   
   @Test
-  public void testMix() {
+  public void testMix() throws IOException {
     BlockListAsLongs blocks = checkReport(
         new FinalizedReplica(b1, null, null),
         new FinalizedReplica(b2, null, null),
@@ -120,7 +125,7 @@ public void testMix() {
   }
 
   @Test
-  public void testFuzz() throws InterruptedException {
+  public void testFuzz() throws InterruptedException, IOException {
     Replica[] replicas = new Replica[100000];
     Random rand = new Random(0);
     for (int i=0; i<replicas.length; i++) {
@@ -140,7 +145,8 @@ public void testFuzz() throws InterruptedException {
     checkReport(replicas);
   }
 
-  private BlockListAsLongs checkReport(Replica...replicas) {
+  private BlockListAsLongs checkReport(Replica...replicas)
+      throws IOException {
     Map<Long, Replica> expectedReplicas = new HashMap<>();
     for (Replica replica : replicas) {
       expectedReplicas.put(replica.getBlockId(), replica);
@@ -166,8 +172,36 @@ private BlockListAsLongs checkReport(Replica...replicas) {
     // decode the long and verify its contents
     BlockListAsLongs decodedList = BlockListAsLongs.decodeLongs(longs);
     checkReplicas(expectedReplicas, decodedList);
+
+    // sort the blocks, with and without compression, and verify
+    for (CompressionCodec codec : new CompressionCodec[] { null,
+        ReflectionUtils.newInstance(DefaultCodec.class, new Configuration())}) {
+      BlockListAsLongs sortedBlocks =
+          encodeSorted(expectedReplicas.values(), codec);
+      assertTrue(sortedBlocks.isSorted());
+      assertEquals(codec, sortedBlocks.getCompressionCodec());
+      BlockListAsLongs decodedSorted = BlockListAsLongs.decodeSortedBuffers(
+          expectedReplicas.size(), sortedBlocks.getBlocksBuffers(), codec);
+      checkReplicas(expectedReplicas, decodedSorted);
+      long prevId = Long.MIN_VALUE;
+      for (BlockReportReplica replica : decodedSorted) {
+        assertTrue(replica.getBlockId() >= prevId);
+        prevId = replica.getBlockId();
+      }
+      // re-encode for a namenode without sorted buffers
+      checkReplicas(expectedReplicas, BlockListAsLongs.encode(decodedSorted));
+    }
     return blocks;
   }
+
+  private static BlockListAsLongs encodeSorted(
+      Iterable<? extends Replica> replicas, CompressionCodec codec) {
+    BlockListAsLongs.Builder builder = BlockListAsLongs.sortedBuilder(codec);
+    for (Replica replica : replicas) {
+      builder.add(replica);
+    }
+    return builder.build();
+  }
   
   private void checkReplicas(Map<Long,Replica> expectedReplicas,
                              BlockListAsLongs decodedBlocks) {
@@ -188,11 +222,90 @@ private void checkReplicas(Map<Long,Replica> expectedReplicas,
     assertTrue(reportReplicas.isEmpty());
   }
 
+  @Test
+  public void testSortedBuffersAreSmaller() {
+    // sequential block ids of a few generations, mostly full blocks
+    List<Replica> replicas = new ArrayList<Replica>();
+    Random rand = new Random(0);
+    for (int i = 0; i < 100000; i++) {
+      long id = (1L << 30) + i;
+      long len = rand.nextInt(100) == 0 ? rand.nextInt(1 << 27) : 1 << 27;
+      long gs = 1000 + rand.nextInt(3);
+      replicas.add(new FinalizedReplica(new Block(id, len, gs), null, null));
+    }
+    Collections.shuffle(replicas, rand);
+    BlockListAsLongs blocks = BlockListAsLongs.encode(replicas);
+    BlockListAsLongs sorted = encodeSorted(replicas, null);
+    BlockListAsLongs compressed = encodeSorted(replicas,
+        ReflectionUtils.newInstance(DefaultCodec.class, new Configuration()));
+    int size = blocks.getBlocksBuffer().size();
+    int sortedSize = sorted.getBlocksBuffer().size();
+    assertTrue("sorted " + sortedSize + " >= " + size, 2 * sortedSize < size);
+    assertTrue(compressed.getBlocksBuffer().size() < sortedSize);
+  }
+
+  @Test
+  public void testMalformedSortedBuffers() throws IOException {
+    List<Replica> replicas = new ArrayList<Replica>();
+    for (int i = 0; i < 10; i++) {
+      replicas.add(new FinalizedReplica(new Block(i, 2, 3), null, null));
+    }
+    ByteString sorted = encodeSorted(replicas, null).getBlocksBuffer();
+
+    // a valid buffer is decoded each time it is iterated
+    BlockListAsLongs decoded = BlockListAsLongs.decodeSortedBuffers(
+        10, Collections.singletonList(sorted), null);
+    assertEquals(10, decoded.getNumberOfBlocks());
+    for (int i = 0; i < 2; i++) {
+      int count = 0;
+      for (BlockReportReplica replica : decoded) {
+        assertEquals(count++, replica.getBlockId());
+      }
+      assertEquals(10, count);
+    }
+
+    // truncated buffer
+    checkMalformed(10, sorted.substring(0, sorted.size() - 1), null);
+    // more blocks than the buffer holds
+    checkMalformed(11, sorted, null);
+    checkMalformed(Integer.MAX_VALUE, sorted, null);
+    checkMalformed(-1, sorted, null);
+    // trailing replicas
+    checkMalformed(9, sorted, null);
+    // invalid replica state
+    checkMalformed(1, ByteString.copyFrom(new byte[] { 1, 2, 2, 15 }), null);
+    // garbage instead of compressed data
+    checkMalformed(10, sorted,
+        ReflectionUtils.newInstance(DefaultCodec.class, new Configuration()));
+  }
+
+  private static void checkMalformed(int numBlocks, ByteString buffer,
+      CompressionCodec codec) {
+    final BlockListAsLongs blocks;
+    try {
+      blocks = BlockListAsLongs.decodeSortedBuffers(numBlocks,
+          Collections.singletonList(buffer), codec);
+    } catch (IOException e) {
+      // rejected before iterating
+      return;
+    }
+    try {
+      for (BlockReportReplica replica : blocks) {
+        assertNotNull(replica);
+      }
+      fail("decoded a malformed buffer of " + numBlocks + " blocks");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
   @Test
   public void testCapabilitiesInited() {
     NamespaceInfo nsInfo = new NamespaceInfo();
     assertTrue(
         nsInfo.isCapabilitySupported(Capability.STORAGE_BLOCK_REPORT_BUFFERS));
+    assertTrue(nsInfo.isCapabilitySupported(
+        Capability.STORAGE_BLOCK_REPORT_SORTED_BUFFERS));
   }
 
   @Test
@@ -223,6 +336,8 @@ public BlockReportResponseProto answer(InvocationOnMock invocation) {
     BlockListAsLongs bbl = BlockListAsLongs.encode(Collections.singleton(r));
     DatanodeStorage storage = new DatanodeStorage("s1");
     StorageBlockReport[] sbr = { new StorageBlockReport(storage, bbl) };    
+    StorageBlockReport[] sortedSbr = { new StorageBlockReport(storage,
+        encodeSorted(Collections.singleton(r), null)) };
 
     // check DN sends new-style BR
     request.set(null);
@@ -233,6 +348,42 @@ public BlockReportResponseProto answer(InvocationOnMock invocation) {
     assertNotNull(proto);
     assertTrue(proto.getReports(0).getBlocksList().isEmpty());
     assertFalse(proto.getReports(0).getBlocksBuffersList().isEmpty());
+    assertFalse(proto.getReports(0).getSortedBuffers());
+
+    // check DN sends sorted BR to a NN supporting it
+    request.set(null);
+    nsInfo.setCapabilities(Capability.STORAGE_BLOCK_REPORT_BUFFERS.getMask()
+        | Capability.STORAGE_BLOCK_REPORT_SORTED_BUFFERS.getMask());
+    nn.blockReport(reg, "pool", sortedSbr,
+        new BlockReportContext(1, 0, System.nanoTime(), 0L));
+    proto = request.get();
+    assertNotNull(proto);
+    assertTrue(proto.getReports(0).getBlocksList().isEmpty());
+    assertFalse(proto.getReports(0).getBlocksBuffersList().isEmpty());
+    assertTrue(proto.getReports(0).getSortedBuffers());
+    assertFalse(proto.getReports(0).hasBuffersCodec());
+
+    // check DN sends unsorted BR to a NN supporting sorted ones
+    request.set(null);
+    nn.blockReport(reg, "pool", sbr,
+        new BlockReportContext(1, 0, System.nanoTime(), 0L));
+    proto = request.get();
+    assertNotNull(proto);
+    assertFalse(proto.getReports(0).getSortedBuffers());
+
+    // check DN re-encodes sorted BR for a NN not supporting it
+    request.set(null);
+    nsInfo.setCapabilities(Capability.STORAGE_BLOCK_REPORT_BUFFERS.getMask());
+    nn.blockReport(reg, "pool", sortedSbr,
+        new BlockReportContext(1, 0, System.nanoTime(), 0L));
+    proto = request.get();
+    assertNotNull(proto);
+    assertFalse(proto.getReports(0).getSortedBuffers());
+    BlockListAsLongs decoded = BlockListAsLongs.decodeBuffers(
+        proto.getReports(0).getNumberOfBlocks(),
+        proto.getReports(0).getBlocksBuffersList());
+    assertEquals(1, decoded.getNumberOfBlocks());
+    assertEquals(1, decoded.iterator().next().getBlockId());
     
     // back up to prior version and check DN sends old-style BR
     request.set(null);
@@ -243,5 +394,14 @@ public BlockReportResponseProto answer(InvocationOnMock invocation) {
     assertNotNull(proto);
     assertFalse(proto.getReports(0).getBlocksList().isEmpty());
     assertTrue(proto.getReports(0).getBlocksBuffersList().isEmpty());
+
+    // and longs for a sorted BR too
+    request.set(null);
+    nn.blockReport(reg, "pool", sortedSbr,
+        new BlockReportContext(1, 0, System.nanoTime(), 0L));
+    proto = request.get();
+    assertNotNull(proto);
+    assertFalse(proto.getReports(0).getBlocksList().isEmpty());
+    assertTrue(proto.getReports(0).getBlocksBuffersList().isEmpty());
   }
 }
@@ -55,6 +55,8 @@
 import org.apache.hadoop.hdfs.server.namenode.NNStorage;
 import org.apache.hadoop.hdfs.server.namenode.NameNodeLayoutVersion;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
+import org.apache.hadoop.hdfs.server.protocol.RemoteEditLog;
+import org.apache.hadoop.hdfs.server.protocol.RemoteEditLogManifest;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.ipc.ProtobufRpcEngine;
 import org.apache.hadoop.test.GenericTestUtils;
@@ -931,6 +933,50 @@ public void testSelectInputStreamsNotOnBoundary() throws Exception {
     
     verifyEdits(streams, 25, 50);
   }
+
+  @Test
+  public void testSelectInputStreamsInProgress() throws Exception {
+    writeSegment(cluster, qjm, 1, 3, true);
+    EditLogOutputStream stm = writeSegment(cluster, qjm, 4, 3, false);
+    waitForAllPendingCalls(qjm.getLoggerSetForTests());
+
+    QuorumJournalManager readerQjm = createSpyingQJM();
+    List<EditLogInputStream> streams = Lists.newArrayList();
+    try {
+      readerQjm.selectInputStreams(streams, 1, true);
+      verifyEdits(streams, 1, 6);
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+
+      // the edits are read from the middle of the in-progress segment
+      writeTxns(stm, 7, 2);
+      waitForAllPendingCalls(qjm.getLoggerSetForTests());
+      readerQjm.selectInputStreams(streams, 7, true);
+      verifyEdits(streams, 7, 8);
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      stm.abort();
+    }
+  }
+
+  @Test
+  public void testGetDurableTxId() throws Exception {
+    // only the transactions on two of the three journals are durable
+    assertEquals(7, qjm.getDurableTxId(Lists.newArrayList(
+        manifest(1, 10), manifest(1, 7), manifest(1, 5)), 1));
+    assertEquals(7, qjm.getDurableTxId(Lists.newArrayList(
+        manifest(1, 10), manifest(1, 7)), 1));
+    // a journal without the segment has none of the transactions
+    assertEquals(3, qjm.getDurableTxId(Lists.newArrayList(
+        manifest(1, 10), new RemoteEditLogManifest(
+            new ArrayList<RemoteEditLog>())), 4));
+  }
+
+  private static RemoteEditLogManifest manifest(long startTxId,
+      long endTxId) {
+    return new RemoteEditLogManifest(Lists.newArrayList(
+        new RemoteEditLog(startTxId, endTxId, true)));
+  }
   
   
   private QuorumJournalManager createSpyingQJM()
@@ -93,6 +93,42 @@ public void testReplaceStorage() throws Exception {
     Assert.assertThat(blockInfos[NUM_BLOCKS/2].getStorageInfo(0), is(storage2));
   }
 
+  @Test
+  public void testAddBlockList() throws Exception {
+    final DatanodeStorageInfo storage =
+        DFSTestUtil.createDatanodeStorageInfo("storageID", "127.0.0.1");
+    final int NUM_BLOCKS = 10;
+    BlockInfoContiguous[] blockInfos = new BlockInfoContiguous[NUM_BLOCKS];
+    // the first half of the blocks is added one by one
+    for (int i = 0; i < NUM_BLOCKS / 2; i++) {
+      blockInfos[i] = new BlockInfoContiguous((short) 3);
+      storage.addBlock(blockInfos[i]);
+    }
+    // the second half is linked separately, then added at once
+    BlockInfoContiguous head = null;
+    BlockInfoContiguous tail = null;
+    for (int i = NUM_BLOCKS / 2; i < NUM_BLOCKS; i++) {
+      blockInfos[i] = new BlockInfoContiguous((short) 3);
+      blockInfos[i].addStorage(storage);
+      head = blockInfos[i].listInsert(head, storage);
+      if (tail == null) {
+        tail = head;
+      }
+    }
+    storage.addBlockList(head, tail, NUM_BLOCKS - NUM_BLOCKS / 2);
+
+    assertEquals(NUM_BLOCKS, storage.numBlocks());
+    Iterator<BlockInfoContiguous> it = storage.getBlockIterator();
+    for (int i = NUM_BLOCKS - 1; i >= 0; i--) {
+      assertEquals(blockInfos[i], it.next());
+    }
+    Assert.assertFalse(it.hasNext());
+    // the blocks can still be removed from anywhere in the list
+    Assert.assertTrue(storage.removeBlock(blockInfos[NUM_BLOCKS / 2]));
+    Assert.assertTrue(storage.removeBlock(blockInfos[NUM_BLOCKS / 2 - 1]));
+    assertEquals(NUM_BLOCKS - 2, storage.numBlocks());
+  }
+
   @Test
   public void testBlockListMoveToHead() throws Exception {
     LOG.info("BlockInfo moveToHead tests...");
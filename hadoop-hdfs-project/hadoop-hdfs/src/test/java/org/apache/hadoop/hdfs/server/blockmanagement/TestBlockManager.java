@@ -531,6 +531,46 @@ private DatanodeStorageInfo[] scheduleSingleReplication(Block block) {
     return pipeline;
   }
 
+  /**
+   * Test that the targets of the replications are chosen by several threads
+   * and all the replications are scheduled.
+   */
+  @Test
+  public void testParallelReplicationWork() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.set(DFSConfigKeys.NET_TOPOLOGY_SCRIPT_FILE_NAME_KEY, "need to set a dummy value here so it assumes a multi-rack cluster");
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY, 4);
+    // both the sources replicate all the blocks
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_MAX_STREAMS_KEY, 100);
+    conf.setInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_STREAMS_HARD_LIMIT_KEY, 100);
+    bm = new BlockManager(fsn, conf);
+    try {
+      addNodes(nodes);
+      final int numBlocks = 50;
+      List<Block> blocks = new ArrayList<Block>();
+      for (int i = 0; i < numBlocks; i++) {
+        blocks.add(addBlockOnNodes(i, getNodes(0, 1)));
+      }
+      List<List<Block>> blocksToReplicate = new ArrayList<List<Block>>();
+      blocksToReplicate.add(new ArrayList<Block>());
+      blocksToReplicate.add(blocks);
+
+      assertEquals(numBlocks,
+          bm.computeReplicationWorkForBlocks(blocksToReplicate));
+      for (Block b : blocks) {
+        assertEquals(1, bm.pendingReplications.getNumReplicas(b));
+      }
+      for (BlockTargetPair p : getAllPendingReplications().values()) {
+        assertEquals(1, p.targets.length);
+        assertTrue("Replication target should be on the other rack",
+            rackB.contains(p.targets[0].getDatanodeDescriptor()));
+      }
+    } finally {
+      bm.close();
+    }
+  }
+
   private LinkedListMultimap<DatanodeStorageInfo, BlockTargetPair> getAllPendingReplications() {
     LinkedListMultimap<DatanodeStorageInfo, BlockTargetPair> repls =
       LinkedListMultimap.create();
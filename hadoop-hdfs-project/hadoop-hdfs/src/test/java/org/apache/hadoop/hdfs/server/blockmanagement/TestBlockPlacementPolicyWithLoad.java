@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.StorageType;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.TestBlockStoragePolicy;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
+import org.apache.hadoop.hdfs.server.protocol.StorageReport;
+import org.apache.hadoop.net.NetworkTopology;
+import org.apache.hadoop.test.PathUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the ordering of the datanodes and storages by their write load in
+ * {@link BlockPlacementPolicyWithLoad}.
+ */
+public class TestBlockPlacementPolicyWithLoad {
+  private static final int BLOCK_SIZE = 1024;
+  private static final int NUM_OF_DATANODES = 6;
+
+  private static NameNode namenode;
+  private static BlockPlacementPolicy replicator;
+  private static NetworkTopology cluster;
+  private static DatanodeDescriptor[] dataNodes;
+
+  @BeforeClass
+  public static void setupCluster() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    final String[] racks = {
+        "/r1",
+        "/r1",
+        "/r1",
+        "/r2",
+        "/r2",
+        "/r2"};
+    final DatanodeStorageInfo[] storages =
+        DFSTestUtil.createDatanodeStorageInfos(racks);
+    dataNodes = DFSTestUtil.toDatanodeDescriptor(storages);
+    // an extra storage for dn2
+    BlockManagerTestUtil.updateStorage(dataNodes[2], new DatanodeStorage(
+        storages[2].getStorageID() + "-extra", DatanodeStorage.State.NORMAL,
+        StorageType.DEFAULT));
+
+    FileSystem.setDefaultUri(conf, "hdfs://localhost:0");
+    conf.set(DFSConfigKeys.DFS_NAMENODE_HTTP_ADDRESS_KEY, "0.0.0.0:0");
+    final File baseDir =
+        PathUtils.getTestDir(TestBlockPlacementPolicyWithLoad.class);
+    conf.set(DFSConfigKeys.DFS_NAMENODE_NAME_DIR_KEY,
+        new File(baseDir, "name").getPath());
+    conf.setClass(DFSConfigKeys.DFS_BLOCK_REPLICATOR_CLASSNAME_KEY,
+        BlockPlacementPolicyWithLoad.class, BlockPlacementPolicy.class);
+    DFSTestUtil.formatNameNode(conf);
+    namenode = new NameNode(conf);
+
+    final BlockManager bm = namenode.getNamesystem().getBlockManager();
+    replicator = bm.getBlockPlacementPolicy();
+    cluster = bm.getDatanodeManager().getNetworkTopology();
+    for (int i = 0; i < NUM_OF_DATANODES; i++) {
+      cluster.add(dataNodes[i]);
+      bm.getDatanodeManager().getHeartbeatManager().addDatanode(dataNodes[i]);
+      for (DatanodeStorageInfo storage : dataNodes[i].getStorageInfos()) {
+        storage.setUtilizationForTesting(
+            2 * HdfsConstants.MIN_BLOCKS_FOR_WRITE * BLOCK_SIZE, 0L,
+            2 * HdfsConstants.MIN_BLOCKS_FOR_WRITE * BLOCK_SIZE, 0L);
+      }
+      dataNodes[i].updateHeartbeat(
+          BlockManagerTestUtil.getStorageReportsForDatanode(dataNodes[i]),
+          0L, 0L, 0, 0, null);
+    }
+  }
+
+  @AfterClass
+  public static void teardownCluster() {
+    if (namenode != null) {
+      namenode.stop();
+    }
+  }
+
+  private static void setLoad(DatanodeStorageInfo storage, long bytesPerSec,
+      int writers, boolean slow) {
+    storage.updateState(new StorageReport(
+        new DatanodeStorage(storage.getStorageID()), false,
+        storage.getCapacity(), storage.getDfsUsed(), storage.getRemaining(),
+        storage.getBlockPoolUsed(), bytesPerSec, writers, slow));
+  }
+
+  @Test
+  public void testCompareNodeLoad() {
+    final DatanodeStorageInfo[] storages =
+        DFSTestUtil.createDatanodeStorageInfos(2);
+    final DatanodeDescriptor a = storages[0].getDatanodeDescriptor();
+    final DatanodeDescriptor b = storages[1].getDatanodeDescriptor();
+
+    setLoad(storages[0], 100, 1, false);
+    setLoad(storages[1], 200, 1, false);
+    assertTrue(BlockPlacementPolicyWithLoad.compareNodeLoad(a, b) < 0);
+
+    // fewer writers wins over the throughput
+    setLoad(storages[1], 200, 0, false);
+    assertTrue(BlockPlacementPolicyWithLoad.compareNodeLoad(a, b) > 0);
+
+    // a slow node loses whatever its load
+    setLoad(storages[1], 0, 0, true);
+    assertTrue(BlockPlacementPolicyWithLoad.compareNodeLoad(a, b) < 0);
+
+    // unless the other one is slow too
+    setLoad(storages[0], 100, 1, true);
+    assertTrue(BlockPlacementPolicyWithLoad.compareNodeLoad(a, b) > 0);
+  }
+
+  @Test
+  public void testCandidateStorageOrder() {
+    final DatanodeStorageInfo s0 =
+        DFSTestUtil.createDatanodeStorageInfo("s0", "1.1.1.1");
+    final DatanodeDescriptor node = s0.getDatanodeDescriptor();
+    final DatanodeStorageInfo s1 = node.updateStorage(new DatanodeStorage("s1"));
+    final DatanodeStorageInfo s2 = node.updateStorage(new DatanodeStorage("s2"));
+    final DatanodeStorageInfo s3 = node.updateStorage(new DatanodeStorage("s3"));
+    setLoad(s0, 0, 0, true);
+    setLoad(s1, 100, 2, false);
+    setLoad(s2, 500, 1, false);
+    setLoad(s3, 50, 1, false);
+
+    final BlockPlacementPolicyWithLoad policy =
+        new BlockPlacementPolicyWithLoad();
+    for (int i = 0; i < 10; i++) {
+      assertArrayEquals(new DatanodeStorageInfo[] {s3, s2, s1, s0},
+          policy.getCandidateStorages(node));
+    }
+  }
+
+  /**
+   * The replicas are placed across two racks as by the default policy, but
+   * the loaded and the slow datanodes get fewer of them, and the slow storage
+   * of a datanode gets none.
+   */
+  @Test
+  public void testChooseTarget() {
+    // dn1 only has slow storages, dn4 is writing many blocks
+    setLoad(dataNodes[1].getStorageInfos()[0], 0, 0, true);
+    setLoad(dataNodes[4].getStorageInfos()[0], 1000, 5, false);
+    // dn2 has a slow storage and an idle one
+    final DatanodeStorageInfo slowStorage = dataNodes[2].getStorageInfos()[0];
+    setLoad(slowStorage, 0, 0, true);
+
+    final int[] counts = new int[NUM_OF_DATANODES];
+    for (int i = 0; i < 300; i++) {
+      final DatanodeStorageInfo[] targets = replicator.chooseTarget(
+          "/file", 3, null, new ArrayList<DatanodeStorageInfo>(), false,
+          null, BLOCK_SIZE, TestBlockStoragePolicy.DEFAULT_STORAGE_POLICY);
+      assertEquals(3, targets.length);
+
+      final Set<DatanodeDescriptor> nodes = new HashSet<DatanodeDescriptor>();
+      final Set<String> racks = new HashSet<String>();
+      for (DatanodeStorageInfo target : targets) {
+        final DatanodeDescriptor node = target.getDatanodeDescriptor();
+        nodes.add(node);
+        racks.add(node.getNetworkLocation());
+        counts[indexOf(node)]++;
+        assertNotEquals(slowStorage, target);
+      }
+      assertEquals(3, nodes.size());
+      assertEquals(2, racks.size());
+    }
+
+    // with the best of two random datanodes, a loaded one is chosen about
+    // half as often as the others
+    final int minIdle = Math.min(Math.min(counts[0], counts[2]),
+        Math.min(counts[3], counts[5]));
+    assertTrue(3 * counts[1] < 2 * minIdle);
+    assertTrue(3 * counts[4] < 2 * minIdle);
+  }
+
+  private static int indexOf(DatanodeDescriptor node) {
+    for (int i = 0; i < dataNodes.length; i++) {
+      if (dataNodes[i] == node) {
+        return i;
+      }
+    }
+    throw new AssertionError(node + " is not a datanode of the cluster");
+  }
+}
@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
+import org.apache.hadoop.hdfs.protocol.BlockListAsLongs.BlockReportReplica;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants.DatanodeReportType;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
+import org.apache.hadoop.hdfs.server.datanode.Replica;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaBeingWritten;
+import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Tests that the first block reports processed in parallel at startup
+ * build the same block locations as the serial processing.
+ */
+public class TestParallelFirstBlockReports {
+  private static final int NUM_DATANODES = 4;
+  private static final short REPLICATION = 3;
+  private static final int BLOCK_SIZE = 1024;
+  private static final int NUM_FILES = 20;
+
+  /**
+   * A report is split into the slices of the stripes in one pass, and every
+   * replica lands in the slice of its stripe, in the order of the report.
+   */
+  @Test
+  public void testSplitReport() {
+    final int numStripes = 3;
+    final List<Replica> replicas = new ArrayList<Replica>();
+    for (long id = -10; id < 100; id++) {
+      final Block b = new Block(id, id & 0xff, 1000 + id % 3);
+      replicas.add(id % 7 == 0 ? new ReplicaBeingWritten(b, null, null, null)
+          : new FinalizedReplica(b, null, null));
+    }
+    final BlockListAsLongs report = BlockListAsLongs.encode(replicas);
+    final BlockManager.ReportSlice[] slices =
+        BlockManager.ReportSlice.split(report, numStripes);
+    assertEquals(numStripes, slices.length);
+
+    final int[] next = new int[numStripes];
+    final BlockReportReplica copy = new BlockReportReplica(new Block());
+    for (BlockReportReplica replica : report) {
+      final int stripe = BlockManager.ReportSlice.getStripe(
+          replica.getBlockId(), numStripes);
+      assertTrue(stripe >= 0 && stripe < numStripes);
+      slices[stripe].get(next[stripe]++, copy);
+      assertEquals(replica, copy);
+      assertEquals(replica.getNumBytes(), copy.getNumBytes());
+      assertEquals(replica.getGenerationStamp(), copy.getGenerationStamp());
+      assertEquals(replica.getState(), copy.getState());
+    }
+    for (int i = 0; i < numStripes; i++) {
+      assertEquals(next[i], slices[i].size());
+    }
+    assertEquals(ReplicaState.RBW, getState(slices, -7, numStripes));
+
+    // a missing report has empty slices
+    for (BlockManager.ReportSlice slice :
+        BlockManager.ReportSlice.split(null, numStripes)) {
+      assertEquals(0, slice.size());
+    }
+  }
+
+  private static ReplicaState getState(BlockManager.ReportSlice[] slices,
+      long blockId, int numStripes) {
+    final BlockManager.ReportSlice slice =
+        slices[BlockManager.ReportSlice.getStripe(blockId, numStripes)];
+    final BlockReportReplica replica = new BlockReportReplica(new Block());
+    for (int i = 0; i < slice.size(); i++) {
+      slice.get(i, replica);
+      if (replica.getBlockId() == blockId) {
+        return replica.getState();
+      }
+    }
+    return null;
+  }
+
+  @Test(timeout=180000)
+  public void testRestartWithParallelFirstBlockReports() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_FIRST_BLOCK_REPORT_THREADS_KEY, 4);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    conf.setInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY, BLOCK_SIZE / 2);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf)
+          .numDataNodes(NUM_DATANODES).build();
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      long totalBlocks = 0;
+      for (int i = 0; i < NUM_FILES; i++) {
+        final long len = (long) BLOCK_SIZE * (i % 5 + 1);
+        DFSTestUtil.createFile(fs, new Path("/f" + i), len, REPLICATION, i);
+        totalBlocks += len / BLOCK_SIZE;
+      }
+      for (int i = 0; i < NUM_FILES; i++) {
+        DFSTestUtil.waitReplication(fs, new Path("/f" + i), REPLICATION);
+      }
+
+      // the datanodes report to the restarted namenode concurrently
+      cluster.restartNameNode(true);
+      final FSNamesystem fsn = cluster.getNamesystem();
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return !fsn.isInSafeMode();
+        }
+      }, 100, 60000);
+      assertEquals(totalBlocks, fsn.getBlocksTotal());
+      fs = cluster.getFileSystem();
+      for (int i = 0; i < NUM_FILES; i++) {
+        DFSTestUtil.waitReplication(fs, new Path("/f" + i), REPLICATION);
+        DFSTestUtil.readFile(fs, new Path("/f" + i));
+      }
+
+      // the block lists of the storages match their block counts
+      final BlockManager bm = fsn.getBlockManager();
+      long replicas = 0;
+      fsn.readLock();
+      try {
+        for (DatanodeDescriptor dn : bm.getDatanodeManager()
+            .getDatanodeListForReport(DatanodeReportType.LIVE)) {
+          for (DatanodeStorageInfo storage : dn.getStorageInfos()) {
+            final Set<BlockInfoContiguous> blocks =
+                new HashSet<BlockInfoContiguous>();
+            final Iterator<BlockInfoContiguous> it =
+                storage.getBlockIterator();
+            while (it.hasNext()) {
+              final BlockInfoContiguous b = it.next();
+              assertTrue(b.findStorageInfo(storage) >= 0);
+              assertTrue(blocks.add(b));
+            }
+            assertEquals(storage.numBlocks(), blocks.size());
+            replicas += blocks.size();
+          }
+        }
+      } finally {
+        fsn.readUnlock();
+      }
+      assertEquals(totalBlocks * REPLICATION, replicas);
+      assertEquals(0, bm.getUnderReplicatedBlocksCount());
+      assertEquals(0, bm.getCorruptReplicaBlocksCount());
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+}
@@ -29,6 +29,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
@@ -58,6 +59,7 @@
 import org.apache.hadoop.hdfs.server.protocol.ReplicaRecoveryInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.server.protocol.VolumeFailureSummary;
+import org.apache.hadoop.hdfs.util.AutoCloseableLock;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.metrics2.MetricsCollector;
 import org.apache.hadoop.metrics2.util.MBeans;
@@ -513,6 +515,7 @@ public FsDatasetSpi getDataset() {
   private final SimulatedVolume volume;
   private final String datanodeUuid;
   private final DataNode datanode;
+  private final ReentrantLock replicaLock = new ReentrantLock();
   
 
   public SimulatedFSDataset(DataStorage storage, Configuration conf) {
@@ -729,6 +732,12 @@ public synchronized String getReplicaString(String bpid, long blockId) {
     return r == null? "null": r.toString();
   }
 
+  @Override // FsDatasetSpi
+  public AutoCloseableLock acquireReplicaLock(String bpid, long blockId) {
+    replicaLock.lock();
+    return new AutoCloseableLock(replicaLock);
+  }
+
   @Override // FsDatasetSpi
   public Block getStoredBlock(String bpid, long blkid) throws IOException {
     final Map<Block, BInfo> map = blockMap.get(bpid);
@@ -78,6 +78,7 @@
 import org.apache.hadoop.hdfs.server.protocol.ReplicaRecoveryInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.server.protocol.VolumeFailureSummary;
+import org.apache.hadoop.hdfs.util.AutoCloseableLock;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.DataChecksum;
@@ -618,7 +619,9 @@ public void run() {
             final RecoveringBlock recoveringBlock = new RecoveringBlock(
                 block.getBlock(), locations, block.getBlock()
                     .getGenerationStamp() + 1);
-            synchronized (dataNode.data) {
+            try (AutoCloseableLock lock = dataNode.data.acquireReplicaLock(
+                block.getBlock().getBlockPoolId(),
+                block.getBlock().getBlockId())) {
               Thread.sleep(2000);
               dataNode.initReplicaRecovery(recoveringBlock);
             }
@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Options.ChecksumOpt;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.VolumeScanner.NullChannelOutputStream;
+import org.apache.hadoop.util.DataChecksum;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the verification of the block data by the {@link BlockSender}, in
+ * pooled direct buffers when it writes to a channel, and in a heap buffer
+ * otherwise.
+ */
+public class TestBlockSender {
+  /** Several packets of 8 chunks, the last chunk is partial. */
+  private static final int FILE_LEN = 20000;
+  private static final int CORRUPT_OFFSET = 9000;
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+  private DataNode dn;
+
+  /** A stream which is also a channel, as the one of a socket. */
+  private static class ChannelOutputStream extends ByteArrayOutputStream
+      implements WritableByteChannel {
+    @Override
+    public int write(ByteBuffer src) {
+      final int n = src.remaining();
+      final byte[] b = new byte[n];
+      src.get(b);
+      write(b, 0, n);
+      return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    final Configuration conf = new HdfsConfiguration();
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+    dn = cluster.getDataNodes().get(0);
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private ExtendedBlock createFile(Path path, int bytesPerChecksum)
+      throws IOException {
+    final byte[] data = new byte[FILE_LEN];
+    new Random(0).nextBytes(data);
+    final FSDataOutputStream out = fs.create(path,
+        FsPermission.getFileDefault(), EnumSet.of(CreateFlag.CREATE), 4096,
+        (short) 1, 1024 * 1024, null,
+        new ChecksumOpt(DataChecksum.Type.CRC32C, bytesPerChecksum));
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+    return DFSTestUtil.getFirstBlock(fs, path);
+  }
+
+  private void corrupt(ExtendedBlock block) throws IOException {
+    final File f = cluster.getBlockFile(0, block);
+    final RandomAccessFile raf = new RandomAccessFile(f, "rw");
+    try {
+      raf.seek(CORRUPT_OFFSET);
+      final int b = raf.read();
+      raf.seek(CORRUPT_OFFSET);
+      raf.write(b ^ 0xff);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Send the block, verifying it, to the given stream, which is written to
+   * from direct buffers if it is a channel.
+   */
+  private long send(ExtendedBlock block, OutputStream baseStream)
+      throws IOException {
+    final BlockSender sender = new BlockSender(block, 0, -1, false, true,
+        true, dn, null, CachingStrategy.newDropBehind());
+    return sender.sendBlock(new DataOutputStream(baseStream), baseStream,
+        null);
+  }
+
+  private void checkCorruptChunk(ExtendedBlock block, OutputStream out,
+      long chunkOffset) throws IOException {
+    try {
+      send(block, out);
+      fail("The corrupt chunk was not detected");
+    } catch (ChecksumException e) {
+      assertEquals(chunkOffset, e.getPos());
+    }
+  }
+
+  /** Both paths send exactly the same packets. */
+  private void checkSameOutput(ExtendedBlock block) throws IOException {
+    final ChannelOutputStream direct = new ChannelOutputStream();
+    final ByteArrayOutputStream heap = new ByteArrayOutputStream();
+    assertEquals(send(block, heap), send(block, direct));
+    assertArrayEquals(heap.toByteArray(), direct.toByteArray());
+  }
+
+  @Test(timeout=60000)
+  public void testDirectAndHeapPaths() throws IOException {
+    final ExtendedBlock block = createFile(new Path("/file"), 512);
+    checkSameOutput(block);
+    // the data of the last partial packet, as well as the checksums
+    assertEquals(FILE_LEN + (FILE_LEN + 511) / 512 * 4,
+        send(block, new NullChannelOutputStream()));
+  }
+
+  @Test(timeout=60000)
+  public void testCorruptChunk() throws IOException {
+    final ExtendedBlock block = createFile(new Path("/file"), 512);
+    corrupt(block);
+    final long chunkOffset = CORRUPT_OFFSET / 512 * 512;
+    checkCorruptChunk(block, new ChannelOutputStream(), chunkOffset);
+    checkCorruptChunk(block, new ByteArrayOutputStream(), chunkOffset);
+    // as the VolumeScanner does
+    checkCorruptChunk(block, new NullChannelOutputStream(), chunkOffset);
+  }
+
+  /**
+   * The pool returns buffers at least as big as asked for, and their extra
+   * capacity holds stale bytes which must not be sent.
+   */
+  @Test(timeout=60000)
+  public void testPooledBufferBiggerThanPacket() throws IOException {
+    final ByteBuffer big = ByteBuffer.allocateDirect(64 * 1024);
+    final byte[] garbage = new byte[big.capacity()];
+    Arrays.fill(garbage, (byte) 0x5a);
+    big.put(garbage);
+    BlockSender.getDirectBufferPool().putBuffer(big);
+
+    // chunks of 1024 bytes make slightly smaller packets than the default
+    // 512, so the buffers pooled by the senders of the latter fit too
+    final ExtendedBlock block = createFile(new Path("/file"), 1024);
+    checkSameOutput(block);
+    corrupt(block);
+    checkCorruptChunk(block, new ChannelOutputStream(),
+        CORRUPT_OFFSET / 1024 * 1024);
+  }
+}
@@ -0,0 +1,233 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.datatransfer.Op;
+import org.apache.hadoop.hdfs.server.datanode.DataXceiverOpLimiter.OpType;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Tests the limits of the concurrent operations of each type of the
+ * DataXceivers.
+ */
+public class TestDataXceiverOpLimiter {
+  private static final Log LOG =
+      LogFactory.getLog(TestDataXceiverOpLimiter.class);
+
+  private Configuration conf;
+  private DataNode dn;
+  private DataNodeMetrics metrics;
+
+  @Before
+  public void setUp() {
+    conf = new Configuration();
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_KEY, 8);
+    metrics = Mockito.mock(DataNodeMetrics.class);
+    dn = Mockito.mock(DataNode.class);
+    Mockito.when(dn.getMetrics()).thenReturn(metrics);
+  }
+
+  @Test
+  public void testOpTypes() {
+    assertEquals(OpType.READ, OpType.of(Op.READ_BLOCK));
+    assertEquals(OpType.READ, OpType.of(Op.READ_METADATA));
+    assertEquals(OpType.READ, OpType.of(Op.BLOCK_CHECKSUM));
+    assertEquals(OpType.WRITE, OpType.of(Op.WRITE_BLOCK));
+    assertEquals(OpType.TRANSFER, OpType.of(Op.COPY_BLOCK));
+    assertEquals(OpType.TRANSFER, OpType.of(Op.REPLACE_BLOCK));
+    assertEquals(OpType.TRANSFER, OpType.of(Op.TRANSFER_BLOCK));
+    assertEquals(OpType.SHORT_CIRCUIT,
+        OpType.of(Op.REQUEST_SHORT_CIRCUIT_FDS));
+    assertEquals(OpType.SHORT_CIRCUIT,
+        OpType.of(Op.RELEASE_SHORT_CIRCUIT_FDS));
+    assertEquals(OpType.SHORT_CIRCUIT,
+        OpType.of(Op.REQUEST_SHORT_CIRCUIT_SHM));
+  }
+
+  @Test
+  public void testDefaultLimits() {
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_XCEIVER_WRITE_MAX_OPS_KEY, 3);
+    final DataXceiverOpLimiter limiter = new DataXceiverOpLimiter(conf, dn);
+    assertEquals(8, limiter.getMaxOps(OpType.READ));
+    assertEquals(3, limiter.getMaxOps(OpType.WRITE));
+    assertEquals(8, limiter.getMaxOps(OpType.TRANSFER));
+    assertEquals(8, limiter.getMaxOps(OpType.SHORT_CIRCUIT));
+  }
+
+  /** An op which counts its resumptions. */
+  private static class CountingOp implements DataXceiverOpLimiter.QueuedOp {
+    private final AtomicInteger resumed = new AtomicInteger();
+    private final boolean canRun;
+
+    CountingOp(boolean canRun) {
+      this.canRun = canRun;
+    }
+
+    @Override
+    public boolean resume() {
+      resumed.incrementAndGet();
+      return canRun;
+    }
+  }
+
+  @Test
+  public void testOpsWaitForTheirType() throws Exception {
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_XCEIVER_READ_MAX_OPS_KEY, 1);
+    final DataXceiverOpLimiter limiter = new DataXceiverOpLimiter(conf, dn);
+
+    final CountingOp first = new CountingOp(true);
+    assertTrue(limiter.acquire(OpType.READ, first));
+    assertEquals(0, limiter.getAvailableSlots(OpType.READ));
+    final CountingOp second = new CountingOp(true);
+    assertFalse(limiter.acquire(OpType.READ, second));
+    assertEquals(1, limiter.getQueuedOps(OpType.READ));
+    Mockito.verify(metrics).incrXceiverOpsQueued(OpType.READ);
+
+    // the other types are not held up by the reads
+    assertTrue(limiter.acquire(OpType.WRITE, new CountingOp(true)));
+    limiter.release(OpType.WRITE);
+    assertEquals(0, second.resumed.get());
+
+    // the slot goes to the queued op
+    limiter.release(OpType.READ);
+    assertEquals(1, second.resumed.get());
+    assertEquals(0, limiter.getQueuedOps(OpType.READ));
+    assertEquals(0, limiter.getAvailableSlots(OpType.READ));
+    Mockito.verify(metrics).decrXceiverOpsQueued(OpType.READ);
+
+    limiter.release(OpType.READ);
+    assertEquals(1, limiter.getAvailableSlots(OpType.READ));
+    assertEquals(0, first.resumed.get());
+  }
+
+  @Test
+  public void testQueuedOpsAreBounded() throws Exception {
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_XCEIVER_READ_MAX_OPS_KEY, 1);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_XCEIVER_QUEUE_SIZE_KEY, 2);
+    final DataXceiverOpLimiter limiter = new DataXceiverOpLimiter(conf, dn);
+
+    assertTrue(limiter.acquire(OpType.READ, new CountingOp(true)));
+    final CountingOp closed = new CountingOp(false);
+    final CountingOp open = new CountingOp(true);
+    assertFalse(limiter.acquire(OpType.READ, closed));
+    assertFalse(limiter.acquire(OpType.READ, open));
+    try {
+      limiter.acquire(OpType.READ, new CountingOp(true));
+      fail("queued more ops than dfs.datanode.xceiver.queue.size");
+    } catch (IOException e) {
+      GenericTestUtils.assertExceptionContains("are queued", e);
+    }
+    Mockito.verify(metrics).incrXceiverConnectionsRejected();
+
+    // the slot skips the op which cannot run
+    limiter.release(OpType.READ);
+    assertEquals(1, closed.resumed.get());
+    assertEquals(1, open.resumed.get());
+    assertEquals(0, limiter.getQueuedOps(OpType.READ));
+    assertEquals(0, limiter.getAvailableSlots(OpType.READ));
+  }
+
+  /**
+   * The reads waiting for a slot do not hold any DataXceiver thread, so the
+   * writes still run while more reads than threads wait.
+   */
+  @Test(timeout=120000)
+  public void testQueuedOpsDoNotHoldThreads() throws Exception {
+    conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_KEY, 2);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_XCEIVER_QUEUE_SIZE_KEY, 4);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_XCEIVER_READ_MAX_OPS_KEY, 1);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY, 0);
+    final MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      final FileSystem fs = cluster.getFileSystem();
+      final Path file = new Path("/file");
+      DFSTestUtil.createFile(fs, file, 1024, (short) 1, 0L);
+      final DataXceiverOpLimiter limiter =
+          cluster.getDataNodes().get(0).xceiverOpLimiter;
+
+      // take the only read slot
+      assertTrue(limiter.acquire(OpType.READ, null));
+      final int numReaders = 5;
+      final AtomicInteger succeeded = new AtomicInteger();
+      final Thread[] readers = new Thread[numReaders];
+      for (int i = 0; i < numReaders; i++) {
+        readers[i] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              DFSTestUtil.readFile(fs, file);
+              succeeded.incrementAndGet();
+            } catch (IOException e) {
+              LOG.info("Failed to read " + file, e);
+            }
+          }
+        };
+        readers[i].start();
+      }
+      // 4 reads are queued and the one beyond dfs.datanode.xceiver.queue.size
+      // is rejected
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return limiter.getQueuedOps(OpType.READ) == 4;
+        }
+      }, 100, 60000);
+
+      // both DataXceiver threads are still free to serve writes
+      DFSTestUtil.createFile(fs, new Path("/file2"), 1024, (short) 1, 0L);
+      assertEquals(4, limiter.getQueuedOps(OpType.READ));
+
+      // the queued reads run once the slot is free
+      limiter.release(OpType.READ);
+      for (Thread reader : readers) {
+        reader.join();
+      }
+      assertTrue(succeeded.get() >= 4);
+      assertEquals(0, limiter.getQueuedOps(OpType.READ));
+      assertEquals(1, limiter.getAvailableSlots(OpType.READ));
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
+import org.apache.hadoop.hdfs.server.protocol.StorageReport;
+import org.junit.Test;
+
+/**
+ * Tests the write load of the storages sent with the heartbeats.
+ */
+public class TestStorageLoadTracker {
+  private static final long SLOW_WRITE_MS = 100;
+
+  private static StorageReport[] getReports(StorageLoadTracker tracker,
+      String... storageIds) {
+    final StorageReport[] reports = new StorageReport[storageIds.length];
+    for (int i = 0; i < storageIds.length; i++) {
+      reports[i] = new StorageReport(new DatanodeStorage(storageIds[i]),
+          false, 1000, 100, 900, 100);
+    }
+    final StorageReport[] withLoads = tracker.addLoads(reports);
+    for (int i = 0; i < storageIds.length; i++) {
+      assertEquals(storageIds[i], withLoads[i].getStorage().getStorageID());
+      assertEquals(900, withLoads[i].getRemaining());
+    }
+    return withLoads;
+  }
+
+  @Test
+  public void testActiveWriters() {
+    final StorageLoadTracker tracker =
+        new StorageLoadTracker(Long.MAX_VALUE, SLOW_WRITE_MS);
+    tracker.writerStarted("s1");
+    tracker.writerStarted("s1");
+    tracker.writerStarted("s2");
+    StorageReport[] reports = getReports(tracker, "s1", "s2", "s3");
+    assertEquals(2, reports[0].getActiveWriters());
+    assertEquals(1, reports[1].getActiveWriters());
+    assertEquals(0, reports[2].getActiveWriters());
+
+    tracker.writerFinished("s1");
+    tracker.writerFinished("s2");
+    reports = getReports(tracker, "s1", "s2");
+    assertEquals(1, reports[0].getActiveWriters());
+    assertEquals(0, reports[1].getActiveWriters());
+  }
+
+  @Test
+  public void testWindow() {
+    // the window ends on every heartbeat
+    final StorageLoadTracker tracker = new StorageLoadTracker(0, SLOW_WRITE_MS);
+    for (int i = 0; i < 20; i++) {
+      tracker.addDiskWrite("s1", 1000, 1);
+    }
+    // a few slow writes among many are not a slow disk
+    for (int i = 0; i < StorageLoadTracker.MIN_SLOW_WRITES; i++) {
+      tracker.addDiskWrite("s1", 1000, SLOW_WRITE_MS + 1);
+      tracker.addDiskWrite("s2", 1000, SLOW_WRITE_MS + 1);
+    }
+    StorageReport[] reports = getReports(tracker, "s1", "s2");
+    assertTrue(reports[0].getWriteBytesPerSec() > 0);
+    assertFalse(reports[0].isSlowDisk());
+    assertTrue(reports[1].isSlowDisk());
+
+    // nothing written in the next window
+    reports = getReports(tracker, "s1", "s2");
+    assertEquals(0, reports[0].getWriteBytesPerSec());
+    assertFalse(reports[1].isSlowDisk());
+  }
+
+  @Test
+  public void testRemoveStorage() {
+    final StorageLoadTracker tracker =
+        new StorageLoadTracker(Long.MAX_VALUE, SLOW_WRITE_MS);
+    tracker.writerStarted("s1");
+    tracker.writerStarted("s2");
+    assertEquals(2, tracker.getNumStorages());
+
+    tracker.removeStorage("s1");
+    assertEquals(1, tracker.getNumStorages());
+    // the writers still open on the removed storage do not add it back
+    tracker.addDiskWrite("s1", 1000, 1);
+    tracker.writerFinished("s1");
+    assertEquals(1, tracker.getNumStorages());
+    assertEquals(1, getReports(tracker, "s2")[0].getActiveWriters());
+  }
+}
@@ -42,6 +42,7 @@
 import org.apache.hadoop.hdfs.server.protocol.ReplicaRecoveryInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.server.protocol.VolumeFailureSummary;
+import org.apache.hadoop.hdfs.util.AutoCloseableLock;
 import org.apache.hadoop.metrics2.MetricsCollector;
 
 public class ExternalDatasetImpl implements FsDatasetSpi<ExternalVolumeImpl> {
@@ -123,6 +124,11 @@ public String getReplicaString(String bpid, long blockId) {
     return null;
   }
 
+  @Override
+  public AutoCloseableLock acquireReplicaLock(String bpid, long blockId) {
+    return new AutoCloseableLock();
+  }
+
   @Override
   public Block getStoredBlock(String bpid, long blkid) throws IOException {
     return new Block();
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.util.AutoCloseableLock;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the replicas of different volumes are locked independently.
+ */
+public class TestDatasetLockManager {
+  private static final String BPID = "BP-TEST";
+
+  private DatasetLockManager lockManager;
+  private FsVolumeSpi volume1;
+  private FsVolumeSpi volume2;
+
+  @Before
+  public void setUp() {
+    lockManager = new DatasetLockManager(mock(DataNode.class));
+    volume1 = mock(FsVolumeSpi.class);
+    doReturn("storage-1").when(volume1).getStorageID();
+    volume2 = mock(FsVolumeSpi.class);
+    doReturn("storage-2").when(volume2).getStorageID();
+  }
+
+  /** Start a thread acquiring the lock, and counting down once it has. */
+  private CountDownLatch acquireInThread(final boolean writeLock,
+      final FsVolumeSpi volume) {
+    final CountDownLatch acquired = new CountDownLatch(1);
+    new Thread() {
+      @Override
+      public void run() {
+        try (AutoCloseableLock lock = writeLock
+            ? lockManager.writeLock(BPID)
+            : lockManager.volumeLock(BPID, volume)) {
+          acquired.countDown();
+        }
+      }
+    }.start();
+    return acquired;
+  }
+
+  @Test(timeout=30000)
+  public void testVolumeLocksAreIndependent() throws Exception {
+    try (AutoCloseableLock lock = lockManager.volumeLock(BPID, volume1)) {
+      assertTrue(acquireInThread(false, volume2).await(10, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test(timeout=30000)
+  public void testVolumeLockExcludesItsVolume() throws Exception {
+    final CountDownLatch acquired;
+    try (AutoCloseableLock lock = lockManager.volumeLock(BPID, volume1)) {
+      acquired = acquireInThread(false, volume1);
+      assertFalse(acquired.await(500, TimeUnit.MILLISECONDS));
+    }
+    assertTrue(acquired.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test(timeout=30000)
+  public void testWriteLockWaitsForVolumeLocks() throws Exception {
+    final CountDownLatch acquired;
+    try (AutoCloseableLock lock =
+             lockManager.volumeLock(BPID, volume2, volume1)) {
+      acquired = acquireInThread(true, null);
+      assertFalse(acquired.await(500, TimeUnit.MILLISECONDS));
+    }
+    assertTrue(acquired.await(10, TimeUnit.SECONDS));
+  }
+}
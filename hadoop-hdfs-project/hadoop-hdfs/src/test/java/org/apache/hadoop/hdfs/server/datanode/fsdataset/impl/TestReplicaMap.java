@@ -17,12 +17,15 @@
  */
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -30,7 +33,7 @@
  * Unit test for ReplicasMap class
  */
 public class TestReplicaMap {
-  private final ReplicaMap map = new ReplicaMap(TestReplicaMap.class);
+  private final ReplicaMap map = new ReplicaMap();
   private final String bpid = "BP-TEST";
   private final  Block block = new Block(1234, 1234, 1234);
   
@@ -107,4 +110,30 @@ public void testRemove() {
     map.add(bpid, new FinalizedReplica(block, null, null));
     assertNotNull(map.remove(bpid, block.getBlockId()));
   }
+
+  @Test
+  public void testAddAllMergesBlockPools() {
+    final ReplicaMap other = new ReplicaMap();
+    final Block block2 = new Block(5678, 5678, 5678);
+    other.add(bpid, new FinalizedReplica(block2, null, null));
+    other.add("BP-OTHER", new FinalizedReplica(block, null, null));
+
+    map.addAll(other);
+    assertEquals(2, map.size(bpid));
+    assertNotNull(map.get(bpid, block));
+    assertNotNull(map.get(bpid, block2));
+    assertEquals(1, map.size("BP-OTHER"));
+  }
+
+  @Test
+  public void testAddIfAbsent() {
+    final ReplicaInfo existing = map.get(bpid, block);
+    assertSame(existing,
+        map.addIfAbsent(bpid, new FinalizedReplica(block, null, null)));
+    assertSame(existing, map.get(bpid, block));
+
+    final Block block2 = new Block(5678, 5678, 5678);
+    assertNull(map.addIfAbsent(bpid, new FinalizedReplica(block2, null, null)));
+    assertNotNull(map.get(bpid, block2));
+  }
 }
@@ -549,7 +549,7 @@ public  void testReplicaMapAfterDatanodeRestart() throws Exception {
           bpList.size() == 2);
       
       createReplicas(bpList, volumes, replicaMap);
-      ReplicaMap oldReplicaMap = new ReplicaMap(this);
+      ReplicaMap oldReplicaMap = new ReplicaMap();
       oldReplicaMap.addAll(replicaMap);
       
       cluster.restartDataNode(0);
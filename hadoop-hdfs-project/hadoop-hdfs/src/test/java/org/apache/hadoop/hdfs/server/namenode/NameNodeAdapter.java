@@ -135,8 +135,26 @@ public static void setLeasePeriod(final FSNamesystem namesystem, long soft, long
     namesystem.leaseManager.triggerMonitorCheckNow();
   }
 
+  /**
+   * @return the lease of the file at the given path, or null if the path is
+   *   not a file or the file has no lease.
+   */
+  static Lease getLeaseForPath(NameNode nn, String path) {
+    final FSNamesystem fsn = nn.getNamesystem();
+    final INode inode;
+    try {
+      inode = fsn.getFSDirectory().getINode(path);
+    } catch (UnresolvedLinkException e) {
+      throw new AssertionError("Lease files should reside on this FS");
+    }
+    if (inode == null || !inode.isFile()) {
+      return null;
+    }
+    return fsn.leaseManager.getLease(inode.asFile());
+  }
+
   public static String getLeaseHolderForPath(NameNode namenode, String path) {
-    Lease l = namenode.getNamesystem().leaseManager.getLeaseByPath(path);
+    Lease l = getLeaseForPath(namenode, path);
     return l == null? null: l.getHolder();
   }
 
@@ -145,8 +163,7 @@ public static String getLeaseHolderForPath(NameNode namenode, String path) {
    *   or -1 in the case that the lease doesn't exist.
    */
   public static long getLeaseRenewalTime(NameNode nn, String path) {
-    LeaseManager lm = nn.getNamesystem().leaseManager;
-    Lease l = lm.getLeaseByPath(path);
+    Lease l = getLeaseForPath(nn, path);
     if (l == null) {
       return -1;
     }
@@ -0,0 +1,269 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_BINARY_BUFFER_SIZE_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_BINARY_DIR_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_BINARY_MAX_FILES_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_BINARY_ROLL_SIZE_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.namenode.BinaryAuditLogger.AuditEvent;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.apache.hadoop.test.PathUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Tests for {@link BinaryAuditLogger}.
+ */
+public class TestBinaryAuditLogger {
+  private final InetAddress addr = InetAddress.getLoopbackAddress();
+  private final FileStatus status = new FileStatus(0, true, 0, 0, 0, 0,
+      new FsPermission((short) 0755), "owner", "group", new Path("/d"));
+  private File auditDir;
+
+  @Before
+  public void setUp() throws IOException {
+    auditDir = new File(PathUtils.getTestDir(getClass()), "audit");
+    FileUtils.deleteDirectory(auditDir);
+  }
+
+  private static List<AuditEvent> readEvents(File dir) throws IOException {
+    final List<AuditEvent> events = new ArrayList<AuditEvent>();
+    for (File f : BinaryAuditLogger.listFiles(dir)) {
+      final BinaryAuditLogger.Reader reader = new BinaryAuditLogger.Reader(f);
+      try {
+        for (AuditEvent e; (e = reader.next()) != null; ) {
+          events.add(e);
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    return events;
+  }
+
+  private static AuditEvent findEvent(List<AuditEvent> events, String cmd,
+      String src) {
+    for (AuditEvent e : events) {
+      if (cmd.equals(e.getCommand()) && src.equals(e.getSrc())) {
+        return e;
+      }
+    }
+    return null;
+  }
+
+  @Test(timeout=60000)
+  public void testNameNodeAuditEvents() throws IOException {
+    final Configuration conf = new HdfsConfiguration();
+    conf.set(DFS_NAMENODE_AUDIT_LOGGERS_KEY,
+        BinaryAuditLogger.class.getName());
+    conf.set(DFS_NAMENODE_AUDIT_BINARY_DIR_KEY, auditDir.getAbsolutePath());
+    final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(0).build();
+    try {
+      cluster.waitActive();
+      final FileSystem fs = cluster.getFileSystem();
+      final Path dir = new Path("/dir");
+      fs.mkdirs(dir, new FsPermission((short) 0750));
+      fs.rename(dir, new Path("/renamed"));
+      assertFalse(fs.exists(new Path("/missing")));
+    } finally {
+      // closes the audit logger, which writes the buffered events
+      cluster.shutdown();
+    }
+
+    final List<AuditEvent> events = readEvents(auditDir);
+    final AuditEvent mkdirs = findEvent(events, "mkdirs", "/dir");
+    assertNotNull(mkdirs);
+    assertTrue(mkdirs.isSucceeded());
+    assertEquals(FsPermission.createImmutable((short) 0750),
+        mkdirs.getPermission());
+    assertNotNull(mkdirs.getOwner());
+    assertNotNull(mkdirs.getAddress());
+
+    final AuditEvent rename = findEvent(events, "rename", "/dir");
+    assertNotNull(rename);
+    assertEquals("/renamed", rename.getDst());
+    assertEquals(mkdirs.getUser(), rename.getUser());
+
+    final AuditEvent getfileinfo = findEvent(events, "getfileinfo",
+        "/missing");
+    assertNotNull(getfileinfo);
+    assertNull(getfileinfo.getPermission());
+    assertNull(getfileinfo.getDst());
+  }
+
+  private BinaryAuditLogger newLogger(int bufferSize) {
+    return newLogger(bufferSize, 0);
+  }
+
+  private BinaryAuditLogger newLogger(int bufferSize, int maxFiles) {
+    final Configuration conf = new HdfsConfiguration();
+    conf.set(DFS_NAMENODE_AUDIT_BINARY_DIR_KEY, auditDir.getAbsolutePath());
+    conf.setInt(DFS_NAMENODE_AUDIT_BINARY_BUFFER_SIZE_KEY, bufferSize);
+    conf.setLong(DFS_NAMENODE_AUDIT_BINARY_ROLL_SIZE_KEY, 1024);
+    conf.setInt(DFS_NAMENODE_AUDIT_BINARY_MAX_FILES_KEY, maxFiles);
+    final BinaryAuditLogger logger = new BinaryAuditLogger();
+    logger.initialize(conf);
+    return logger;
+  }
+
+  /**
+   * The handlers must not block when the writer falls behind: the events
+   * which do not fit in the buffer are dropped and counted.
+   */
+  @Test(timeout=60000)
+  public void testDropWhenFull() throws Exception {
+    final BinaryAuditLogger logger = newLogger(4);
+    final int numThreads = 4;
+    final int eventsPerThread = 5000;
+    final Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final String user = "user" + t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < eventsPerThread; i++) {
+            logger.logAuditEvent(true, user, addr, "mkdirs", "/d/" + i, null,
+                status, null, null, null);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    logger.close();
+
+    final long total = numThreads * eventsPerThread;
+    assertEquals(0, logger.getBacklog());
+    assertEquals(total,
+        logger.getWrittenEvents() + logger.getDroppedEvents());
+
+    final List<AuditEvent> events = readEvents(auditDir);
+    assertEquals(logger.getWrittenEvents(), events.size());
+    for (AuditEvent e : events) {
+      assertTrue(e.getUser().startsWith("user"));
+      assertEquals("mkdirs", e.getCommand());
+      assertEquals("owner", e.getOwner());
+      assertEquals(FsPermission.createImmutable((short) 0755),
+          e.getPermission());
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testRoll() throws Exception {
+    final BinaryAuditLogger logger = newLogger(16);
+    final int numEvents = 500;
+    for (int i = 0; i < numEvents; i++) {
+      logger.logAuditEvent(i % 2 == 0, "user", addr, "getfileinfo",
+          "/d/" + i, null, null, null, null, null);
+      if (logger.getBacklog() == 8) {
+        GenericTestUtils.waitFor(new Supplier<Boolean>() {
+          @Override
+          public Boolean get() {
+            return logger.getBacklog() == 0;
+          }
+        }, 1, 10000);
+      }
+    }
+    logger.close();
+    assertEquals(0, logger.getDroppedEvents());
+
+    final File[] files = BinaryAuditLogger.listFiles(auditDir);
+    assertTrue(files.length > 1);
+    final List<AuditEvent> events = readEvents(auditDir);
+    assertEquals(numEvents, events.size());
+    for (int i = 0; i < numEvents; i++) {
+      final AuditEvent e = events.get(i);
+      assertEquals("/d/" + i, e.getSrc());
+      assertEquals(i % 2 == 0, e.isSucceeded());
+      assertNull(e.getPermission());
+    }
+  }
+
+  /** Writes enough events for the logger to roll at least numRolls times. */
+  private void logUntilRolled(final BinaryAuditLogger logger, int numRolls)
+      throws Exception {
+    for (int i = 0; logger.getWrittenEvents() < numRolls * 100; i++) {
+      logger.logAuditEvent(true, "user", addr, "getfileinfo", "/d/" + i,
+          null, null, null, null, null);
+      if (logger.getBacklog() == 8) {
+        GenericTestUtils.waitFor(new Supplier<Boolean>() {
+          @Override
+          public Boolean get() {
+            return logger.getBacklog() == 0;
+          }
+        }, 1, 10000);
+      }
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testMaxFiles() throws Exception {
+    final BinaryAuditLogger logger = newLogger(16, 3);
+    // a file of 1024 bytes holds less than 100 events
+    logUntilRolled(logger, 10);
+    logger.close();
+    assertEquals(0, logger.getDroppedEvents());
+
+    final File[] files = BinaryAuditLogger.listFiles(auditDir);
+    assertEquals(3, files.length);
+    // the newest events are kept
+    final List<AuditEvent> events = readEvents(auditDir);
+    assertEquals("/d/" + (logger.getWrittenEvents() - 1),
+        events.get(events.size() - 1).getSrc());
+  }
+
+  /** The NameNodes of an HA MiniDFSCluster each have their own logger. */
+  @Test(timeout=60000)
+  public void testMultipleInstances() throws Exception {
+    final BinaryAuditLogger logger1 = newLogger(16);
+    final BinaryAuditLogger logger2 = newLogger(16);
+    try {
+      assertFalse(logger1.getMetricsName().equals(logger2.getMetricsName()));
+    } finally {
+      logger1.close();
+      logger2.close();
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.StorageType;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the cached content summaries match the computed ones as the
+ * namespace changes.
+ */
+public class TestContentSummaryCache {
+  private static final int BLOCKSIZE = 1024;
+  private static final short REPLICATION = 3;
+  private static final long SEED = 0L;
+  private static final Path CACHED = new Path("/cached");
+  private static final Path OTHER = new Path("/other");
+
+  private MiniDFSCluster cluster;
+  private FSDirectory fsdir;
+  private DistributedFileSystem dfs;
+
+  @Before
+  public void setUp() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCKSIZE);
+    conf.set(DFSConfigKeys.DFS_CONTENT_SUMMARY_CACHE_DIRS_KEY,
+        CACHED + ", /not/existing");
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(REPLICATION)
+        .build();
+    cluster.waitActive();
+    fsdir = cluster.getNamesystem().getFSDirectory();
+    dfs = cluster.getFileSystem();
+    dfs.mkdirs(CACHED);
+    dfs.mkdirs(OTHER);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Check the summary returned by the NameNode against a walk of the
+   * directory.
+   */
+  private void checkSummary() throws Exception {
+    final ContentSummary actual = dfs.getContentSummary(CACHED);
+    final ContentSummary expected;
+    fsdir.readLock();
+    try {
+      expected = fsdir.getINode(CACHED.toString()).computeContentSummary(
+          fsdir.getBlockStoragePolicySuite());
+    } finally {
+      fsdir.readUnlock();
+    }
+    assertEquals(expected.getLength(), actual.getLength());
+    assertEquals(expected.getFileCount(), actual.getFileCount());
+    assertEquals(expected.getDirectoryCount(), actual.getDirectoryCount());
+    assertEquals(expected.getSpaceConsumed(), actual.getSpaceConsumed());
+    assertEquals(expected.getQuota(), actual.getQuota());
+    assertEquals(expected.getSpaceQuota(), actual.getSpaceQuota());
+    assertEquals(expected.getTypeConsumed(StorageType.DISK),
+        actual.getTypeConsumed(StorageType.DISK));
+    assertTrue(fsdir.getContentSummaryCache().isCached(CACHED.toString()));
+  }
+
+  @Test(timeout=120000)
+  public void testNamespaceChanges() throws Exception {
+    final Path foo = new Path(CACHED, "foo");
+    final Path bar = new Path(foo, "bar");
+    final Path file = new Path(bar, "file");
+    DFSTestUtil.createFile(dfs, file, BLOCKSIZE * 2 + 1, REPLICATION, SEED);
+    checkSummary();
+
+    // add and remove files and directories
+    DFSTestUtil.createFile(dfs, new Path(foo, "f1"), BLOCKSIZE, REPLICATION,
+        SEED);
+    dfs.mkdirs(new Path(bar, "a/b/c"));
+    checkSummary();
+    dfs.delete(new Path(bar, "a"), true);
+    checkSummary();
+    dfs.delete(new Path(foo, "f1"), false);
+    checkSummary();
+
+    // rename within, into and out of the directory
+    dfs.rename(file, new Path(foo, "renamed"));
+    checkSummary();
+    DFSTestUtil.createFile(dfs, new Path(OTHER, "f2"), BLOCKSIZE * 3,
+        REPLICATION, SEED);
+    dfs.rename(new Path(OTHER, "f2"), new Path(bar, "f2"));
+    checkSummary();
+    dfs.rename(bar, OTHER);
+    checkSummary();
+
+    // change a file in place
+    dfs.setReplication(new Path(foo, "renamed"), (short) 2);
+    checkSummary();
+    dfs.setQuota(CACHED, 1000, 1L << 30);
+    checkSummary();
+  }
+
+  @Test(timeout=120000)
+  public void testFilesUnderConstruction() throws Exception {
+    final Path file = new Path(CACHED, "file");
+    DFSTestUtil.createFile(dfs, file, BLOCKSIZE, REPLICATION, SEED);
+    checkSummary();
+
+    // the growing length of an open file is seen
+    final FSDataOutputStream out = dfs.append(file);
+    try {
+      checkSummary();
+      out.write(new byte[BLOCKSIZE]);
+      out.hflush();
+      checkSummary();
+    } finally {
+      out.close();
+    }
+    checkSummary();
+
+    final FSDataOutputStream out2 = dfs.create(new Path(CACHED, "open"));
+    try {
+      out2.write(new byte[BLOCKSIZE / 2]);
+      out2.hflush();
+      checkSummary();
+    } finally {
+      out2.close();
+    }
+    checkSummary();
+
+    dfs.truncate(file, BLOCKSIZE / 2);
+    checkSummary();
+  }
+
+  @Test(timeout=120000)
+  public void testSnapshots() throws Exception {
+    DFSTestUtil.createFile(dfs, new Path(CACHED, "file"), BLOCKSIZE,
+        REPLICATION, SEED);
+    checkSummary();
+
+    // a directory in a snapshot is not cached
+    dfs.allowSnapshot(CACHED);
+    dfs.createSnapshot(CACHED, "s0");
+    dfs.delete(new Path(CACHED, "file"), false);
+    dfs.getContentSummary(CACHED);
+    assertFalse(fsdir.getContentSummaryCache().isCached(CACHED.toString()));
+
+    // and is cached again once the snapshot is gone
+    dfs.deleteSnapshot(CACHED, "s0");
+    dfs.disallowSnapshot(CACHED);
+    DFSTestUtil.createFile(dfs, new Path(CACHED, "file2"), BLOCKSIZE,
+        REPLICATION, SEED);
+    checkSummary();
+  }
+
+  @Test(timeout=120000)
+  public void testRestart() throws Exception {
+    DFSTestUtil.createFile(dfs, new Path(CACHED, "file"), BLOCKSIZE,
+        REPLICATION, SEED);
+    checkSummary();
+    cluster.restartNameNode(true);
+    fsdir = cluster.getNamesystem().getFSDirectory();
+    dfs = cluster.getFileSystem();
+    assertFalse(fsdir.getContentSummaryCache().isCached(CACHED.toString()));
+    checkSummary();
+  }
+}
@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.test.PathUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the checkpoints saved as delta images, which only hold the inodes
+ * changed since the last full image.
+ */
+public class TestDeltaImage {
+  private Configuration conf;
+  private MiniDFSCluster cluster;
+  private SecondaryNameNode secondary;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_DELTA_ENABLED_KEY, true);
+    // the namespace of the tests is small, most of its inodes change
+    conf.setFloat(DFSConfigKeys.DFS_IMAGE_DELTA_MAX_CHANGED_RATIO_KEY, 10f);
+    conf.set(DFSConfigKeys.DFS_NAMENODE_SECONDARY_HTTP_ADDRESS_KEY,
+        "0.0.0.0:0");
+  }
+
+  @After
+  public void tearDown() {
+    if (secondary != null) {
+      secondary.shutdown();
+    }
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private void startCluster() throws IOException {
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+    cluster.waitActive();
+    secondary = new SecondaryNameNode(conf);
+  }
+
+  /** @return the base of the newest image of the namenode. */
+  private long getNewestImageBaseTxId() throws IOException {
+    long txId = cluster.getNameNode().getFSImage().getStorage()
+        .getMostRecentCheckpointTxId();
+    for (File dir : FSImageTestUtil.getNameNodeCurrentDirs(cluster, 0)) {
+      File image = new File(dir, NNStorage.getImageFileName(txId));
+      assertTrue(image + " should exist", image.exists());
+      return FSImageUtil.getBaseImageTxId(image);
+    }
+    throw new AssertionError("No name directory");
+  }
+
+  @Test(timeout=60000)
+  public void testLoadDeltaImages() throws IOException {
+    startCluster();
+    FileSystem fs = cluster.getFileSystem();
+    assertTrue(fs.mkdirs(new Path("/dir1/sub")));
+    assertTrue(fs.mkdirs(new Path("/dir2/sub")));
+    fs.create(new Path("/dir1/file")).close();
+
+    secondary.doCheckpoint();
+    final long baseTxId = getNewestImageBaseTxId();
+    assertTrue("The first checkpoint should be a delta image",
+        baseTxId != HdfsConstants.INVALID_TXID);
+
+    assertTrue(fs.delete(new Path("/dir2"), true));
+    assertTrue(fs.mkdirs(new Path("/dir3")));
+    assertTrue(fs.rename(new Path("/dir1/file"), new Path("/dir3/file")));
+    assertTrue(fs.rename(new Path("/dir1/sub"), new Path("/moved")));
+    fs.setPermission(new Path("/dir1"), new FsPermission((short) 0700));
+
+    secondary.doCheckpoint();
+    assertEquals("The second delta should apply to the same full image",
+        baseTxId, getNewestImageBaseTxId());
+    for (File dir : FSImageTestUtil.getNameNodeCurrentDirs(cluster, 0)) {
+      assertTrue("The full image should be retained with the delta images",
+          new File(dir, NNStorage.getImageFileName(baseTxId)).exists());
+    }
+
+    // load the delta image with the full image it applies to
+    secondary.shutdown();
+    secondary = null;
+    cluster.restartNameNode();
+    fs = cluster.getFileSystem();
+    assertTrue(fs.getFileStatus(new Path("/dir1")).isDirectory());
+    assertEquals(new FsPermission((short) 0700),
+        fs.getFileStatus(new Path("/dir1")).getPermission());
+    assertFalse(fs.exists(new Path("/dir1/sub")));
+    assertFalse(fs.exists(new Path("/dir1/file")));
+    assertFalse(fs.exists(new Path("/dir2")));
+    assertTrue(fs.getFileStatus(new Path("/dir3/file")).isFile());
+    assertTrue(fs.getFileStatus(new Path("/moved")).isDirectory());
+    assertEquals(3, fs.listStatus(new Path("/")).length);
+  }
+
+  @Test(timeout=60000)
+  public void testFetchLatestImage() throws IOException {
+    startCluster();
+    assertTrue(cluster.getFileSystem().mkdirs(new Path("/dir1")));
+    secondary.doCheckpoint();
+    final long baseTxId = getNewestImageBaseTxId();
+    assertTrue(baseTxId != HdfsConstants.INVALID_TXID);
+
+    // dfsadmin -fetchImage gets the full image, the delta cannot be loaded
+    // on its own
+    final File dir = new File(PathUtils.getTestDir(getClass()), "fetched");
+    FileUtil.fullyDelete(dir);
+    assertTrue(dir.mkdirs());
+    TransferFsImage.downloadMostRecentImageToDirectory(new URL("http://"
+        + NetUtils.getHostPortString(cluster.getNameNode().getHttpAddress())),
+        dir);
+    final File fetched = new File(dir, NNStorage.getImageFileName(baseTxId));
+    assertTrue(fetched + " should exist", fetched.exists());
+    assertEquals(HdfsConstants.INVALID_TXID,
+        FSImageUtil.getBaseImageTxId(fetched));
+  }
+
+  @Test(timeout=60000)
+  public void testFullImageAfterMaxDeltas() throws IOException {
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_DELTA_MAX_CONSECUTIVE_KEY, 1);
+    startCluster();
+    FileSystem fs = cluster.getFileSystem();
+    assertTrue(fs.mkdirs(new Path("/dir1")));
+    secondary.doCheckpoint();
+    assertTrue(getNewestImageBaseTxId() != HdfsConstants.INVALID_TXID);
+
+    assertTrue(fs.mkdirs(new Path("/dir2")));
+    secondary.doCheckpoint();
+    assertEquals(HdfsConstants.INVALID_TXID, getNewestImageBaseTxId());
+
+    cluster.restartNameNode();
+    fs = cluster.getFileSystem();
+    assertTrue(fs.exists(new Path("/dir1")));
+    assertTrue(fs.exists(new Path("/dir2")));
+  }
+
+  @Test(timeout=60000)
+  public void testFullImageWhenDisabled() throws IOException {
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_DELTA_ENABLED_KEY, false);
+    startCluster();
+    assertTrue(cluster.getFileSystem().mkdirs(new Path("/dir1")));
+    secondary.doCheckpoint();
+    assertEquals(HdfsConstants.INVALID_TXID, getNewestImageBaseTxId());
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
+import org.junit.Test;
+
+/**
+ * Tests for {@link FSEditLogAsync}.
+ */
+public class TestFSEditLogAsync {
+
+  /**
+   * Edits synced by the sync thread on behalf of many concurrent clients,
+   * across log rolls, must be durable and replayable in order, and the
+   * responses to the clients must only be sent once they are.
+   */
+  @Test(timeout = 120000)
+  public void testConcurrentEditsAreDurable() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING, true);
+    final int threads = 8;
+    final int opsPerThread = 50;
+    MiniDFSCluster cluster = null;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+      FSEditLog editLog = cluster.getNamesystem().getEditLog();
+      assertTrue(editLog instanceof FSEditLogAsync);
+      assertTrue(((FSEditLogAsync) editLog).isSyncThreadAlive());
+      final DistributedFileSystem fs = cluster.getFileSystem();
+
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int t = 0; t < threads; t++) {
+        final int id = t;
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int i = 0; i < opsPerThread; i++) {
+              Path dir = new Path("/t" + id + "/d" + i);
+              assertTrue(fs.mkdirs(dir));
+              DFSTestUtil.createFile(fs, new Path(dir, "f"), 1, (short) 1, 0L);
+            }
+            return null;
+          }
+        }));
+      }
+      // roll the log while the clients are running
+      cluster.getNameNodeRpc().rollEditLog();
+      for (Future<Void> f : futures) {
+        f.get();
+      }
+
+      long lastWrittenTxId = editLog.getLastWrittenTxId();
+      assertEquals(lastWrittenTxId, editLog.getSyncTxId());
+      // the clients were answered by the sync thread
+      assertTrue(((NameNodeRpcServer) cluster.getNameNodeRpc())
+          .getClientRpcServer().getRpcMetrics().getRpcDeferredCalls() > 0);
+
+      cluster.restartNameNode();
+      cluster.waitActive();
+      final DistributedFileSystem restarted = cluster.getFileSystem();
+      for (int t = 0; t < threads; t++) {
+        assertEquals(opsPerThread,
+            restarted.listStatus(new Path("/t" + t)).length);
+        for (int i = 0; i < opsPerThread; i++) {
+          assertTrue(restarted.exists(new Path("/t" + t + "/d" + i + "/f")));
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  /**
+   * The sync thread survives log rolls and stops when the log is closed.
+   */
+  @Test(timeout = 60000)
+  public void testSyncThreadFollowsOpenForWrite() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING, true);
+    MiniDFSCluster cluster = null;
+    FSEditLogAsync editLog = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      FSNamesystem fsn = cluster.getNamesystem();
+      editLog = (FSEditLogAsync) fsn.getEditLog();
+      assertTrue(editLog.isSyncThreadAlive());
+
+      // saving the namespace rolls the log under the edit log monitor
+      fsn.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      fsn.saveNamespace();
+      fsn.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+      assertTrue(editLog.isSyncThreadAlive());
+      assertTrue(cluster.getFileSystem().mkdirs(new Path("/after-save")));
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+    assertFalse(editLog.isSyncThreadAlive());
+  }
+}
@@ -22,6 +22,7 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.EnumSet;
 
 import org.junit.Assert;
@@ -33,6 +34,7 @@
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSOutputStream;
+import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
@@ -42,6 +44,8 @@
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfoContiguous;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.BlockUCState;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.StartupOption;
+import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.SectionName;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
 import org.apache.hadoop.hdfs.server.namenode.LeaseManager.Lease;
 import org.apache.hadoop.hdfs.util.MD5FileUtils;
 import org.apache.hadoop.test.GenericTestUtils;
@@ -109,7 +113,7 @@ private void testPersistHelper(Configuration conf) throws IOException {
       assertEquals(1, blks.length);
       assertEquals(BlockUCState.UNDER_CONSTRUCTION, blks[0].getBlockUCState());
       // check lease manager
-      Lease lease = fsn.leaseManager.getLeaseByPath(file2.toString());
+      Lease lease = fsn.leaseManager.getLease(file2Node);
       Assert.assertNotNull(lease);
     } finally {
       if (cluster != null) {
@@ -118,6 +122,120 @@ private void testPersistHelper(Configuration conf) throws IOException {
     }
   }
 
+  @Test
+  public void testParallelLoad() throws IOException {
+    Configuration conf = getParallelLoadConf();
+    testPersistHelper(conf);
+    testParallelLoadHelper(conf);
+  }
+
+  @Test
+  public void testParallelLoadWithCompression() throws IOException {
+    Configuration conf = getParallelLoadConf();
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_COMPRESS_KEY, true);
+    conf.set(DFSConfigKeys.DFS_IMAGE_COMPRESSION_CODEC_KEY,
+        "org.apache.hadoop.io.compress.GzipCodec");
+    testPersistHelper(conf);
+    testParallelLoadHelper(conf);
+  }
+
+  private static Configuration getParallelLoadConf() {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY, 1);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY, 4);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY, 3);
+    return conf;
+  }
+
+  /**
+   * Save an image with sub-sections, check that they exactly cover their
+   * sections, and load it in parallel.
+   */
+  private void testParallelLoadHelper(Configuration conf) throws IOException {
+    final int numDirs = 20;
+    final int filesPerDir = 10;
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+      DistributedFileSystem fs = cluster.getFileSystem();
+      for (int i = 0; i < numDirs; i++) {
+        for (int j = 0; j < filesPerDir; j++) {
+          DFSTestUtil.createFile(fs, new Path("/dir" + i + "/file" + j),
+              j, (short) 1, 0L);
+        }
+      }
+
+      fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      fs.saveNamespace();
+      fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+
+      File currentDir = FSImageTestUtil.getNameNodeCurrentDirs(cluster, 0).get(
+          0);
+      File fsimage = FSImageTestUtil.findNewestImageFile(currentDir
+          .getAbsolutePath());
+      FileSummary summary;
+      RandomAccessFile raFile = new RandomAccessFile(fsimage, "r");
+      try {
+        summary = FSImageUtil.loadSummary(raFile);
+      } finally {
+        raFile.close();
+      }
+      assertSubSectionsCoverSection(summary, SectionName.INODE,
+          SectionName.INODE_SUB);
+      assertSubSectionsCoverSection(summary, SectionName.INODE_DIR,
+          SectionName.INODE_DIR_SUB);
+
+      final long numInodes = cluster.getNamesystem().dir.getINodeMap().size();
+      final long numBlocks = cluster.getNamesystem().getBlocksTotal();
+      cluster.restartNameNode();
+      cluster.waitActive();
+      fs = cluster.getFileSystem();
+
+      assertEquals(numInodes,
+          cluster.getNamesystem().dir.getINodeMap().size());
+      assertEquals(numBlocks, cluster.getNamesystem().getBlocksTotal());
+      for (int i = 0; i < numDirs; i++) {
+        assertEquals(filesPerDir,
+            fs.listStatus(new Path("/dir" + i)).length);
+        for (int j = 0; j < filesPerDir; j++) {
+          assertEquals(j, fs.getFileStatus(
+              new Path("/dir" + i + "/file" + j)).getLen());
+        }
+      }
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  private static void assertSubSectionsCoverSection(FileSummary summary,
+      SectionName name, SectionName subSectionName) {
+    FileSummary.Section section = null;
+    long offset = -1;
+    int numSubSections = 0;
+    for (FileSummary.Section s : summary.getSectionsList()) {
+      if (SectionName.fromString(s.getName()) == name) {
+        section = s;
+        offset = s.getOffset();
+      }
+    }
+    Assert.assertNotNull(section);
+    // the sub-sections are listed in the order of their offsets
+    for (FileSummary.Section s : summary.getSectionsList()) {
+      if (SectionName.fromString(s.getName()) == subSectionName) {
+        assertEquals(offset, s.getOffset());
+        offset += s.getLength();
+        numSubSections++;
+      }
+    }
+    assertTrue("Expected several sub-sections of " + name + " but found "
+        + numSubSections, numSubSections > 1);
+    assertEquals(section.getOffset() + section.getLength(), offset);
+  }
+
   /**
    * Ensure that the digest written by the saver equals to the digest of the
    * file.
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.test.GenericTestUtils.LogCapturer;
+import org.apache.hadoop.util.FakeTimer;
+import org.junit.Test;
+
+/**
+ * Tests for {@link FSNamesystemLock}.
+ */
+public class TestFSNamesystemLock {
+
+  @Test
+  public void testHoldTimeIsAttributedToOperation() {
+    FakeTimer timer = new FakeTimer();
+    FSNamesystemLock lock = new FSNamesystemLock(new Configuration(), timer);
+
+    lock.acquireWriteLock();
+    // reentrant acquisitions are accounted to the outermost hold only
+    lock.acquireWriteLock();
+    timer.advance(30);
+    lock.releaseWriteLock("inner");
+    timer.advance(20);
+    lock.releaseWriteLock("delete");
+
+    lock.acquireReadLock();
+    timer.advance(5);
+    lock.releaseReadLock("listStatus");
+    lock.acquireReadLock();
+    timer.advance(7);
+    lock.releaseReadLock("listStatus");
+
+    List<FSNamesystemLock.LockHoldStats> top = lock.getTopLockHolders(10);
+    assertEquals(2, top.size());
+    assertEquals("delete", top.get(0).getOpName());
+    assertTrue(top.get(0).isWrite());
+    assertEquals(1, top.get(0).getCount());
+    assertEquals(50L, top.get(0).toMap().get("totalTimeMs"));
+    assertEquals("listStatus", top.get(1).getOpName());
+    assertFalse(top.get(1).isWrite());
+    assertEquals(2, top.get(1).getCount());
+    assertEquals(12L, top.get(1).toMap().get("totalTimeMs"));
+    assertEquals(7L, top.get(1).toMap().get("maxTimeMs"));
+
+    assertEquals(1, lock.getTopLockHolders(1).size());
+  }
+
+  @Test
+  public void testLongWriteLockHoldIsReported() {
+    Configuration conf = new Configuration();
+    conf.setLong(
+        DFSConfigKeys.DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_KEY, 100);
+    conf.setLong(
+        DFSConfigKeys.DFS_NAMENODE_LOCK_SUPPRESS_WARNING_INTERVAL_KEY, 1000);
+    FakeTimer timer = new FakeTimer();
+    FSNamesystemLock lock = new FSNamesystemLock(conf, timer);
+    LogCapturer logs = LogCapturer.captureLogs(FSNamesystem.LOG);
+    try {
+      // below the threshold: nothing is logged
+      lock.acquireWriteLock();
+      timer.advance(50);
+      lock.releaseWriteLock("mkdirs");
+      assertFalse(logs.getOutput().contains("lock held for"));
+
+      // above the threshold: the operation and the holder's stack are logged
+      lock.acquireWriteLock();
+      timer.advance(150);
+      lock.releaseWriteLock("delete");
+      String output = logs.getOutput();
+      assertTrue(output.contains("write lock held for 150 ms by operation "
+          + "delete"));
+      assertTrue(output.contains(
+          "testLongWriteLockHoldIsReported"));
+
+      // a second long hold within the suppression interval is not logged
+      lock.acquireWriteLock();
+      timer.advance(200);
+      lock.releaseWriteLock("rename");
+      assertFalse(logs.getOutput().contains("by operation rename"));
+
+      // but is counted in the next report
+      timer.advance(1000);
+      lock.acquireWriteLock();
+      timer.advance(300);
+      lock.releaseWriteLock("setQuota");
+      assertTrue(logs.getOutput().contains("Number of suppressed "
+          + "write-lock reports: 1"));
+    } finally {
+      logs.stopCapturing();
+    }
+  }
+}
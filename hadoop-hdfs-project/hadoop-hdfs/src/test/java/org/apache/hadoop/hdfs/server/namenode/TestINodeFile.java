@@ -19,7 +19,9 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.fail;
 
@@ -1100,4 +1102,48 @@ public void testXAttrFeature() {
     f1 = inf.getXAttrFeature();
     assertEquals(f1, null);
   }
+
+  @Test
+  public void testXAttrFeatureDeDuplication() {
+    final ImmutableList<XAttr> xAttrs = ImmutableList.of(
+        new XAttr.Builder().setNameSpace(XAttr.NameSpace.USER)
+            .setName("testDeDuplication").setValue(new byte[]{0x31}).build(),
+        new XAttr.Builder().setNameSpace(XAttr.NameSpace.TRUSTED)
+            .setName("testDeDuplication").build());
+    INodeFile f1 = createINodeFile((short) 3, 1024);
+    INodeFile f2 = createINodeFile((short) 3, 1024);
+    f1.addXAttrFeature(new XAttrFeature(xAttrs));
+    f2.addXAttrFeature(new XAttrFeature(xAttrs));
+
+    // the attributes are packed, and the feature is shared
+    assertEquals(xAttrs, f1.getXAttrFeature().getXAttrs());
+    assertSame(f1.getXAttrFeature(), f2.getXAttrFeature());
+    assertEquals(2, f1.getXAttrFeature().getRefCount());
+    f2.removeXAttrFeature();
+    assertEquals(1, f1.getXAttrFeature().getRefCount());
+    f1.removeXAttrFeature();
+    assertEquals(0, XAttrStorage.getUniqueXAttrFeatures()
+        .getReferenceCount(new XAttrFeature(xAttrs)));
+  }
+
+  @Test
+  public void testXAttrFeatureGetXAttr() {
+    final XAttr big = new XAttr.Builder().setNameSpace(XAttr.NameSpace.USER)
+        .setName("big").setValue(new byte[300]).build();
+    final XAttr noValue = new XAttr.Builder()
+        .setNameSpace(XAttr.NameSpace.TRUSTED).setName("a2").build();
+    final XAttr small = new XAttr.Builder()
+        .setNameSpace(XAttr.NameSpace.USER).setName("a2")
+        .setValue(new byte[]{0x31, 0x32}).build();
+    final XAttrFeature f = new XAttrFeature(
+        ImmutableList.of(big, noValue, small));
+
+    assertEquals(big, f.getXAttr("user.big"));
+    assertEquals(noValue, f.getXAttr("trusted.a2"));
+    assertEquals(small, f.getXAttr("user.a2"));
+    assertNull(f.getXAttr("user.a"));
+    assertNull(f.getXAttr("system.a2"));
+    assertNull(f.getXAttr("user.a22"));
+    assertNull(f.getXAttr(null));
+  }
 }
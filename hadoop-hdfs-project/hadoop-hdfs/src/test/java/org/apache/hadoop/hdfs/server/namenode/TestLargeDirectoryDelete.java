@@ -49,6 +49,7 @@ public class TestLargeDirectoryDelete {
   static {
     CONF.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, 1);
     CONF.setInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY, 1);
+    CONF.setInt(DFSConfigKeys.DFS_NAMENODE_BLOCK_DELETION_INCREMENT_KEY, 1);
   }
   
   /** create a file with a length of <code>filelen</code> */
@@ -137,7 +138,6 @@ protected void execute() throws Throwable {
     threads[1].start();
     
     final long start = Time.now();
-    FSNamesystem.BLOCK_DELETION_INCREMENT = 1;
     mc.getFileSystem().delete(new Path("/root"), true); // recursive delete
     final long end = Time.now();
     threads[0].endThread();
@@ -217,7 +217,15 @@ public void largeDelete() throws Throwable {
       Assert.assertNotNull("No Namenode in cluster", mc.getNameNode());
       createFiles();
       Assert.assertEquals(TOTAL_BLOCKS, getBlockCount());
+      final FSNamesystem fsn = mc.getNamesystem();
+      final int inodesBefore = fsn.getFSDirectory().getInodeMapSize();
       runThreads();
+      // the deleted subtree is fully reclaimed
+      Assert.assertEquals(0, getBlockCount());
+      Assert.assertEquals(0, fsn.getPendingReclaimBlocks());
+      Assert.assertEquals(0, fsn.getPendingReclaimINodes());
+      Assert.assertTrue(fsn.getFSDirectory().getInodeMapSize()
+          < inodesBefore - TOTAL_BLOCKS / 100);
     } finally {
       mc.shutdown();
     }
@@ -21,10 +21,15 @@
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.io.IOUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.Timeout;
@@ -37,29 +42,45 @@ public class TestLeaseManager {
   public Timeout timeout = new Timeout(300000);
 
   @Test
-  public void testRemoveLeaseWithPrefixPath() throws Exception {
+  public void testLeasesFollowRenameAndDelete() throws Exception {
     final Configuration conf = new HdfsConfiguration();
     MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(2).build();
-    cluster.waitActive();
-
-    LeaseManager lm = NameNodeAdapter.getLeaseManager(cluster.getNamesystem());
-    lm.addLease("holder1", "/a/b");
-    lm.addLease("holder2", "/a/c");
-    assertNotNull(lm.getLeaseByPath("/a/b"));
-    assertNotNull(lm.getLeaseByPath("/a/c"));
-
-    lm.removeLeaseWithPrefixPath("/a");
-
-    assertNull(lm.getLeaseByPath("/a/b"));
-    assertNull(lm.getLeaseByPath("/a/c"));
-
-    lm.addLease("holder1", "/a/b");
-    lm.addLease("holder2", "/a/c");
-
-    lm.removeLeaseWithPrefixPath("/a/");
-
-    assertNull(lm.getLeaseByPath("/a/b"));
-    assertNull(lm.getLeaseByPath("/a/c"));
+    try {
+      cluster.waitActive();
+      final DistributedFileSystem fs = cluster.getFileSystem();
+      final FSNamesystem fsn = cluster.getNamesystem();
+      LeaseManager lm = NameNodeAdapter.getLeaseManager(fsn);
+      final FSDataOutputStream b = fs.create(new Path("/a/b"));
+      final FSDataOutputStream c = fs.create(new Path("/a/c"));
+      final INodeFile bNode = fsn.getFSDirectory().getINode("/a/b").asFile();
+      final INodeFile cNode = fsn.getFSDirectory().getINode("/a/c").asFile();
+      assertNotNull(lm.getLease(bNode));
+      assertNotNull(lm.getLease(cNode));
+      assertEquals(2, lm.countPath());
+
+      // the leases are kept by inode, whatever the path
+      assertTrue(fs.rename(new Path("/a"), new Path("/x")));
+      assertNotNull(lm.getLease(bNode));
+      assertNotNull(lm.getLease(cNode));
+      fsn.readLock();
+      try {
+        assertEquals(cNode, lm.getINodesUnderConstruction().get("/x/c"));
+      } finally {
+        fsn.readUnlock();
+      }
+      b.write(1);
+      b.hflush();
+
+      assertTrue(fs.delete(new Path("/x"), true));
+      assertNull(lm.getLease(bNode));
+      assertNull(lm.getLease(cNode));
+      assertEquals(0, lm.countPath());
+      assertEquals(0, lm.countLease());
+      IOUtils.closeStream(b);
+      IOUtils.closeStream(c);
+    } finally {
+      cluster.shutdown();
+    }
   }
 
   /** Check that even if LeaseManager.checkLease is not able to relinquish
@@ -74,9 +95,9 @@ public void testCheckLeaseNotInfiniteLoop() {
     lm.setLeasePeriod(0,0);
 
     //Add some leases to the LeaseManager
-    lm.addLease("holder1", "src1");
-    lm.addLease("holder2", "src2");
-    lm.addLease("holder3", "src3");
+    lm.addLease("holder1", 1);
+    lm.addLease("holder2", 2);
+    lm.addLease("holder3", 3);
     assertEquals(lm.getNumSortedLeases(), 3);
 
     //Initiate a call to checkLease. This should exit within the test timeout
@@ -88,26 +109,32 @@ public void testCheckLeaseNotInfiniteLoop() {
   public void testCountPath() {
     LeaseManager lm = new LeaseManager(makeMockFsNameSystem());
 
-    lm.addLease("holder1", "/path1");
+    lm.addLease("holder1", 1);
     assertThat(lm.countPath(), is(1));
 
-    lm.addLease("holder2", "/path2");
+    lm.addLease("holder2", 2);
     assertThat(lm.countPath(), is(2));
-    lm.addLease("holder2", "/path2");                   // Duplicate addition
+    lm.addLease("holder2", 2);                   // Duplicate addition
     assertThat(lm.countPath(), is(2));
 
     assertThat(lm.countPath(), is(2));
 
     // Remove a couple of non-existing leases. countPath should not change.
-    lm.removeLease("holder1", "/path3");
-    lm.removeLease("InvalidLeaseHolder", "/path1");
+    lm.removeLease("holder1", stubInodeFile(3));
+    lm.removeLease("InvalidLeaseHolder", stubInodeFile(1));
     assertThat(lm.countPath(), is(2));
 
-    lm.reassignLease(lm.getLease("holder1"), "/path1", "holder2");
+    INodeFile file = stubInodeFile(1);
+    lm.reassignLease(lm.getLease(file), file, "holder2");
     assertThat(lm.countPath(), is(2));          // Count unchanged on reassign
+    assertThat(lm.countLease(), is(1));         // holder1 has no file left
 
-    lm.removeLease("holder2", "/path2"); // Remove existing
+    lm.removeLease("holder2", stubInodeFile(2)); // Remove existing
     assertThat(lm.countPath(), is(1));
+
+    lm.removeLeases(new long[] {1, 4});
+    assertThat(lm.countPath(), is(0));
+    assertThat(lm.countLease(), is(0));
   }
 
   private static FSNamesystem makeMockFsNameSystem() {
@@ -118,4 +145,10 @@ private static FSNamesystem makeMockFsNameSystem() {
     when(fsn.getFSDirectory()).thenReturn(dir);
     return fsn;
   }
+
+  private static INodeFile stubInodeFile(long inodeId) {
+    INodeFile file = mock(INodeFile.class);
+    when(file.getId()).thenReturn(inodeId);
+    return file;
+  }
 }
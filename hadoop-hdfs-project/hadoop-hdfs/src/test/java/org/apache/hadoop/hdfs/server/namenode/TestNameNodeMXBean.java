@@ -316,6 +316,63 @@ public void testTopUsers() throws Exception {
     }
   }
 
+  @Test(timeout=120000)
+  @SuppressWarnings("unchecked")
+  public void testTopUserOpCosts() throws Exception {
+    final Configuration conf = new Configuration();
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+      ObjectName mxbeanNameFsns = new ObjectName(
+          "Hadoop:service=NameNode,name=FSNamesystemState");
+      FileSystem fs = cluster.getFileSystem();
+      final Path dir = new Path("/dir");
+      final int NUM_FILES = 5;
+      for (int i = 0; i < NUM_FILES; i++) {
+        fs.create(new Path(dir, "file" + i)).close();
+      }
+      final int NUM_OPS = 10;
+      for (int i = 0; i < NUM_OPS; i++) {
+        fs.getContentSummary(dir);
+        fs.listStatus(dir);
+      }
+      String topCosts =
+          (String) (mbs.getAttribute(mxbeanNameFsns, "TopUserOpCosts"));
+      ObjectMapper mapper = new ObjectMapper();
+      Map<String, Object> map = mapper.readValue(topCosts, Map.class);
+      assertTrue("Could not find map key timestamp",
+          map.containsKey("timestamp"));
+      Map<String, List<Map<String, Object>>> costs =
+          (Map<String, List<Map<String, Object>>>) map.get("costs");
+      assertTrue(costs.containsKey("lockHoldMicros"));
+      assertTrue(costs.containsKey("responseBytes"));
+
+      final List<Map<String, Object>> windows = costs.get("inodes");
+      assertEquals("Unexpected num windows", 3, windows.size());
+      for (Map<String, Object> window : windows) {
+        long contentSummary = 0;
+        long listStatus = 0;
+        for (Map<String, Object> op :
+            (List<Map<String, Object>>) window.get("ops")) {
+          final long total = Long.parseLong(op.get("totalCount").toString());
+          if (op.get("opType").equals("contentSummary")) {
+            contentSummary = total;
+          } else if (op.get("opType").equals("listStatus")) {
+            listStatus = total;
+          }
+        }
+        assertEquals(NUM_OPS * (NUM_FILES + 1), contentSummary);
+        assertEquals(NUM_OPS * NUM_FILES, listStatus);
+      }
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   @Test(timeout=120000)
   public void testTopUsersDisabled() throws Exception {
     final Configuration conf = new Configuration();
@@ -338,6 +395,7 @@ public void testTopUsersDisabled() throws Exception {
       String topUsers =
           (String) (mbs.getAttribute(mxbeanNameFsns, "TopUserOpCounts"));
       assertNull("Did not expect to find TopUserOpCounts bean!", topUsers);
+      assertNull(mbs.getAttribute(mxbeanNameFsns, "TopUserOpCosts"));
     } finally {
       if (cluster != null) {
         cluster.shutdown();
@@ -392,4 +450,42 @@ public void testQueueLength() throws Exception {
       }
     }
   }
+
+  @Test(timeout=120000)
+  @SuppressWarnings("unchecked")
+  public void testInternedFeatures() throws Exception {
+    final Configuration conf = new Configuration();
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+      ObjectName mxbeanName = new ObjectName(
+          "Hadoop:service=NameNode,name=NameNodeInfo");
+      FileSystem fs = cluster.getFileSystem();
+      final int NUM_DIRS = 5;
+      for (int i = 0; i < NUM_DIRS; i++) {
+        final Path dir = new Path("/testInternedFeatures" + i);
+        fs.mkdirs(dir);
+        fs.setXAttr(dir, "user.testInternedFeatures", new byte[] {1, 2, 3});
+      }
+      String interned = (String) mbs.getAttribute(mxbeanName,
+          "InternedFeatures");
+      Map<String, Map<String, Object>> map =
+          (Map<String, Map<String, Object>>) JSON.parse(interned);
+      assertTrue(map.containsKey("AclFeature"));
+      final Map<String, Object> xAttrs = map.get("XAttrFeature");
+      assertNotNull(xAttrs);
+      final long unique = (Long) xAttrs.get("unique");
+      final long references = (Long) xAttrs.get("references");
+      // the directories share a single feature
+      assertTrue(references >= unique + NUM_DIRS - 1);
+      assertTrue((Long) xAttrs.get("heapBytes") > 0);
+      assertTrue((Long) xAttrs.get("savedHeapBytes") > 0);
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
 }
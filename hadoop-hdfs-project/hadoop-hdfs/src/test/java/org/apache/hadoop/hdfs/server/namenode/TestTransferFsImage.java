@@ -18,16 +18,24 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.security.MessageDigest;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -35,13 +43,22 @@
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileSystemTestHelper;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.namenode.NNStorage.NameNodeDirType;
 import org.apache.hadoop.hdfs.server.namenode.NNStorage.NameNodeFile;
+import org.apache.hadoop.hdfs.util.MD5FileUtils;
 import org.apache.hadoop.http.HttpServer2;
 import org.apache.hadoop.http.HttpServerFunctionalTest;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.test.PathUtils;
 import org.apache.hadoop.util.StringUtils;
 import org.junit.Test;
@@ -184,6 +201,186 @@ public void testImageUploadTimeout() throws Exception {
     }
   }
 
+  /**
+   * Test the upload of a checkpoint in compressed parts, over parallel
+   * connections.
+   */
+  @Test(timeout = 60000)
+  public void testParallelImageUpload() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_TRANSFER_PARALLEL_ENABLED_KEY,
+        true);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_TRANSFER_PARALLEL_CONNECTIONS_KEY, 3);
+    conf.setLong(DFSConfigKeys.DFS_IMAGE_TRANSFER_PARALLEL_PART_SIZE_KEY, 512);
+    conf.set(DFSConfigKeys.DFS_IMAGE_TRANSFER_PARALLEL_COMPRESSION_CODEC_KEY,
+        DefaultCodec.class.getCanonicalName());
+    conf.set(DFSConfigKeys.DFS_NAMENODE_SECONDARY_HTTP_ADDRESS_KEY,
+        "0.0.0.0:0");
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(0).build();
+    SecondaryNameNode secondary = null;
+    try {
+      FileSystem fs = cluster.getFileSystem();
+      for (int i = 0; i < 200; i++) {
+        assertTrue(fs.mkdirs(new Path("/dir" + i)));
+      }
+      secondary = new SecondaryNameNode(conf);
+      secondary.doCheckpoint();
+
+      long txId = secondary.getFSImage().getStorage()
+          .getMostRecentCheckpointTxId();
+      File secondaryImage = secondary.getFSImage().getStorage()
+          .findImageFile(NameNodeFile.IMAGE, txId);
+      assertTrue("The image should have several parts",
+          secondaryImage.length() > 1024);
+      File image = cluster.getNameNode().getFSImage().getStorage()
+          .findImageFile(NameNodeFile.IMAGE, txId);
+      assertNotNull("The namenode should have the uploaded image", image);
+      assertEquals(MD5FileUtils.computeMd5ForFile(secondaryImage),
+          MD5FileUtils.readStoredMd5ForFile(image));
+      assertNull(cluster.getNameNode().getFSImage().getPartialUploads()
+          .get(txId));
+
+      secondary.shutdown();
+      secondary = null;
+      cluster.restartNameNode();
+      assertTrue(cluster.getFileSystem().exists(new Path("/dir199")));
+    } finally {
+      if (secondary != null) {
+        secondary.shutdown();
+      }
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Test that a partial upload keeps the parts received so far, and rejects
+   * the corrupt ones.
+   */
+  @Test(timeout = 30000)
+  public void testResumePartialImageUpload() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(0).build();
+    try {
+      FSImage image = cluster.getNameNode().getFSImage();
+      PartialImageUpload.Uploads uploads = image.getPartialUploads();
+      final long txId = 1000;
+      byte[] data = new byte[1000];
+      new Random().nextBytes(data);
+      PartialImageUpload upload = uploads.begin(image, NameNodeFile.IMAGE,
+          txId, HdfsConstants.INVALID_TXID, data.length, 400, null);
+      assertEquals(3, upload.getNumParts());
+      assertTrue(upload.getReceivedParts().isEmpty());
+      // the namenode does not save nor receive the image at the same time
+      assertFalse(image.addToCheckpointing(txId));
+
+      upload.receivePart(1, crc(data, 400, 400),
+          new ByteArrayInputStream(data, 400, 400));
+      try {
+        upload.receivePart(2, crc(data, 800, 200) + 1,
+            new ByteArrayInputStream(data, 800, 200));
+        fail("A corrupt part should be rejected");
+      } catch (IOException e) {
+        GenericTestUtils.assertExceptionContains("checksum", e);
+      }
+      try {
+        upload.receivePart(0, crc(data, 0, 400),
+            new ByteArrayInputStream(data, 0, 300));
+        fail("A truncated part should be rejected");
+      } catch (IOException e) {
+        GenericTestUtils.assertExceptionContains("ended after", e);
+      }
+
+      // the same upload is resumed with the parts received so far
+      assertSame(upload, uploads.begin(image, NameNodeFile.IMAGE, txId,
+          HdfsConstants.INVALID_TXID, data.length, 400, null));
+      assertEquals(Collections.singletonList(1), upload.getReceivedParts());
+      assertFalse(upload.isComplete());
+
+      upload.receivePart(0, crc(data, 0, 400),
+          new ByteArrayInputStream(data, 0, 400));
+      upload.receivePart(2, crc(data, 800, 200),
+          new ByteArrayInputStream(data, 800, 200));
+      assertTrue(upload.isComplete());
+      MessageDigest digester = MD5Hash.getDigester();
+      assertEquals(new MD5Hash(digester.digest(data)), upload.commit(null));
+
+      uploads.remove(image, upload);
+      assertNull(uploads.get(txId));
+      assertTrue(image.addToCheckpointing(txId));
+      image.removeFromCheckpointing(txId);
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Test that a part arriving once its upload is aborted or committed is
+   * rejected, and does not create the checkpoint file again.
+   */
+  @Test(timeout = 30000)
+  public void testPartAfterPartialImageUploadEnds() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(0).build();
+    try {
+      FSImage image = cluster.getNameNode().getFSImage();
+      PartialImageUpload.Uploads uploads = image.getPartialUploads();
+      final long txId = 1000;
+      byte[] data = new byte[1000];
+      new Random().nextBytes(data);
+      List<File> ckpts = image.getStorage().getFiles(NameNodeDirType.IMAGE,
+          NNStorage.getCheckpointImageFileName(txId));
+
+      // aborted
+      PartialImageUpload upload = uploads.begin(image, NameNodeFile.IMAGE,
+          txId, HdfsConstants.INVALID_TXID, data.length, 400, null);
+      upload.receivePart(0, crc(data, 0, 400),
+          new ByteArrayInputStream(data, 0, 400));
+      uploads.remove(image, upload);
+      try {
+        upload.receivePart(1, crc(data, 400, 400),
+            new ByteArrayInputStream(data, 400, 400));
+        fail("A part of an aborted upload should be rejected");
+      } catch (IOException e) {
+        GenericTestUtils.assertExceptionContains("aborted", e);
+      }
+      for (File f : ckpts) {
+        assertFalse(f + " should not exist", f.exists());
+      }
+
+      // committed
+      upload = uploads.begin(image, NameNodeFile.IMAGE, txId,
+          HdfsConstants.INVALID_TXID, data.length, 400, null);
+      for (int i = 0; i < 3; i++) {
+        final int length = Math.min(400, data.length - i * 400);
+        upload.receivePart(i, crc(data, i * 400, length),
+            new ByteArrayInputStream(data, i * 400, length));
+      }
+      final MD5Hash digest = upload.commit(null);
+      try {
+        upload.receivePart(1, crc(data, 400, 400),
+            new ByteArrayInputStream(new byte[400]));
+        fail("A part of a committed upload should be rejected");
+      } catch (IOException e) {
+        GenericTestUtils.assertExceptionContains("committed", e);
+      }
+      for (File f : ckpts) {
+        assertEquals(digest, MD5FileUtils.computeMd5ForFile(f));
+      }
+      uploads.remove(image, upload);
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  private static long crc(byte[] data, int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(data, offset, length);
+    return crc.getValue();
+  }
+
   public static class TestImageTransferServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
 
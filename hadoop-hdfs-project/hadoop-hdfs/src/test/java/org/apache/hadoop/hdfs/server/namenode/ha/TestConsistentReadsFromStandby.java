@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_FAILOVER_PROXY_PROVIDER_KEY_PREFIX;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.qjournal.MiniQJMHACluster;
+import org.apache.hadoop.hdfs.server.namenode.NameNodeAdapter;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the reads served by the standby with
+ * {@link ConsistentReadProxyProvider}.
+ */
+public class TestConsistentReadsFromStandby {
+  private MiniQJMHACluster qjmhaCluster;
+  private MiniDFSCluster cluster;
+  private FileSystem fs;
+
+  private void startCluster(String tailPeriod, long maxWaitMs)
+      throws IOException {
+    final Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY, true);
+    conf.set(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, tailPeriod);
+    conf.setInt(DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY, -1);
+    conf.setBoolean(DFSConfigKeys.DFS_HA_STANDBY_CONSISTENT_READS_KEY, true);
+    conf.setLong(DFSConfigKeys.DFS_HA_STANDBY_CONSISTENT_READS_MAX_WAIT_MS_KEY,
+        maxWaitMs);
+    qjmhaCluster = new MiniQJMHACluster.Builder(conf).build();
+    cluster = qjmhaCluster.getDfsCluster();
+    cluster.transitionToActive(0);
+
+    conf.set(DFS_CLIENT_FAILOVER_PROXY_PROVIDER_KEY_PREFIX + "."
+        + MiniQJMHACluster.NAMESERVICE,
+        ConsistentReadProxyProvider.class.getName());
+    fs = FileSystem.newInstance(
+        URI.create("hdfs://" + MiniQJMHACluster.NAMESERVICE), conf);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (fs != null) {
+      fs.close();
+    }
+    if (qjmhaCluster != null) {
+      qjmhaCluster.shutdown();
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testReadYourWritesFromStandby() throws Exception {
+    startCluster("100ms", 10000);
+    for (int i = 0; i < 10; i++) {
+      final Path dir = new Path("/dir" + i);
+      assertTrue(fs.mkdirs(dir));
+      // the standby waits for the mkdirs to be tailed
+      assertTrue(fs.getFileStatus(dir).isDirectory());
+    }
+    assertEquals(10, fs.listStatus(new Path("/")).length);
+
+    // only the standby is left to answer the reads
+    cluster.shutdownNameNode(0);
+    assertTrue(fs.getFileStatus(new Path("/dir9")).isDirectory());
+    assertEquals(10, fs.listStatus(new Path("/")).length);
+  }
+
+  @Test(timeout=60000)
+  public void testReadFromActiveWhenStandbyIsBehind() throws Exception {
+    // the standby does not tail the edits during the test
+    startCluster("1h", 100);
+    final Path dir = new Path("/dir");
+    assertTrue(fs.mkdirs(dir));
+    assertNull(NameNodeAdapter.getFileInfo(cluster.getNameNode(1),
+        dir.toString(), false));
+    // the read of the standby would be stale, it is sent to the active
+    assertTrue(fs.getFileStatus(dir).isDirectory());
+  }
+}
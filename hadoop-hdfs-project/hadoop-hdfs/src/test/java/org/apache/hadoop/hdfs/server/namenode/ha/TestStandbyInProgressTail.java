@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HAUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.qjournal.MiniQJMHACluster;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.NameNodeAdapter;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Tests that the standby reads the edits of the in-progress segment, without
+ * waiting for the active to roll its log.
+ */
+public class TestStandbyInProgressTail {
+  private static final int NUM_DIRS = 10;
+
+  private MiniQJMHACluster qjmhaCluster;
+  private MiniDFSCluster cluster;
+
+  @Before
+  public void setUp() throws Exception {
+    final Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY, true);
+    conf.set(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, "100ms");
+    // the standby must not rely on log rolls to catch up
+    conf.setInt(DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY, -1);
+    HAUtil.setAllowStandbyReads(conf, true);
+    qjmhaCluster = new MiniQJMHACluster.Builder(conf).build();
+    cluster = qjmhaCluster.getDfsCluster();
+    cluster.transitionToActive(0);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (qjmhaCluster != null) {
+      qjmhaCluster.shutdown();
+    }
+  }
+
+  private static Path getDirPath(int i) {
+    return new Path("/dir" + i);
+  }
+
+  private void waitForStandbyToCatchUp() throws Exception {
+    final NameNode active = cluster.getNameNode(0);
+    final NameNode standby = cluster.getNameNode(1);
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return standby.getFSImage().getLastAppliedTxId() ==
+            active.getFSImage().getEditLog().getLastWrittenTxId();
+      }
+    }, 50, 10000);
+  }
+
+  @Test(timeout=60000)
+  public void testStandbyTailsInProgressSegment() throws Exception {
+    final FileSystem fs = cluster.getFileSystem(0);
+    for (int i = 0; i < NUM_DIRS; i++) {
+      assertTrue(fs.mkdirs(getDirPath(i)));
+    }
+    waitForStandbyToCatchUp();
+    for (int i = 0; i < NUM_DIRS; i++) {
+      assertTrue(NameNodeAdapter.getFileInfo(cluster.getNameNode(1),
+          getDirPath(i).toString(), false).isDir());
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testFailoverAfterTailingInProgressSegment() throws Exception {
+    final FileSystem fs = cluster.getFileSystem(0);
+    for (int i = 0; i < NUM_DIRS; i++) {
+      assertTrue(fs.mkdirs(getDirPath(i)));
+    }
+    waitForStandbyToCatchUp();
+
+    cluster.transitionToStandby(0);
+    cluster.transitionToActive(1);
+    final FileSystem fs1 = cluster.getFileSystem(1);
+    for (int i = 0; i < NUM_DIRS; i++) {
+      assertTrue(fs1.exists(getDirPath(i)));
+    }
+    assertTrue(fs1.mkdirs(getDirPath(NUM_DIRS)));
+  }
+}
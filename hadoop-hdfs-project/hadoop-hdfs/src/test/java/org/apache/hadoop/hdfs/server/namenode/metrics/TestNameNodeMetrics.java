@@ -457,6 +457,9 @@ public void testSyncAndBlockReportMetric() throws Exception {
     // Each datanode reports in when the cluster comes up
     assertCounter("BlockReportNumOps",
                   (long)DATANODE_COUNT * cluster.getStoragesPerDatanode(), rb);
+    // and they are all the first reports of their storages
+    assertCounter("FirstBlockReportNumOps",
+                  (long)DATANODE_COUNT * cluster.getStoragesPerDatanode(), rb);
     
     // Sleep for an interval+slop to let the percentiles rollover
     Thread.sleep((PERCENTILES_INTERVAL+1)*1000);
@@ -464,6 +467,7 @@ public void testSyncAndBlockReportMetric() throws Exception {
     // Check that the percentiles were updated
     assertQuantileGauges("Syncs1s", rb);
     assertQuantileGauges("BlockReport1s", rb);
+    assertQuantileGauges("FirstBlockReport1s", rb);
   }
 
   /**
@@ -17,6 +17,8 @@
  */
 package org.apache.hadoop.hdfs.server.namenode.snapshot;
 
+import static org.junit.Assert.assertEquals;
+
 import java.io.IOException;
 import java.util.EnumSet;
 
@@ -29,6 +31,7 @@
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.client.HdfsDataOutputStream.SyncFlag;
 import org.apache.hadoop.hdfs.server.namenode.INodeId;
+import org.apache.hadoop.hdfs.server.namenode.LeaseManager;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.hdfs.server.namenode.NameNodeAdapter;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
@@ -156,6 +159,43 @@ private void doWriteAndAbort(DistributedFileSystem fs, Path path)
     fs.createSnapshot(path, "s1");
   }
 
+  /**
+   * Deleting an open file that is still in a snapshot must release its
+   * lease, even though the inode stays around for the snapshot.
+   */
+  @Test
+  public void testLeaseReleasedOnDeleteUnderSnapshot() throws Exception {
+    Path dir = new Path("/test");
+    fs.mkdirs(dir);
+    fs.allowSnapshot(dir);
+    LeaseManager lm = NameNodeAdapter.getLeaseManager(
+        cluster.getNamesystem());
+
+    FSDataOutputStream out = fs.create(new Path(dir, "file"));
+    out.writeBytes("hello");
+    out.hflush();
+    FSDataOutputStream out2 = fs.create(new Path(dir, "sub/file"));
+    out2.writeBytes("hello");
+    out2.hflush();
+    assertEquals(1, lm.countLease());
+    fs.createSnapshot(dir, "s1");
+
+    // delete the file itself
+    fs.delete(new Path(dir, "file"), false);
+    DFSTestUtil.abortStream((DFSOutputStream) out.getWrappedStream());
+    // and the other file through its parent directory
+    fs.delete(new Path(dir, "sub"), true);
+    DFSTestUtil.abortStream((DFSOutputStream) out2.getWrappedStream());
+    assertEquals(0, lm.countLease());
+
+    // the snapshot copies are still readable
+    DFSTestUtil.readFile(fs, new Path(
+        Snapshot.getSnapshotPath(dir.toString(), "s1/file")));
+    cluster.restartNameNode(true);
+    assertEquals(0, NameNodeAdapter.getLeaseManager(
+        cluster.getNamesystem()).countLease());
+  }
+
   @Test
   public void testOpenFilesWithMultipleSnapshots() throws Exception {
     doTestMultipleSnapshots(true);
@@ -76,7 +76,7 @@ public void testSnapshotLimits() throws Exception {
     // Delete a snapshot to free up a slot.
     //
     sm.deleteSnapshot(iip, "", mock(INode.BlocksMapUpdateInfo.class),
-        new ArrayList<INode>());
+        new ArrayList<INode>(), new ArrayList<Long>());
 
     // Attempt to create a snapshot again. It should still fail due
     // to snapshot ID rollover.
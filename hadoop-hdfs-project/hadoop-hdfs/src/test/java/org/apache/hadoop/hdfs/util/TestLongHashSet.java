@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestLongHashSet {
+
+  @Test
+  public void testRandomOperations() {
+    final LongHashSet set = new LongHashSet();
+    final Set<Long> expected = new HashSet<Long>();
+    final Random random = new Random(0);
+    for (int i = 0; i < 100000; i++) {
+      // a small range of consecutive values, including 0
+      final long value = random.nextInt(2000) - 10;
+      if (random.nextBoolean()) {
+        assertEquals(expected.add(value), set.add(value));
+      } else {
+        assertEquals(expected.remove(value), set.remove(value));
+      }
+      assertEquals(expected.size(), set.size());
+      assertEquals(expected.contains(value), set.contains(value));
+    }
+
+    final long[] values = set.toArray();
+    assertEquals(expected.size(), values.length);
+    for (long v : values) {
+      assertTrue(expected.contains(v));
+    }
+  }
+
+  @Test
+  public void testGrowAndClear() {
+    final LongHashSet set = new LongHashSet(1);
+    assertTrue(set.isEmpty());
+    for (long i = 0; i < 1000; i++) {
+      assertTrue(set.add(i << 20));
+    }
+    assertEquals(1000, set.size());
+    final long[] values = set.toArray();
+    Arrays.sort(values);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals((long) i << 20, values[i]);
+    }
+
+    set.clear();
+    assertTrue(set.isEmpty());
+    assertFalse(set.contains(0));
+    assertFalse(set.contains(1 << 20));
+    assertEquals(0, set.toArray().length);
+  }
+}